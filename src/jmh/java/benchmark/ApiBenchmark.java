@@ -0,0 +1,119 @@
+package benchmark;
+
+import config.AppConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import server.ExecutorMode;
+import server.WebServer;
+import service.UrlShortenerService;
+import service.UserService;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// REST API через loopback с keep-alive: пропускная способность каждого метода
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ApiBenchmark {
+    private UrlShortenerService service;
+    private WebServer webServer;
+    private HttpClient client;
+    private String base;
+    private String owner;
+    private HttpRequest create;
+    private HttpRequest get;
+    private HttpRequest list;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkSupport.silenceStdout();
+        // Ссылки живут дольше замера, а лимит переходов не мешает чтению
+        service = new UrlShortenerService(new UserService(), new AppConfig());
+        UUID userId = service.createUser();
+        owner = userId.toString();
+        for (int i = 0; i < 1000; i++) {
+            service.createLink("https://example.com/seed/" + i, userId);
+        }
+        String shortCode = service.createLink("https://example.com/landing", userId).getShortCode();
+
+        webServer = new WebServer(service, 0, ExecutorMode.POOL, Runtime.getRuntime().availableProcessors() * 2,
+                1024, 1);
+        webServer.start();
+
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        base = "http://127.0.0.1:" + webServer.getPort() + "/api/";
+        create = HttpRequest.newBuilder(URI.create(base + "links")).header("X-User-Id", owner)
+                .POST(HttpRequest.BodyPublishers.ofString("{\"url\": \"https://example.com/articles/42\", \"limit\": 10}"))
+                .build();
+        get = HttpRequest.newBuilder(URI.create(base + "links/" + shortCode)).header("X-User-Id", owner).build();
+        list = HttpRequest.newBuilder(URI.create(base + "users/" + owner + "/links?limit=20")).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        webServer.stop();
+        service.shutdown();
+        BenchmarkSupport.restoreStdout();
+    }
+
+    @Benchmark
+    public String createLink() throws InterruptedException {
+        return send(create);
+    }
+
+    @Benchmark
+    public String getLink() throws InterruptedException {
+        return send(get);
+    }
+
+    @Benchmark
+    public String listLinks() throws InterruptedException {
+        return send(list);
+    }
+
+    // Удаление замеряется в паре с созданием: удалить можно только то, что есть
+    @Benchmark
+    public int createAndDelete() throws InterruptedException {
+        String body = send(create);
+        int start = body.indexOf("\"code\":\"") + 8;
+        if (start < 8) {
+            return -1;
+        }
+        String shortCode = body.substring(start, body.indexOf('"', start));
+        try {
+            return client.send(HttpRequest.newBuilder(URI.create(base + "links/" + shortCode))
+                    .header("X-User-Id", owner).DELETE().build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    // Редкие сбросы keep-alive соединений со стороны HttpServer не должны обрывать весь замер
+    private String send(HttpRequest request) throws InterruptedException {
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+}
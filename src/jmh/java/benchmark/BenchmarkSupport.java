@@ -0,0 +1,49 @@
+package benchmark;
+
+import model.ShortUrl;
+import service.UserService;
+import storage.ShortUrlStore;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+final class BenchmarkSupport {
+    private static final PrintStream ORIGINAL_OUT = System.out;
+
+    private BenchmarkSupport() {
+    }
+
+    // Сервис печатает строку на каждый запрос - в замерах это был бы шум stdout
+    static void silenceStdout() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static void restoreStdout() {
+        System.setOut(ORIGINAL_OUT);
+    }
+
+    // Ссылки раскладываются по владельцам, как у реальных пользователей
+    static String[] fill(UserService userService, ShortUrlStore store,
+                         int count, int users, double expiredShare) {
+        UUID[] owners = new UUID[users];
+        for (int i = 0; i < users; i++) {
+            owners[i] = userService.createUser();
+        }
+        String[] codes = new String[count];
+        LocalDateTime live = LocalDateTime.now().plusDays(1);
+        LocalDateTime expired = LocalDateTime.now().minusMinutes(1);
+        int expiredCount = (int) (count * expiredShare);
+        for (int i = 0; i < count; i++) {
+            UUID owner = owners[i % users];
+            String code = "B" + Integer.toString(i, 36);
+            ShortUrl shortUrl = ShortUrl.create("https://example.com/page/" + i, code, owner,
+                    Integer.MAX_VALUE, i < expiredCount ? expired : live);
+            store.putIfAbsent(shortUrl);
+            userService.getUser(owner).addShortUrl(store.get(code));
+            codes[i] = code;
+        }
+        return codes;
+    }
+}
@@ -0,0 +1,63 @@
+package benchmark;
+
+import config.AppConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import service.UrlShortenerService;
+import service.UserService;
+import storage.ConcurrentShortUrlStore;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CleanupBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Links {
+        @Param({"1000000"})
+        public int size;
+
+        // Доля просроченных ссылок на момент очистки
+        @Param({"0.0", "0.1"})
+        public double expiredShare;
+
+        UrlShortenerService service;
+
+        // Каждый замер очищает заново заполненное хранилище
+        @Setup(Level.Invocation)
+        public void setUp() {
+            BenchmarkSupport.silenceStdout();
+            UserService userService = new UserService();
+            ConcurrentShortUrlStore store = new ConcurrentShortUrlStore(size * 2);
+            service = new UrlShortenerService(userService, new AppConfig(), store);
+            BenchmarkSupport.fill(userService, store, size, 10_000, expiredShare);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            service.shutdown();
+            service = null;
+            BenchmarkSupport.restoreStdout();
+        }
+    }
+
+    @Benchmark
+    public int cleanUpExpiredUrls(Links links) {
+        return links.service.cleanUpExpiredUrls();
+    }
+}
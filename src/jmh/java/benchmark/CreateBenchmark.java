@@ -0,0 +1,62 @@
+package benchmark;
+
+import config.AppConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import service.UrlShortenerService;
+import service.UserService;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CreateBenchmark {
+    private UrlShortenerService service;
+    private UUID[] users;
+    private String[] urls;
+
+    // Новый сервис на каждую итерацию, чтобы хранилище не разрасталось от итерации к итерации
+    @Setup(Level.Iteration)
+    public void setUp() {
+        BenchmarkSupport.silenceStdout();
+        UserService userService = new UserService();
+        service = new UrlShortenerService(userService, new AppConfig());
+        users = new UUID[64];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = userService.createUser();
+        }
+        urls = new String[1024];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = "https://example.com/articles/" + i + "?utm_source=newsletter&utm_campaign=" + i % 7;
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        service.shutdown();
+        BenchmarkSupport.restoreStdout();
+    }
+
+    @Benchmark
+    public String createShortUrlWithCustomLimit() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return service.createShortUrlWithCustomLimit(urls[random.nextInt(urls.length)],
+                users[random.nextInt(users.length)], 100);
+    }
+}
@@ -0,0 +1,72 @@
+package benchmark;
+
+import log.EventLog;
+import log.EventType;
+import log.LogLevel;
+import log.OverflowPolicy;
+import model.ShortUrl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Строка на каждый переход: синхронизированный PrintStream против кольца EventLog.
+// Вывод уходит в пустой поток, поэтому меряется только цена логирования для потока запроса
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class EventLogBenchmark {
+    @Param({"drop", "block"})
+    public String overflow;
+
+    private PrintStream stdout;
+    private EventLog eventLog;
+    private ShortUrl shortUrl;
+
+    @Setup
+    public void setUp() {
+        stdout = new PrintStream(OutputStream.nullOutputStream());
+        Map<EventType, LogLevel> levels = new EnumMap<>(EventType.class);
+        levels.put(EventType.REDIRECT, LogLevel.INFO);
+        eventLog = new EventLog(8192, OverflowPolicy.fromConfig(overflow), levels, 10, () -> stdout);
+        shortUrl = ShortUrl.create("https://example.com/page/1", "B1", UUID.randomUUID(),
+                Integer.MAX_VALUE, LocalDateTime.now().plusDays(1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventLog.close();
+    }
+
+    @Benchmark
+    public void println() {
+        stdout.println("🔗 Переход по ссылке: " + shortUrl.getShortCode() + " → " + shortUrl.getOriginalUrl() +
+                " (переходы: " + shortUrl.getClickCount() + "/" + shortUrl.getClickLimit() + ")");
+    }
+
+    @Benchmark
+    public void eventLog() {
+        eventLog.redirected(shortUrl, "FOUND");
+    }
+}
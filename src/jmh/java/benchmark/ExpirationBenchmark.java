@@ -0,0 +1,77 @@
+package benchmark;
+
+import model.ShortUrl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import storage.ConcurrentShortUrlStore;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Стоимость одного тика очистки в зависимости от размера карты: индекс против полного обхода
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class ExpirationBenchmark {
+    @Param({"100000", "1000000"})
+    public int size;
+
+    // Сколько ссылок истекает к моменту тика
+    @Param({"1000"})
+    public int due;
+
+    private ConcurrentShortUrlStore store;
+    private UUID owner;
+    private int round;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        store = new ConcurrentShortUrlStore(size * 2);
+        owner = UUID.randomUUID();
+        LocalDateTime live = LocalDateTime.now().plusDays(1);
+        for (int i = 0; i < size; i++) {
+            store.putIfAbsent(ShortUrl.create("https://example.com/" + i, "L" + i, owner, 100, live));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void addDueLinks() {
+        LocalDateTime expired = LocalDateTime.now().minusSeconds(1);
+        round++;
+        for (int i = 0; i < due; i++) {
+            store.putIfAbsent(ShortUrl.create("https://example.com/due/" + i, "D" + round + "_" + i, owner, 100,
+                    expired));
+        }
+    }
+
+    @Benchmark
+    public int indexedTick() {
+        return store.evictExpired(System.currentTimeMillis(), Integer.MAX_VALUE, shortUrl -> { });
+    }
+
+    // Прежний подход: обход всех ссылок с проверкой isExpired()
+    @Benchmark
+    public int fullScanTick() {
+        int[] removed = new int[1];
+        store.forEach(shortUrl -> {
+            if (shortUrl.isExpired() && store.remove(shortUrl)) {
+                removed[0]++;
+            }
+        });
+        return removed[0];
+    }
+}
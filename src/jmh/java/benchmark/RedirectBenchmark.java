@@ -0,0 +1,130 @@
+package benchmark;
+
+import config.AppConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import log.EventLog;
+import log.EventType;
+import log.OverflowPolicy;
+import model.ShortUrl;
+import service.RedirectStatus;
+import service.ShortCodeGenerator;
+import service.UrlShortenerService;
+import service.UserService;
+import storage.CompactShortUrlStore;
+import storage.ConcurrentShortUrlStore;
+import storage.ShortUrlStore;
+
+import java.net.InetAddress;
+import java.util.EnumMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedirectBenchmark {
+    @Param({"100000"})
+    public int links;
+
+    @Param({"heap", "compact"})
+    public String engine;
+
+    private UrlShortenerService service;
+    private String[] codes;
+    private String[] missingCodes;
+    // Пути запросов, как их видит RedirectHandler
+    private String[] paths;
+    private String[] missingPaths;
+    private InetAddress client;
+
+    @Setup
+    public void setUp() {
+        BenchmarkSupport.silenceStdout();
+        UserService userService = new UserService();
+        ShortUrlStore store = "compact".equals(engine)
+                ? new CompactShortUrlStore(links * 2)
+                : new ConcurrentShortUrlStore(links * 2);
+        // Журнал переходов выключен: его писатель делил бы CPU с замеряемым потоком
+        AppConfig config = new AppConfig();
+        EventLog events = new EventLog(1024, OverflowPolicy.DROP, new EnumMap<>(EventType.class), 10, () -> System.out);
+        service = new UrlShortenerService(userService, config, store, ShortCodeGenerator.fromConfig(config, store), events);
+        codes = BenchmarkSupport.fill(userService, store, links, 1000, 0);
+        missingCodes = new String[1024];
+        for (int i = 0; i < missingCodes.length; i++) {
+            missingCodes[i] = "Z" + Integer.toString(ThreadLocalRandom.current().nextInt(1 << 30), 36);
+        }
+        paths = new String[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            paths[i] = "/" + codes[i];
+        }
+        client = InetAddress.getLoopbackAddress();
+        missingPaths = new String[missingCodes.length];
+        for (int i = 0; i < missingCodes.length; i++) {
+            missingPaths[i] = "/" + missingCodes[i];
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.shutdown();
+        BenchmarkSupport.restoreStdout();
+    }
+
+    @Benchmark
+    public String redirectHit() {
+        return service.redirect(codes[ThreadLocalRandom.current().nextInt(codes.length)]);
+    }
+
+    @Benchmark
+    public Object redirectMiss() {
+        try {
+            return service.redirect(missingCodes[ThreadLocalRandom.current().nextInt(missingCodes.length)]);
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    // Путь RedirectHandler: без substring, исключений и логирования; B/op смотреть через -prof gc
+    @Benchmark
+    public Object fastPathHit() {
+        return fastPath(paths[ThreadLocalRandom.current().nextInt(paths.length)]);
+    }
+
+    @Benchmark
+    public Object fastPathMiss() {
+        return fastPath(missingPaths[ThreadLocalRandom.current().nextInt(missingPaths.length)]);
+    }
+
+    // То же плюс публикация перехода в аналитику, как делает RedirectHandler
+    @Benchmark
+    public Object fastPathHitWithAnalytics() {
+        String path = paths[ThreadLocalRandom.current().nextInt(paths.length)];
+        ShortUrl shortUrl = service.findShortUrl(path, 1, path.length());
+        RedirectStatus status = service.registerRedirect(shortUrl);
+        if (status != RedirectStatus.FOUND) {
+            return status;
+        }
+        service.publishClick(shortUrl, "https://example.org/", "curl/8.0", client);
+        return shortUrl.getOriginalUrl();
+    }
+
+    private Object fastPath(String path) {
+        ShortUrl shortUrl = service.findShortUrl(path, 1, path.length());
+        RedirectStatus status = service.registerRedirect(shortUrl);
+        return status == RedirectStatus.FOUND ? shortUrl.getOriginalUrl() : status;
+    }
+}
@@ -0,0 +1,57 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.UrlValidator;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlValidatorBenchmark {
+    @Param({
+            "https://www.example.com/articles/2024/10/some-long-slug?utm_source=newsletter&utm_medium=email",
+            "http://localhost:8080/ABC123",
+            "HTTPS://Example.COM:443/Path#top",
+            "http://[2001:db8::1]:8080/x",
+            "not-a-url",
+            "htp//broken.example.com",
+            "file:///etc/passwd"
+    })
+    public String url;
+
+    @Benchmark
+    public boolean isValidUrl() {
+        return UrlValidator.isValidUrl(url);
+    }
+
+    // Прежняя проверка через java.net.URL - для сравнения
+    @Benchmark
+    public boolean legacyIsValidUrl() {
+        try {
+            new URL(url);
+            return true;
+        } catch (MalformedURLException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public String normalize() {
+        return UrlValidator.normalize(url);
+    }
+}
@@ -0,0 +1,96 @@
+package benchmark;
+
+import config.AppConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import server.ExecutorMode;
+import server.WebServer;
+import service.UrlShortenerService;
+import service.UserService;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Полный цикл RedirectHandler через loopback, соединения переиспользуются (keep-alive)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class WebServerBenchmark {
+    @Param({"SINGLE", "POOL"})
+    public String executorMode;
+
+    private UrlShortenerService service;
+    private WebServer webServer;
+    private HttpClient client;
+    private HttpRequest hit;
+    private HttpRequest miss;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkSupport.silenceStdout();
+        UserService userService = new UserService();
+        UUID userId = userService.createUser();
+        service = new UrlShortenerService(userService, new AppConfig());
+        String shortUrl = service.createShortUrlWithCustomLimit("https://example.com/landing", userId,
+                Integer.MAX_VALUE);
+        String shortCode = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+
+        webServer = new WebServer(service, 0, ExecutorMode.fromConfig(executorMode),
+                Runtime.getRuntime().availableProcessors() * 2, 1024, 1);
+        webServer.start();
+
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        String base = "http://127.0.0.1:" + webServer.getPort() + "/";
+        hit = HttpRequest.newBuilder(URI.create(base + shortCode)).GET().build();
+        miss = HttpRequest.newBuilder(URI.create(base + "missing1")).GET().build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        webServer.stop();
+        service.shutdown();
+        BenchmarkSupport.restoreStdout();
+    }
+
+    @Benchmark
+    public int redirectHit() throws InterruptedException {
+        return send(hit);
+    }
+
+    @Benchmark
+    public int redirectMiss() throws InterruptedException {
+        return send(miss);
+    }
+
+    // Редкие сбросы keep-alive соединений со стороны HttpServer не должны обрывать весь замер
+    private int send(HttpRequest request) throws InterruptedException {
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
@@ -1,7 +1,13 @@
 import config.AppConfig;
+import model.ShortUrl;
+import server.NioRedirectServer;
 import server.WebServer;
 import service.UrlShortenerService;
 import service.UserService;
+import storage.CachingShortUrlStore;
+import storage.FilteredShortUrlStore;
+import storage.PersistentShortUrlStore;
+import storage.ShortUrlStore;
 
 import java.awt.*;
 import java.net.URI;
@@ -12,6 +18,10 @@ public class Main {
     private static UrlShortenerService urlShortenerService;
     private static UserService userService;
     private static WebServer webServer;
+    private static NioRedirectServer redirectServer;
+    private static PersistentShortUrlStore persistentStore;
+    private static CachingShortUrlStore cache;
+    private static FilteredShortUrlStore codeFilter;
     private static UUID currentUserId;
     private static final int SERVER_PORT = 8080;
     private static final Scanner scanner = new Scanner(System.in);
@@ -46,6 +56,9 @@ public class Main {
                         case "6":
                             showUserInfo();
                             break;
+                        case "7":
+                            showCacheStats();
+                            break;
                         case "0":
                             running = false;
                             break;
@@ -70,10 +83,29 @@ public class Main {
         AppConfig config = new AppConfig();
 
         userService = new UserService();
+        ShortUrlStore store;
+        if (config.isStorageEnabled()) {
+            persistentStore = PersistentShortUrlStore.open(config, userService);
+            store = CachingShortUrlStore.fromConfig(config, persistentStore);
+            if (store instanceof CachingShortUrlStore) {
+                cache = (CachingShortUrlStore) store;
+            }
+        } else {
+            store = ShortUrlStore.inMemory(config, 1024);
+        }
+        // Фильтр - самый внешний слой: неизвестный код не тратит даже поиск в кэше
+        store = FilteredShortUrlStore.fromConfig(config, store);
+        if (store instanceof FilteredShortUrlStore) {
+            codeFilter = (FilteredShortUrlStore) store;
+        }
         currentUserId = userService.createUser();
-        urlShortenerService = new UrlShortenerService(userService, config);
-        webServer = new WebServer(urlShortenerService, config.getServerPort());
+        urlShortenerService = new UrlShortenerService(userService, config, store);
+        webServer = new WebServer(urlShortenerService, config);
         webServer.start();
+        redirectServer = NioRedirectServer.fromConfig(urlShortenerService, config, null);
+        if (redirectServer != null) {
+            redirectServer.start();
+        }
     }
 
     private static void showWelcomeMessage() {
@@ -95,6 +127,7 @@ public class Main {
         System.out.println("4. Показать статистику ссылки");
         System.out.println("5. Удалить короткую ссылку");
         System.out.println("6. Показать информацию о пользователе");
+        System.out.println("7. Показать статистику кэша и фильтра ссылок");
         System.out.println("0. Выход");
         System.out.print("➡️  Ваш выбор: ");
     }
@@ -117,19 +150,22 @@ public class Main {
         System.out.print("🔗 Введите длинный URL для сокращения: ");
         String longUrl = scanner.nextLine();
 
-        System.out.print("🔢 Введите лимит переходов: ");
+        System.out.print("🔢 Введите лимит переходов (0 - без ограничения): ");
         try {
             int clickLimit = Integer.parseInt(scanner.nextLine());
 
-            if (clickLimit <= 0) {
-                System.out.println("❌ Лимит должен быть положительным числом");
+            if (clickLimit < 0) {
+                System.out.println("❌ Лимит должен быть положительным числом или 0");
                 return;
             }
+            if (clickLimit == 0) {
+                clickLimit = ShortUrl.UNLIMITED;
+            }
 
             String shortUrl = urlShortenerService.createShortUrlWithCustomLimit(longUrl, currentUserId, clickLimit);
             System.out.println("✅ Короткая ссылка создана: " + shortUrl);
             System.out.println("⏰ Ссылка действительна 24 часа");
-            System.out.println("🔢 Лимит переходов: " + clickLimit);
+            System.out.println("🔢 Лимит переходов: " + (clickLimit == ShortUrl.UNLIMITED ? "без ограничения" : clickLimit));
         } catch (NumberFormatException e) {
             System.out.println("❌ Неверный формат числа");
         } catch (Exception e) {
@@ -188,12 +224,39 @@ public class Main {
         System.out.println("💡 Сохраните этот ID для доступа к вашим ссылкам из разных сессий");
     }
 
+    private static void showCacheStats() {
+        if (codeFilter != null) {
+            System.out.printf("🧩 Фильтр кодов: %d отпечатков, %d КБ; отсечено запросов %d, ложных срабатываний %d%n",
+                    codeFilter.getFingerprintCount(), codeFilter.getFilterBytes() / 1024,
+                    codeFilter.getRejectedCount(), codeFilter.getFalsePositiveCount());
+        }
+        if (cache == null) {
+            System.out.println("💤 Кэш ссылок выключен (нужны storage.enabled=true и cache.max.mb > 0)");
+            return;
+        }
+        System.out.printf("🗃 Кэш ссылок: %d ссылок, %.1f из %d МБ%n", cache.getEntryCount(),
+                cache.getWeightedBytes() / (1024.0 * 1024), cache.getMaxBytes() / (1024 * 1024));
+        System.out.printf("🎯 Доля попаданий: %.1f%% (попаданий %d, известных отсутствующих %d, промахов %d)%n",
+                cache.getHitRatio() * 100, cache.getHitCount(), cache.getNegativeHitCount(), cache.getMissCount());
+        System.out.println("🧹 Вытеснено: " + cache.getEvictionCount());
+    }
+
     private static void shutdownServices() {
+        if (redirectServer != null) {
+            redirectServer.stop();
+        }
         if (webServer != null) {
             webServer.stop();
         }
         if (urlShortenerService != null) {
             urlShortenerService.shutdown();
         }
+        if (persistentStore != null) {
+            try {
+                persistentStore.close();
+            } catch (Exception e) {
+                System.err.println("❌ Не удалось корректно закрыть хранилище: " + e.getMessage());
+            }
+        }
     }
 }
\ No newline at end of file
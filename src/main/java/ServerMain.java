@@ -0,0 +1,100 @@
+import cluster.Cluster;
+import cluster.ClusterNode;
+import cluster.Rebalancer;
+import cluster.ShardedShortCodeGenerator;
+import config.AppConfig;
+import server.NioRedirectServer;
+import server.WebServer;
+import service.ShortCodeGenerator;
+import service.UrlShortenerService;
+import service.UserService;
+import storage.CachingShortUrlStore;
+import storage.FilteredShortUrlStore;
+import storage.PersistentShortUrlStore;
+import storage.PrimaryShortUrlStore;
+import storage.ReplicaShortUrlStore;
+import storage.ReplicationStatus;
+import storage.ShortUrlStore;
+
+import java.io.Closeable;
+import java.util.concurrent.CountDownLatch;
+
+// Узел без консольного меню - для запуска нескольких процессов кластера, у каждого свой каталог данных:
+//   java -Dcluster.node.id=a -Dserver.port=8081 -Dstorage.directory=data-a \
+//        -Dcluster.nodes=a=http://127.0.0.1:8081,b=http://127.0.0.1:8082 ServerMain
+// Реплика только для чтения: -Dreplication.role=replica -Dreplication.primary=127.0.0.1:9090,
+// основной узел: -Dreplication.role=primary -Dreplication.port=9090; обоим нужен один -Dreplication.token=...
+// Перебалансировка при добавлении узла (новый узел уже запущен с новым составом):
+//   java -Dcluster.token=... ServerMain rebalance <старый состав> <новый состав>
+public class ServerMain {
+    public static void main(String[] args) throws Exception {
+        AppConfig config = new AppConfig();
+        if (args.length > 0 && args[0].equals("rebalance")) {
+            if (args.length != 3) {
+                System.err.println("❌ Использование: ServerMain rebalance <старый состав> <новый состав>");
+                System.exit(2);
+            }
+            int moved = new Rebalancer(config.getClusterToken()).rebalance(ClusterNode.parseList(args[1]),
+                    ClusterNode.parseList(args[2]), config.getClusterVirtualNodes());
+            System.out.println("✅ Перебалансировка завершена, перенесено ссылок: " + moved);
+            return;
+        }
+
+        UserService userService = new UserService();
+        PersistentShortUrlStore persistentStore = null;
+        // Реплика не пишет на диск: при запуске она получает снимок с основного узла
+        ShortUrlStore store = ReplicaShortUrlStore.fromConfig(config,
+                () -> FilteredShortUrlStore.fromConfig(config, ShortUrlStore.inMemory(config, 1024)));
+        if (store == null) {
+            if (config.isStorageEnabled()) {
+                persistentStore = PersistentShortUrlStore.open(config, userService);
+                store = CachingShortUrlStore.fromConfig(config, persistentStore);
+            } else {
+                store = ShortUrlStore.inMemory(config, 1024);
+            }
+            store = FilteredShortUrlStore.fromConfig(config, store);
+            store = PrimaryShortUrlStore.fromConfig(config, store);
+        }
+        ReplicationStatus replication = store instanceof ReplicationStatus ? (ReplicationStatus) store : null;
+
+        Cluster cluster = Cluster.fromConfig(config);
+        ShortCodeGenerator codeGenerator = ShortCodeGenerator.fromConfig(config, store);
+        if (cluster != null) {
+            codeGenerator = new ShardedShortCodeGenerator(codeGenerator, cluster);
+        }
+        UrlShortenerService service = new UrlShortenerService(userService, config, store, codeGenerator);
+        WebServer webServer = new WebServer(service, config, cluster, replication);
+        webServer.start();
+        NioRedirectServer redirectServer = NioRedirectServer.fromConfig(service, config, cluster);
+        if (redirectServer != null) {
+            redirectServer.start();
+        }
+
+        PersistentShortUrlStore storeToClose = persistentStore;
+        ShortUrlStore replicatedStore = store;
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (redirectServer != null) {
+                redirectServer.stop();
+            }
+            webServer.stop();
+            service.shutdown();
+            try {
+                if (replicatedStore instanceof Closeable) {
+                    ((Closeable) replicatedStore).close();
+                }
+                if (storeToClose != null) {
+                    storeToClose.close();
+                }
+            } catch (Exception e) {
+                System.err.println("❌ Не удалось корректно закрыть хранилище: " + e.getMessage());
+            }
+            stopped.countDown();
+        }));
+        // Строку готовности ждут скрипты и тесты, запускающие узлы
+        System.out.println("✅ Узел " + (cluster != null ? cluster.getSelfId() + " " : "")
+                + (replication != null ? "(" + replication.getRole() + ") " : "")
+                + "готов на порту " + (redirectServer != null ? redirectServer.getPort() : webServer.getPort()));
+        stopped.await();
+    }
+}
@@ -0,0 +1,1004 @@
+import config.AppConfig;
+import log.EventLog;
+import log.OverflowPolicy;
+import metrics.LatencyHistogram;
+import model.ShortUrl;
+import model.User;
+import ratelimit.RateLimiter;
+import ratelimit.TokenBucketTable;
+import server.ExecutorMode;
+import server.NioRedirectServer;
+import server.WebServer;
+import service.BulkLinkRequest;
+import service.CounterShortCodeGenerator;
+import service.RandomShortCodeGenerator;
+import service.ShortCodeGenerator;
+import service.UrlShortenerService;
+import service.UserService;
+import storage.CachingShortUrlStore;
+import storage.FilteredShortUrlStore;
+import storage.CompactShortUrlStore;
+import storage.ConcurrentShortUrlStore;
+import storage.PersistentShortUrlStore;
+import storage.ShortUrlStore;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+public class SimpleBenchmarks {
+    private static final int CLIENT_THREADS = 32;
+    private static final long WARMUP_MILLIS = 2_000;
+    private static final long MEASURE_MILLIS = 5_000;
+
+    // Не даёт JIT выбросить результат замеряемого кода
+    private static volatile int blackhole;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("🚀 ПРОСТЫЕ БЕНЧМАРКИ URL SHORTENER\n");
+
+        benchmarkShortCodeGenerators();
+        benchmarkExecutorModes();
+        benchmarkRecovery();
+        benchmarkMemoryFootprint();
+        benchmarkUserIndex();
+        benchmarkBulkCreate();
+        benchmarkZipfCache();
+        benchmarkCodeFilter();
+        benchmarkRateLimiter();
+        benchmarkMetricsOverhead();
+        benchmarkNioFrontend();
+        benchmarkDedup();
+        benchmarkUrlStorage();
+
+        System.out.println("\n🏁 БЕНЧМАРКИ ЗАВЕРШЕНЫ!");
+    }
+
+    public static void benchmarkExecutorModes() throws Exception {
+        System.out.println("\n=== НАГРУЗКА НА РЕДИРЕКТЫ ПО РЕЖИМАМ ИСПОЛНИТЕЛЯ ===");
+        System.out.println("Клиентских потоков: " + CLIENT_THREADS);
+
+        for (ExecutorMode mode : ExecutorMode.values()) {
+            UserService userService = new UserService();
+            UUID userId = userService.createUser();
+            UrlShortenerService service = new UrlShortenerService(userService, new AppConfig());
+            String shortUrl = service.createShortUrlWithCustomLimit("https://example.com", userId, Integer.MAX_VALUE);
+            String shortCode = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+
+            int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+            WebServer webServer = new WebServer(service, 0, mode, poolSize, 1024, 1);
+            webServer.start();
+
+            // Логирование каждого редиректа в stdout исказило бы замер
+            PrintStream originalOut = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            double requestsPerSecond;
+            try {
+                URL target = new URL("http://localhost:" + webServer.getPort() + "/" + shortCode);
+                runLoad(target, WARMUP_MILLIS);
+                requestsPerSecond = runLoad(target, MEASURE_MILLIS) * 1000.0 / MEASURE_MILLIS;
+            } finally {
+                System.setOut(originalOut);
+                long stopStarted = System.nanoTime();
+                webServer.stop();
+                System.out.printf("   остановка: %d мс%n", (System.nanoTime() - stopStarted) / 1_000_000);
+                service.shutdown();
+            }
+            System.out.printf("📊 %-8s %,12.0f запросов/с%n", mode, requestsPerSecond);
+        }
+    }
+
+    public static void benchmarkShortCodeGenerators() throws Exception {
+        System.out.println("\n=== ГЕНЕРАЦИЯ КОРОТКИХ КОДОВ ===");
+
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int[] threadCounts = maxThreads > 1 ? new int[]{1, maxThreads} : new int[]{1};
+        for (int threads : threadCounts) {
+            ShortCodeGenerator counter = new CounterShortCodeGenerator(6);
+            ShortCodeGenerator random = new RandomShortCodeGenerator(6, new ConcurrentShortUrlStore());
+            measureCodes("counter", counter, threads);
+            measureCodes("random", random, threads);
+        }
+    }
+
+    private static void measureCodes(String name, ShortCodeGenerator generator, int threads) throws InterruptedException {
+        runGenerator(generator, threads, WARMUP_MILLIS);
+        long generated = runGenerator(generator, threads, MEASURE_MILLIS);
+        double perThread = generated * 1000.0 / MEASURE_MILLIS / threads;
+        System.out.printf("📊 %-8s потоков: %2d  %,14.0f кодов/с на поток%n", name, threads, perThread);
+    }
+
+    private static long runGenerator(ShortCodeGenerator generator, int threads, long durationMillis)
+            throws InterruptedException {
+        AtomicLong generated = new AtomicLong();
+        long deadline = System.currentTimeMillis() + durationMillis;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                long count = 0;
+                int sink = 0;
+                while (System.currentTimeMillis() < deadline) {
+                    for (int j = 0; j < 1000; j++) {
+                        sink += generator.nextCode().length();
+                    }
+                    count += 1000;
+                }
+                blackhole = sink;
+                generated.addAndGet(count);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return generated.get();
+    }
+
+    public static void benchmarkRecovery() throws Exception {
+        System.out.println("\n=== ЖУРНАЛ И ВОССТАНОВЛЕНИЕ ===");
+
+        // Размер задаётся -Dbench.recovery.links=10000000
+        int links = Integer.getInteger("bench.recovery.links", 1_000_000);
+        int writers = 64;
+        Path directory = Files.createTempDirectory("url-shortener-bench");
+        PrintStream originalOut = System.out;
+        try {
+            PersistentShortUrlStore store = PersistentShortUrlStore.open(directory, new UserService(), 64 << 20, 2);
+            AtomicInteger next = new AtomicInteger();
+            LocalDateTime expiresAt = LocalDateTime.now().plusDays(1);
+            List<Thread> workers = new ArrayList<>();
+            long started = System.nanoTime();
+            for (int t = 0; t < writers; t++) {
+                UUID userId = UUID.randomUUID();
+                Thread worker = new Thread(() -> {
+                    int i;
+                    while ((i = next.getAndIncrement()) < links) {
+                        store.putIfAbsent(ShortUrl.create("https://example.com/articles/" + i + "?utm_source=bench",
+                                "R" + Integer.toString(i, 36), userId, 100, expiresAt));
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double createSeconds = (System.nanoTime() - started) / 1e9;
+            System.out.printf("📊 создание с групповым fsync (%d потоков): %,.0f ссылок/с%n",
+                    writers, links / createSeconds);
+            store.close();
+
+            // Вывод open() перехватывается: в нём время снимка, журнала и индексов пользователей по отдельности
+            ByteArrayOutputStream replayLog = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(replayLog, true, StandardCharsets.UTF_8));
+            started = System.nanoTime();
+            PersistentShortUrlStore replayed = PersistentShortUrlStore.open(directory, new UserService(), 64 << 20, 2);
+            double replaySeconds = (System.nanoTime() - started) / 1e9;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            replayed.snapshot();
+            replayed.close();
+
+            ByteArrayOutputStream snapshotLog = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(snapshotLog, true, StandardCharsets.UTF_8));
+            started = System.nanoTime();
+            PersistentShortUrlStore fromSnapshot = PersistentShortUrlStore.open(directory, new UserService(),
+                    64 << 20, 2);
+            double snapshotSeconds = (System.nanoTime() - started) / 1e9;
+            fromSnapshot.close();
+            System.setOut(originalOut);
+
+            System.out.printf("📊 восстановление %,d ссылок только из журнала: %.2f с%n   %s", links, replaySeconds,
+                    replayLog.toString(StandardCharsets.UTF_8));
+            System.out.printf("📊 восстановление %,d ссылок из снимка: %.2f с%n   %s", links, snapshotSeconds,
+                    snapshotLog.toString(StandardCharsets.UTF_8));
+        } finally {
+            System.setOut(originalOut);
+            try (var paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    public static void benchmarkMemoryFootprint() {
+        System.out.println("\n=== ПАМЯТЬ НА ССЫЛКУ ===");
+
+        // -Dbench.memory.links=10000000 -Dbench.memory.engines=compact; куча heap-движка на 10M не влезает в 5 ГБ
+        int links = Integer.getInteger("bench.memory.links", 1_000_000);
+        String[] engines = System.getProperty("bench.memory.engines", "heap,compact").split(",");
+        for (String engine : engines) {
+            long[] before = usedMemory();
+            ShortUrlStore store = "compact".equals(engine)
+                    ? new CompactShortUrlStore(links)
+                    : new ConcurrentShortUrlStore(links);
+            ShortCodeGenerator codes = new CounterShortCodeGenerator(6);
+            UUID[] owners = new UUID[1000];
+            for (int i = 0; i < owners.length; i++) {
+                owners[i] = UUID.randomUUID();
+            }
+            for (int i = 0; i < links; i++) {
+                store.putIfAbsent(ShortUrl.create("https://example.com/articles/" + i + "?utm_source=bench",
+                        codes.nextCode(), owners[i % owners.length], 100, LocalDateTime.now().plusDays(1)));
+            }
+            long[] after = usedMemory();
+            long heap = after[0] - before[0];
+            long offHeap = after[1] - before[1];
+            System.out.printf("📊 %-8s %,d ссылок: %,.0f байт на ссылку (куча %,.0f + вне кучи %,.0f)%n",
+                    engine, store.size(), (heap + offHeap) / (double) links, heap / (double) links,
+                    offHeap / (double) links);
+        }
+    }
+
+    public static void benchmarkUserIndex() {
+        System.out.println("\n=== ИНДЕКС ССЫЛОК ПОЛЬЗОВАТЕЛЯ ===");
+
+        int links = Integer.getInteger("bench.user.links", 1_000_000);
+        int pageSize = 100;
+        User user = new User();
+        List<ShortUrl> shortUrls = new ArrayList<>(links);
+        LocalDateTime expiresAt = LocalDateTime.now().plusDays(1);
+        for (int i = 0; i < links; i++) {
+            ShortUrl shortUrl = ShortUrl.create("https://example.com/" + i, "U" + Integer.toString(i, 36),
+                    user.getId(), 100, expiresAt);
+            shortUrls.add(shortUrl);
+            user.addShortUrl(shortUrl);
+        }
+
+        long started = System.nanoTime();
+        int listed = 0;
+        User.Position after = null;
+        List<ShortUrl> page;
+        while (!(page = user.getShortUrlsPage(after, pageSize)).isEmpty()) {
+            listed += page.size();
+            after = User.Position.of(page.get(page.size() - 1));
+        }
+        double listMillis = (System.nanoTime() - started) / 1e6;
+        System.out.printf("📊 обход %,d ссылок страницами по %d: %.0f мс (%.1f мкс на страницу)%n",
+                listed, pageSize, listMillis, listMillis * 1000 / (listed / (double) pageSize));
+
+        // Прежнее хранение - список с removeIf: каждое удаление просматривает весь список
+        List<ShortUrl> legacy = Collections.synchronizedList(new ArrayList<>(shortUrls));
+        int legacyDeletes = 1000;
+        started = System.nanoTime();
+        for (int i = 0; i < legacyDeletes; i++) {
+            UUID id = shortUrls.get(links - 1 - i).getId();
+            legacy.removeIf(url -> url.getId().equals(id));
+        }
+        double legacyMicros = (System.nanoTime() - started) / 1e3 / legacyDeletes;
+
+        Collections.shuffle(shortUrls);
+        started = System.nanoTime();
+        for (ShortUrl shortUrl : shortUrls) {
+            user.removeShortUrl(shortUrl.getId());
+        }
+        double deleteMicros = (System.nanoTime() - started) / 1e3 / links;
+        System.out.printf("📊 удаление всех %,d ссылок в случайном порядке: %.2f мкс на ссылку (осталось %d)%n",
+                links, deleteMicros, user.getLinkCount());
+        System.out.printf("📊 для сравнения, список с removeIf: %.0f мкс на удаление%n", legacyMicros);
+    }
+
+    public static void benchmarkDedup() {
+        System.out.println("\n=== ДЕДУПЛИКАЦИЯ ССЫЛОК ===");
+
+        // Каждый URL отправляется bench.dedup.repeats раз, как при повторных отправках формы и ретраях клиентов
+        int urls = Integer.getInteger("bench.dedup.urls", 200_000);
+        int repeats = Integer.getInteger("bench.dedup.repeats", 3);
+        UUID[] owners = new UUID[1000];
+        for (boolean enabled : new boolean[]{false, true}) {
+            System.setProperty("dedup.enabled", String.valueOf(enabled));
+            try {
+                AppConfig config = new AppConfig();
+                UserService userService = new UserService();
+                for (int i = 0; i < owners.length; i++) {
+                    owners[i] = userService.createUser();
+                }
+                long[] before = usedMemory();
+                ShortUrlStore store = new CompactShortUrlStore(urls * repeats);
+                UrlShortenerService service = new UrlShortenerService(userService, config, store,
+                        ShortCodeGenerator.fromConfig(config, store), quietEvents());
+                long started = System.nanoTime();
+                for (int round = 0; round < repeats; round++) {
+                    for (int i = 0; i < urls; i++) {
+                        // Вторая и следующие отправки отличаются регистром хоста и портом по умолчанию
+                        String host = round == 0 ? "example.com" : "Example.COM:443";
+                        blackhole += service.createShortUrl("https://" + host + "/articles/" + i + "?utm_source=bench",
+                                owners[i % owners.length]).length();
+                    }
+                }
+                double seconds = (System.nanoTime() - started) / 1e9;
+                long[] after = usedMemory();
+                long submitted = (long) urls * repeats;
+                long bytes = after[0] - before[0] + after[1] - before[1];
+                System.out.printf("📊 dedup %-5s %,d отправок -> %,d ссылок, %,.0f созданий/с, "
+                                + "память %,.0f МБ (%,.0f байт на отправку)%n",
+                        enabled ? "вкл" : "выкл", submitted, store.size(), submitted / seconds, bytes / 1e6,
+                        bytes / (double) submitted);
+                if (enabled) {
+                    double hits = metricValue(service, "shortener_dedup_hits_total");
+                    double entries = metricValue(service, "shortener_dedup_entries");
+                    System.out.printf("📊 попаданий %.1f%%, индекс %,.0f записей, %,.1f байт на запись%n",
+                            hits * 100 / submitted, entries, metricValue(service, "shortener_dedup_bytes") / entries);
+                }
+                service.shutdown();
+            } finally {
+                System.clearProperty("dedup.enabled");
+            }
+        }
+    }
+
+    public static void benchmarkUrlStorage() {
+        System.out.println("\n=== ХРАНЕНИЕ АДРЕСОВ ===");
+
+        int links = Integer.getInteger("bench.urls.links", 1_000_000);
+        String[] corpus = urlCorpus(links, new Random(42));
+        long corpusBytes = 0;
+        for (String url : corpus) {
+            corpusBytes += url.length();
+        }
+        System.out.printf("📊 корпус: %,d адресов, в среднем %.0f символов%n", links, corpusBytes / (double) links);
+
+        String[] engines = System.getProperty("bench.urls.engines", "heap,compact,interned").split(",");
+        for (String engine : engines) {
+            measureUrlStorage(engine, corpus);
+        }
+    }
+
+    // Отдельный метод на движок: хранилище прошлого замера к этому моменту уже недостижимо
+    private static void measureUrlStorage(String engine, String[] corpus) {
+        int links = corpus.length;
+        UUID owner = UUID.randomUUID();
+        LocalDateTime expiresAt = LocalDateTime.now().plusDays(1);
+        ShortCodeGenerator codes = new CounterShortCodeGenerator(6);
+        String[] shortCodes = new String[links];
+        for (int i = 0; i < links; i++) {
+            shortCodes[i] = codes.nextCode();
+        }
+        long[] before = usedMemory();
+        ShortUrlStore store = switch (engine) {
+            case "heap" -> new ConcurrentShortUrlStore(links);
+            case "compact" -> new CompactShortUrlStore(links);
+            default -> new CompactShortUrlStore(links, 1000, true);
+        };
+        for (int i = 0; i < links; i++) {
+            // Своя копия строки: иначе heap делил бы массивы символов с корпусом и не платил за них
+            store.putIfAbsent(ShortUrl.create(new String(corpus[i].toCharArray()), shortCodes[i], owner, 100,
+                    expiresAt));
+        }
+        long[] after = usedMemory();
+        long bytes = after[0] - before[0] + after[1] - before[1];
+
+        // Путь редиректа: поиск по коду и запись Location в прямой буфер, как во фронтенде NIO.
+        // Горячая тысяча ссылок живёт в кэше процессора, равномерный выбор из всех - нет
+        double hotNanos = redirectNanos(store, shortCodes, Math.min(links, 1000), false);
+        double coldNanos = redirectNanos(store, shortCodes, links, false);
+        double stringNanos = redirectNanos(store, shortCodes, links, true);
+        int pieces = store instanceof CompactShortUrlStore ? ((CompactShortUrlStore) store).urlDictionarySize() : 0;
+        System.out.printf("📊 %-8s %,.0f байт на ссылку; редирект в буфер: %.0f нс горячие, %.0f нс все, "
+                        + "через getOriginalUrl %.0f нс%s%n", engine, bytes / (double) links, hotNanos, coldNanos,
+                stringNanos, pieces > 0 ? String.format("; в словаре %,d кусков", pieces) : "");
+    }
+
+    private static double redirectNanos(ShortUrlStore store, String[] shortCodes, int working, boolean viaString) {
+        ByteBuffer location = ByteBuffer.allocateDirect(4096);
+        Random random = new Random(7);
+        int[] order = new int[1 << 16];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = random.nextInt(working);
+        }
+        int lookups = 5_000_000;
+        double nanos = 0;
+        // Первый круг - прогрев
+        for (int round = 0; round < 2; round++) {
+            long started = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                ShortUrl shortUrl = store.get(shortCodes[order[i & (order.length - 1)]]);
+                location.clear();
+                if (viaString) {
+                    location.put(shortUrl.getOriginalUrl().getBytes(StandardCharsets.UTF_8));
+                } else {
+                    shortUrl.writeOriginalUrl(location);
+                }
+                blackhole += location.position();
+            }
+            nanos = (System.nanoTime() - started) / (double) lookups;
+        }
+        return nanos;
+    }
+
+    // Адреса как у промо-рассылок: десяток своих доменов, типовые разделы, UTM-метки из небольшого набора
+    // кампаний у большинства ссылок, уникальные параметры у части и редкие сторонние хосты
+    private static String[] urlCorpus(int links, Random random) {
+        String[] hosts = {"https://shop.example.com", "https://www.example.com", "https://blog.example.com",
+                "https://m.example.com", "https://help.example.com", "https://events.example.org",
+                "https://partners.example.net", "https://example.com", "http://promo.example.com",
+                "https://careers.example.com"};
+        String[] sections = {"/catalog/electronics/", "/catalog/home-and-garden/", "/catalog/kids/", "/blog/2024/05/",
+                "/blog/2024/06/", "/news/", "/promo/summer-sale/", "/help/articles/", "/events/", "/"};
+        String[] sources = {"newsletter", "facebook", "twitter", "google", "partner"};
+        String[] mediums = {"email", "social", "cpc", "referral"};
+        String[] words = {"best", "new", "smart", "wireless", "guide", "how-to", "review", "top", "cheap", "garden",
+                "kitchen", "phone", "summer", "tips", "deal"};
+        String[] corpus = new String[links];
+        StringBuilder url = new StringBuilder(256);
+        for (int i = 0; i < links; i++) {
+            url.setLength(0);
+            if (random.nextInt(20) == 0) {
+                url.append("https://site").append(random.nextInt(100_000)).append(".example.io");
+            } else {
+                url.append(hosts[Math.min(hosts.length - 1, (int) Math.abs(random.nextGaussian() * 3))]);
+            }
+            url.append(sections[random.nextInt(sections.length)]);
+            for (int w = 0, count = 2 + random.nextInt(3); w < count; w++) {
+                url.append(words[random.nextInt(words.length)]).append('-');
+            }
+            url.append(random.nextInt(1_000_000));
+            int query = random.nextInt(10);
+            if (query < 6) {
+                url.append("?utm_source=").append(sources[random.nextInt(sources.length)])
+                        .append("&utm_medium=").append(mediums[random.nextInt(mediums.length)])
+                        .append("&utm_campaign=spring_sale_2024_").append(random.nextInt(8));
+            } else if (query < 8) {
+                url.append("?ref=").append(Long.toString(random.nextLong() >>> 1, 36));
+            }
+            corpus[i] = url.toString();
+        }
+        return corpus;
+    }
+
+    // Значение метрики без меток из текстового экспорта
+    private static double metricValue(UrlShortenerService service, String name) {
+        StringBuilder out = new StringBuilder();
+        service.getMetrics().writeTo(out);
+        for (String line : out.toString().split("\n")) {
+            if (line.startsWith(name + " ")) {
+                return Double.parseDouble(line.substring(name.length() + 1));
+            }
+        }
+        return Double.NaN;
+    }
+
+    // Занятая куча после сборки мусора и память прямых буферов
+    private static long[] usedMemory() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long direct = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                direct = pool.getMemoryUsed();
+            }
+        }
+        return new long[]{runtime.totalMemory() - runtime.freeMemory(), direct};
+    }
+
+    private static long runLoad(URL target, long durationMillis) throws InterruptedException {
+        AtomicLong completed = new AtomicLong();
+        long deadline = System.currentTimeMillis() + durationMillis;
+        List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < CLIENT_THREADS; i++) {
+            Thread client = new Thread(() -> {
+                while (System.currentTimeMillis() < deadline) {
+                    try {
+                        HttpURLConnection connection = (HttpURLConnection) target.openConnection();
+                        connection.setInstanceFollowRedirects(false);
+                        if (connection.getResponseCode() == 302) {
+                            completed.incrementAndGet();
+                        }
+                        connection.getInputStream().close();
+                    } catch (Exception e) {
+                        // Ошибки соединения не считаем выполненными запросами
+                    }
+                }
+            });
+            clients.add(client);
+            client.start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        return completed.get();
+    }
+
+    public static void benchmarkBulkCreate() throws Exception {
+        System.out.println("\n=== МАССОВОЕ СОЗДАНИЕ ССЫЛОК ===");
+
+        // Размер задаётся -Dbench.bulk.links=1000000
+        int links = Integer.getInteger("bench.bulk.links", 100_000);
+        AppConfig config = new AppConfig();
+        for (boolean bulk : new boolean[]{false, true}) {
+            UserService userService = new UserService();
+            UUID userId = userService.createUser();
+            ShortUrlStore store = ShortUrlStore.inMemory(config, links);
+            UrlShortenerService service = new UrlShortenerService(userService, config, store,
+                    ShortCodeGenerator.fromConfig(config, store), quietEvents());
+            double seconds = createLinks(service, userId, links, bulk);
+            System.out.printf("📊 в памяти, %s: %,.0f ссылок/с%n", bulk ? "createShortUrls" : "по одной", links / seconds);
+            service.shutdown();
+        }
+
+        // На диске каждая ссылка по одной ждёт своего fsync, а кусок импорта - одного общего
+        int durableLinks = Math.min(links, 2_000);
+        PrintStream originalOut = System.out;
+        for (boolean bulk : new boolean[]{false, true}) {
+            Path directory = Files.createTempDirectory("url-shortener-bulk");
+            try {
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                UserService userService = new UserService();
+                UUID userId = userService.createUser();
+                PersistentShortUrlStore store = PersistentShortUrlStore.open(directory, userService, 64 << 20, 2);
+                UrlShortenerService service = new UrlShortenerService(userService, config, store,
+                        ShortCodeGenerator.fromConfig(config, store), quietEvents());
+                double seconds = createLinks(service, userId, durableLinks, bulk);
+                service.shutdown();
+                store.close();
+                System.setOut(originalOut);
+                System.out.printf("📊 с журналом, %s: %,.0f ссылок/с%n",
+                        bulk ? "createShortUrls" : "по одной", durableLinks / seconds);
+            } finally {
+                System.setOut(originalOut);
+                try (var paths = Files.walk(directory)) {
+                    paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+            }
+        }
+    }
+
+    private static double createLinks(UrlShortenerService service, UUID userId, int links, boolean bulk) {
+        long started = System.nanoTime();
+        if (bulk) {
+            List<BulkLinkRequest> requests = new ArrayList<>(links);
+            for (int i = 0; i < links; i++) {
+                requests.add(BulkLinkRequest.of(i + 1, "https://example.com/articles/" + i, 0));
+            }
+            blackhole += service.createShortUrls(userId, requests.iterator(), result -> { });
+        } else {
+            for (int i = 0; i < links; i++) {
+                blackhole += service.createShortUrl("https://example.com/articles/" + i, userId).length();
+            }
+        }
+        return (System.nanoTime() - started) / 1e9;
+    }
+
+    // Журнал событий выключен: замеряется создание, а не запись строк в консоль
+    private static EventLog quietEvents() {
+        return new EventLog(16, OverflowPolicy.DROP, Map.of(), 10, () -> System.out);
+    }
+
+    public static void benchmarkZipfCache() {
+        System.out.println("\n=== КЭШ ССЫЛОК НА РАСПРЕДЕЛЕНИИ ЦИПФА ===");
+
+        // Размер задаётся -Dbench.cache.links=10000000; 10% запросов - перебор несуществующих кодов
+        int links = Integer.getInteger("bench.cache.links", 1_000_000);
+        int requests = 5_000_000;
+        double skew = 0.99;
+        CompactShortUrlStore store = new CompactShortUrlStore(links);
+        UUID userId = UUID.randomUUID();
+        LocalDateTime expiresAt = LocalDateTime.now().plusDays(1);
+        String[] paths = new String[links];
+        long linkBytes = 0;
+        for (int i = 0; i < links; i++) {
+            String url = "https://example.com/articles/" + i + "?utm_source=bench";
+            String code = "Z" + Integer.toString(i, 36);
+            store.putIfAbsent(ShortUrl.create(url, code, userId, Integer.MAX_VALUE, expiresAt));
+            paths[i] = "/" + code;
+            linkBytes += 200 + code.length() + url.length();
+        }
+
+        // Популярность не связана с порядком создания: ранг переставлен случайно
+        double[] cumulative = new double[links];
+        double sum = 0;
+        for (int rank = 0; rank < links; rank++) {
+            sum += 1 / Math.pow(rank + 1, skew);
+            cumulative[rank] = sum;
+        }
+        Random random = new Random(42);
+        int[] byRank = new int[links];
+        for (int i = 0; i < links; i++) {
+            byRank[i] = i;
+        }
+        for (int i = links - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = byRank[i];
+            byRank[i] = byRank[j];
+            byRank[j] = swap;
+        }
+        String[] trace = new String[requests];
+        for (int i = 0; i < requests; i++) {
+            if (random.nextInt(10) == 0) {
+                trace[i] = "/X" + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36);
+                continue;
+            }
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            trace[i] = paths[byRank[rank < 0 ? -rank - 1 : rank]];
+        }
+
+        // Хранилище в памяти и модель хранилища, у которого чтение стоит похода на диск
+        long readNanos = Long.getLong("bench.cache.read.micros", 20) * 1000;
+        for (ShortUrlStore backing : new ShortUrlStore[]{store, new SlowReadStore(store, readNanos)}) {
+            System.out.println(backing == store ? "Хранилище в памяти (compact):"
+                    : "Модель диска: +" + readNanos / 1000 + " мкс на чтение из хранилища:");
+            // С медленным хранилищем хватает части трассы
+            String[] replay = backing == store ? trace : Arrays.copyOf(trace, requests / 5);
+            replayZipf("без кэша", backing, replay);
+            for (int percent : new int[]{1, 5, 20}) {
+                CachingShortUrlStore cache = new CachingShortUrlStore(backing, linkBytes * percent / 100, 65536);
+                replayZipf("кэш " + percent + "% ссылок", cache, replay);
+                System.out.printf("   попаданий %.1f%% (из них известных отсутствующих %,d), вытеснено %,d%n",
+                        cache.getHitRatio() * 100, cache.getNegativeHitCount(), cache.getEvictionCount());
+            }
+        }
+    }
+
+    public static void benchmarkCodeFilter() {
+        System.out.println("\n=== ФИЛЬТР КОДОВ ПРИ 90% НЕИЗВЕСТНЫХ КОДОВ ===");
+
+        int links = Integer.getInteger("bench.cache.links", 1_000_000);
+        int requests = 5_000_000;
+        CompactShortUrlStore store = new CompactShortUrlStore(links);
+        UUID userId = UUID.randomUUID();
+        LocalDateTime expiresAt = LocalDateTime.now().plusDays(1);
+        String[] paths = new String[links];
+        for (int i = 0; i < links; i++) {
+            String code = "Z" + Integer.toString(i, 36);
+            store.putIfAbsent(ShortUrl.create("https://example.com/articles/" + i, code, userId,
+                    Integer.MAX_VALUE, expiresAt));
+            paths[i] = "/" + code;
+        }
+        // Перебор ботами: коды той же длины и алфавита, что и настоящие
+        Random random = new Random(42);
+        String[] trace = new String[requests];
+        for (int i = 0; i < requests; i++) {
+            trace[i] = random.nextInt(10) == 0 ? paths[random.nextInt(links)]
+                    : "/" + Integer.toString(links + random.nextInt(Integer.MAX_VALUE - links), 36);
+        }
+
+        long readNanos = Long.getLong("bench.cache.read.micros", 20) * 1000;
+        for (ShortUrlStore backing : new ShortUrlStore[]{store, new SlowReadStore(store, readNanos)}) {
+            System.out.println(backing == store ? "Хранилище в памяти (compact):"
+                    : "Модель диска: +" + readNanos / 1000 + " мкс на чтение из хранилища:");
+            String[] replay = backing == store ? trace : Arrays.copyOf(trace, requests / 50);
+            replayZipf("без фильтра", backing, replay);
+            long started = System.nanoTime();
+            FilteredShortUrlStore filtered = new FilteredShortUrlStore(backing);
+            long buildMillis = (System.nanoTime() - started) / 1_000_000;
+            replayZipf("с фильтром", filtered, replay);
+            System.out.printf("   фильтр: %,d КБ, сборка %d мс, отсечено %,d, ложных срабатываний %,d%n",
+                    filtered.getFilterBytes() / 1024, buildMillis, filtered.getRejectedCount(),
+                    filtered.getFalsePositiveCount());
+        }
+    }
+
+    public static void benchmarkRateLimiter() throws Exception {
+        System.out.println("\n=== ОГРАНИЧИТЕЛЬ ЧАСТОТЫ: ЦЕНА ПРОВЕРКИ НА ЗАПРОС ===");
+
+        int requests = 20_000_000;
+        int clients = 100_000;
+        // Адреса клиентов: 10.x.y.z, больше, чем вёдер в таблице по умолчанию
+        InetAddress[] addresses = new InetAddress[clients];
+        for (int i = 0; i < clients; i++) {
+            addresses[i] = InetAddress.getByAddress(new byte[]{10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i});
+        }
+        AppConfig config = new AppConfig();
+        RateLimiter limiter = RateLimiter.fromConfig(config);
+        if (limiter == null) {
+            limiter = new RateLimiter(new TokenBucketTable(100, 200, 65536), new TokenBucketTable(20, 100, 65536),
+                    new TokenBucketTable(10, 50, 65536));
+        }
+        // Один клиент в лимите: частота проверки выше любой реальной нагрузки на адрес
+        RateLimiter generous = new RateLimiter(new TokenBucketTable(100_000, 50_000_000, 65536),
+                new TokenBucketTable(1, 1, 8), new TokenBucketTable(1, 1, 8));
+        InetAddress[] one = {addresses[0]};
+        Random random = new Random(42);
+        InetAddress[] spread = new InetAddress[1 << 20];
+        for (int i = 0; i < spread.length; i++) {
+            spread[i] = addresses[random.nextInt(clients)];
+        }
+
+        replayLimiter("один клиент в лимите", generous, one, requests);
+        replayLimiter("один клиент флудит (почти все 429)", limiter, one, requests);
+        replayLimiter(clients / 1000 + " тыс. адресов, таблица " + config.getRateLimitTableSize(), limiter, spread,
+                requests);
+        System.out.printf("   вытеснено активных вёдер: %,d, отказов: %,d%n", limiter.getEvictedCount(),
+                limiter.getRejectedCount());
+    }
+
+    // Прогон дважды: первый прогревает JIT, замеряется второй
+    private static void replayLimiter(String name, RateLimiter limiter, InetAddress[] trace, int requests) {
+        int mask = trace.length - 1;
+        long started = 0;
+        int rejected = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            rejected = 0;
+            started = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                if (limiter.acquireRead(trace[i & mask], null) != 0) {
+                    rejected++;
+                }
+            }
+        }
+        long nanos = System.nanoTime() - started;
+        blackhole += rejected;
+        System.out.printf("📊 %s: %.1f нс на запрос, отказано %.1f%%%n", name, (double) nanos / requests,
+                rejected * 100.0 / requests);
+    }
+
+    public static void benchmarkMetricsOverhead() throws Exception {
+        System.out.println("\n=== МЕТРИКИ: ЦЕНА ЗАПИСИ ===");
+
+        int operations = 50_000_000;
+        LatencyHistogram histogram = new LatencyHistogram();
+        LongAdder counter = new LongAdder();
+        long[] values = new long[1 << 16];
+        Random random = new Random(42);
+        for (int i = 0; i < values.length; i++) {
+            // Задержки от сотен наносекунд до десятков миллисекунд
+            values[i] = (long) Math.exp(5 + random.nextDouble() * 12);
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            long started = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                histogram.record(values[i & (values.length - 1)]);
+            }
+            long recordNanos = System.nanoTime() - started;
+            started = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                histogram.recordSince(System.nanoTime());
+            }
+            long timedNanos = System.nanoTime() - started;
+            started = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                counter.increment();
+            }
+            long counterNanos = System.nanoTime() - started;
+            if (pass == 1) {
+                System.out.printf("📊 гистограмма, запись значения: %.1f нс%n", (double) recordNanos / operations);
+                System.out.printf("📊 гистограмма, замер с двумя nanoTime: %.1f нс%n", (double) timedNanos / operations);
+                System.out.printf("📊 счётчик LongAdder: %.1f нс%n", (double) counterNanos / operations);
+            }
+        }
+
+        // Параллельная запись в одну гистограмму
+        int threads = 4;
+        LatencyHistogram shared = new LatencyHistogram();
+        List<Thread> workers = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < operations / threads; i++) {
+                    shared.record(values[i & (values.length - 1)]);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        System.out.printf("📊 %d потока в одну гистограмму: %.1f нс на запись%n", threads,
+                (double) (System.nanoTime() - started) / operations);
+
+        // Переход через сервис целиком: гистограмма, счётчик исхода и журнал событий
+        UserService userService = new UserService();
+        UrlShortenerService service = new UrlShortenerService(userService, new AppConfig(), new CompactShortUrlStore(),
+                new CounterShortCodeGenerator(6), quietEvents());
+        String code = service.createLink("https://example.com/metrics", userService.createUser(), ShortUrl.UNLIMITED)
+                .getShortCode();
+        // Повторная регистрация возвращает ту же гистограмму, что пишет сервис
+        LatencyHistogram redirectLatency = service.getMetrics().histogram("shortener_redirect_seconds", "");
+        int redirects = 5_000_000;
+        for (int pass = 0; pass < 2; pass++) {
+            started = System.nanoTime();
+            for (int i = 0; i < redirects; i++) {
+                blackhole += service.redirect(code).length();
+            }
+            if (pass == 1) {
+                System.out.printf("📊 service.redirect() с метриками: %.1f нс, p50 %d нс, p99 %d нс%n",
+                        (double) (System.nanoTime() - started) / redirects,
+                        redirectLatency.getValueAtPercentile(50), redirectLatency.getValueAtPercentile(99));
+            }
+        }
+        service.shutdown();
+    }
+
+    // Петлевой нагрузочный тест переходов: HttpServer в двух режимах против фронтенда NIO.
+    // Клиенты держат keep-alive соединения сырыми сокетами, чтобы замерять сервер, а не HTTP-клиент JDK;
+    // у NIO отдельно - конвейер из нескольких запросов на соединение
+    public static void benchmarkNioFrontend() throws Exception {
+        System.out.println("\n=== ФРОНТЕНД NIO ПРОТИВ HTTPSERVER ===");
+
+        int connections = Integer.getInteger("bench.nio.connections", 16);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("Соединений: " + connections + ", ядер: " + cores);
+        UserService userService = new UserService();
+        UrlShortenerService service = new UrlShortenerService(userService, new AppConfig(), new CompactShortUrlStore(),
+                new CounterShortCodeGenerator(6), quietEvents());
+        String code = service.createLink("https://example.com/nio", userService.createUser(), ShortUrl.UNLIMITED)
+                .getShortCode();
+
+        for (ExecutorMode mode : new ExecutorMode[]{ExecutorMode.SINGLE, ExecutorMode.POOL}) {
+            WebServer webServer = new WebServer(service, 0, mode, cores * 2, 1024, 0);
+            webServer.start();
+            try {
+                measureKeepAlive("httpserver " + mode, webServer.getPort(), code, connections, 1);
+            } finally {
+                webServer.stop();
+            }
+        }
+        NioRedirectServer nio = new NioRedirectServer(service, 0, cores, 0, null, null);
+        nio.start();
+        try {
+            measureKeepAlive("nio", nio.getPort(), code, connections, 1);
+            measureKeepAlive("nio, конвейер 16", nio.getPort(), code, connections, 16);
+        } finally {
+            nio.stop();
+        }
+        service.shutdown();
+    }
+
+    // depth - сколько запросов клиент отправляет одной записью, прежде чем читать ответы;
+    // задержка запроса - от его отправки до конца ответа на него
+    private static void measureKeepAlive(String name, int port, String code, int connections, int depth)
+            throws InterruptedException {
+        byte[] request = ("GET /" + code + " HTTP/1.1\r\nHost: localhost\r\nUser-Agent: bench\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        byte[] batch = new byte[request.length * depth];
+        for (int i = 0; i < depth; i++) {
+            System.arraycopy(request, 0, batch, i * request.length, request.length);
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            long durationMillis = pass == 0 ? WARMUP_MILLIS : MEASURE_MILLIS;
+            LatencyHistogram latency = new LatencyHistogram();
+            AtomicLong completed = new AtomicLong();
+            AtomicInteger failed = new AtomicInteger();
+            long deadline = System.currentTimeMillis() + durationMillis;
+            List<Thread> clients = new ArrayList<>();
+            for (int c = 0; c < connections; c++) {
+                Thread client = new Thread(() -> {
+                    try (Socket socket = new Socket("localhost", port)) {
+                        socket.setTcpNoDelay(true);
+                        OutputStream out = socket.getOutputStream();
+                        InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+                        long count = 0;
+                        while (System.currentTimeMillis() < deadline) {
+                            long sent = System.nanoTime();
+                            out.write(batch);
+                            for (int i = 0; i < depth; i++) {
+                                int status = skipResponse(in);
+                                latency.recordSince(sent);
+                                if (status < 300 || status >= 400) {
+                                    throw new IOException("ответ " + status);
+                                }
+                            }
+                            count += depth;
+                        }
+                        completed.addAndGet(count);
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                    }
+                });
+                clients.add(client);
+                client.start();
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+            if (pass == 1) {
+                System.out.printf("📊 %-24s %,10.0f запросов/с, p50 %,8d нс, p99 %,10d нс%s%n", name,
+                        completed.get() * 1000.0 / durationMillis, latency.getValueAtPercentile(50),
+                        latency.getValueAtPercentile(99), failed.get() > 0 ? ", оборвано соединений: " + failed : "");
+            }
+        }
+    }
+
+    // Пропускает один ответ: заголовки до пустой строки и тело по Content-Length; результат - код статуса
+    private static int skipResponse(InputStream in) throws IOException {
+        int status = 0;
+        int contentLength = 0;
+        StringBuilder line = new StringBuilder();
+        boolean first = true;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("соединение закрыто");
+            }
+            if (b != '\n') {
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+                continue;
+            }
+            if (line.length() == 0) {
+                break;
+            }
+            if (first) {
+                status = Integer.parseInt(line.substring(9, 12));
+                first = false;
+            } else if (line.length() > 15 && line.substring(0, 15).equalsIgnoreCase("content-length:")) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+            line.setLength(0);
+        }
+        in.readNBytes(contentLength);
+        return status;
+    }
+
+    // Прогон трассы дважды: первый прогревает JIT и кэш, замеряется второй
+    private static void replayZipf(String name, ShortUrlStore store, String[] trace) {
+        int found = 0;
+        long started = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            started = System.nanoTime();
+            for (String path : trace) {
+                ShortUrl shortUrl = store.get(path, 1, path.length());
+                if (shortUrl != null) {
+                    found += shortUrl.getOriginalUrl().length();
+                }
+            }
+        }
+        blackhole += found;
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("📊 %s: %,.0f запросов/с%n", name, trace.length / seconds);
+    }
+
+    // Чтение из хранилища с задержкой, как если бы ссылка читалась с диска; остальное - как у исходного
+    private static final class SlowReadStore implements ShortUrlStore {
+        private final ShortUrlStore store;
+        private final long readNanos;
+
+        SlowReadStore(ShortUrlStore store, long readNanos) {
+            this.store = store;
+            this.readNanos = readNanos;
+        }
+
+        @Override
+        public ShortUrl get(String shortCode) {
+            return get(shortCode, 0, shortCode.length());
+        }
+
+        @Override
+        public ShortUrl get(CharSequence text, int start, int end) {
+            long deadline = System.nanoTime() + readNanos;
+            while (System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            return store.get(text, start, end);
+        }
+
+        @Override public ShortUrl putIfAbsent(ShortUrl shortUrl) { return store.putIfAbsent(shortUrl); }
+        @Override public boolean remove(ShortUrl shortUrl) { return store.remove(shortUrl); }
+        @Override public int size() { return store.size(); }
+        @Override public void forEach(Consumer<ShortUrl> action) { store.forEach(action); }
+
+        @Override
+        public int evictExpired(long nowMillis, int maxEvictions, Consumer<ShortUrl> onEvicted) {
+            return store.evictExpired(nowMillis, maxEvictions, onEvicted);
+        }
+    }
+}
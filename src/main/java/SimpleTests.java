@@ -1,11 +1,91 @@
+import analytics.ClickAnalytics;
+import analytics.LinkStats;
+import cluster.Cluster;
+import cluster.ClusterNode;
+import cluster.HashRing;
+import cluster.Rebalancer;
+import log.EventLog;
+import log.EventType;
+import log.LogLevel;
+import log.OverflowPolicy;
+import metrics.LatencyHistogram;
+import server.ExecutorMode;
+import server.NioRedirectServer;
+import server.WebServer;
+import service.BulkLinkRequest;
+import service.BulkLinkResult;
+import service.RedirectStatus;
+import service.ShortCodeGenerator;
 import service.UrlShortenerService;
 import service.UserService;
 import config.AppConfig;
 import util.UrlValidator;
+import model.ClickCounter;
 import model.ShortUrl;
+import model.User;
+import ratelimit.RateLimiter;
+import ratelimit.TokenBucketTable;
+import service.CounterShortCodeGenerator;
+import service.RandomShortCodeGenerator;
+import storage.CachingShortUrlStore;
+import storage.CompactShortUrlStore;
+import storage.ConcurrentShortUrlStore;
+import storage.FilteredShortUrlStore;
+import storage.PersistentShortUrlStore;
+import storage.PrimaryShortUrlStore;
+import storage.ReplicaShortUrlStore;
+import storage.ShortUrlStore;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class SimpleTests {
 
@@ -17,6 +97,25 @@ public class SimpleTests {
         testShortUrlModel();
         testUrlShortenerService();
         testIntegration();
+        testConcurrency();
+        testShortCodeGenerators();
+        testPersistence();
+        testExpiration();
+        testCompactStore();
+        testEventLog();
+        testClickAnalytics();
+        testBulkCreate();
+        testRestApi();
+        testCachingStore();
+        testCodeFilter();
+        testRedirectPolicies();
+        testCluster();
+        testReplication();
+        testRateLimit();
+        testMetrics();
+        testNioFrontend();
+        testDedup();
+        testInternedStore();
 
         System.out.println("\n🎉 ТЕСТИРОВАНИЕ ЗАВЕРШЕНО!");
     }
@@ -44,6 +143,65 @@ public class SimpleTests {
         } else {
             System.out.println("❌ testInvalidUrl - FAILED");
         }
+
+        // Тест 4: только http и https, схема без учёта регистра
+        String[] foreignSchemes = {"file:///etc/passwd", "jar:file:/app.jar!/x", "ftp://example.com/file",
+                "javascript:alert(1)", "mailto:admin@example.com", "http:/example.com", "https//example.com"};
+        boolean schemesRejected = true;
+        for (String url : foreignSchemes) {
+            schemesRejected &= !UrlValidator.isValidUrl(url);
+        }
+        if (schemesRejected && UrlValidator.isValidUrl("HTTPS://Example.COM/Path")) {
+            System.out.println("✅ testUrlSchemes - PASSED");
+        } else {
+            System.out.println("❌ testUrlSchemes - FAILED");
+        }
+
+        // Тест 5: IDN, punycode, IPv4 и IPv6 в скобках
+        String[] validHosts = {"https://пример.рф/путь", "https://xn--e1afmkfd.xn--p1ai/", "http://a-b.example.com.",
+                "http://192.0.2.1:8080/x", "http://[2001:db8::1]:8080/x", "http://[::1]/", "http://[::ffff:192.0.2.1]/",
+                "http://[2001:db8:0:0:0:0:0:1]/", "https://example.com?q=1", "https://example.com#top"};
+        boolean hostsAccepted = true;
+        for (String url : validHosts) {
+            hostsAccepted &= UrlValidator.isValidUrl(url);
+        }
+        if (hostsAccepted) {
+            System.out.println("✅ testUrlValidHosts - PASSED");
+        } else {
+            System.out.println("❌ testUrlValidHosts - FAILED");
+        }
+
+        // Тест 6: синтаксис хоста и порта, логин в адресе, экранирование и длина
+        String[] invalidUrls = {"http://exa mple.com/", "http://-bad.com/", "http://bad-.com/", "http://a..b/",
+                "http://" + "a".repeat(64) + ".com/", "http://256.1.1.1/", "http://01.1.1.1/", "http://1.1.1/",
+                "http://example.com:65536/", "http://example.com:0/", "http://example.com:/", "http://[1::2::3]/",
+                "http://[2001:db8::1%25eth0]/", "http://[2001:db8::1/", "https://bank.com@evil.example/",
+                "https://example.com/%zz", "https://example.com/a b", "https://example.com/\u0085", "http://",
+                "http://example.com/" + "a".repeat(UrlValidator.MAX_LENGTH), null};
+        boolean invalidRejected = true;
+        for (String url : invalidUrls) {
+            invalidRejected &= !UrlValidator.isValidUrl(url);
+        }
+        String longest = "http://example.com/" + "a".repeat(UrlValidator.MAX_LENGTH - "http://example.com/".length());
+        if (invalidRejected && UrlValidator.isValidUrl(longest)) {
+            System.out.println("✅ testUrlInvalidSyntax - PASSED");
+        } else {
+            System.out.println("❌ testUrlInvalidSyntax - FAILED");
+        }
+
+        // Тест 7: канонический вид; уже канонический адрес возвращается без копии
+        String canonical = "https://example.com/a%2F?q=1";
+        if (UrlValidator.normalize("HTTPS://Example.COM:443#f").equals("https://example.com/")
+                && UrlValidator.normalize("http://Example.com.:80?q=%2f").equals("http://example.com/?q=%2F")
+                && UrlValidator.normalize("http://example.com:8080/Path").equals("http://example.com:8080/Path")
+                && UrlValidator.normalize("http://[2001:DB8::1]/").equals("http://[2001:db8::1]/")
+                && UrlValidator.normalize(canonical) == canonical
+                && UrlValidator.normalize("not-a-url").equals("not-a-url")) {
+            System.out.println("✅ testUrlNormalize - PASSED");
+        } else {
+            System.out.println("❌ testUrlNormalize - FAILED: " + UrlValidator.normalize("HTTPS://Example.COM:443#f")
+                    + " " + UrlValidator.normalize("http://Example.com.:80?q=%2f"));
+        }
     }
 
     public static void testUserService() {
@@ -67,13 +225,70 @@ public class SimpleTests {
         } else {
             System.out.println("❌ testGetUser_Exists - FAILED");
         }
+
+        // Тест 3: Неизвестный пользователь не создаётся молча
+        if (userService.getUser(UUID.randomUUID()) == null && userService.getUserIds().size() == 2) {
+            System.out.println("✅ testGetUser_UnknownIsNull - PASSED");
+        } else {
+            System.out.println("❌ testGetUser_UnknownIsNull - FAILED");
+        }
+
+        // Тест 4: Индекс ссылок пользователя - поиск по id и коду, страницы по времени создания
+        User user = userService.getUser(user1);
+        LocalDateTime base = LocalDateTime.now().withNano(0);
+        List<ShortUrl> created = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            created.add(ShortUrl.restore(UUID.randomUUID(), "https://example.com/" + i, "U" + i, user1, 10, 0,
+                    base.plusSeconds(i), base.plusHours(1), true));
+        }
+        for (int i = 9; i >= 0; i--) {
+            user.addShortUrl(created.get(i));
+        }
+        user.removeShortUrl(created.get(4).getId());
+
+        List<ShortUrl> listed = new ArrayList<>();
+        User.Position after = null;
+        List<ShortUrl> page;
+        int pages = 0;
+        while (!(page = user.getShortUrlsPage(after, 3)).isEmpty()) {
+            listed.addAll(page);
+            after = User.Position.of(page.get(page.size() - 1));
+            pages++;
+        }
+        List<ShortUrl> expected = new ArrayList<>(created);
+        expected.remove(4);
+        boolean indexed = listed.equals(expected) && pages == 3
+                && user.getLinkCount() == 9
+                && user.findShortUrlByCode("U7") == created.get(7)
+                && user.findShortUrlById(created.get(2).getId()) == created.get(2)
+                && user.findShortUrlByCode("U4") == null
+                && user.getShortUrlsPage(User.Position.of(created.get(4)), 1).get(0) == created.get(5);
+        if (indexed) {
+            System.out.println("✅ testUserLinkIndex - PASSED");
+        } else {
+            System.out.println("❌ testUserLinkIndex - FAILED");
+        }
+
+        // Тест 5: Восстановление пачкой - ссылки в любом порядке, индекс тот же, повтор не дублирует
+        List<ShortUrl> shuffled = new ArrayList<>(created);
+        Collections.shuffle(shuffled, new Random(7));
+        User restoredUser = userService.restoreUser(UUID.randomUUID(), shuffled.size());
+        restoredUser.restoreShortUrls(shuffled);
+        restoredUser.restoreShortUrls(shuffled.subList(0, 3));
+        if (new ArrayList<>(restoredUser.getShortUrls()).equals(created) && restoredUser.getLinkCount() == 10
+                && restoredUser.findShortUrlByCode("U4") == created.get(4)
+                && restoredUser.getShortUrlsPage(User.Position.of(created.get(6)), 2).equals(created.subList(7, 9))) {
+            System.out.println("✅ testUserRestoreShortUrls - PASSED");
+        } else {
+            System.out.println("❌ testUserRestoreShortUrls - FAILED");
+        }
     }
 
     public static void testShortUrlModel() {
         System.out.println("\n=== ТЕСТЫ SHORT URL MODEL ===");
 
         // Тест 1: Создание ShortUrl
-        ShortUrl shortUrl = new ShortUrl(
+        ShortUrl shortUrl = ShortUrl.create(
                 "https://example.com",
                 "TEST123",
                 UUID.randomUUID(),
@@ -143,6 +358,31 @@ public class SimpleTests {
                 System.out.println("❌ testUniqueUrlsPerUser - FAILED");
             }
 
+            // Тест 4: Ссылку нельзя создать от имени несуществующего пользователя
+            try {
+                service.createShortUrl("https://example.com", UUID.randomUUID());
+                System.out.println("❌ testUnknownUser_Exception - FAILED");
+            } catch (IllegalArgumentException e) {
+                System.out.println("✅ testUnknownUser_Exception - PASSED");
+            }
+
+            // Тест 5: Быстрый путь редиректа отвечает статусом и находит код внутри пути запроса
+            String limited = service.createShortUrlWithCustomLimit("https://example.org", userId, 1);
+            String path = limited.substring(limited.lastIndexOf("/"));
+            ShortUrl found = service.findShortUrl(path, 1, path.length());
+            RedirectStatus first = service.registerRedirect(found);
+            RedirectStatus second = service.registerRedirect(service.findShortUrl(path, 1, path.length()));
+            RedirectStatus missing = service.registerRedirect(service.findShortUrl("/ZZZZZZZZ", 1, 9));
+            found.setActive(false);
+            RedirectStatus inactive = service.registerRedirect(found);
+            if (first == RedirectStatus.FOUND && "https://example.org".equals(found.getOriginalUrl())
+                    && second == RedirectStatus.LIMIT_EXCEEDED && missing == RedirectStatus.NOT_FOUND
+                    && inactive == RedirectStatus.INACTIVE) {
+                System.out.println("✅ testRedirectStatus - PASSED");
+            } else {
+                System.out.println("❌ testRedirectStatus - FAILED");
+            }
+
         } catch (Exception e) {
             System.out.println("❌ Service tests FAILED: " + e.getMessage());
         }
@@ -190,4 +430,3083 @@ public class SimpleTests {
             System.out.println("❌ Integration tests FAILED: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    public static void testConcurrency() {
+        System.out.println("\n=== ТЕСТЫ МНОГОПОТОЧНОСТИ ===");
+
+        // Тест 1: параллельные создания, редиректы, удаления и очистка - для обоих движков хранилища
+        runStoreStress("testConcurrentStoreStress", new ConcurrentShortUrlStore());
+        runStoreStress("testCompactStoreStress", new CompactShortUrlStore());
+
+        // Тест 2: параллельные переходы не теряют клики и не превышают лимит
+        int clickLimit = 10_000;
+        ShortUrl hotUrl = ShortUrl.create("https://hot.example.com", "HOT1", UUID.randomUUID(),
+                clickLimit, LocalDateTime.now().plusHours(1));
+        AtomicInteger granted = new AtomicInteger();
+        List<Thread> clickers = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            Thread clicker = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (hotUrl.tryRegisterClick()) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            clickers.add(clicker);
+            clicker.start();
+        }
+        try {
+            for (Thread clicker : clickers) {
+                clicker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (granted.get() == clickLimit && hotUrl.getClickCount() == clickLimit && hotUrl.isClickLimitExceeded()) {
+            System.out.println("✅ testConcurrentClickLimit - PASSED");
+        } else {
+            System.out.println("❌ testConcurrentClickLimit - FAILED (переходов: " + granted.get() +
+                    ", счётчик: " + hotUrl.getClickCount() + "/" + clickLimit + ")");
+        }
+
+        // Тест 3: горячий счётчик, поднятый извне (реплика, второй проход копии), отдаёт ровно остаток лимита:
+        // бюджет, уже розданный полосам, тоже списывается
+        // Потоки крутятся 200 мс, чтобы и на одном ядре их вытесняли посреди CAS и счётчик раздувался
+        int hotLimit = 100_000_000;
+        ClickCounter hotCounter = new ClickCounter(hotLimit);
+        long contendUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+        List<Thread> contenders = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            Thread contender = new Thread(() -> {
+                while (System.nanoTime() < contendUntil) {
+                    for (int i = 0; i < 256; i++) {
+                        hotCounter.tryAcquire();
+                    }
+                }
+            });
+            contenders.add(contender);
+            contender.start();
+        }
+        try {
+            for (Thread contender : contenders) {
+                contender.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        hotCounter.advanceTo(hotLimit - 50);
+        int leftAfterAdvance = 0;
+        while (hotCounter.tryAcquire()) {
+            leftAfterAdvance++;
+        }
+        ClickCounter fullCounter = new ClickCounter(hotLimit);
+        for (int i = 0; i < 10; i++) {
+            fullCounter.tryAcquire();
+        }
+        fullCounter.advanceTo(hotLimit);
+
+        if (leftAfterAdvance == 50 && hotCounter.getCount() == hotLimit && hotCounter.isExhausted()
+                && !fullCounter.tryAcquire() && fullCounter.getCount() == hotLimit) {
+            System.out.println("✅ testClickCounterAdvanceHot - PASSED");
+        } else {
+            System.out.println("❌ testClickCounterAdvanceHot - FAILED (после подъёма: " + leftAfterAdvance +
+                    ", счётчик: " + hotCounter.getCount() + "/" + hotLimit + ")");
+        }
+    }
+
+    private static void runStoreStress(String name, ShortUrlStore store) {
+        UserService userService = new UserService();
+        UrlShortenerService service = new UrlShortenerService(userService, new AppConfig(), store);
+
+        int threads = 8;
+        int opsPerThread = 3000;
+        int expiredLinks = 2000;
+        UUID expiredOwner = userService.createUser();
+        for (int i = 0; i < expiredLinks; i++) {
+            ShortUrl expired = ShortUrl.create("https://expired.example.com/" + i, "EXP" + i,
+                    expiredOwner, 100, LocalDateTime.now().minusMinutes(1));
+            store.putIfAbsent(expired);
+            userService.getUser(expiredOwner).addShortUrl(expired);
+        }
+
+        List<List<String>> liveCodes = new ArrayList<>();
+        AtomicInteger unexpectedErrors = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        PrintStream originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int t = 0; t < threads; t++) {
+                List<String> codes = new ArrayList<>();
+                liveCodes.add(codes);
+                UUID userId = userService.createUser();
+                Thread worker = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    try {
+                        start.await();
+                        for (int i = 0; i < opsPerThread; i++) {
+                            int op = random.nextInt(10);
+                            if (op < 4 || codes.isEmpty()) {
+                                String url = service.createShortUrlWithCustomLimit(
+                                        "https://example.com/" + random.nextInt(), userId, Integer.MAX_VALUE);
+                                codes.add(url.substring(url.lastIndexOf('/') + 1));
+                            } else if (op < 8) {
+                                service.redirect(codes.get(random.nextInt(codes.size())));
+                            } else if (op < 9) {
+                                String code = codes.remove(random.nextInt(codes.size()));
+                                if (!service.deleteShortUrl(code, userId)) {
+                                    unexpectedErrors.incrementAndGet();
+                                }
+                            } else {
+                                service.cleanUpExpiredUrls();
+                            }
+                        }
+                    } catch (Exception e) {
+                        unexpectedErrors.incrementAndGet();
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            service.cleanUpExpiredUrls();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            System.setOut(originalOut);
+            service.shutdown();
+        }
+
+        int expectedLive = liveCodes.stream().mapToInt(List::size).sum();
+        boolean allPresent = liveCodes.stream().flatMap(List::stream).allMatch(code -> store.get(code) != null);
+        boolean expiredRemoved = userService.getUser(expiredOwner).getShortUrls().isEmpty();
+
+        if (unexpectedErrors.get() == 0 && store.size() == expectedLive && allPresent && expiredRemoved) {
+            System.out.println("✅ " + name + " - PASSED");
+        } else {
+            System.out.println("❌ " + name + " - FAILED (ошибок: " + unexpectedErrors.get() +
+                    ", ссылок: " + store.size() + "/" + expectedLive + ")");
+        }
+    }
+
+    public static void testShortCodeGenerators() {
+        System.out.println("\n=== ТЕСТЫ ГЕНЕРАТОРОВ КОДОВ ===");
+
+        // Тест 1: счётчик выдаёт уникальные коды фиксированной длины из всех потоков
+        CounterShortCodeGenerator counter = new CounterShortCodeGenerator(6);
+        Set<String> codes = ConcurrentHashMap.newKeySet();
+        AtomicInteger badCodes = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < 25_000; i++) {
+                    String code = counter.nextCode();
+                    if (code.length() != 6 || !codes.add(code)) {
+                        badCodes.incrementAndGet();
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (badCodes.get() == 0 && codes.size() == 200_000) {
+            System.out.println("✅ testCounterCodesUnique - PASSED");
+        } else {
+            System.out.println("❌ testCounterCodesUnique - FAILED (дубликатов: " + badCodes.get() + ")");
+        }
+
+        // Тест 2: случайные коды обходят уже занятые в хранилище
+        ConcurrentShortUrlStore store = new ConcurrentShortUrlStore();
+        RandomShortCodeGenerator random = new RandomShortCodeGenerator(2, store);
+        UUID userId = UUID.randomUUID();
+        int collisions = 0;
+        for (int i = 0; i < 500; i++) {
+            String code = random.nextCode();
+            ShortUrl shortUrl = ShortUrl.create("https://example.com/" + i, code, userId, 1,
+                    LocalDateTime.now().plusHours(1));
+            if (store.putIfAbsent(shortUrl) != null) {
+                collisions++;
+            }
+        }
+
+        if (collisions == 0 && store.size() == 500) {
+            System.out.println("✅ testRandomCodesAvoidStore - PASSED");
+        } else {
+            System.out.println("❌ testRandomCodesAvoidStore - FAILED (коллизий: " + collisions + ")");
+        }
+    }
+
+    public static void testPersistence() {
+        System.out.println("\n=== ТЕСТЫ ХРАНИЛИЩА НА ДИСКЕ ===");
+
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("url-shortener-wal");
+
+            // Тест 1: ссылки, переходы, удаления и пользователи переживают перезапуск (журнал + снимок)
+            UserService userService = new UserService();
+            PersistentShortUrlStore store = PersistentShortUrlStore.open(directory, userService, 1 << 20, 2);
+            UrlShortenerService service = new UrlShortenerService(userService, new AppConfig(), store);
+            UUID userId = userService.createUser();
+            List<String> codes = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String url = service.createShortUrlWithCustomLimit("https://example.com/" + i, userId, 10);
+                codes.add(url.substring(url.lastIndexOf('/') + 1));
+                if (i == 100) {
+                    store.snapshot();
+                }
+            }
+            service.redirect(codes.get(0));
+            service.redirect(codes.get(0));
+            service.redirect(codes.get(150));
+            service.deleteShortUrl(codes.get(1), userId);
+            service.deleteShortUrl(codes.get(199), userId);
+            service.shutdown();
+            store.close();
+
+            UserService restoredUsers = new UserService();
+            PersistentShortUrlStore restored = PersistentShortUrlStore.open(directory, restoredUsers, 1 << 20, 2);
+            boolean linksRestored = restored.size() == 198
+                    && restored.get(codes.get(1)) == null
+                    && restored.get(codes.get(199)) == null
+                    && restored.get(codes.get(0)).getClickCount() == 2
+                    && restored.get(codes.get(150)).getClickCount() == 1
+                    && restored.get(codes.get(42)).getOriginalUrl().equals("https://example.com/42")
+                    && restoredUsers.getUserIds().contains(userId)
+                    && restoredUsers.getUser(userId).getShortUrls().size() == 198;
+            restored.close();
+
+            if (linksRestored) {
+                System.out.println("✅ testPersistenceRoundTrip - PASSED");
+            } else {
+                System.out.println("❌ testPersistenceRoundTrip - FAILED");
+            }
+
+            // Тест 2: процесс убит посреди записи - все подтверждённые ссылки восстанавливаются
+            Path crashDirectory = Files.createTempDirectory("url-shortener-crash");
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    CrashWriter.class.getName(), crashDirectory.toString())
+                    .redirectErrorStream(true)
+                    .start();
+            List<String> acknowledged = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream()))) {
+                String line;
+                while (acknowledged.size() < 5000 && (line = reader.readLine()) != null) {
+                    if (line.startsWith("ACK ")) {
+                        acknowledged.add(line.substring(4));
+                    }
+                }
+                child.destroyForcibly();
+                child.waitFor();
+            }
+
+            PersistentShortUrlStore recovered = PersistentShortUrlStore.open(crashDirectory, new UserService(),
+                    1 << 20, 2);
+            boolean allRecovered = acknowledged.size() == 5000
+                    && acknowledged.stream().allMatch(code -> recovered.get(code) != null);
+            recovered.close();
+            deleteRecursively(crashDirectory);
+
+            if (allRecovered) {
+                System.out.println("✅ testCrashRecovery - PASSED");
+            } else {
+                System.out.println("❌ testCrashRecovery - FAILED (подтверждено: " + acknowledged.size() + ")");
+            }
+
+            // Тест 3: создания и удаления одних кодов из разных потоков - после перезапуска ровно то же,
+            // что было в памяти: удалённая ссылка не воскресает, новая под тем же кодом не пропадает
+            Path churnDirectory = Files.createTempDirectory("url-shortener-churn");
+            PersistentShortUrlStore churn = PersistentShortUrlStore.open(churnDirectory, new UserService(), 1 << 20, 1);
+            List<Thread> churners = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                churners.add(new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 3000; i++) {
+                        String code = "churn" + random.nextInt(32);
+                        if (random.nextBoolean()) {
+                            churn.putIfAbsent(ShortUrl.create("https://example.com/" + i, code, userId, 10,
+                                    LocalDateTime.now().plusHours(1)));
+                        } else {
+                            ShortUrl present = churn.get(code);
+                            if (present != null) {
+                                churn.remove(present);
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Thread churner : churners) {
+                churner.start();
+            }
+            for (Thread churner : churners) {
+                churner.join();
+            }
+            Map<String, UUID> live = new HashMap<>();
+            churn.forEach(link -> live.put(link.getShortCode(), link.getId()));
+            churn.close();
+            PersistentShortUrlStore replayed = PersistentShortUrlStore.open(churnDirectory, new UserService(),
+                    1 << 20, 1);
+            Map<String, UUID> replayedLive = new HashMap<>();
+            replayed.forEach(link -> replayedLive.put(link.getShortCode(), link.getId()));
+            replayed.close();
+            deleteRecursively(churnDirectory);
+
+            if (live.equals(replayedLive)) {
+                System.out.println("✅ testConcurrentCreateDeleteReplay - PASSED");
+            } else {
+                System.out.println("❌ testConcurrentCreateDeleteReplay - FAILED: " + live + " / " + replayedLive);
+            }
+
+            // Тест 4: пачка, не поместившаяся в журнал, не оставляет ни в памяти, ни после перезапуска
+            // ссылок, чьи создания успели записаться до сбоя
+            Path batchDirectory = Files.createTempDirectory("url-shortener-batch");
+            PersistentShortUrlStore batchStore = PersistentShortUrlStore.open(batchDirectory, new UserService(),
+                    1 << 16, 1);
+            LocalDateTime expiresAt = LocalDateTime.now().plusHours(1);
+            List<ShortUrl> batch = List.of(
+                    ShortUrl.create("https://example.com/a", "batchA", userId, 10, expiresAt),
+                    ShortUrl.create("https://example.com/b", "batchB", userId, 10, expiresAt),
+                    ShortUrl.create("https://example.com/" + "x".repeat(1 << 16), "batchC", userId, 10, expiresAt));
+            boolean batchFailed = false;
+            try {
+                batchStore.putAllIfAbsent(batch);
+            } catch (UncheckedIOException e) {
+                batchFailed = true;
+            }
+            boolean memoryClean = batchStore.size() == 0;
+            batchStore.close();
+            PersistentShortUrlStore batchReplayed = PersistentShortUrlStore.open(batchDirectory, new UserService(),
+                    1 << 16, 1);
+            boolean replayClean = batchReplayed.size() == 0;
+            batchReplayed.close();
+            deleteRecursively(batchDirectory);
+
+            if (batchFailed && memoryClean && replayClean) {
+                System.out.println("✅ testFailedBatchRollback - PASSED");
+            } else {
+                System.out.println("❌ testFailedBatchRollback - FAILED: " + batchFailed + " " + memoryClean + " "
+                        + replayClean);
+            }
+
+            // Тест 5: снимок во время созданий не теряет подтверждённых ссылок. Одно создание задержано
+            // между записью в журнал и появлением в памяти - ровно там, где его мог обогнать снимок
+            Path snapshotDirectory = Files.createTempDirectory("url-shortener-snapshot-race");
+            CountDownLatch publishing = new CountDownLatch(1);
+            CountDownLatch publishReleased = new CountDownLatch(1);
+            PersistentShortUrlStore racing = PersistentShortUrlStore.open(snapshotDirectory, new UserService(),
+                    1 << 20, 1, capacity -> new CompactShortUrlStore() {
+                        @Override
+                        public ShortUrl putIfAbsent(ShortUrl shortUrl) {
+                            if (shortUrl.getShortCode().equals("held")) {
+                                publishing.countDown();
+                                try {
+                                    publishReleased.await();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            }
+                            return super.putIfAbsent(shortUrl);
+                        }
+                    });
+            List<String> created = new CopyOnWriteArrayList<>();
+            List<Thread> creators = new ArrayList<>();
+            creators.add(new Thread(() -> {
+                if (racing.putIfAbsent(ShortUrl.create("https://example.com/held", "held", userId, 10,
+                        expiresAt)) == null) {
+                    created.add("held");
+                }
+            }));
+            for (int t = 0; t < 3; t++) {
+                int seed = t;
+                creators.add(new Thread(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        String code = "snap" + seed + "_" + i;
+                        if (racing.putIfAbsent(ShortUrl.create("https://example.com/" + i, code, userId, 10,
+                                expiresAt)) == null) {
+                            created.add(code);
+                        }
+                    }
+                }));
+            }
+            for (Thread creator : creators) {
+                creator.start();
+            }
+            publishing.await();
+            Thread snapshotter = new Thread(() -> {
+                try {
+                    racing.snapshot();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            snapshotter.start();
+            snapshotter.join(500);
+            publishReleased.countDown();
+            snapshotter.join();
+            for (Thread creator : creators) {
+                creator.join();
+            }
+            racing.close();
+            PersistentShortUrlStore reopened = PersistentShortUrlStore.open(snapshotDirectory, new UserService(),
+                    1 << 20, 1);
+            long lostCodes = created.stream().filter(code -> reopened.get(code) == null).count();
+            reopened.close();
+            deleteRecursively(snapshotDirectory);
+
+            if (created.size() == 3001 && lostCodes == 0) {
+                System.out.println("✅ testSnapshotDuringCreates - PASSED");
+            } else {
+                System.out.println("❌ testSnapshotDuringCreates - FAILED: потеряно " + lostCodes + " из "
+                        + created.size());
+            }
+
+            // Тест 6: повреждённый последний снимок останавливает запуск, а не даёт молча урезанное хранилище
+            Path corruptDirectory = Files.createTempDirectory("url-shortener-corrupt");
+            PersistentShortUrlStore beforeCorruption = PersistentShortUrlStore.open(corruptDirectory,
+                    new UserService(), 1 << 20, 1);
+            for (int i = 0; i < 100; i++) {
+                beforeCorruption.putIfAbsent(ShortUrl.create("https://example.com/c/" + i, "corrupt" + i, userId,
+                        10, expiresAt));
+            }
+            beforeCorruption.snapshot();
+            beforeCorruption.close();
+            Path snapshotFile;
+            try (var files = Files.list(corruptDirectory)) {
+                snapshotFile = files.filter(path -> path.getFileName().toString().startsWith("snapshot-"))
+                        .findFirst().orElseThrow();
+            }
+            byte[] snapshotBytes = Files.readAllBytes(snapshotFile);
+            snapshotBytes[snapshotBytes.length / 2] ^= 0x5A;
+            Files.write(snapshotFile, snapshotBytes);
+            boolean refused = false;
+            try {
+                PersistentShortUrlStore.open(corruptDirectory, new UserService(), 1 << 20, 1).close();
+            } catch (IOException e) {
+                refused = e.getMessage().contains(snapshotFile.getFileName().toString());
+            }
+            deleteRecursively(corruptDirectory);
+
+            if (refused) {
+                System.out.println("✅ testCorruptSnapshotStopsRecovery - PASSED");
+            } else {
+                System.out.println("❌ testCorruptSnapshotStopsRecovery - FAILED");
+            }
+
+            // Тест 7: создание, не дождавшееся fsync, уходит из памяти - клиент получил ошибку,
+            // и переход по ссылке, которой может не оказаться после перезапуска, не работает. Так же для пачки
+            Path unsyncedDirectory = Files.createTempDirectory("url-shortener-unsynced");
+            PersistentShortUrlStore unsynced = openWithFailingSync(unsyncedDirectory.resolve("single"));
+            boolean singleFailed = false;
+            try {
+                unsynced.putIfAbsent(ShortUrl.create("https://example.com/u", "unsynced", userId, 10, expiresAt));
+            } catch (UncheckedIOException e) {
+                singleFailed = true;
+            }
+            boolean singleWithdrawn = unsynced.get("unsynced") == null && unsynced.size() == 0;
+            unsynced.close();
+            PersistentShortUrlStore unsyncedBatch = openWithFailingSync(unsyncedDirectory.resolve("batch"));
+            boolean batchSyncFailed = false;
+            try {
+                unsyncedBatch.putAllIfAbsent(List.of(
+                        ShortUrl.create("https://example.com/u1", "unsynced1", userId, 10, expiresAt),
+                        ShortUrl.create("https://example.com/u2", "unsynced2", userId, 10, expiresAt)));
+            } catch (UncheckedIOException e) {
+                batchSyncFailed = true;
+            }
+            boolean batchWithdrawn = unsyncedBatch.size() == 0;
+            unsyncedBatch.close();
+            deleteRecursively(unsyncedDirectory);
+
+            if (singleFailed && singleWithdrawn && batchSyncFailed && batchWithdrawn) {
+                System.out.println("✅ testFailedSyncWithdrawsLink - PASSED");
+            } else {
+                System.out.println("❌ testFailedSyncWithdrawsLink - FAILED: " + singleFailed + " " + singleWithdrawn
+                        + " " + batchSyncFailed + " " + batchWithdrawn);
+            }
+
+            // Тест 8: снимок и журнал хранят моменты, а не локальное время - в другом часовом поясе
+            // ссылки создаются и истекают тогда же
+            Path zoneDirectory = Files.createTempDirectory("url-shortener-zone");
+            TimeZone originalZone = TimeZone.getDefault();
+            boolean zonesAgree;
+            try {
+                TimeZone.setDefault(TimeZone.getTimeZone("Europe/Moscow"));
+                PersistentShortUrlStore moscow = PersistentShortUrlStore.open(zoneDirectory, new UserService(),
+                        1 << 20, 1);
+                ShortUrl inSnapshot = ShortUrl.create("https://example.com/zone/1", "zone1", userId, 10,
+                        LocalDateTime.now().plusHours(2));
+                moscow.putIfAbsent(inSnapshot);
+                moscow.snapshot();
+                ShortUrl inJournal = ShortUrl.create("https://example.com/zone/2", "zone2", userId, 10,
+                        LocalDateTime.now().plusHours(3));
+                moscow.putIfAbsent(inJournal);
+                moscow.close();
+
+                TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+                PersistentShortUrlStore newYork = PersistentShortUrlStore.open(zoneDirectory, new UserService(),
+                        1 << 20, 1);
+                zonesAgree = true;
+                for (ShortUrl original : List.of(inSnapshot, inJournal)) {
+                    ShortUrl zoned = newYork.get(original.getShortCode());
+                    zonesAgree &= zoned != null
+                            && zoned.getExpiresAtMillis() == original.getExpiresAtMillis()
+                            && zoned.getCreatedAtMillis() == original.getCreatedAtMillis()
+                            && zoned.getExpiresAt().equals(LocalDateTime.ofInstant(
+                                    Instant.ofEpochMilli(original.getExpiresAtMillis()), ZoneId.systemDefault()));
+                }
+                newYork.close();
+            } finally {
+                TimeZone.setDefault(originalZone);
+                deleteRecursively(zoneDirectory);
+            }
+
+            if (zonesAgree) {
+                System.out.println("✅ testRecoveryAcrossTimeZones - PASSED");
+            } else {
+                System.out.println("❌ testRecoveryAcrossTimeZones - FAILED");
+            }
+
+            // Тест 9: код удалили и заняли заново, пока сброс переходов держал старую ссылку - её счётчик
+            // ложится в журнал после создания новой, но при воспроизведении новой ссылке не достаётся
+            Path reuseDirectory = Files.createTempDirectory("url-shortener-click-reuse");
+            AtomicReference<PersistentShortUrlStore> reusing = new AtomicReference<>();
+            AtomicBoolean reuseArmed = new AtomicBoolean();
+            PersistentShortUrlStore reuseStore = PersistentShortUrlStore.open(reuseDirectory, new UserService(),
+                    1 << 20, 1, capacity -> new CompactShortUrlStore() {
+                        @Override
+                        public ShortUrl get(String shortCode) {
+                            ShortUrl found = super.get(shortCode);
+                            if (found != null && reuseArmed.compareAndSet(true, false)) {
+                                reusing.get().remove(found);
+                                reusing.get().putIfAbsent(ShortUrl.create("https://example.com/new", shortCode,
+                                        userId, 10, expiresAt));
+                            }
+                            return found;
+                        }
+                    });
+            reusing.set(reuseStore);
+            reuseStore.putIfAbsent(ShortUrl.create("https://example.com/old", "reused", userId, 10, expiresAt));
+            ShortUrl oldLink = reuseStore.get("reused");
+            for (int i = 0; i < 5; i++) {
+                oldLink.tryRegisterClick();
+            }
+            reuseStore.recordClick(oldLink);
+            reuseArmed.set(true);
+            reuseStore.flushClicks();
+            reuseStore.close();
+            PersistentShortUrlStore reuseReplayed = PersistentShortUrlStore.open(reuseDirectory, new UserService(),
+                    1 << 20, 1);
+            ShortUrl newLink = reuseReplayed.get("reused");
+            boolean clicksKeptApart = !reuseArmed.get() && newLink != null
+                    && newLink.getOriginalUrl().equals("https://example.com/new") && newLink.getClickCount() == 0;
+            reuseReplayed.close();
+            deleteRecursively(reuseDirectory);
+
+            if (clicksKeptApart) {
+                System.out.println("✅ testClicksNotReplayedOntoReusedCode - PASSED");
+            } else {
+                System.out.println("❌ testClicksNotReplayedOntoReusedCode - FAILED: "
+                        + (newLink != null ? newLink.getClickCount() : "нет ссылки"));
+            }
+        } catch (Exception e) {
+            System.out.println("❌ Persistence tests FAILED: " + e.getMessage());
+        } finally {
+            if (directory != null) {
+                deleteRecursively(directory);
+            }
+        }
+    }
+
+    public static void testExpiration() {
+        System.out.println("\n=== ТЕСТЫ ИСТЕЧЕНИЯ ССЫЛОК ===");
+
+        // Тест 1: выселяются только наступившие истечения, не больше лимита за тик
+        ConcurrentShortUrlStore store = new ConcurrentShortUrlStore(1024, 100);
+        UUID userId = UUID.randomUUID();
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < 1000; i++) {
+            store.putIfAbsent(ShortUrl.create("https://example.com/old/" + i, "OLD" + i, userId, 10,
+                    now.minusSeconds(1 + i % 10)));
+            store.putIfAbsent(ShortUrl.create("https://example.com/new/" + i, "NEW" + i, userId, 10,
+                    now.plusHours(1)));
+        }
+        store.remove(store.get("OLD0"));
+
+        long nowMillis = System.currentTimeMillis();
+        List<Integer> perTick = new ArrayList<>();
+        int evicted;
+        while ((evicted = store.evictExpired(nowMillis, 300, url -> { })) > 0) {
+            perTick.add(evicted);
+        }
+
+        boolean bounded = perTick.stream().allMatch(count -> count <= 300);
+        int total = perTick.stream().mapToInt(Integer::intValue).sum();
+        if (bounded && total == 999 && store.size() == 1000 && store.get("NEW1") != null) {
+            System.out.println("✅ testIncrementalExpiration - PASSED");
+        } else {
+            System.out.println("❌ testIncrementalExpiration - FAILED (по тикам: " + perTick + ")");
+        }
+
+        // Тест 2: ссылка не выселяется раньше своего expiresAt
+        ShortUrl soon = ShortUrl.create("https://example.com/soon", "SOON", userId, 10, now.plusSeconds(5));
+        store.putIfAbsent(soon);
+        int early = store.evictExpired(soon.getExpiresAtMillis(), Integer.MAX_VALUE, url -> { });
+        int due = store.evictExpired(soon.getExpiresAtMillis() + 101, Integer.MAX_VALUE, url -> { });
+        if (early == 0 && due == 1 && store.get("SOON") == null) {
+            System.out.println("✅ testNoEarlyExpiration - PASSED");
+        } else {
+            System.out.println("❌ testNoEarlyExpiration - FAILED");
+        }
+    }
+
+    public static void testCompactStore() {
+        System.out.println("\n=== ТЕСТЫ КОМПАКТНОГО ХРАНИЛИЩА ===");
+
+        // Тест 1: представление возвращает те же поля, что были у исходной ссылки, включая длинный код
+        CompactShortUrlStore store = new CompactShortUrlStore();
+        UUID userId = UUID.randomUUID();
+        LocalDateTime expiresAt = LocalDateTime.now().plusHours(2).withNano(0);
+        ShortUrl original = ShortUrl.create("https://пример.рф/путь?q=1", "aB3", userId, 7, expiresAt);
+        ShortUrl longCode = ShortUrl.create("https://example.com/long", "very-long-custom-code", userId, 3,
+                expiresAt);
+        store.putIfAbsent(original);
+        store.putIfAbsent(longCode);
+        ShortUrl view = store.get("aB3");
+        boolean fieldsMatch = view.getId().equals(original.getId())
+                && view.getUserId().equals(userId)
+                && view.getOriginalUrl().equals(original.getOriginalUrl())
+                && view.getShortCode().equals("aB3")
+                && view.getClickLimit() == 7
+                && view.getExpiresAt().equals(expiresAt)
+                && view.getExpiresAtMillis() == original.getExpiresAtMillis()
+                && view.isActive()
+                && store.get("very-long-custom-code").getOriginalUrl().equals("https://example.com/long")
+                && store.get("aB4") == null
+                && store.putIfAbsent(ShortUrl.create("https://other.example.com", "aB3", userId, 1, expiresAt))
+                        .getId().equals(original.getId());
+
+        // Переходы и признак активности живут в таблице, а не в объекте представления
+        view.tryRegisterClick();
+        store.get("aB3").tryRegisterClick();
+        store.get("aB3").setActive(false);
+        boolean stateShared = store.get("aB3").getClickCount() == 2 && !view.isActive();
+
+        // Удаление принимает и исходный объект: ссылки сравниваются по id
+        boolean removed = store.remove(original) && store.remove(store.get("very-long-custom-code"))
+                && store.size() == 0 && store.get("aB3") == null;
+
+        if (fieldsMatch && stateShared && removed) {
+            System.out.println("✅ testCompactStoreRoundTrip - PASSED");
+        } else {
+            System.out.println("❌ testCompactStoreRoundTrip - FAILED (поля: " + fieldsMatch +
+                    ", состояние: " + stateShared + ", удаление: " + removed + ")");
+        }
+
+        // Тест 2: горячая ссылка в таблице не превышает лимит при параллельных переходах
+        int clickLimit = 10_000;
+        store.putIfAbsent(ShortUrl.create("https://hot.example.com", "HOT2", userId, clickLimit, expiresAt));
+        AtomicInteger granted = new AtomicInteger();
+        List<Thread> clickers = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            Thread clicker = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (store.get("HOT2").tryRegisterClick()) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            clickers.add(clicker);
+            clicker.start();
+        }
+        try {
+            for (Thread clicker : clickers) {
+                clicker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        ShortUrl hot = store.get("HOT2");
+        if (granted.get() == clickLimit && hot.getClickCount() == clickLimit && hot.isClickLimitExceeded()) {
+            System.out.println("✅ testCompactStoreClickLimit - PASSED");
+        } else {
+            System.out.println("❌ testCompactStoreClickLimit - FAILED (переходов: " + granted.get() +
+                    ", счётчик: " + hot.getClickCount() + "/" + clickLimit + ")");
+        }
+
+        // Тест 3: истечение по тикам работает так же, как у ConcurrentShortUrlStore
+        CompactShortUrlStore expiring = new CompactShortUrlStore(1024, 100);
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < 1000; i++) {
+            expiring.putIfAbsent(ShortUrl.create("https://example.com/old/" + i, "OLD" + i, userId, 10,
+                    now.minusSeconds(1 + i % 10)));
+            expiring.putIfAbsent(ShortUrl.create("https://example.com/new/" + i, "NEW" + i, userId, 10,
+                    now.plusHours(1)));
+        }
+        expiring.remove(expiring.get("OLD0"));
+        long nowMillis = System.currentTimeMillis();
+        int total = 0;
+        int evicted;
+        boolean bounded = true;
+        while ((evicted = expiring.evictExpired(nowMillis, 300, url -> { })) > 0) {
+            bounded &= evicted <= 300;
+            total += evicted;
+        }
+        if (bounded && total == 999 && expiring.size() == 1000 && expiring.get("OLD5") == null
+                && expiring.get("NEW1") != null && expiring.pendingExpirationTicks() == 1) {
+            System.out.println("✅ testCompactStoreExpiration - PASSED");
+        } else {
+            System.out.println("❌ testCompactStoreExpiration - FAILED (выселено: " + total + ")");
+        }
+
+        // Тест 4: представление, пережившее удаление и переиспользование записи (очередь журнала
+        // или аналитики), не выдаёт код и адрес новой ссылки
+        CompactShortUrlStore reused = new CompactShortUrlStore();
+        reused.putIfAbsent(ShortUrl.create("https://example.com/first", "first1", userId, 10, now.plusHours(1)));
+        ShortUrl stale = reused.get("first1");
+        reused.remove(stale);
+        boolean readableAfterDelete = stale.getShortCode().equals("first1");
+        try {
+            // Запись освобождается для новой ссылки не раньше чем через 5 секунд
+            Thread.sleep(6000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reused.putIfAbsent(ShortUrl.create("https://example.com/second", "second", userId, 10, now.plusHours(1)));
+        ShortUrl fresh = reused.get("second");
+        boolean staleRejected;
+        try {
+            stale.getShortCode();
+            stale.getOriginalUrl();
+            staleRejected = false;
+        } catch (IllegalStateException e) {
+            staleRejected = true;
+        }
+        // Числа и изменения сверяют поколение так же: устаревшее представление не выключит новую ссылку
+        // и не засчитает ей переход
+        List<Runnable> staleCalls = List.of(stale::getClickCount, stale::getClickLimit, stale::getCreatedAt,
+                stale::getExpiresAtMillis, stale::isActive, stale::isClickLimitExceeded, stale::tryRegisterClick,
+                () -> stale.setActive(false), () -> stale.restoreClickCount(5));
+        int staleCallsRejected = 0;
+        for (Runnable call : staleCalls) {
+            try {
+                call.run();
+            } catch (IllegalStateException e) {
+                staleCallsRejected++;
+            }
+        }
+        if (readableAfterDelete && staleRejected && !stale.equals(fresh)
+                && staleCallsRejected == staleCalls.size() && fresh.isActive() && fresh.getClickCount() == 0
+                && fresh.getOriginalUrl().equals("https://example.com/second")) {
+            System.out.println("✅ testCompactStoreRecordReuse - PASSED");
+        } else {
+            System.out.println("❌ testCompactStoreRecordReuse - FAILED: " + readableAfterDelete + " "
+                    + staleRejected + " " + staleCallsRejected + " " + fresh.isActive() + " " + fresh.getClickCount());
+        }
+    }
+
+    public static void testEventLog() {
+        System.out.println("\n=== ТЕСТЫ ЖУРНАЛА СОБЫТИЙ ===");
+
+        try {
+            // Тест 1: события пишутся по порядку со структурными полями, выключенный тип не пишется
+            Map<EventType, LogLevel> levels = new EnumMap<>(EventType.class);
+            levels.put(EventType.CREATE, LogLevel.INFO);
+            levels.put(EventType.REDIRECT, LogLevel.DEBUG);
+            levels.put(EventType.CLEANUP, LogLevel.INFO);
+            levels.put(EventType.DELETE, LogLevel.OFF);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            PrintStream sink = new PrintStream(output, true, StandardCharsets.UTF_8);
+            UUID userId = UUID.randomUUID();
+            EventLog log = new EventLog(16, OverflowPolicy.DROP, levels, 1, () -> sink);
+            log.linkCreated("abc", "https://example.com/a", userId, 5);
+            log.redirectMissed("/missing", 1, 8, "NOT_FOUND");
+            log.linkDeleted("abc", userId);
+            log.linksExpired(3);
+            log.close();
+            String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+            if (lines.length == 3
+                    && lines[0].contains("level=INFO event=create code=abc user=" + userId + " limit=5 url=https://example.com/a")
+                    && lines[1].contains("level=DEBUG event=redirect code=missing status=NOT_FOUND")
+                    && lines[2].contains("event=cleanup removed=3")) {
+                System.out.println("✅ testEventLogFields - PASSED");
+            } else {
+                System.out.println("❌ testEventLogFields - FAILED");
+            }
+
+            // Тест 2: DROP - при заполненном кольце события выбрасываются, а не ждут писателя
+            CountDownLatch release = new CountDownLatch(1);
+            ByteArrayOutputStream slowOutput = new ByteArrayOutputStream();
+            PrintStream slowSink = new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    slowOutput.write(b);
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    slowOutput.write(bytes, offset, length);
+                }
+            }, true, StandardCharsets.UTF_8);
+            EventLog dropping = new EventLog(4, OverflowPolicy.DROP, levels, 1, () -> slowSink);
+            long started = System.nanoTime();
+            for (int i = 0; i < 100; i++) {
+                dropping.linksExpired(i);
+            }
+            long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+            long dropped = dropping.getDroppedCount();
+            release.countDown();
+            dropping.close();
+            if (dropped > 0 && elapsedMillis < 1000 && slowOutput.toString(StandardCharsets.UTF_8).contains("event=log_dropped")) {
+                System.out.println("✅ testEventLogDrop - PASSED");
+            } else {
+                System.out.println("❌ testEventLogDrop - FAILED (потеряно: " + dropped + ")");
+            }
+
+            // Тест 3: BLOCK - несколько потоков через маленькое кольцо, ни одно событие не теряется
+            ByteArrayOutputStream blockedOutput = new ByteArrayOutputStream();
+            PrintStream blockedSink = new PrintStream(blockedOutput, true, StandardCharsets.UTF_8);
+            EventLog blocking = new EventLog(8, OverflowPolicy.BLOCK, levels, 1, () -> blockedSink);
+            int threads = 4;
+            int perThread = 2000;
+            CountDownLatch done = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        blocking.linksExpired(i);
+                    }
+                    done.countDown();
+                }).start();
+            }
+            done.await();
+            blocking.close();
+            long written = blockedOutput.toString(StandardCharsets.UTF_8).lines()
+                    .filter(line -> line.contains("event=cleanup")).count();
+            if (written == threads * perThread && blocking.getDroppedCount() == 0) {
+                System.out.println("✅ testEventLogBlock - PASSED");
+            } else {
+                System.out.println("❌ testEventLogBlock - FAILED (записано: " + written + ")");
+            }
+        } catch (Exception e) {
+            System.out.println("❌ Event log tests FAILED: " + e.getMessage());
+        }
+    }
+
+    public static void testClickAnalytics() {
+        System.out.println("\n=== ТЕСТЫ АНАЛИТИКИ ПЕРЕХОДОВ ===");
+
+        try {
+            // Тест 1: источники сводятся к хосту, браузеры - к семействам, переходы попадают в текущие корзины
+            ClickAnalytics analytics = new ClickAnalytics(1024, 20, 1);
+            ShortUrl link = ShortUrl.create("https://example.com", "STATS1", UUID.randomUUID(), 100,
+                    LocalDateTime.now().plusHours(1));
+            String chrome = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 Chrome/120.0 Safari/537.36";
+            InetAddress address = InetAddress.getByAddress(new byte[]{10, 0, 0, 1});
+            analytics.publish(link, "https://www.Example.com/page?q=1", chrome, address);
+            analytics.publish(link, "http://example.com", chrome, address);
+            analytics.publish(link, null, "curl/8.0", null);
+            analytics.awaitIdle(2000);
+            LinkStats stats = analytics.getStats("STATS1");
+            long now = System.currentTimeMillis();
+            int[] perMinute = stats.getClicksPerMinute(now);
+            if (stats.getClicks() == 3 && perMinute.length == 60 && perMinute[59] == 3
+                    && stats.getClicksPerHour(now)[23] == 3 && stats.getClicksPerDay(now)[29] == 3
+                    && stats.getReferrers().equals(Map.of("example.com", 2L, "direct", 1L))
+                    && stats.getUserAgents().equals(Map.of("chrome", 2L, "cli", 1L))
+                    && stats.getUniqueVisitors() == 2) {
+                System.out.println("✅ testClickBreakdowns - PASSED");
+            } else {
+                System.out.println("❌ testClickBreakdowns - FAILED");
+            }
+
+            // Тест 2: оценка уникальных посетителей HyperLogLog в пределах 5% на 20000 адресов
+            ShortUrl popular = ShortUrl.create("https://example.com/popular", "STATS2", UUID.randomUUID(),
+                    Integer.MAX_VALUE, LocalDateTime.now().plusHours(1));
+            int visitors = 20000;
+            for (int i = 0; i < visitors; i++) {
+                analytics.publish(popular, null, chrome, InetAddress.getByAddress(
+                        new byte[]{10, (byte) (i >> 16), (byte) (i >> 8), (byte) i}));
+                if (i % 512 == 0) {
+                    analytics.awaitIdle(2000);
+                }
+            }
+            analytics.awaitIdle(2000);
+            long estimate = analytics.getStats("STATS2").getUniqueVisitors();
+            if (Math.abs(estimate - visitors) < visitors * 0.05 && analytics.getDroppedCount() == 0) {
+                System.out.println("✅ testUniqueVisitorsEstimate - PASSED");
+            } else {
+                System.out.println("❌ testUniqueVisitorsEstimate - FAILED (оценка: " + estimate + ")");
+            }
+            analytics.close();
+
+            // Тест 3: переходы через HTTP видны в /stats/КОД только владельцу
+            UserService userService = new UserService();
+            UUID owner = userService.createUser();
+            UrlShortenerService service = new UrlShortenerService(userService, new AppConfig());
+            String shortUrl = service.createShortUrl("https://example.com/http", owner);
+            String shortCode = shortUrl.substring(shortUrl.lastIndexOf("/") + 1);
+            WebServer server = new WebServer(service, 0);
+            server.start();
+            try {
+                HttpClient client = HttpClient.newHttpClient();
+                String base = "http://localhost:" + server.getPort();
+                HttpResponse<Void> redirect = client.send(HttpRequest.newBuilder(URI.create(base + "/" + shortCode))
+                        .header("Referer", "https://news.example.org/item").header("User-Agent", "curl/8.0").build(),
+                        HttpResponse.BodyHandlers.discarding());
+                String json = "";
+                int ownerStatus = 0;
+                for (int attempt = 0; attempt < 40 && !json.contains("\"clicks\":1"); attempt++) {
+                    Thread.sleep(50);
+                    HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                            URI.create(base + "/stats/" + shortCode)).header("X-User-Id", owner.toString()).build(),
+                            HttpResponse.BodyHandlers.ofString());
+                    ownerStatus = response.statusCode();
+                    json = response.body();
+                }
+                int strangerStatus = client.send(HttpRequest.newBuilder(URI.create(base + "/stats/" + shortCode))
+                        .header("X-User-Id", UUID.randomUUID().toString()).build(),
+                        HttpResponse.BodyHandlers.discarding()).statusCode();
+                int anonymousStatus = client.send(HttpRequest.newBuilder(URI.create(base + "/stats/" + shortCode)).build(),
+                        HttpResponse.BodyHandlers.discarding()).statusCode();
+                String text = service.getUrlStats(shortCode, owner);
+                if (redirect.statusCode() == 302 && ownerStatus == 200
+                        && json.contains("\"referrers\":{\"news.example.org\":1}")
+                        && json.contains("\"userAgents\":{\"cli\":1}")
+                        && strangerStatus == 404 && anonymousStatus == 400
+                        && text.contains("Переходы за час: 1")) {
+                    System.out.println("✅ testStatsEndpoint - PASSED");
+                } else {
+                    System.out.println("❌ testStatsEndpoint - FAILED (" + ownerStatus + " " + json + ")");
+                }
+            } finally {
+                server.stop();
+                service.shutdown();
+            }
+        } catch (Exception e) {
+            System.out.println("❌ Analytics tests FAILED: " + e.getMessage());
+        }
+    }
+
+    public static void testBulkCreate() {
+        System.out.println("\n=== ТЕСТЫ МАССОВОГО СОЗДАНИЯ ===");
+
+        Path directory = null;
+        try {
+            // Тест 1: несколько кусков, ошибки остаются на своих строках, лимиты и владелец применяются
+            directory = Files.createTempDirectory("url-shortener-bulk");
+            UserService userService = new UserService();
+            PersistentShortUrlStore store = PersistentShortUrlStore.open(directory, userService, 1 << 20, 2);
+            UrlShortenerService service = new UrlShortenerService(userService, new AppConfig(), store);
+            UUID userId = userService.createUser();
+            int total = UrlShortenerService.BULK_CHUNK_SIZE * 2 + 500;
+            List<BulkLinkRequest> requests = new ArrayList<>();
+            for (int line = 1; line <= total; line++) {
+                requests.add(line % 100 == 0
+                        ? BulkLinkRequest.of(line, "not-a-url-" + line, 0)
+                        : BulkLinkRequest.of(line, "https://example.com/bulk/" + line, line % 7));
+            }
+            requests.add(BulkLinkRequest.malformed(total + 1, "❌ Нет поля url"));
+            List<BulkLinkResult> results = new ArrayList<>();
+            int created = service.createShortUrls(userId, requests.iterator(), results::add);
+
+            boolean ordered = results.size() == total + 1;
+            for (int i = 0; ordered && i < results.size(); i++) {
+                ordered = results.get(i).getLine() == i + 1;
+            }
+            BulkLinkResult sample = results.get(12);
+            String sampleCode = sample.getShortUrl().substring(sample.getShortUrl().lastIndexOf('/') + 1);
+            ShortUrl stored = store.get(sampleCode);
+            int expected = total - total / 100;
+            if (ordered && created == expected && store.size() == expected
+                    && userService.getUser(userId).getLinkCount() == expected
+                    && !results.get(99).isSuccess() && results.get(99).getError().contains("URL")
+                    && !results.get(total).isSuccess()
+                    && stored.getOriginalUrl().equals("https://example.com/bulk/13")
+                    && stored.getClickLimit() == 13 % 7 && stored.getUserId().equals(userId)
+                    && store.get(codeOf(results.get(6))).getClickLimit() == new AppConfig().getDefaultClickLimit()) {
+                System.out.println("✅ testBulkCreate - PASSED");
+            } else {
+                System.out.println("❌ testBulkCreate - FAILED");
+            }
+
+            // Тест 2: пачка ушла в журнал и переживает перезапуск
+            service.shutdown();
+            store.close();
+            PersistentShortUrlStore restored = PersistentShortUrlStore.open(directory, new UserService(), 1 << 20, 2);
+            if (restored.size() == expected && restored.get(sampleCode) != null) {
+                System.out.println("✅ testBulkCreateDurable - PASSED");
+            } else {
+                System.out.println("❌ testBulkCreateDurable - FAILED");
+            }
+            restored.close();
+
+            // Тест 3: HTTP - NDJSON и CSV с кавычками, ответ в том же формате по строкам
+            UserService httpUsers = new UserService();
+            UUID owner = httpUsers.createUser();
+            UrlShortenerService httpService = new UrlShortenerService(httpUsers, new AppConfig());
+            WebServer server = new WebServer(httpService, 0);
+            server.start();
+            try {
+                HttpClient client = HttpClient.newHttpClient();
+                URI bulk = URI.create("http://localhost:" + server.getPort() + "/api/links/bulk");
+                String ndjson = "{\"url\": \"https://example.com/a\", \"limit\": 5}\n"
+                        + "{\"url\": \"bad url\"}\n"
+                        + "not json\n"
+                        + "\n"
+                        + "{\"limit\": 3, \"url\": \"https://example.com/\\\"q\\\"\"}\n";
+                HttpResponse<String> jsonResponse = client.send(HttpRequest.newBuilder(bulk)
+                        .header("X-User-Id", owner.toString()).header("Content-Type", "application/x-ndjson")
+                        .POST(HttpRequest.BodyPublishers.ofString(ndjson)).build(), HttpResponse.BodyHandlers.ofString());
+                String[] jsonLines = jsonResponse.body().split("\n");
+                String csv = "url,limit\n\"https://example.com/b?x=1,2\",4\nftp-nonsense\n";
+                HttpResponse<String> csvResponse = client.send(HttpRequest.newBuilder(bulk)
+                        .header("X-User-Id", owner.toString()).header("Content-Type", "text/csv")
+                        .POST(HttpRequest.BodyPublishers.ofString(csv)).build(), HttpResponse.BodyHandlers.ofString());
+                String[] csvLines = csvResponse.body().split("\n");
+                int unknownUser = client.send(HttpRequest.newBuilder(bulk)
+                        .header("X-User-Id", UUID.randomUUID().toString())
+                        .POST(HttpRequest.BodyPublishers.ofString(ndjson)).build(),
+                        HttpResponse.BodyHandlers.discarding()).statusCode();
+                if (jsonResponse.statusCode() == 200 && jsonLines.length == 4
+                        && jsonLines[0].startsWith("{\"line\":1,\"url\":\"https://example.com/a\",\"shortUrl\":")
+                        && jsonLines[1].contains("\"line\":2") && jsonLines[1].contains("\"error\"")
+                        && jsonLines[2].contains("\"line\":3") && jsonLines[2].contains("\"error\"")
+                        && jsonLines[3].contains("\"line\":5,\"url\":\"https://example.com/\\\"q\\\"\"")
+                        && csvResponse.statusCode() == 200 && csvLines.length == 3
+                        && csvLines[0].equals("line,url,short_url,error")
+                        && csvLines[1].startsWith("2,\"https://example.com/b?x=1,2\",http://localhost:")
+                        && csvLines[2].startsWith("3,ftp-nonsense,,")
+                        && unknownUser == 404
+                        && httpUsers.getUser(owner).getLinkCount() == 3) {
+                    System.out.println("✅ testBulkEndpoint - PASSED");
+                } else {
+                    System.out.println("❌ testBulkEndpoint - FAILED\n" + jsonResponse.body() + csvResponse.body());
+                }
+            } finally {
+                server.stop();
+                httpService.shutdown();
+            }
+        } catch (Exception e) {
+            System.out.println("❌ Bulk tests FAILED: " + e.getMessage());
+        } finally {
+            if (directory != null) {
+                deleteRecursively(directory);
+            }
+        }
+    }
+
+    public static void testRestApi() {
+        System.out.println("\n=== ТЕСТЫ REST API ===");
+
+        UrlShortenerService service = new UrlShortenerService(new UserService(), new AppConfig());
+        WebServer server = new WebServer(service, 0);
+        try {
+            server.start();
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            String base = "http://localhost:" + server.getPort() + "/api/";
+
+            // Тест 1: пользователь, создание, чтение, удаление и ошибки
+            HttpResponse<String> user = client.send(HttpRequest.newBuilder(URI.create(base + "users"))
+                    .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+            String owner = jsonField(user.body(), "id");
+            HttpResponse<String> created = client.send(HttpRequest.newBuilder(URI.create(base + "links"))
+                    .header("X-User-Id", owner).header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"url\": \"https://example.com/привет\", \"limit\": 7}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            String code = jsonField(created.body(), "code");
+            URI link = URI.create(base + "links/" + code);
+            HttpResponse<String> read = client.send(HttpRequest.newBuilder(link).header("X-User-Id", owner).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            service.redirect(code);
+            HttpResponse<String> readAfterClick = client.send(HttpRequest.newBuilder(link)
+                    .header("X-User-Id", owner).build(), HttpResponse.BodyHandlers.ofString());
+            int foreign = status(client, HttpRequest.newBuilder(link)
+                    .header("X-User-Id", UUID.randomUUID().toString()).build());
+            int noHeader = status(client, HttpRequest.newBuilder(link).build());
+            int badUrl = status(client, HttpRequest.newBuilder(URI.create(base + "links")).header("X-User-Id", owner)
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"url\": \"not-a-url\"}")).build());
+            int badJson = status(client, HttpRequest.newBuilder(URI.create(base + "links")).header("X-User-Id", owner)
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"url\": ")).build());
+            int wrongMethod = status(client, HttpRequest.newBuilder(URI.create(base + "links")).GET().build());
+            int deleted = status(client, HttpRequest.newBuilder(link).header("X-User-Id", owner).DELETE().build());
+            int readDeleted = status(client, HttpRequest.newBuilder(link).header("X-User-Id", owner).build());
+            if (user.statusCode() == 201 && created.statusCode() == 201
+                    && created.headers().firstValue("Location").orElse("").equals("/api/links/" + code)
+                    && created.body().contains("\"url\":\"https://example.com/привет\"")
+                    && created.body().contains("\"clickLimit\":7") && created.body().contains("\"active\":true")
+                    && read.statusCode() == 200 && read.body().equals(created.body())
+                    && readAfterClick.body().contains("\"clicks\":1")
+                    && foreign == 404 && noHeader == 400 && badUrl == 400 && badJson == 400 && wrongMethod == 405
+                    && deleted == 204 && readDeleted == 404 && service.getLinkCount() == 0) {
+                System.out.println("✅ testRestLinkLifecycle - PASSED");
+            } else {
+                System.out.println("❌ testRestLinkLifecycle - FAILED\n" + created.body() + "\n" + read.body());
+            }
+
+            // Тест 2: ссылки пользователя страницами по времени создания
+            UUID pagedOwner = service.createUser();
+            List<String> codes = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                codes.add(service.createLink("https://example.com/page/" + i, pagedOwner).getShortCode());
+                Thread.sleep(2);
+            }
+            List<String> listed = new ArrayList<>();
+            String after = null;
+            int pages = 0;
+            do {
+                HttpResponse<String> page = client.send(HttpRequest.newBuilder(URI.create(base + "users/" + pagedOwner
+                        + "/links?limit=2" + (after != null ? "&after=" + after : ""))).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                Matcher matcher = Pattern.compile("\"code\":\"([^\"]+)\"")
+                        .matcher(page.body());
+                while (matcher.find()) {
+                    listed.add(matcher.group(1));
+                }
+                after = page.body().endsWith("\"next\":null}") ? null : jsonField(page.body(), "next");
+                pages++;
+            } while (after != null && pages < 10);
+            // Ссылку, на которой кончилась страница, удалили до следующего запроса - список продолжается
+            HttpResponse<String> firstPage = client.send(HttpRequest.newBuilder(URI.create(base + "users/"
+                    + pagedOwner + "/links?limit=2")).build(), HttpResponse.BodyHandlers.ofString());
+            String cursor = jsonField(firstPage.body(), "next");
+            service.deleteShortUrl(codes.get(1), pagedOwner);
+            HttpResponse<String> afterDeleted = client.send(HttpRequest.newBuilder(URI.create(base + "users/"
+                    + pagedOwner + "/links?limit=2&after=" + cursor)).build(), HttpResponse.BodyHandlers.ofString());
+            int unknownUser = status(client, HttpRequest.newBuilder(URI.create(base + "users/" + UUID.randomUUID()
+                    + "/links")).build());
+            int badLimit = status(client, HttpRequest.newBuilder(URI.create(base + "users/" + pagedOwner
+                    + "/links?limit=0")).build());
+            int badCursor = status(client, HttpRequest.newBuilder(URI.create(base + "users/" + pagedOwner
+                    + "/links?after=" + codes.get(2))).build());
+            if (listed.equals(codes) && pages == 3 && unknownUser == 404 && badLimit == 400 && badCursor == 400
+                    && afterDeleted.statusCode() == 200
+                    && afterDeleted.body().indexOf("\"code\":\"" + codes.get(2) + "\"") > 0
+                    && afterDeleted.body().indexOf("\"code\":\"" + codes.get(3) + "\"")
+                        > afterDeleted.body().indexOf("\"code\":\"" + codes.get(2) + "\"")) {
+                System.out.println("✅ testRestUserLinks - PASSED");
+            } else {
+                System.out.println("❌ testRestUserLinks - FAILED: " + listed + " vs " + codes + "\n"
+                        + afterDeleted.body());
+            }
+
+            // Тест 3: несколько запросов подряд по одному соединению, включая ответ с ошибкой
+            try (Socket socket = new Socket("localhost", server.getPort())) {
+                OutputStream out = socket.getOutputStream();
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                String[] paths = {"/api/users/" + pagedOwner + "/links?limit=1", "/api/links/missing",
+                        "/api/users/" + pagedOwner + "/links?limit=1"};
+                int[] statuses = new int[paths.length];
+                for (int i = 0; i < paths.length; i++) {
+                    out.write(("GET " + paths[i] + " HTTP/1.1\r\nHost: localhost\r\nX-User-Id: " + pagedOwner
+                            + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    statuses[i] = readResponse(in);
+                }
+                if (statuses[0] == 200 && statuses[1] == 404 && statuses[2] == 200) {
+                    System.out.println("✅ testRestKeepAlive - PASSED");
+                } else {
+                    System.out.println("❌ testRestKeepAlive - FAILED: " + Arrays.toString(statuses));
+                }
+            }
+
+            // Тест 4: сбой на стороне сервера - 503, ошибка в запросе - по-прежнему 400
+            UrlShortenerService full = new UrlShortenerService(new UserService(), new AppConfig(),
+                    new CompactShortUrlStore() {
+                        @Override
+                        public ShortUrl putIfAbsent(ShortUrl shortUrl) {
+                            return shortUrl;
+                        }
+                    });
+            WebServer fullServer = new WebServer(full, 0);
+            try {
+                fullServer.start();
+                String fullBase = "http://localhost:" + fullServer.getPort() + "/api/links";
+                String fullOwner = full.createUser().toString();
+                int exhausted = status(client, HttpRequest.newBuilder(URI.create(fullBase)).header("X-User-Id", fullOwner)
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"url\": \"https://example.com/full\"}")).build());
+                int invalid = status(client, HttpRequest.newBuilder(URI.create(fullBase)).header("X-User-Id", fullOwner)
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"url\": \"not-a-url\"}")).build());
+                if (exhausted == 503 && invalid == 400) {
+                    System.out.println("✅ testRestServerFailure - PASSED");
+                } else {
+                    System.out.println("❌ testRestServerFailure - FAILED: " + exhausted + ", " + invalid);
+                }
+            } finally {
+                fullServer.stop();
+                full.shutdown();
+            }
+        } catch (Exception e) {
+            System.out.println("❌ REST API tests FAILED: " + e);
+        } finally {
+            server.stop();
+            service.shutdown();
+        }
+    }
+
+    public static void testCachingStore() {
+        System.out.println("\n=== ТЕСТЫ КЭША ССЫЛОК ===");
+
+        // Тест 1: попадание, запомненное отсутствие и переходы, записанные в исходную ссылку
+        CompactShortUrlStore backing = new CompactShortUrlStore();
+        CachingShortUrlStore cache = new CachingShortUrlStore(backing, 1 << 20, 1024);
+        UUID userId = UUID.randomUUID();
+        LocalDateTime expiresAt = LocalDateTime.now().plusHours(1);
+        cache.putIfAbsent(ShortUrl.create("https://example.com/cached", "C1", userId, 2, expiresAt));
+        ShortUrl loaded = cache.get("C1");
+        ShortUrl cached = cache.get("/C1", 1, 3);
+        boolean firstClick = cached.tryRegisterClick();
+        boolean secondClick = cache.get("C1").tryRegisterClick();
+        boolean thirdClick = cache.get("C1").tryRegisterClick();
+        boolean missing = cache.get("NOPE") == null && cache.get("/NOPE", 1, 5) == null;
+        long negativeBefore = cache.getNegativeHitCount();
+        cache.putIfAbsent(ShortUrl.create("https://example.com/late", "NOPE", userId, 1, expiresAt));
+        boolean negativeInvalidated = cache.get("NOPE") != null;
+        if (loaded != null && cached != null && cached.getOriginalUrl().equals("https://example.com/cached")
+                && cached.getId().equals(loaded.getId()) && firstClick && secondClick && !thirdClick
+                && backing.get("C1").getClickCount() == 2 && cache.getHitCount() == 3
+                && negativeBefore == 1 && negativeInvalidated) {
+            System.out.println("✅ testCacheReadThrough - PASSED");
+        } else {
+            System.out.println("❌ testCacheReadThrough - FAILED");
+        }
+
+        // Тест 2: удаление и истечение убирают ссылку из кэша
+        boolean removed = cache.remove(cache.get("C1")) && cache.get("C1") == null && backing.get("C1") == null;
+        ShortUrl expiring = ShortUrl.create("https://example.com/old", "OLD", userId, 1,
+                LocalDateTime.now().plusSeconds(1));
+        cache.putIfAbsent(expiring);
+        cache.get("OLD");
+        cache.get("OLD");
+        List<String> evicted = new ArrayList<>();
+        cache.evictExpired(expiring.getExpiresAtMillis() + 5_000, Integer.MAX_VALUE,
+                url -> evicted.add(url.getShortCode()));
+        if (removed && evicted.contains("OLD") && cache.get("OLD") == null) {
+            System.out.println("✅ testCacheInvalidation - PASSED");
+        } else {
+            System.out.println("❌ testCacheInvalidation - FAILED");
+        }
+
+        // Тест 3: объём не превышает заданного, а однократный перебор не вымывает горячие ссылки
+        CompactShortUrlStore big = new CompactShortUrlStore();
+        CachingShortUrlStore small = new CachingShortUrlStore(big, 64 * 1024, 1024);
+        for (int i = 0; i < 20_000; i++) {
+            big.putIfAbsent(ShortUrl.create("https://example.com/articles/" + i, "Z" + i, userId,
+                    Integer.MAX_VALUE, expiresAt));
+        }
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 50; i++) {
+                small.get("Z" + i);
+            }
+        }
+        for (int i = 1_000; i < 20_000; i++) {
+            small.get("Z" + i);
+        }
+        long hitsBefore = small.getHitCount();
+        for (int i = 0; i < 50; i++) {
+            small.get("Z" + i);
+        }
+        long hotHits = small.getHitCount() - hitsBefore;
+        if (small.getWeightedBytes() <= 64 * 1024 && small.getEvictionCount() > 0 && hotHits >= 45) {
+            System.out.println("✅ testCacheScanResistance - PASSED");
+        } else {
+            System.out.println("❌ testCacheScanResistance - FAILED: горячих попаданий " + hotHits + "/50, байт "
+                    + small.getWeightedBytes());
+        }
+
+        // Тест 4: параллельные чтения, удаления и повторные вставки не оставляют в кэше устаревших ссылок
+        CompactShortUrlStore raced = new CompactShortUrlStore();
+        CachingShortUrlStore racedCache = new CachingShortUrlStore(raced, 16 * 1024, 64);
+        int codes = 64;
+        for (int i = 0; i < codes; i++) {
+            raced.putIfAbsent(ShortUrl.create("https://example.com/r/" + i, "R" + i, userId, Integer.MAX_VALUE,
+                    expiresAt));
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            boolean writer = t == 0;
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 50_000; i++) {
+                    String code = "R" + random.nextInt(codes);
+                    if (writer && random.nextBoolean()) {
+                        ShortUrl current = racedCache.get(code);
+                        if (current != null) {
+                            racedCache.remove(current);
+                        } else {
+                            racedCache.putIfAbsent(ShortUrl.create("https://example.com/r/new", code, userId,
+                                    Integer.MAX_VALUE, expiresAt));
+                        }
+                    } else {
+                        racedCache.get(code);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        boolean consistent = true;
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (int i = 0; i < codes; i++) {
+            ShortUrl fromCache = racedCache.get("R" + i);
+            ShortUrl fromStore = raced.get("R" + i);
+            consistent &= fromCache == null ? fromStore == null
+                    : fromStore != null && fromCache.getId().equals(fromStore.getId());
+        }
+        if (consistent) {
+            System.out.println("✅ testCacheConcurrentInvalidation - PASSED");
+        } else {
+            System.out.println("❌ testCacheConcurrentInvalidation - FAILED");
+        }
+
+        // Тест 5: запись чужого кода во время загрузки не мешает оставить ссылку в кэше, запись своего - мешает
+        AtomicReference<Runnable> duringLoad = new AtomicReference<>();
+        CompactShortUrlStore slowBacking = new CompactShortUrlStore() {
+            @Override
+            public ShortUrl get(CharSequence text, int start, int end) {
+                ShortUrl found = super.get(text, start, end);
+                Runnable write = duringLoad.getAndSet(null);
+                if (write != null) {
+                    write.run();
+                }
+                return found;
+            }
+        };
+        CachingShortUrlStore isolated = new CachingShortUrlStore(slowBacking, 16 * 1024, 64);
+        slowBacking.putIfAbsent(ShortUrl.create("https://example.com/w/1", "W1", userId, 10, expiresAt));
+        ShortUrl secondLink = ShortUrl.create("https://example.com/w/2", "W2", userId, 10, expiresAt);
+        slowBacking.putIfAbsent(secondLink);
+        duringLoad.set(() -> isolated.putIfAbsent(ShortUrl.create("https://example.com/w/3", "W3", userId, 10,
+                expiresAt)));
+        isolated.get("W1");
+        long hitsBeforeReread = isolated.getHitCount();
+        isolated.get("W1");
+        boolean otherWriteKept = isolated.getHitCount() == hitsBeforeReread + 1;
+        duringLoad.set(() -> isolated.remove(secondLink));
+        isolated.get("W2");
+        boolean ownWriteDropped = isolated.get("W2") == null;
+        if (otherWriteKept && ownWriteDropped) {
+            System.out.println("✅ testCacheInvalidationPerCode - PASSED");
+        } else {
+            System.out.println("❌ testCacheInvalidationPerCode - FAILED: чужая запись " + otherWriteKept
+                    + ", своя " + ownWriteDropped);
+        }
+
+        // Тест 6: переходы через кэш доходят до журнала и переживают перезапуск
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("url-shortener-cache");
+            UserService userService = new UserService();
+            PersistentShortUrlStore store = PersistentShortUrlStore.open(directory, userService, 1 << 20, 2);
+            UrlShortenerService service = new UrlShortenerService(userService, new AppConfig(),
+                    new CachingShortUrlStore(store, 1 << 20, 1024));
+            String shortUrl = service.createShortUrl("https://example.com/durable", userService.createUser());
+            String code = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+            for (int i = 0; i < 3; i++) {
+                service.redirect(code);
+            }
+            service.shutdown();
+            store.close();
+            PersistentShortUrlStore restored = PersistentShortUrlStore.open(directory, new UserService(), 1 << 20, 2);
+            int clicks = restored.get(code).getClickCount();
+            restored.close();
+            if (clicks == 3) {
+                System.out.println("✅ testCacheWriteBack - PASSED");
+            } else {
+                System.out.println("❌ testCacheWriteBack - FAILED: переходов после перезапуска " + clicks);
+            }
+        } catch (Exception e) {
+            System.out.println("❌ testCacheWriteBack - FAILED: " + e.getMessage());
+        } finally {
+            if (directory != null) {
+                deleteRecursively(directory);
+            }
+        }
+    }
+
+    public static void testCodeFilter() {
+        System.out.println("\n=== ТЕСТЫ ФИЛЬТРА КОДОВ ===");
+
+        // Тест 1: все живые коды проходят, случайные почти все отсекаются; фильтр растёт от 1024 кодов
+        CompactShortUrlStore backing = new CompactShortUrlStore();
+        UUID userId = UUID.randomUUID();
+        LocalDateTime expiresAt = LocalDateTime.now().plusHours(1);
+        backing.putIfAbsent(ShortUrl.create("https://example.com/restored", "RESTORED", userId, 10, expiresAt));
+        FilteredShortUrlStore filtered = new FilteredShortUrlStore(backing);
+        List<ShortUrl> links = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            ShortUrl link = ShortUrl.create("https://example.com/f/" + i, "F" + i, userId, 10, expiresAt);
+            links.add(link);
+            if (i % 2 == 0) {
+                filtered.putIfAbsent(link);
+            }
+        }
+        List<ShortUrl> odd = new ArrayList<>();
+        for (int i = 1; i < links.size(); i += 2) {
+            odd.add(links.get(i));
+        }
+        filtered.putAllIfAbsent(odd);
+        boolean allFound = filtered.get("RESTORED") != null && filtered.get("/RESTORED", 1, 9) != null;
+        for (ShortUrl link : links) {
+            ShortUrl found = filtered.get(link.getShortCode());
+            allFound &= found != null && found.getId().equals(link.getId());
+        }
+        for (int i = 0; i < 20_000; i++) {
+            filtered.get("X" + i);
+        }
+        long rejected = filtered.getRejectedCount();
+        if (allFound && rejected >= 19_900 && filtered.getFingerprintCount() == 20_001) {
+            System.out.println("✅ testCodeFilterLookup - PASSED");
+        } else {
+            System.out.println("❌ testCodeFilterLookup - FAILED: отсечено " + rejected + "/20000, отпечатков "
+                    + filtered.getFingerprintCount());
+        }
+
+        // Тест 2: удаление, истечение и неудачная вставка снимают свои отпечатки и не трогают чужие
+        ShortUrl duplicate = ShortUrl.create("https://example.com/dup", "F0", userId, 10, expiresAt);
+        ShortUrl existing = filtered.putIfAbsent(duplicate);
+        boolean duplicateRejected = existing != null && existing.getId().equals(links.get(0).getId());
+        for (int i = 0; i < 10_000; i++) {
+            filtered.remove(filtered.get(links.get(i).getShortCode()));
+        }
+        ShortUrl expiring = ShortUrl.create("https://example.com/old", "OLD", userId, 1,
+                LocalDateTime.now().plusSeconds(1));
+        filtered.putIfAbsent(expiring);
+        List<String> evicted = new ArrayList<>();
+        filtered.evictExpired(expiring.getExpiresAtMillis() + 5_000, Integer.MAX_VALUE,
+                url -> evicted.add(url.getShortCode()));
+        int stillPassing = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filtered.mightContain("F" + i, 0, ("F" + i).length())) {
+                stillPassing++;
+            }
+        }
+        boolean survivorsFound = filtered.get("F0") == null;
+        for (int i = 10_000; i < links.size(); i++) {
+            ShortUrl found = filtered.get(links.get(i).getShortCode());
+            survivorsFound &= found != null && found.getId().equals(links.get(i).getId());
+        }
+        if (duplicateRejected && survivorsFound && evicted.contains("OLD") && !filtered.mightContain("OLD", 0, 3)
+                && stillPassing <= 10 && filtered.getFingerprintCount() == 10_001) {
+            System.out.println("✅ testCodeFilterDeletes - PASSED");
+        } else {
+            System.out.println("❌ testCodeFilterDeletes - FAILED: удалённых проходит " + stillPassing
+                    + ", отпечатков " + filtered.getFingerprintCount());
+        }
+
+        // Тест 3: вставки, удаления и рост фильтра под чтением не дают ложных «нет» живым кодам
+        FilteredShortUrlStore raced = new FilteredShortUrlStore(new CompactShortUrlStore());
+        int stable = 256;
+        for (int i = 0; i < stable; i++) {
+            raced.putIfAbsent(ShortUrl.create("https://example.com/s/" + i, "S" + i, userId, 10, expiresAt));
+        }
+        AtomicInteger lost = new AtomicInteger();
+        CountDownLatch writersDone = new CountDownLatch(2);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            boolean writer = t < 2;
+            int seed = t;
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                if (writer) {
+                    for (int i = 0; i < 30_000; i++) {
+                        ShortUrl link = ShortUrl.create("https://example.com/w", "W" + seed + "_" + i, userId, 10,
+                                expiresAt);
+                        raced.putIfAbsent(link);
+                        if (random.nextInt(3) == 0) {
+                            raced.remove(link);
+                        }
+                    }
+                    writersDone.countDown();
+                } else {
+                    while (writersDone.getCount() > 0) {
+                        if (raced.get("S" + random.nextInt(stable)) == null) {
+                            lost.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int[] missing = new int[1];
+        raced.forEach(link -> {
+            if (!raced.mightContain(link.getShortCode(), 0, link.getShortCode().length())) {
+                missing[0]++;
+            }
+        });
+        if (lost.get() == 0 && missing[0] == 0 && raced.size() > stable) {
+            System.out.println("✅ testCodeFilterConcurrentChurn - PASSED");
+        } else {
+            System.out.println("❌ testCodeFilterConcurrentChurn - FAILED: потеряно чтений " + lost.get()
+                    + ", кодов без отпечатка " + missing[0]);
+        }
+
+        // Тест 4: HTTP отвечает на отсечённый код коротким 404, существующий код по-прежнему ведёт на URL
+        UserService userService = new UserService();
+        UrlShortenerService service = new UrlShortenerService(userService, new AppConfig(),
+                new FilteredShortUrlStore(new CompactShortUrlStore()));
+        WebServer server = new WebServer(service, 0);
+        try {
+            server.start();
+            String shortUrl = service.createShortUrl("https://example.com/guarded", userService.createUser());
+            String code = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            String base = "http://localhost:" + server.getPort() + "/";
+            HttpResponse<String> unknown = client.send(HttpRequest.newBuilder(URI.create(base + "zzzUnknown")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> known = client.send(HttpRequest.newBuilder(URI.create(base + code)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            if (unknown.statusCode() == 404 && unknown.body().equals(RedirectStatus.NOT_FOUND.getMessage() + "\n")
+                    && unknown.headers().firstValue("Content-Type").orElse("").startsWith("text/plain")
+                    && known.statusCode() == 302
+                    && known.headers().firstValue("Location").orElse("").equals("https://example.com/guarded")) {
+                System.out.println("✅ testCodeFilterHttp - PASSED");
+            } else {
+                System.out.println("❌ testCodeFilterHttp - FAILED: " + unknown.statusCode() + " " + known.statusCode());
+            }
+        } catch (Exception e) {
+            System.out.println("❌ testCodeFilterHttp - FAILED: " + e.getMessage());
+        } finally {
+            server.stop();
+            service.shutdown();
+        }
+
+        // Тест 5: пока перестройка обходит хранилище, вставки и чтения не ждут её, а после неё
+        // в фильтре есть и коды, вставленные во время обхода
+        CountDownLatch walkStarted = new CountDownLatch(1);
+        CountDownLatch walkReleased = new CountDownLatch(1);
+        AtomicBoolean holdWalk = new AtomicBoolean();
+        FilteredShortUrlStore slowRebuild = new FilteredShortUrlStore(new CompactShortUrlStore() {
+            @Override
+            public void forEach(Consumer<ShortUrl> action) {
+                if (holdWalk.getAndSet(false)) {
+                    walkStarted.countDown();
+                    try {
+                        walkReleased.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.forEach(action);
+            }
+        });
+        holdWalk.set(true);
+        Thread grower = new Thread(() -> {
+            for (int i = 0; walkStarted.getCount() > 0 && i < 100_000; i++) {
+                slowRebuild.putIfAbsent(ShortUrl.create("https://example.com/g", "G" + i, userId, 10, expiresAt));
+            }
+        });
+        grower.start();
+        try {
+            boolean rebuilding = walkStarted.await(30, TimeUnit.SECONDS);
+            Thread creator = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    slowRebuild.putIfAbsent(ShortUrl.create("https://example.com/d", "D" + i, userId, 10, expiresAt));
+                }
+            });
+            creator.start();
+            creator.join(10_000);
+            boolean createsDone = !creator.isAlive();
+            boolean readable = slowRebuild.get("D999") != null && slowRebuild.get("G0") != null;
+            walkReleased.countDown();
+            creator.join();
+            grower.join();
+            boolean createdFound = true;
+            for (int i = 0; i < 1000; i++) {
+                createdFound &= slowRebuild.get("D" + i) != null;
+            }
+            int[] unfiltered = new int[1];
+            slowRebuild.forEach(link -> {
+                if (!slowRebuild.mightContain(link.getShortCode(), 0, link.getShortCode().length())) {
+                    unfiltered[0]++;
+                }
+            });
+            if (rebuilding && createsDone && readable && createdFound && unfiltered[0] == 0
+                    && slowRebuild.getFingerprintCount() >= slowRebuild.size()) {
+                System.out.println("✅ testCodeFilterRebuildNonBlocking - PASSED");
+            } else {
+                System.out.println("❌ testCodeFilterRebuildNonBlocking - FAILED: " + rebuilding + " " + createsDone
+                        + " " + readable + " " + createdFound + " " + unfiltered[0]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            walkReleased.countDown();
+        }
+    }
+
+    public static void testRedirectPolicies() {
+        System.out.println("\n=== ТЕСТЫ ПОЛИТИК РЕДИРЕКТА ===");
+
+        UserService userService = new UserService();
+        CompactShortUrlStore store = new CompactShortUrlStore();
+        UrlShortenerService service = new UrlShortenerService(userService, new AppConfig(), store);
+        WebServer server = new WebServer(service, 0);
+        try {
+            server.start();
+            UUID userId = userService.createUser();
+            String limited = service.createLink("https://example.com/limited", userId, 5).getShortCode();
+            String unlimited = service.createLink("https://example.com/forever", userId, ShortUrl.UNLIMITED)
+                    .getShortCode();
+            store.putIfAbsent(ShortUrl.create("https://example.com/soon", "SOON", userId, ShortUrl.UNLIMITED,
+                    LocalDateTime.now().plusSeconds(60)));
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            String base = "http://localhost:" + server.getPort() + "/";
+
+            // Тест 1: ссылка с лимитом - 302 no-store без тега, каждый визит засчитан
+            HttpResponse<Void> limitedResponse = client.send(HttpRequest.newBuilder(URI.create(base + limited)).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            if (limitedResponse.statusCode() == 302
+                    && limitedResponse.headers().firstValue("Cache-Control").orElse("").equals("no-store")
+                    && limitedResponse.headers().firstValue("ETag").isEmpty()
+                    && limitedResponse.headers().firstValue("Location").orElse("").equals("https://example.com/limited")
+                    && store.get(limited).getClickCount() == 1) {
+                System.out.println("✅ testRedirectLimitedIsTemporary - PASSED");
+            } else {
+                System.out.println("❌ testRedirectLimitedIsTemporary - FAILED: " + limitedResponse.statusCode() + " "
+                        + limitedResponse.headers().map());
+            }
+
+            // Тест 2: ссылка без лимита - 301 с max-age не дольше срока жизни ссылки и тегом
+            HttpResponse<Void> permanent = client.send(HttpRequest.newBuilder(URI.create(base + unlimited)).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            HttpResponse<Void> soon = client.send(HttpRequest.newBuilder(URI.create(base + "SOON")).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            String etag = permanent.headers().firstValue("ETag").orElse("");
+            long maxAge = maxAgeOf(permanent);
+            long soonMaxAge = maxAgeOf(soon);
+            if (permanent.statusCode() == 301 && maxAge > 86_000 && maxAge <= 86_400
+                    && permanent.headers().firstValue("Cache-Control").orElse("").startsWith("public, max-age=")
+                    && etag.startsWith("\"") && etag.length() > 2
+                    && permanent.headers().firstValue("Location").orElse("").equals("https://example.com/forever")
+                    && soon.statusCode() == 301 && soonMaxAge > 0 && soonMaxAge <= 60) {
+                System.out.println("✅ testRedirectUnlimitedIsPermanent - PASSED");
+            } else {
+                System.out.println("❌ testRedirectUnlimitedIsPermanent - FAILED: " + permanent.statusCode() + " "
+                        + permanent.headers().map() + " / " + soon.headers().map());
+            }
+
+            // Тест 3: повторный запрос с тегом получает 304, с чужим тегом - снова 301
+            HttpResponse<Void> notModified = client.send(HttpRequest.newBuilder(URI.create(base + unlimited))
+                    .header("If-None-Match", "\"other\", W/" + etag).build(), HttpResponse.BodyHandlers.discarding());
+            HttpResponse<Void> otherTag = client.send(HttpRequest.newBuilder(URI.create(base + unlimited))
+                    .header("If-None-Match", "\"other\"").build(), HttpResponse.BodyHandlers.discarding());
+            if (notModified.statusCode() == 304 && notModified.headers().firstValue("ETag").orElse("").equals(etag)
+                    && notModified.headers().firstValue("Cache-Control").orElse("").startsWith("public")
+                    && otherTag.statusCode() == 301) {
+                System.out.println("✅ testRedirectConditional - PASSED");
+            } else {
+                System.out.println("❌ testRedirectConditional - FAILED: " + notModified.statusCode() + " "
+                        + otherTag.statusCode());
+            }
+
+            // Тест 4: HEAD отдаёт те же заголовки, но не тратит переход; неизвестный код - 404 с длиной тела
+            HttpResponse<Void> head = client.send(HttpRequest.newBuilder(URI.create(base + limited))
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+            HttpResponse<Void> headMissing = client.send(HttpRequest.newBuilder(URI.create(base + "NoSuchCode"))
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+            if (head.statusCode() == 302 && head.headers().firstValue("Cache-Control").orElse("").equals("no-store")
+                    && store.get(limited).getClickCount() == 1 && headMissing.statusCode() == 404
+                    && Long.parseLong(headMissing.headers().firstValue("Content-Length").orElse("0")) > 0) {
+                System.out.println("✅ testRedirectHead - PASSED");
+            } else {
+                System.out.println("❌ testRedirectHead - FAILED: " + head.statusCode() + " кликов "
+                        + store.get(limited).getClickCount() + " " + headMissing.headers().map());
+            }
+        } catch (Exception e) {
+            System.out.println("❌ testRedirectPolicies - FAILED: " + e.getMessage());
+        } finally {
+            server.stop();
+            service.shutdown();
+        }
+    }
+
+    public static void testCluster() {
+        System.out.println("\n=== ТЕСТЫ КЛАСТЕРА ===");
+
+        List<Process> nodes = new ArrayList<>();
+        try {
+            int[] ports = new int[3];
+            for (int i = 0; i < ports.length; i++) {
+                try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                    ports[i] = socket.getLocalPort();
+                }
+            }
+            String twoNodes = "a=http://127.0.0.1:" + ports[0] + ",b=http://127.0.0.1:" + ports[1];
+            String threeNodes = twoNodes + ",c=http://127.0.0.1:" + ports[2];
+            // a отправляет клиента к владельцу редиректом, b и c проксируют запрос сами
+            nodes.add(startNode("a", ports[0], twoNodes, "redirect"));
+            nodes.add(startNode("b", ports[1], twoNodes, "proxy"));
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            String a = "http://127.0.0.1:" + ports[0];
+            String b = "http://127.0.0.1:" + ports[1];
+            String c = "http://127.0.0.1:" + ports[2];
+
+            Map<String, String> urls = new ConcurrentHashMap<>();
+            List<String> codesA = createClusterLinks(client, a, 30, urls);
+            List<String> codesB = createClusterLinks(client, b, 30, urls);
+
+            // Тест 1: узел создаёт коды только своих частей
+            HashRing ring = new HashRing(ClusterNode.parseList(twoNodes), 128);
+            String partitionsA = new String(ring.partitionsOf("a"));
+            String partitionsB = new String(ring.partitionsOf("b"));
+            if (!partitionsA.isEmpty() && !partitionsB.isEmpty()
+                    && codesA.stream().allMatch(code -> partitionsA.indexOf(code.charAt(0)) >= 0)
+                    && codesB.stream().allMatch(code -> partitionsB.indexOf(code.charAt(0)) >= 0)) {
+                System.out.println("✅ testClusterCodesCarryShard - PASSED");
+            } else {
+                System.out.println("❌ testClusterCodesCarryShard - FAILED: " + codesA + " " + codesB);
+            }
+
+            // Тест 2: чужой код - 307 на владельца в режиме redirect, ответ владельца в режиме proxy
+            String codeB = codesB.get(0);
+            String codeA = codesA.get(0);
+            HttpResponse<Void> redirected = client.send(HttpRequest.newBuilder(URI.create(a + "/" + codeB)).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            HttpResponse<Void> proxied = client.send(HttpRequest.newBuilder(URI.create(b + "/" + codeA)).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            HttpResponse<Void> missing = client.send(HttpRequest.newBuilder(URI.create(b + "/" + codeA.charAt(0)
+                    + "zzzzzz")).build(), HttpResponse.BodyHandlers.discarding());
+            if (redirected.statusCode() == 307
+                    && redirected.headers().firstValue("Location").orElse("").equals(b + "/" + codeB)
+                    && proxied.statusCode() == 302
+                    && proxied.headers().firstValue("Location").orElse("").equals(urls.get(codeA))
+                    && missing.statusCode() == 404) {
+                System.out.println("✅ testClusterForwarding - PASSED");
+            } else {
+                System.out.println("❌ testClusterForwarding - FAILED: " + redirected.statusCode() + " "
+                        + redirected.headers().map() + " / " + proxied.statusCode() + " / " + missing.statusCode());
+            }
+
+            // Тест 3: служебные методы закрыты токеном, без токена узел в кластере не запускается
+            int withoutToken = status(client, HttpRequest.newBuilder(URI.create(a + "/cluster/ring")).build());
+            int wrongToken = status(client, HttpRequest.newBuilder(URI.create(a + "/cluster/ring"))
+                    .header("X-Cluster-Token", "secreT").build());
+            HttpResponse<String> ringResponse = client.send(HttpRequest.newBuilder(URI.create(a + "/cluster/ring"))
+                    .header("X-Cluster-Token", "secret").build(), HttpResponse.BodyHandlers.ofString());
+            System.setProperty("cluster.node.id", "a");
+            System.setProperty("cluster.nodes", twoNodes);
+            AppConfig tokenlessConfig;
+            try {
+                tokenlessConfig = new AppConfig();
+            } finally {
+                System.clearProperty("cluster.node.id");
+                System.clearProperty("cluster.nodes");
+            }
+            boolean tokenlessRefused;
+            try {
+                Cluster.fromConfig(tokenlessConfig);
+                tokenlessRefused = false;
+            } catch (IllegalStateException e) {
+                tokenlessRefused = true;
+            }
+            if (withoutToken == 403 && wrongToken == 403 && ringResponse.statusCode() == 200
+                    && ringResponse.body().equals(twoNodes) && tokenlessRefused) {
+                System.out.println("✅ testClusterToken - PASSED");
+            } else {
+                System.out.println("❌ testClusterToken - FAILED: " + withoutToken + " " + wrongToken + " "
+                        + ringResponse.body() + " " + tokenlessRefused);
+            }
+
+            // Тест 4: новый узел c и перебалансировка - все коды открываются с любого узла,
+            // переехавшие части лежат на c и удалены со старых владельцев
+            nodes.add(startNode("c", ports[2], threeNodes, "proxy"));
+            int moved = new Rebalancer("secret").rebalance(ClusterNode.parseList(twoNodes),
+                    ClusterNode.parseList(threeNodes), 128);
+            String partitionsC = new String(new HashRing(ClusterNode.parseList(threeNodes), 128).partitionsOf("c"));
+            List<String> failures = new ArrayList<>();
+            int onC = 0;
+            for (String code : urls.keySet()) {
+                for (String node : List.of(b, c)) {
+                    HttpResponse<Void> response = client.send(HttpRequest.newBuilder(URI.create(node + "/" + code))
+                            .build(), HttpResponse.BodyHandlers.discarding());
+                    if (response.statusCode() != 302
+                            || !response.headers().firstValue("Location").orElse("").equals(urls.get(code))) {
+                        failures.add(node + "/" + code + " " + response.statusCode());
+                    }
+                }
+                if (partitionsC.indexOf(code.charAt(0)) >= 0) {
+                    onC++;
+                    String oldOwner = partitionsA.indexOf(code.charAt(0)) >= 0 ? a : b;
+                    int local = status(client, HttpRequest.newBuilder(URI.create(c + "/" + code))
+                            .header("X-Cluster-Hop", "test").build());
+                    int stale = status(client, HttpRequest.newBuilder(URI.create(oldOwner + "/" + code))
+                            .header("X-Cluster-Hop", "test").build());
+                    if (local != 302 || stale != 404) {
+                        failures.add("часть " + code.charAt(0) + ": c " + local + ", старый владелец " + stale);
+                    }
+                }
+            }
+            List<String> codesC = createClusterLinks(client, c, 10, urls);
+            if (moved == onC && failures.isEmpty()
+                    && codesC.stream().allMatch(code -> partitionsC.indexOf(code.charAt(0)) >= 0)) {
+                System.out.println("✅ testClusterRebalance - PASSED");
+            } else {
+                System.out.println("❌ testClusterRebalance - FAILED: перенесено " + moved + " из " + onC + " "
+                        + failures + " " + codesC);
+            }
+
+            // Тест 5: удаление между проходами копирования - повтор копии воскрешает ссылку, журнал удалений
+            // её убирает. Порядок шагов тот же, что у Rebalancer, но удаление вклинивается наверняка.
+            // Служебные запросы идут своим клиентом, как у Rebalancer: после 204 на DELETE из API соединение
+            // закрывается, и POST по нему из общего пула не повторился бы
+            HttpClient service = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            String deletes = c + "/cluster/deletes";
+            String owner = jsonField(client.send(HttpRequest.newBuilder(URI.create(c + "/api/users"))
+                    .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString()).body(),
+                    "id");
+            String doomed = jsonField(client.send(HttpRequest.newBuilder(URI.create(c + "/api/links"))
+                    .header("X-User-Id", owner)
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"url\":\"https://example.com/doomed\"}"))
+                    .build(), HttpResponse.BodyHandlers.ofString()).body(), "code");
+            int logStarted = status(service, HttpRequest.newBuilder(URI.create(deletes))
+                    .header("X-Cluster-Token", "secret").PUT(HttpRequest.BodyPublishers.ofString(partitionsC)).build());
+            String exported = service.send(HttpRequest.newBuilder(URI.create(c + "/cluster/links?partitions="
+                    + doomed.charAt(0))).header("X-Cluster-Token", "secret").build(),
+                    HttpResponse.BodyHandlers.ofString()).body();
+            int deleted = status(client, HttpRequest.newBuilder(URI.create(c + "/api/links/" + doomed))
+                    .header("X-User-Id", owner).DELETE().build());
+            service.send(HttpRequest.newBuilder(URI.create(c + "/cluster/links")).header("X-Cluster-Token", "secret")
+                    .POST(HttpRequest.BodyPublishers.ofString(exported)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            int resurrected = status(client, HttpRequest.newBuilder(URI.create(c + "/" + doomed))
+                    .header("X-Cluster-Hop", "test").build());
+            String log = service.send(HttpRequest.newBuilder(URI.create(deletes))
+                    .header("X-Cluster-Token", "secret").build(), HttpResponse.BodyHandlers.ofString()).body();
+            String replayed = service.send(HttpRequest.newBuilder(URI.create(deletes))
+                    .header("X-Cluster-Token", "secret").POST(HttpRequest.BodyPublishers.ofString(log)).build(),
+                    HttpResponse.BodyHandlers.ofString()).body();
+            int afterReplay = status(client, HttpRequest.newBuilder(URI.create(c + "/" + doomed))
+                    .header("X-Cluster-Hop", "test").build());
+            service.send(HttpRequest.newBuilder(URI.create(deletes)).header("X-Cluster-Token", "secret")
+                    .DELETE().build(), HttpResponse.BodyHandlers.discarding());
+            String stoppedLog = service.send(HttpRequest.newBuilder(URI.create(deletes))
+                    .header("X-Cluster-Token", "secret").build(), HttpResponse.BodyHandlers.ofString()).body();
+            if (logStarted == 204 && deleted == 204 && resurrected == 302 && log.startsWith(doomed + " ")
+                    && replayed.equals("{\"removed\":1}") && afterReplay == 404 && stoppedLog.isEmpty()) {
+                System.out.println("✅ testClusterDeleteLog - PASSED");
+            } else {
+                System.out.println("❌ testClusterDeleteLog - FAILED: " + logStarted + " " + deleted + " "
+                        + resurrected + " [" + log + "] " + replayed + " " + afterReplay + " [" + stoppedLog + "]");
+            }
+        } catch (Exception e) {
+            System.out.println("❌ testCluster - FAILED: " + e.getMessage());
+        } finally {
+            for (Process node : nodes) {
+                node.destroy();
+            }
+            for (Process node : nodes) {
+                try {
+                    node.waitFor();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // Узел кластера - отдельный процесс из той же сборки; возвращается, когда узел принимает запросы.
+    // Хранилище в памяти: у узлов на одной машине не может быть общего каталога данных
+    private static Process startNode(String id, int port, String nodes, String forward) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-Dfile.encoding=UTF-8", "-Dsun.stdout.encoding=UTF-8",
+                "-Dserver.port=" + port, "-Dcluster.node.id=" + id, "-Dcluster.nodes=" + nodes,
+                "-Dcluster.forward=" + forward, "-Dcluster.token=secret", "-Dstorage.enabled=false",
+                "-cp", System.getProperty("java.class.path"), "ServerMain")
+                .redirectErrorStream(true)
+                .start();
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8));
+        String line;
+        while ((line = output.readLine()) != null) {
+            if (line.contains("готов на порту")) {
+                // Дальнейший вывод узла читаем, чтобы он не встал на заполненном канале
+                Thread drain = new Thread(() -> {
+                    try {
+                        while (output.readLine() != null) {
+                            // ничего
+                        }
+                    } catch (IOException ignored) {
+                    }
+                });
+                drain.setDaemon(true);
+                drain.start();
+                return process;
+            }
+        }
+        throw new IOException("узел " + id + " не запустился");
+    }
+
+    private static List<String> createClusterLinks(HttpClient client, String node, int count, Map<String, String> urls)
+            throws Exception {
+        String userId = jsonField(client.send(HttpRequest.newBuilder(URI.create(node + "/api/users"))
+                .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString()).body(), "id");
+        List<String> codes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String url = "https://example.com" + node.substring(node.lastIndexOf(':')) + "/" + i;
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(node + "/api/links"))
+                    .header("X-User-Id", userId)
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"url\":\"" + url + "\",\"limit\":50}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            String code = jsonField(response.body(), "code");
+            codes.add(code);
+            urls.put(code, url);
+        }
+        return codes;
+    }
+
+    public static void testReplication() {
+        System.out.println("\n=== ТЕСТЫ РЕПЛИКАЦИИ ===");
+
+        AppConfig config = new AppConfig();
+        List<AutoCloseable> resources = new ArrayList<>();
+        try {
+            PrimaryShortUrlStore primary = new PrimaryShortUrlStore(new CompactShortUrlStore(),
+                    InetAddress.getLoopbackAddress(), 0, "secret", 65536, 20);
+            resources.add(primary);
+            UserService userService = new UserService();
+            UrlShortenerService primaryService = quietService(userService, config, primary);
+            resources.add(primaryService::shutdown);
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), primary.getPort());
+            ReplicaShortUrlStore first = new ReplicaShortUrlStore(
+                    () -> new FilteredShortUrlStore(new CompactShortUrlStore()), address, "secret", 20);
+            resources.add(first);
+            UrlShortenerService firstService = quietService(new UserService(), config, first);
+            resources.add(firstService::shutdown);
+
+            // Тест 1: под нагрузкой (создание, удаление, переходы на реплике) вторая реплика подключается
+            // посередине и догоняет со снимка; обе сходятся с основным узлом
+            int writers = 4;
+            int perWriter = 5000;
+            List<String> codes = new CopyOnWriteArrayList<>();
+            AtomicInteger redirects = new AtomicInteger();
+            AtomicBoolean writing = new AtomicBoolean(true);
+            List<Thread> threads = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                UUID userId = userService.createUser();
+                threads.add(new Thread(() -> {
+                    List<String> own = new ArrayList<>();
+                    for (int i = 0; i < perWriter; i++) {
+                        ShortUrl link = primaryService.createLink("https://example.com/r/" + i, userId,
+                                ShortUrl.UNLIMITED);
+                        own.add(link.getShortCode());
+                        codes.add(link.getShortCode());
+                        if (i % 10 == 9) {
+                            primaryService.deleteShortUrl(own.get(i - 5), userId);
+                        }
+                    }
+                }));
+            }
+            Thread reader = new Thread(() -> {
+                while (writing.get()) {
+                    if (codes.isEmpty()) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    String code = codes.get(ThreadLocalRandom.current().nextInt(codes.size()));
+                    if (firstService.registerRedirect(firstService.findShortUrl(code, 0, code.length()))
+                            == RedirectStatus.FOUND) {
+                        redirects.incrementAndGet();
+                    }
+                }
+            });
+            long started = System.nanoTime();
+            threads.forEach(Thread::start);
+            reader.start();
+            while (codes.size() < writers * perWriter / 2) {
+                Thread.sleep(1);
+            }
+            ReplicaShortUrlStore second = new ReplicaShortUrlStore(
+                    () -> new FilteredShortUrlStore(new CompactShortUrlStore()), address, "secret", 20);
+            resources.add(second);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            double createsPerSecond = writers * perWriter / ((System.nanoTime() - started) / 1e9);
+            writing.set(false);
+            reader.join();
+            long maxLag = Math.max(first.getLagMillis(), second.getLagMillis());
+            boolean caughtUp = awaitReplicas(primary, first, second);
+            // Переходы реплики идут кругом: приращение на основной узел, его счётчик обратно всем репликам
+            List<String> mismatches = new ArrayList<>();
+            long deadline = System.currentTimeMillis() + 5000;
+            do {
+                mismatches.clear();
+                Thread.sleep(50);
+                primary.forEach(link -> {
+                    for (ReplicaShortUrlStore replica : List.of(first, second)) {
+                        ShortUrl copy = replica.get(link.getShortCode());
+                        if (copy == null || !copy.getId().equals(link.getId())
+                                || copy.getClickCount() != link.getClickCount()) {
+                            mismatches.add(link.getShortCode());
+                        }
+                    }
+                });
+            } while (!mismatches.isEmpty() && System.currentTimeMillis() < deadline);
+            long primaryClicks = 0;
+            for (String code : codes) {
+                ShortUrl link = primary.get(code);
+                primaryClicks += link != null ? link.getClickCount() : 0;
+            }
+            if (caughtUp && mismatches.isEmpty() && first.size() == primary.size() && second.size() == primary.size()
+                    && primary.size() == writers * perWriter * 9 / 10 && second.getSnapshotCount() == 1
+                    && redirects.get() > 0 && primaryClicks <= redirects.get()) {
+                System.out.println("✅ testReplicationConverges - PASSED (" + (int) createsPerSecond
+                        + " созданий/с, переходов на реплике " + redirects.get() + ", отставание до "
+                        + maxLag + " мс)");
+            } else {
+                System.out.println("❌ testReplicationConverges - FAILED: догнали " + caughtUp + ", расхождений "
+                        + mismatches.size() + ", ссылок " + primary.size() + "/" + first.size() + "/" + second.size()
+                        + ", снимков " + second.getSnapshotCount() + ", переходов " + primaryClicks + "/"
+                        + redirects.get());
+            }
+
+            // Тест 2: переходы реплик доходят до основного узла, лимит общий
+            UUID owner = userService.createUser();
+            String limited = primaryService.createLink("https://example.com/limited", owner, 5).getShortCode();
+            awaitReplicas(primary, first, second);
+            UrlShortenerService secondService = quietService(new UserService(), config, second);
+            resources.add(secondService::shutdown);
+            for (int i = 0; i < 3; i++) {
+                firstService.registerRedirect(first.get(limited));
+                secondService.registerRedirect(second.get(limited));
+            }
+            deadline = System.currentTimeMillis() + 5000;
+            while (System.currentTimeMillis() < deadline && (primary.get(limited).getClickCount() < 5
+                    || first.get(limited).getClickCount() < 5 || second.get(limited).getClickCount() < 5)) {
+                Thread.sleep(10);
+            }
+            if (primary.get(limited).getClickCount() == 5 && first.get(limited).isClickLimitExceeded()
+                    && second.get(limited).isClickLimitExceeded()) {
+                System.out.println("✅ testReplicationClicks - PASSED");
+            } else {
+                System.out.println("❌ testReplicationClicks - FAILED: " + primary.get(limited).getClickCount() + " "
+                        + first.get(limited).getClickCount() + " " + second.get(limited).getClickCount());
+            }
+
+            // Тест 3: реплика не пишет ни в хранилище, ни через API; состояние видно по /replication
+            WebServer replicaServer = new WebServer(firstService, 0, ExecutorMode.SINGLE, 1, 1, 0,
+                    null, first);
+            replicaServer.start();
+            resources.add(replicaServer::stop);
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            String base = "http://localhost:" + replicaServer.getPort();
+            int create = status(client, HttpRequest.newBuilder(URI.create(base + "/api/links"))
+                    .header("X-User-Id", owner.toString())
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"url\":\"https://example.com\"}")).build());
+            HttpResponse<String> state = client.send(HttpRequest.newBuilder(URI.create(base + "/replication"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            String live = codes.stream().filter(code -> first.get(code) != null).findFirst().orElse("");
+            int redirect = status(client, HttpRequest.newBuilder(URI.create(base + "/" + live)).build());
+            boolean storeRejected = false;
+            try {
+                firstService.createLink("https://example.com", firstService.createUser());
+            } catch (IllegalStateException e) {
+                storeRejected = true;
+            }
+            if (create == 405 && storeRejected && redirect == 301
+                    && state.body().contains("\"role\":\"replica\"") && state.body().contains("\"connected\":1")) {
+                System.out.println("✅ testReplicaReadOnly - PASSED");
+            } else {
+                System.out.println("❌ testReplicaReadOnly - FAILED: " + create + " " + storeRejected + " "
+                        + redirect + " " + state.body());
+            }
+        } catch (Exception e) {
+            System.out.println("❌ testReplication - FAILED: " + e);
+        } finally {
+            closeAll(resources);
+        }
+
+        // Тест 4: реплика, не успевающая за очередью, отключается, переподключается и догоняет новым снимком
+        resources = new ArrayList<>();
+        try {
+            PrimaryShortUrlStore primary = new PrimaryShortUrlStore(new CompactShortUrlStore(),
+                    InetAddress.getLoopbackAddress(), 0, "secret", 16, 20);
+            resources.add(primary);
+            ReplicaShortUrlStore replica = new ReplicaShortUrlStore(() -> new CompactShortUrlStore(),
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), primary.getPort()), "secret", 20);
+            resources.add(replica);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!replica.isConnected() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            UUID userId = UUID.randomUUID();
+            for (int i = 0; i < 20000; i++) {
+                primary.putIfAbsent(ShortUrl.create("https://example.com/burst/" + i, "burst" + i, userId,
+                        ShortUrl.UNLIMITED, LocalDateTime.now().plusHours(1)));
+            }
+            boolean caughtUp = awaitReplicas(primary, replica);
+            if (caughtUp && primary.getDroppedReplicaCount() > 0 && replica.getSnapshotCount() >= 2
+                    && replica.size() == 20000 && replica.get("burst19999") != null) {
+                System.out.println("✅ testReplicaResync - PASSED (снимков " + replica.getSnapshotCount() + ")");
+            } else {
+                System.out.println("❌ testReplicaResync - FAILED: догнала " + caughtUp + ", отключений "
+                        + primary.getDroppedReplicaCount() + ", снимков " + replica.getSnapshotCount()
+                        + ", ссылок " + replica.size());
+            }
+        } catch (Exception e) {
+            System.out.println("❌ testReplicaResync - FAILED: " + e);
+        } finally {
+            closeAll(resources);
+        }
+
+        // Тест 5: без верного токена основной узел закрывает соединение, не отдав ни снимка, ни записей
+        resources = new ArrayList<>();
+        try {
+            PrimaryShortUrlStore primary = new PrimaryShortUrlStore(new CompactShortUrlStore(),
+                    InetAddress.getLoopbackAddress(), 0, "secret", 16, 20);
+            resources.add(primary);
+            primary.putIfAbsent(ShortUrl.create("https://example.com/private", "priv01", UUID.randomUUID(),
+                    ShortUrl.UNLIMITED, LocalDateTime.now().plusHours(1)));
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), primary.getPort());
+            ReplicaShortUrlStore intruder = new ReplicaShortUrlStore(() -> new CompactShortUrlStore(), address,
+                    "guess", 20);
+            resources.add(intruder);
+            // Кадр HELLO вручную: длина, тип 9, номер, время, токен
+            int received;
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), primary.getPort())) {
+                socket.setSoTimeout(5000);
+                byte[] token = "secreT".getBytes(StandardCharsets.UTF_8);
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeInt(17 + token.length);
+                out.writeByte(9);
+                out.writeLong(0);
+                out.writeLong(System.currentTimeMillis());
+                out.write(token);
+                out.flush();
+                received = socket.getInputStream().read();
+            }
+            Thread.sleep(300);
+            if (received == -1 && !intruder.isConnected() && intruder.size() == 0
+                    && primary.getConnectedCount() == 0) {
+                System.out.println("✅ testReplicationHandshake - PASSED");
+            } else {
+                System.out.println("❌ testReplicationHandshake - FAILED: " + received + " " + intruder.isConnected()
+                        + " " + intruder.size() + " " + primary.getConnectedCount());
+            }
+        } catch (Exception e) {
+            System.out.println("❌ testReplicationHandshake - FAILED: " + e);
+        } finally {
+            closeAll(resources);
+        }
+
+        // Тест 6: кадр, который реплика не может применить, рвёт соединение, а не поток синхронизации:
+        // реплика переподключается и получает снимок заново. Основной узел здесь - сокет, пишущий кадры вручную
+        resources = new ArrayList<>();
+        try (ServerSocket fakePrimary = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            fakePrimary.setSoTimeout(5000);
+            ReplicaShortUrlStore replica = new ReplicaShortUrlStore(() -> new CompactShortUrlStore(),
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), fakePrimary.getLocalPort()), "secret", 20);
+            resources.add(replica);
+            try (Socket first = fakePrimary.accept()) {
+                first.setSoTimeout(5000);
+                writeReplicationFrame(new DataOutputStream(first.getOutputStream()), 42, 1);
+                // HELLO реплики и конец потока: реплика сама закрыла соединение
+                first.getInputStream().readAllBytes();
+            }
+            try (Socket second = fakePrimary.accept()) {
+                DataOutputStream out = new DataOutputStream(second.getOutputStream());
+                writeReplicationFrame(out, 1, 5);
+                writeReplicationFrame(out, 2, 5);
+                long deadline = System.currentTimeMillis() + 5000;
+                while (!replica.isConnected() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                if (replica.isConnected() && replica.getSnapshotCount() == 1 && replica.getSequence() == 5) {
+                    System.out.println("✅ testReplicaSurvivesBadFrame - PASSED");
+                } else {
+                    System.out.println("❌ testReplicaSurvivesBadFrame - FAILED: " + replica.isConnected() + " "
+                            + replica.getSnapshotCount() + " " + replica.getSequence());
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("❌ testReplicaSurvivesBadFrame - FAILED: " + e);
+        } finally {
+            closeAll(resources);
+        }
+
+        // Тест 7: код удалили и заняли заново, пока переходы старой ссылки ждали отправки с реплики -
+        // они не тратят лимит новой ссылки ни на основном узле, ни на реплике
+        resources = new ArrayList<>();
+        try {
+            PrimaryShortUrlStore primary = new PrimaryShortUrlStore(new CompactShortUrlStore(),
+                    InetAddress.getLoopbackAddress(), 0, "secret", 1024, 20);
+            resources.add(primary);
+            ReplicaShortUrlStore replica = new ReplicaShortUrlStore(() -> new CompactShortUrlStore(),
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), primary.getPort()), "secret", 300);
+            resources.add(replica);
+            UUID userId = UUID.randomUUID();
+            ShortUrl old = ShortUrl.create("https://example.com/old", "reuse1", userId, 5,
+                    LocalDateTime.now().plusHours(1));
+            primary.putIfAbsent(old);
+            boolean caughtUp = awaitReplicas(primary, replica);
+            ShortUrl oldOnReplica = replica.get("reuse1");
+            for (int i = 0; i < 3; i++) {
+                oldOnReplica.tryRegisterClick();
+                replica.recordClick(oldOnReplica);
+            }
+            primary.remove(primary.get("reuse1"));
+            ShortUrl reissued = ShortUrl.create("https://example.com/new", "reuse1", userId, 5,
+                    LocalDateTime.now().plusHours(1));
+            primary.putIfAbsent(reissued);
+            caughtUp &= awaitReplicas(primary, replica);
+            // Несколько сбросов реплики и основного узла
+            Thread.sleep(1000);
+            ShortUrl onReplica = replica.get("reuse1");
+            if (caughtUp && primary.get("reuse1").getClickCount() == 0 && onReplica != null
+                    && onReplica.getId().equals(reissued.getId()) && onReplica.getClickCount() == 0) {
+                System.out.println("✅ testReplicationClicksByLinkId - PASSED");
+            } else {
+                System.out.println("❌ testReplicationClicksByLinkId - FAILED: догнала " + caughtUp + ", переходов "
+                        + primary.get("reuse1").getClickCount() + "/"
+                        + (onReplica != null ? onReplica.getClickCount() : -1));
+            }
+        } catch (Exception e) {
+            System.out.println("❌ testReplicationClicksByLinkId - FAILED: " + e);
+        } finally {
+            closeAll(resources);
+        }
+    }
+
+    // Кадр репликации без данных: длина, тип, номер записи, время
+    private static void writeReplicationFrame(DataOutputStream out, int type, long sequence) throws IOException {
+        out.writeInt(17);
+        out.writeByte(type);
+        out.writeLong(sequence);
+        out.writeLong(System.currentTimeMillis());
+        out.flush();
+    }
+
+    // Сервис без журнала событий: нагрузочные тесты не печатают по строке на ссылку
+    private static UrlShortenerService quietService(UserService userService, AppConfig config, ShortUrlStore store) {
+        return new UrlShortenerService(userService, config, store, ShortCodeGenerator.fromConfig(config, store),
+                new EventLog(16, OverflowPolicy.DROP, new EnumMap<>(EventType.class), 10, () -> System.out));
+    }
+
+    // Ждёт, пока реплики применят всё опубликованное и основной узел получит их подтверждения
+    private static boolean awaitReplicas(PrimaryShortUrlStore primary, ReplicaShortUrlStore... replicas)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (System.currentTimeMillis() < deadline) {
+            boolean done = primary.getConnectedCount() == replicas.length && primary.getLagRecords() == 0;
+            for (ReplicaShortUrlStore replica : replicas) {
+                done &= replica.isConnected() && replica.getSequence() == primary.getSequence();
+            }
+            if (done) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    public static void testRateLimit() {
+        System.out.println("\n=== ТЕСТЫ ОГРАНИЧЕНИЯ ЧАСТОТЫ ===");
+
+        // Тест 1: запас тратится подряд, затем отказ с временем ожидания; ведро пополняется со временем
+        try {
+            TokenBucketTable table = new TokenBucketTable(20, 5, 64);
+            int allowed = 0;
+            for (int i = 0; i < 5; i++) {
+                allowed += table.tryAcquire(1) == 0 ? 1 : 0;
+            }
+            long wait = table.tryAcquire(1);
+            boolean otherKey = table.tryAcquire(2) == 0;
+            Thread.sleep(wait / 1_000_000 + 10);
+            boolean refilled = table.tryAcquire(1) == 0;
+            boolean emptyAgain = table.tryAcquire(1) > 0;
+            if (allowed == 5 && wait > 0 && wait <= 50_000_000 && otherKey && refilled && emptyAgain
+                    && table.getRejectedCount() == 2) {
+                System.out.println("✅ testRateLimitBucket - PASSED");
+            } else {
+                System.out.println("❌ testRateLimitBucket - FAILED: " + allowed + " " + wait + " " + otherKey + " "
+                        + refilled + " " + emptyAgain);
+            }
+        } catch (Exception e) {
+            System.out.println("❌ testRateLimitBucket - FAILED: " + e.getMessage());
+        }
+
+        // Тест 2: таблица не растёт - новые клиенты вытесняют старых, и каждый новый получает полное ведро
+        TokenBucketTable small = new TokenBucketTable(1, 1, 8);
+        int admitted = 0;
+        for (int key = 0; key < 10_000; key++) {
+            admitted += small.tryAcquire(key) == 0 ? 1 : 0;
+        }
+        if (small.getCapacity() == 8 && admitted == 10_000 && small.getEvictedCount() >= 10_000 - 8) {
+            System.out.println("✅ testRateLimitBoundedTable - PASSED");
+        } else {
+            System.out.println("❌ testRateLimitBoundedTable - FAILED: " + small.getCapacity() + " " + admitted + " "
+                    + small.getEvictedCount());
+        }
+
+        // Тест 3: потоки, бьющие в один ключ, вместе получают ровно запас плюс пополнение за время прогона
+        TokenBucketTable shared = new TokenBucketTable(1, 1000, 1024);
+        AtomicInteger granted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    if (shared.tryAcquire(42) == 0) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long refills = (System.nanoTime() - started) / 1_000_000_000 + 1;
+        if (granted.get() >= 1000 && granted.get() <= 1000 + refills) {
+            System.out.println("✅ testRateLimitConcurrent - PASSED");
+        } else {
+            System.out.println("❌ testRateLimitConcurrent - FAILED: разрешено " + granted.get());
+        }
+
+        // Тест 4: HTTP - лишние запросы получают 429 с Retry-After и не доходят до ссылки,
+        // создание ограничено и по адресу, и по пользователю
+        UserService userService = new UserService();
+        UrlShortenerService service = new UrlShortenerService(userService, new AppConfig());
+        RateLimiter limiter = new RateLimiter(new TokenBucketTable(1, 3, 64), new TokenBucketTable(1, 10, 64),
+                new TokenBucketTable(1, 2, 64));
+        WebServer server = new WebServer(service, 0, ExecutorMode.SINGLE, 1, 1, 0, null, null, limiter);
+        try {
+            server.start();
+            UUID owner = userService.createUser();
+            String code = service.createLink("https://example.com/limited-client", owner, 100).getShortCode();
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            String base = "http://localhost:" + server.getPort();
+            int[] redirects = new int[4];
+            for (int i = 0; i < redirects.length; i++) {
+                redirects[i] = status(client, HttpRequest.newBuilder(URI.create(base + "/" + code)).build());
+            }
+            HttpResponse<String> rejected = client.send(HttpRequest.newBuilder(URI.create(base + "/" + code)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            String secondUser = userService.createUser().toString();
+            int[] creates = new int[3];
+            for (int i = 0; i < creates.length; i++) {
+                creates[i] = status(client, HttpRequest.newBuilder(URI.create(base + "/api/links"))
+                        .header("X-User-Id", owner.toString())
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"url\": \"https://example.com/" + i + "\"}"))
+                        .build());
+            }
+            int otherUser = status(client, HttpRequest.newBuilder(URI.create(base + "/api/links"))
+                    .header("X-User-Id", secondUser)
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"url\": \"https://example.com/other\"}")).build());
+            long retryAfter = Long.parseLong(rejected.headers().firstValue("Retry-After").orElse("0"));
+            if (redirects[0] == 302 && redirects[2] == 302 && redirects[3] == 429
+                    && rejected.statusCode() == 429 && retryAfter >= 1 && retryAfter <= 2
+                    && service.findShortUrl(code, 0, code.length()).getClickCount() == 3
+                    && creates[0] == 201 && creates[1] == 201 && creates[2] == 429 && otherUser == 201
+                    && limiter.getRejectedCount() == 3) {
+                System.out.println("✅ testRateLimitHttp - PASSED");
+            } else {
+                System.out.println("❌ testRateLimitHttp - FAILED: " + Arrays.toString(redirects) + " "
+                        + rejected.statusCode() + " Retry-After " + retryAfter + " "
+                        + Arrays.toString(creates) + " " + otherUser);
+            }
+        } catch (Exception e) {
+            System.out.println("❌ testRateLimitHttp - FAILED: " + e.getMessage());
+        } finally {
+            server.stop();
+            service.shutdown();
+        }
+
+        // Тест 5: за доверенным прокси клиент берётся из X-Forwarded-For, подделка левее клиента не помогает,
+        // чужой адрес соединения заголовком не меняется; IPv6 делит ведро на подсеть /64
+        try {
+            RateLimiter proxied = new RateLimiter(new TokenBucketTable(1, 1, 1024), new TokenBucketTable(1, 1, 64),
+                    new TokenBucketTable(1, 1, 64), "10.0.0.0/8, ::1");
+            InetAddress proxyA = InetAddress.getByName("10.0.0.5");
+            InetAddress proxyB = InetAddress.getByName("10.1.2.3");
+            InetAddress stranger = InetAddress.getByName("198.51.100.1");
+            boolean firstClient = proxied.acquireRead(proxyA, "203.0.113.7") == 0;
+            boolean sameClientOtherProxy = proxied.acquireRead(proxyB, "203.0.113.7, 10.0.0.5") > 0;
+            boolean spoofedLeft = proxied.acquireRead(proxyA, "192.0.2.44, 203.0.113.7") > 0;
+            boolean secondClient = proxied.acquireRead(proxyA, "203.0.113.8") == 0;
+            boolean ipv6Client = proxied.acquireRead(InetAddress.getByName("::1"), "[2001:db8::9]:4711") == 0;
+            boolean strangerFirst = proxied.acquireRead(stranger, "203.0.113.9") == 0;
+            boolean strangerSpoof = proxied.acquireRead(stranger, "203.0.113.10") > 0;
+            boolean subnet = proxied.acquireRead(InetAddress.getByName("2001:db8:1:2::1"), null) == 0
+                    && proxied.acquireRead(InetAddress.getByName("2001:db8:1:2:ffff::5"), null) > 0
+                    && proxied.acquireRead(InetAddress.getByName("2001:db8:1:3::1"), null) == 0;
+            int badConfigs = 0;
+            for (String bad : new String[]{"proxy.example.com", "10.0.0.0/33", "10.0.0", "010.0.0.1"}) {
+                try {
+                    new RateLimiter(new TokenBucketTable(1, 1, 8), new TokenBucketTable(1, 1, 8),
+                            new TokenBucketTable(1, 1, 8), bad);
+                } catch (IllegalArgumentException e) {
+                    badConfigs++;
+                }
+            }
+            if (firstClient && sameClientOtherProxy && spoofedLeft && secondClient && ipv6Client
+                    && strangerFirst && strangerSpoof && subnet && badConfigs == 4
+                    && !new AppConfig().isRateLimitEnabled()) {
+                System.out.println("✅ testRateLimitTrustedProxies - PASSED");
+            } else {
+                System.out.println("❌ testRateLimitTrustedProxies - FAILED: " + firstClient + " " + sameClientOtherProxy
+                        + " " + spoofedLeft + " " + secondClient + " " + ipv6Client + " " + strangerFirst + " "
+                        + strangerSpoof + " " + subnet + " " + badConfigs);
+            }
+        } catch (Exception e) {
+            System.out.println("❌ testRateLimitTrustedProxies - FAILED: " + e.getMessage());
+        }
+    }
+
+    public static void testMetrics() {
+        System.out.println("\n=== ТЕСТЫ МЕТРИК ===");
+
+        // Тест 1: процентили гистограммы в пределах её точности (~3%), сумма и число записей точные
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+        long p50 = histogram.getValueAtPercentile(50);
+        long p99 = histogram.getValueAtPercentile(99);
+        long max = histogram.getValueAtPercentile(100);
+        if (histogram.getCount() == 100_000 && histogram.getSumNanos() == 100_000L * 100_001 / 2 * 1000
+                && Math.abs(p50 - 50_000_000) <= 50_000_000 / 32 && Math.abs(p99 - 99_000_000) <= 99_000_000 / 32
+                && max >= 100_000_000 && max <= 100_000_000 + 100_000_000 / 32) {
+            System.out.println("✅ testHistogramPercentiles - PASSED");
+        } else {
+            System.out.println("❌ testHistogramPercentiles - FAILED: p50=" + p50 + " p99=" + p99 + " max=" + max);
+        }
+
+        // Тест 2: параллельная запись без блокировок не теряет ни одного значения
+        LatencyHistogram shared = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    shared.record(i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (shared.getCount() == 400_000 && shared.getSumNanos() == 4L * 100_000 * 99_999 / 2) {
+            System.out.println("✅ testHistogramConcurrent - PASSED");
+        } else {
+            System.out.println("❌ testHistogramConcurrent - FAILED: " + shared.getCount());
+        }
+
+        // Тест 3: /metrics отдаёт счётчики, датчики и гистограммы в формате Prometheus
+        UserService userService = new UserService();
+        UrlShortenerService service = new UrlShortenerService(userService, new AppConfig(),
+                new FilteredShortUrlStore(new CompactShortUrlStore()));
+        WebServer server = new WebServer(service, 0);
+        try {
+            server.start();
+            UUID owner = userService.createUser();
+            String code = service.createLink("https://example.com/measured", owner).getShortCode();
+            service.redirect(code);
+            service.cleanUpExpiredUrls();
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            String base = "http://localhost:" + server.getPort();
+            status(client, HttpRequest.newBuilder(URI.create(base + "/" + code)).build());
+            status(client, HttpRequest.newBuilder(URI.create(base + "/" + code + "zz")).build());
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(base + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            String body = response.body();
+            Map<String, Double> samples = new ConcurrentHashMap<>();
+            for (String line : body.split("\n")) {
+                if (!line.startsWith("#") && !line.isEmpty()) {
+                    int space = line.lastIndexOf(' ');
+                    samples.put(line.substring(0, space), Double.parseDouble(line.substring(space + 1)));
+                }
+            }
+            String bucket = "http_request_seconds_bucket{handler=\"redirect\",le=\"";
+            boolean monotonic = true;
+            double previous = 0;
+            for (String line : body.split("\n")) {
+                if (line.startsWith(bucket)) {
+                    double value = Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+                    monotonic &= value >= previous;
+                    previous = value;
+                }
+            }
+            if (response.statusCode() == 200
+                    && response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain; version=0.0.4")
+                    && body.contains("# TYPE shortener_redirects_total counter")
+                    && body.contains("# TYPE http_request_seconds histogram")
+                    && samples.getOrDefault("shortener_redirects_total{status=\"FOUND\"}", 0.0) == 2
+                    && samples.getOrDefault("shortener_links_created_total", 0.0) == 1
+                    && samples.getOrDefault("shortener_links", 0.0) == 1
+                    && samples.getOrDefault("shortener_create_seconds_count", 0.0) == 1
+                    && samples.getOrDefault("shortener_redirect_seconds_count", 0.0) == 1
+                    && samples.getOrDefault("shortener_cleanup_seconds_count", 0.0) >= 1
+                    && samples.getOrDefault("shortener_filter_rejected_total", 0.0) == 1
+                    && samples.getOrDefault("shortener_store_bytes_per_link", 0.0) > 0
+                    && samples.getOrDefault(bucket + "+Inf\"}", 0.0) == 2 && monotonic
+                    && samples.getOrDefault("http_request_seconds_count{handler=\"redirect\"}", 0.0) == 2) {
+                System.out.println("✅ testMetricsEndpoint - PASSED");
+            } else {
+                System.out.println("❌ testMetricsEndpoint - FAILED: " + response.statusCode() + "\n" + body);
+            }
+        } catch (Exception e) {
+            System.out.println("❌ testMetricsEndpoint - FAILED: " + e.getMessage());
+        } finally {
+            server.stop();
+            service.shutdown();
+        }
+    }
+
+    public static void testNioFrontend() {
+        System.out.println("\n=== ТЕСТЫ ФРОНТЕНДА NIO ===");
+        UserService userService = new UserService();
+        UrlShortenerService service = new UrlShortenerService(userService, new AppConfig(),
+                new FilteredShortUrlStore(new CompactShortUrlStore()));
+        WebServer apiServer = new WebServer(service, 0);
+        NioRedirectServer server = null;
+        try {
+            apiServer.start();
+            server = new NioRedirectServer(service, 0, 2, apiServer.getPort(), null, null);
+            server.start();
+            UUID owner = userService.createUser();
+            ShortUrl limited = service.createLink("https://example.com/nio/limited", owner, 10);
+            ShortUrl unlimited = service.createLink("https://example.com/nio/unlimited", owner, ShortUrl.UNLIMITED);
+
+            // Тест 1: конвейер - четыре запроса одной записью, ответы в том же порядке; HEAD не тратит переход
+            try (Socket socket = new Socket("localhost", server.getPort())) {
+                OutputStream out = socket.getOutputStream();
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                out.write(("GET /" + limited.getShortCode() + " HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        + "HEAD /" + limited.getShortCode() + " HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        + "GET /" + limited.getShortCode() + "zz HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        + "GET /" + unlimited.getShortCode() + "?utm=1 HTTP/1.1\r\nHost: localhost\r\n"
+                        + "User-Agent: test\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                String found = readHead(in);
+                String checked = readHead(in);
+                String missing = readHead(in);
+                byte[] missingBody = in.readNBytes(Integer.parseInt(headerOf(missing, "Content-Length")));
+                String permanent = readHead(in);
+                if (found.startsWith("HTTP/1.1 302 ") && checked.startsWith("HTTP/1.1 302 ")
+                        && "https://example.com/nio/limited".equals(headerOf(found, "Location"))
+                        && "no-store".equals(headerOf(found, "Cache-Control"))
+                        && missing.startsWith("HTTP/1.1 404 ") && missingBody.length > 0
+                        && permanent.startsWith("HTTP/1.1 301 ") && headerOf(permanent, "ETag") != null
+                        && headerOf(permanent, "Cache-Control").startsWith("public, max-age=")
+                        && limited.getClickCount() == 1 && unlimited.getClickCount() == 1) {
+                    System.out.println("✅ testNioPipelining - PASSED");
+                } else {
+                    System.out.println("❌ testNioPipelining - FAILED:\n" + found + checked + missing + permanent);
+                }
+
+                // Тест 2: то же соединение живёт дальше - 304 по ETag (переход засчитан, как в WebServer), запрос по кускам и 307 для API с закрытием
+                out.write(("GET /" + unlimited.getShortCode() + " HTTP/1.1\r\nIf-None-Match: W/"
+                        + headerOf(permanent, "ETag") + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                String notModified = readHead(in);
+                out.write(("GET /" + limited.getShortCode()).getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                Thread.sleep(50);
+                out.write(" HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                String split = readHead(in);
+                out.write("POST /api/links HTTP/1.1\r\nHost: 127.0.0.1:1\r\nContent-Length: 2\r\n\r\n{}"
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                String api = readHead(in);
+                boolean closed = in.read() < 0;
+                if (notModified.startsWith("HTTP/1.1 304 ") && split.startsWith("HTTP/1.1 302 ")
+                        && api.startsWith("HTTP/1.1 307 ")
+                        && ("http://127.0.0.1:" + apiServer.getPort() + "/api/links").equals(headerOf(api, "Location"))
+                        && "close".equals(headerOf(api, "Connection")) && closed
+                        && limited.getClickCount() == 2 && unlimited.getClickCount() == 2) {
+                    System.out.println("✅ testNioKeepAlive - PASSED");
+                } else {
+                    System.out.println("❌ testNioKeepAlive - FAILED:\n" + notModified + split + api);
+                }
+            }
+
+            // Тест 3: HTTP/1.0 без keep-alive закрывается после ответа, огромный запрос получает 431
+            int oldStatus;
+            boolean oldClosed;
+            try (Socket socket = new Socket("localhost", server.getPort())) {
+                socket.getOutputStream().write(("GET /" + unlimited.getShortCode() + " HTTP/1.0\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                oldStatus = readResponse(in);
+                oldClosed = in.read() < 0;
+            }
+            int hugeStatus;
+            try (Socket socket = new Socket("localhost", server.getPort())) {
+                socket.getOutputStream().write(("GET /x HTTP/1.1\r\nX-Padding: " + "a".repeat(20_000))
+                        .getBytes(StandardCharsets.US_ASCII));
+                hugeStatus = readResponse(new BufferedInputStream(socket.getInputStream()));
+            }
+            if (oldStatus == 301 && oldClosed && hugeStatus == 431) {
+                System.out.println("✅ testNioConnectionLimits - PASSED");
+            } else {
+                System.out.println("❌ testNioConnectionLimits - FAILED: " + oldStatus + " " + oldClosed + " " + hugeStatus);
+            }
+
+            // Тест 4: голый LF или другой управляющий байт в пути или в Host - 400, а не 307
+            // с разделённым Location
+            String[] smuggled = {"GET /api/x\nSet-Cookie: a=b HTTP/1.1\r\nHost: localhost\r\n\r\n",
+                    "POST /api/links HTTP/1.1\r\nHost: evil\nSet-Cookie: a=b\r\n\r\n",
+                    "GET /api/x HTTP/1.1\r\nHost: evil\rX: y\r\n\r\n",
+                    "GET /" + unlimited.getShortCode() + "\u0000 HTTP/1.1\r\n\r\n"};
+            int[] smuggledStatus = new int[smuggled.length];
+            for (int i = 0; i < smuggled.length; i++) {
+                try (Socket socket = new Socket("localhost", server.getPort())) {
+                    socket.getOutputStream().write(smuggled[i].getBytes(StandardCharsets.US_ASCII));
+                    smuggledStatus[i] = readResponse(new BufferedInputStream(socket.getInputStream()));
+                }
+            }
+            if (Arrays.stream(smuggledStatus).allMatch(status -> status == 400)) {
+                System.out.println("✅ testNioRejectsControlBytes - PASSED");
+            } else {
+                System.out.println("❌ testNioRejectsControlBytes - FAILED: " + Arrays.toString(smuggledStatus));
+            }
+
+            // Тест 5: соединения нескольких клиентов расходятся по циклам событий, ни один переход не теряется
+            int before = unlimited.getClickCount();
+            AtomicInteger redirected = new AtomicInteger();
+            NioRedirectServer running = server;
+            List<Thread> clients = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Thread client = new Thread(() -> {
+                    try (Socket socket = new Socket("localhost", running.getPort())) {
+                        OutputStream out = socket.getOutputStream();
+                        InputStream in = new BufferedInputStream(socket.getInputStream());
+                        byte[] request = ("GET /" + unlimited.getShortCode() + " HTTP/1.1\r\n\r\n")
+                                .getBytes(StandardCharsets.US_ASCII);
+                        for (int i = 0; i < 250; i++) {
+                            out.write(request);
+                            if (readResponse(in) == 301) {
+                                redirected.incrementAndGet();
+                            }
+                        }
+                    } catch (IOException e) {
+                        System.out.println("⚠️ Клиент NIO: " + e.getMessage());
+                    }
+                });
+                clients.add(client);
+                client.start();
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+            long timed = service.getMetrics().histogram("http_request_seconds", "handler=\"nio\"", "").getCount();
+            if (redirected.get() == 1000 && unlimited.getClickCount() - before == 1000 && timed >= 1008) {
+                System.out.println("✅ testNioConcurrentClients - PASSED");
+            } else {
+                System.out.println("❌ testNioConcurrentClients - FAILED: " + redirected.get() + " "
+                        + (unlimited.getClickCount() - before) + " " + timed);
+            }
+
+            // Тест 6: обработчик упал на середине ответа - 500 идёт с чистой строки статуса, без байтов
+            // недописанного ответа, а ответ на предыдущий запрос конвейера доходит целым
+            ConcurrentShortUrlStore brokenStore = new ConcurrentShortUrlStore();
+            UrlShortenerService brokenService = new UrlShortenerService(userService, new AppConfig(), brokenStore);
+            NioRedirectServer brokenServer = new NioRedirectServer(brokenService, 0, 1, apiServer.getPort(), null, null);
+            try {
+                brokenServer.start();
+                ShortUrl good = ShortUrl.create("https://example.com/nio/good", "good01", owner, 10,
+                        LocalDateTime.now().plusHours(1));
+                brokenStore.putIfAbsent(good);
+                brokenStore.putIfAbsent(new FailingWriteShortUrl(ShortUrl.create("https://example.com/nio/broken",
+                        "broken", owner, 10, LocalDateTime.now().plusHours(1))));
+                try (Socket socket = new Socket("localhost", brokenServer.getPort())) {
+                    OutputStream out = socket.getOutputStream();
+                    InputStream in = new BufferedInputStream(socket.getInputStream());
+                    out.write(("GET /good01 HTTP/1.1\r\n\r\nGET /broken HTTP/1.1\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    String first = readHead(in);
+                    String failed = readHead(in);
+                    boolean closed = in.read() < 0;
+                    if (first != null && first.startsWith("HTTP/1.1 302 ")
+                            && "https://example.com/nio/good".equals(headerOf(first, "Location"))
+                            && failed != null && failed.startsWith("HTTP/1.1 500 ")
+                            && headerOf(failed, "Location") == null && closed) {
+                        System.out.println("✅ testNioHandlerFailureMidResponse - PASSED");
+                    } else {
+                        System.out.println("❌ testNioHandlerFailureMidResponse - FAILED:\n" + first + failed);
+                    }
+                }
+            } finally {
+                brokenServer.stop();
+                brokenService.shutdown();
+            }
+        } catch (Exception e) {
+            System.out.println("❌ NIO frontend tests FAILED: " + e);
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+            apiServer.stop();
+            service.shutdown();
+        }
+    }
+
+    public static void testDedup() {
+        System.out.println("\n=== ТЕСТЫ ДЕДУПЛИКАЦИИ ССЫЛОК ===");
+
+        // Ключ dedup.enabled читается при создании AppConfig, как и -D при запуске узла
+        System.setProperty("dedup.enabled", "true");
+        AppConfig config;
+        try {
+            config = new AppConfig();
+        } finally {
+            System.clearProperty("dedup.enabled");
+        }
+        UserService userService = new UserService();
+        CompactShortUrlStore store = new CompactShortUrlStore();
+        UrlShortenerService service = quietService(userService, config, store);
+        try {
+            UUID owner = userService.createUser();
+            UUID other = userService.createUser();
+
+            // Тест 1: повтор и его нормализованный вариант получают тот же код, другой пользователь и лимит - нет
+            String first = service.createLink("https://example.com/landing?utm=1", owner, 5).getShortCode();
+            String repeated = service.createLink("https://example.com/landing?utm=1", owner, 5).getShortCode();
+            String variant = service.createLink("HTTPS://Example.COM:443/landing?utm=1#top", owner, 5).getShortCode();
+            String otherUser = service.createLink("https://example.com/landing?utm=1", other, 5).getShortCode();
+            String otherLimit = service.createLink("https://example.com/landing?utm=1", owner, 6).getShortCode();
+            String otherQuery = service.createLink("https://example.com/landing?utm=2", owner, 5).getShortCode();
+            if (first.equals(repeated) && first.equals(variant) && !first.equals(otherUser)
+                    && !first.equals(otherLimit) && !first.equals(otherQuery) && store.size() == 4
+                    && userService.getUser(owner).getLinkCount() == 3) {
+                System.out.println("✅ testDedupReusesCode - PASSED");
+            } else {
+                System.out.println("❌ testDedupReusesCode - FAILED: " + first + " " + repeated + " " + variant
+                        + " " + otherUser + " " + otherLimit + " " + store.size());
+            }
+
+            // Тест 2: исчерпанная, удалённая и истёкшая ссылки повторно не выдаются
+            String limited = service.createLink("https://example.com/once", owner, 1).getShortCode();
+            service.redirect(limited);
+            String afterLimit = service.createLink("https://example.com/once", owner, 1).getShortCode();
+            service.deleteShortUrl(afterLimit, owner);
+            String afterDelete = service.createLink("https://example.com/once", owner, 1).getShortCode();
+            service.importLink(ShortUrl.create("https://example.com/old", "OLD123", owner, 5,
+                    LocalDateTime.now().minusMinutes(1)));
+            String afterExpiry = service.createLink("https://example.com/old", owner, 5).getShortCode();
+            service.cleanUpExpiredUrls();
+            String afterCleanup = service.createLink("https://example.com/old", owner, 5).getShortCode();
+            if (!limited.equals(afterLimit) && !afterLimit.equals(afterDelete) && !afterExpiry.equals("OLD123")
+                    && afterExpiry.equals(afterCleanup) && store.get("OLD123") == null) {
+                System.out.println("✅ testDedupLifecycle - PASSED");
+            } else {
+                System.out.println("❌ testDedupLifecycle - FAILED: " + limited + " " + afterLimit + " "
+                        + afterDelete + " " + afterExpiry + " " + afterCleanup);
+            }
+
+            // Тест 3: параллельные создания одной ссылки сходятся на одном коде, лишние ссылки не остаются
+            int linksBefore = store.size();
+            Set<String> codes = ConcurrentHashMap.newKeySet();
+            List<Thread> threads = new ArrayList<>();
+            CountDownLatch start = new CountDownLatch(1);
+            for (int t = 0; t < 8; t++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 50; i++) {
+                            codes.add(service.createLink("https://example.com/race/" + i, owner, 5).getShortCode());
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            if (codes.size() == 50 && store.size() == linksBefore + 50) {
+                System.out.println("✅ testDedupConcurrent - PASSED");
+            } else {
+                System.out.println("❌ testDedupConcurrent - FAILED: кодов " + codes.size() + ", ссылок "
+                        + (store.size() - linksBefore));
+            }
+
+            // Тест 4: массовое создание отвечает прежним кодом на повторы, в том числе внутри одного куска
+            List<BulkLinkRequest> requests = List.of(
+                    BulkLinkRequest.of(1, "https://example.com/landing?utm=1", 5),
+                    BulkLinkRequest.of(2, "https://example.com/bulk", 5),
+                    BulkLinkRequest.of(3, "https://example.com/bulk", 5));
+            List<BulkLinkResult> results = new ArrayList<>();
+            int created = service.createShortUrls(owner, requests.iterator(), results::add);
+            double hits = service.getMetrics().counter("shortener_dedup_hits_total", "").sum();
+            if (created == 1 && codeOf(results.get(0)).equals(first)
+                    && codeOf(results.get(1)).equals(codeOf(results.get(2))) && hits >= 3) {
+                System.out.println("✅ testDedupBulk - PASSED");
+            } else {
+                System.out.println("❌ testDedupBulk - FAILED: создано " + created + ", попаданий " + hits);
+            }
+        } catch (Exception e) {
+            System.out.println("❌ Dedup tests FAILED: " + e);
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    public static void testInternedStore() {
+        System.out.println("\n=== ТЕСТЫ СЛОВАРЯ URL ===");
+
+        // Тест 1: адрес любого вида собирается обратно байт в байт - и строкой, и прямо в буфер
+        CompactShortUrlStore store = new CompactShortUrlStore(1024, 1000, true);
+        UUID userId = UUID.randomUUID();
+        LocalDateTime expiresAt = LocalDateTime.now().plusHours(1);
+        String[] urls = {
+                "https://shop.example.com/catalog/items/42?utm_source=newsletter&utm_medium=email",
+                "https://shop.example.com/catalog/items/43?utm_source=newsletter&utm_medium=email#top",
+                "https://shop.example.com",
+                "https://shop.example.com/",
+                "https://shop.example.com?q=1",
+                "http://localhost:8080/a/b/c/",
+                "https://пример.рф/каталог/товар?цвет=красный",
+                "ftp://files.example.net/pub/file.tar.gz",
+                "not a url at all",
+                "://broken",
+                "https://x.io/p?a=1"
+        };
+        for (int i = 0; i < urls.length; i++) {
+            store.putIfAbsent(ShortUrl.create(urls[i], "I" + i, userId, 10, expiresAt));
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        boolean roundTrip = true;
+        for (int i = 0; i < urls.length; i++) {
+            ShortUrl view = store.get("I" + i);
+            byte[] expected = urls[i].getBytes(StandardCharsets.UTF_8);
+            buffer.clear();
+            view.writeOriginalUrl(buffer);
+            byte[] written = new byte[buffer.position()];
+            buffer.flip().get(written);
+            roundTrip &= view.getOriginalUrl().equals(urls[i]) && Arrays.equals(written, expected)
+                    && view.getOriginalUrlMaxBytes() == expected.length;
+        }
+        if (roundTrip) {
+            System.out.println("✅ testInternedStoreRoundTrip - PASSED");
+        } else {
+            System.out.println("❌ testInternedStoreRoundTrip - FAILED");
+        }
+
+        // Тест 2: тысячи ссылок на два хоста с четырьмя наборами меток дают восемь кусков в словаре:
+        // два источника, два каталога и четыре запроса
+        CompactShortUrlStore shared = new CompactShortUrlStore(4096, 1000, true);
+        for (int i = 0; i < 2000; i++) {
+            String url = i % 2 == 0
+                    ? "https://shop.example.com/catalog/items/" + i + "?utm_source=newsletter&utm_campaign=c"
+                            + i / 2 % 4
+                    : "https://blog.example.org/posts/2024/article-" + i;
+            shared.putIfAbsent(ShortUrl.create(url, "S" + i, userId, 10, expiresAt));
+        }
+        boolean decoded = shared.get("S1000").getOriginalUrl()
+                .equals("https://shop.example.com/catalog/items/1000?utm_source=newsletter&utm_campaign=c0")
+                && shared.get("S1999").getOriginalUrl().equals("https://blog.example.org/posts/2024/article-1999");
+        if (decoded && shared.urlDictionarySize() == 8 && new CompactShortUrlStore().urlDictionarySize() == 0) {
+            System.out.println("✅ testInternedStoreSharedPieces - PASSED");
+        } else {
+            System.out.println("❌ testInternedStoreSharedPieces - FAILED (кусков: " + shared.urlDictionarySize() +
+                    ", адреса: " + decoded + ")");
+        }
+    }
+
+    private static void closeAll(List<AutoCloseable> resources) {
+        for (int i = resources.size() - 1; i >= 0; i--) {
+            try {
+                resources.get(i).close();
+            } catch (Exception e) {
+                System.out.println("⚠️ Не удалось закрыть: " + e.getMessage());
+            }
+        }
+    }
+
+    private static long maxAgeOf(HttpResponse<?> response) {
+        String cacheControl = response.headers().firstValue("Cache-Control").orElse("");
+        int start = cacheControl.indexOf("max-age=");
+        return start < 0 ? -1 : Long.parseLong(cacheControl.substring(start + "max-age=".length()));
+    }
+
+    private static int status(HttpClient client, HttpRequest request) throws Exception {
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    // Строковое поле плоского JSON-ответа
+    private static String jsonField(String json, String name) {
+        int start = json.indexOf("\"" + name + "\":\"") + name.length() + 4;
+        return json.substring(start, json.indexOf('"', start));
+    }
+
+    // Читает один ответ с Content-Length и возвращает его статус; соединение остаётся открытым
+    private static int readResponse(InputStream in) throws IOException {
+        String head = readHead(in);
+        if (head == null) {
+            return -1;
+        }
+        String length = headerOf(head, "Content-Length");
+        in.readNBytes(length != null ? Integer.parseInt(length) : 0);
+        return Integer.parseInt(head.substring(9, 12));
+    }
+
+    // Строка статуса и заголовки ответа; null - сервер закрыл соединение
+    private static String readHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                return null;
+            }
+            head.append((char) b);
+        }
+        return head.toString();
+    }
+
+    private static String headerOf(String head, String name) {
+        for (String header : head.split("\r\n")) {
+            if (header.regionMatches(true, 0, name + ":", 0, name.length() + 1)) {
+                return header.substring(name.length() + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    // Ссылка, которая падает, уже записав часть адреса в буфер ответа
+    private static final class FailingWriteShortUrl extends ShortUrl {
+        private final ShortUrl delegate;
+
+        FailingWriteShortUrl(ShortUrl delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override public UUID getId() { return delegate.getId(); }
+        @Override public String getOriginalUrl() { return delegate.getOriginalUrl(); }
+        @Override public String getShortCode() { return delegate.getShortCode(); }
+        @Override public UUID getUserId() { return delegate.getUserId(); }
+        @Override public int getClickLimit() { return delegate.getClickLimit(); }
+        @Override public int getClickCount() { return delegate.getClickCount(); }
+        @Override public LocalDateTime getCreatedAt() { return delegate.getCreatedAt(); }
+        @Override public long getCreatedAtMillis() { return delegate.getCreatedAtMillis(); }
+        @Override public LocalDateTime getExpiresAt() { return delegate.getExpiresAt(); }
+        @Override public long getExpiresAtMillis() { return delegate.getExpiresAtMillis(); }
+        @Override public boolean isActive() { return delegate.isActive(); }
+        @Override public void setActive(boolean active) { delegate.setActive(active); }
+        @Override public boolean tryRegisterClick() { return delegate.tryRegisterClick(); }
+        @Override public boolean isClickLimitExceeded() { return delegate.isClickLimitExceeded(); }
+        @Override public void restoreClickCount(int clickCount) { delegate.restoreClickCount(clickCount); }
+
+        @Override
+        public void writeOriginalUrl(ByteBuffer out) {
+            out.put("https://exam".getBytes(StandardCharsets.US_ASCII));
+            throw new IllegalStateException("сбой на середине адреса");
+        }
+    }
+
+    // Хранилище, чей журнал отказывает, как после ошибки fsync, сразу после того, как ссылки легли в память:
+    // ровно между записью в журнал и ожиданием fsync. Сбой fsync по-настоящему в тесте не вызвать
+    private static PersistentShortUrlStore openWithFailingSync(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        AtomicReference<PersistentShortUrlStore> opened = new AtomicReference<>();
+        PersistentShortUrlStore store = PersistentShortUrlStore.open(directory, new UserService(), 1 << 20, 60_000,
+                capacity -> new CompactShortUrlStore() {
+                    @Override
+                    public ShortUrl putIfAbsent(ShortUrl shortUrl) {
+                        ShortUrl existing = super.putIfAbsent(shortUrl);
+                        failJournal(opened.get());
+                        return existing;
+                    }
+
+                    @Override
+                    public ShortUrl[] putAllIfAbsent(List<ShortUrl> shortUrls) {
+                        ShortUrl[] existing = super.putAllIfAbsent(shortUrls);
+                        failJournal(opened.get());
+                        return existing;
+                    }
+                });
+        opened.set(store);
+        return store;
+    }
+
+    private static void failJournal(PersistentShortUrlStore store) {
+        if (store == null) {
+            return;
+        }
+        try {
+            Field walField = PersistentShortUrlStore.class.getDeclaredField("wal");
+            walField.setAccessible(true);
+            Object wal = walField.get(store);
+            Field failure = wal.getClass().getDeclaredField("failure");
+            failure.setAccessible(true);
+            failure.set(wal, new IOException("сбой fsync в тесте"));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String codeOf(BulkLinkResult result) {
+        return result.getShortUrl().substring(result.getShortUrl().lastIndexOf('/') + 1);
+    }
+
+    private static void deleteRecursively(Path directory) {
+        try (var paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (Exception e) {
+            System.out.println("⚠️ Не удалось удалить " + directory + ": " + e.getMessage());
+        }
+    }
+
+    // Дочерний процесс для теста падения: создаёт ссылки, пока его не убьют
+    public static class CrashWriter {
+        public static void main(String[] args) throws Exception {
+            UserService userService = new UserService();
+            PersistentShortUrlStore store = PersistentShortUrlStore.open(Path.of(args[0]), userService, 1 << 20, 2);
+            UrlShortenerService service = new UrlShortenerService(userService, new AppConfig(), store);
+            UUID userId = userService.createUser();
+            for (int i = 0; ; i++) {
+                String url = service.createShortUrlWithCustomLimit("https://example.com/crash/" + i, userId, 100);
+                // Строка уходит родителю только после того, как запись дождалась fsync
+                System.out.println("ACK " + url.substring(url.lastIndexOf('/') + 1));
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,255 @@
+package analytics;
+
+import config.AppConfig;
+import model.ShortUrl;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+// Аналитика переходов: поток запроса только кладёт ссылки на уже существующие объекты в ячейку
+// ограниченного кольца (как в EventLog) и никогда не ждёт - при заполнении событие теряется.
+// Разбор источника, браузера и хеш посетителя считает поток-агрегатор
+public final class ClickAnalytics implements AutoCloseable {
+    private static final int BATCH_SIZE = 1024;
+    // Кэши разбора заголовков у агрегатора: значения у одного клиента повторяются от перехода к переходу
+    private static final int MAX_CACHED_HEADERS = 4096;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Пишет только агрегатор, читает awaitIdle
+    private volatile long head;
+
+    private final ConcurrentHashMap<String, LinkStats> stats = new ConcurrentHashMap<>();
+    private final int maxKeys;
+    private final long drainIntervalNanos;
+    private final LongAdder dropped = new LongAdder();
+    private final HashMap<String, String> referrerHosts = new HashMap<>();
+    private final HashMap<String, String> userAgentFamilies = new HashMap<>();
+    private final Thread aggregator;
+    private volatile boolean running = true;
+
+    public static ClickAnalytics fromConfig(AppConfig config) {
+        return new ClickAnalytics(config.getAnalyticsQueueSize(), config.getAnalyticsMaxKeys(),
+                config.getAnalyticsDrainIntervalMillis());
+    }
+
+    public ClickAnalytics(int queueCapacity, int maxKeys, long drainIntervalMillis) {
+        int size = Integer.highestOneBit(Math.max(2, queueCapacity - 1)) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i);
+        }
+        this.mask = size - 1;
+        this.maxKeys = maxKeys;
+        this.drainIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, drainIntervalMillis));
+        this.aggregator = new Thread(this::aggregateLoop, "click-analytics");
+        this.aggregator.setDaemon(true);
+        this.aggregator.start();
+    }
+
+    // referrer, userAgent и address могут быть null - например, для переходов из консоли
+    public void publish(ShortUrl shortUrl, String referrer, String userAgent, InetAddress address) {
+        while (true) {
+            long position = tail.get();
+            Slot slot = slots[(int) position & mask];
+            long diff = slot.sequence - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slot.link = shortUrl;
+                    slot.referrer = referrer;
+                    slot.userAgent = userAgent;
+                    slot.address = address;
+                    slot.timeMillis = System.currentTimeMillis();
+                    slot.sequence = position + 1;
+                    return;
+                }
+            } else if (diff < 0) {
+                dropped.increment();
+                return;
+            }
+        }
+    }
+
+    // null - по ссылке ещё не было переходов
+    public LinkStats getStats(String shortCode) {
+        return stats.get(shortCode);
+    }
+
+    // Удалённая или истёкшая ссылка: её код может достаться новой ссылке
+    public void forget(String shortCode) {
+        stats.remove(shortCode);
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    // Ждёт, пока агрегатор разберёт всё опубликованное к моменту вызова
+    public boolean awaitIdle(long timeoutMillis) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (head < target) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            LockSupport.unpark(aggregator);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(aggregator);
+        try {
+            aggregator.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void aggregateLoop() {
+        while (true) {
+            boolean stopping = !running;
+            int count = drain();
+            if (stopping && count == 0) {
+                return;
+            }
+            if (count < BATCH_SIZE) {
+                LockSupport.parkNanos(drainIntervalNanos);
+            }
+        }
+    }
+
+    private int drain() {
+        int count = 0;
+        long position = head;
+        while (count < BATCH_SIZE) {
+            Slot slot = slots[(int) position & mask];
+            if (slot.sequence != position + 1) {
+                break;
+            }
+            try {
+                aggregate(slot);
+            } catch (RuntimeException e) {
+                // Битое событие пропускаем: агрегатор должен жить дальше. Так же пропускается переход
+                // по удалённой ссылке, чья запись в хранилище уже досталась другой, - её статистика всё равно забыта
+            }
+            slot.clear();
+            slot.sequence = position + slots.length;
+            position++;
+            head = position;
+            count++;
+        }
+        return count;
+    }
+
+    private void aggregate(Slot slot) {
+        String shortCode = slot.link.getShortCode();
+        stats.computeIfAbsent(shortCode, code -> new LinkStats(maxKeys)).add(slot.timeMillis,
+                cached(referrerHosts, slot.referrer, ClickAnalytics::referrerHost),
+                cached(userAgentFamilies, slot.userAgent, ClickAnalytics::userAgentFamily),
+                visitorHash(slot.address, slot.userAgent));
+    }
+
+    private static String cached(HashMap<String, String> cache, String header, Function<String, String> parser) {
+        if (header == null) {
+            return parser.apply(null);
+        }
+        String parsed = cache.get(header);
+        if (parsed == null) {
+            if (cache.size() >= MAX_CACHED_HEADERS) {
+                cache.clear();
+            }
+            parsed = parser.apply(header);
+            cache.put(header, parsed);
+        }
+        return parsed;
+    }
+
+    // Источник сводится к хосту: пути и параметры разнесли бы один сайт по тысячам ключей
+    static String referrerHost(String referrer) {
+        if (referrer == null || referrer.isBlank()) {
+            return "direct";
+        }
+        int start = referrer.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = start;
+        while (end < referrer.length() && "/?#:".indexOf(referrer.charAt(end)) < 0) {
+            end++;
+        }
+        String host = referrer.substring(start, end).toLowerCase(Locale.ROOT);
+        if (host.startsWith("www.")) {
+            host = host.substring(4);
+        }
+        return host.isEmpty() ? "direct" : host;
+    }
+
+    // Порядок проверок важен: Edge и Opera содержат "Chrome/", а Chrome - "Safari/"
+    static String userAgentFamily(String userAgent) {
+        if (userAgent == null || userAgent.isBlank()) {
+            return "unknown";
+        }
+        String agent = userAgent.toLowerCase(Locale.ROOT);
+        if (agent.contains("bot") || agent.contains("crawl") || agent.contains("spider")) {
+            return "bot";
+        }
+        if (agent.startsWith("curl/") || agent.startsWith("wget/")) {
+            return "cli";
+        }
+        if (agent.contains("edg/")) {
+            return "edge";
+        }
+        if (agent.contains("opr/")) {
+            return "opera";
+        }
+        if (agent.contains("firefox/")) {
+            return "firefox";
+        }
+        if (agent.contains("chrome/")) {
+            return "chrome";
+        }
+        if (agent.contains("safari/")) {
+            return "safari";
+        }
+        return LinkStats.OTHER;
+    }
+
+    // Посетитель - адрес плюс браузер; хеш перемешивается, как того требует HyperLogLog
+    static long visitorHash(InetAddress address, String userAgent) {
+        long hash = (long) (address != null ? address.hashCode() : 0) << 32
+                ^ (userAgent != null ? userAgent.hashCode() : 0) & 0xFFFFFFFFL;
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static final class Slot {
+        volatile long sequence;
+        ShortUrl link;
+        String referrer;
+        String userAgent;
+        InetAddress address;
+        long timeMillis;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+
+        void clear() {
+            link = null;
+            referrer = null;
+            userAgent = null;
+            address = null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package analytics;
+
+import java.util.Arrays;
+
+// Оценка числа уникальных посетителей: 1024 регистра по байту, стандартная ошибка ~3%.
+// Пока посетителей мало, занятые регистры хранятся списком (регистр << 8 | ранг) - у большинства
+// ссылок переходов немного, и килобайт регистров на каждую был бы основной ценой аналитики.
+// На вход - уже перемешанный 64-битный хеш
+final class HyperLogLog {
+    private static final int PRECISION = 10;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final int MAX_SPARSE = 128;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private int[] sparse = new int[4];
+    private int sparseSize;
+    private byte[] registers;
+
+    void add(long hash) {
+        int register = (int) (hash >>> (64 - PRECISION));
+        // Сторожевой бит ограничивает ранг, если оставшиеся биты хеша нулевые
+        int rank = Long.numberOfLeadingZeros(hash << PRECISION | 1L << (PRECISION - 1)) + 1;
+        if (registers != null) {
+            if (rank > registers[register]) {
+                registers[register] = (byte) rank;
+            }
+            return;
+        }
+        for (int i = 0; i < sparseSize; i++) {
+            if (sparse[i] >>> 8 == register) {
+                if (rank > (sparse[i] & 0xFF)) {
+                    sparse[i] = register << 8 | rank;
+                }
+                return;
+            }
+        }
+        if (sparseSize == MAX_SPARSE) {
+            registers = dense();
+            sparse = null;
+            registers[register] = (byte) Math.max(registers[register], rank);
+            return;
+        }
+        if (sparseSize == sparse.length) {
+            sparse = Arrays.copyOf(sparse, sparse.length * 2);
+        }
+        sparse[sparseSize++] = register << 8 | rank;
+    }
+
+    long estimate() {
+        byte[] ranks = registers != null ? registers : dense();
+        double sum = 0;
+        int zeros = 0;
+        for (byte rank : ranks) {
+            sum += 1.0 / (1L << rank);
+            if (rank == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        // На малых числах точнее линейный счёт по пустым регистрам
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    private byte[] dense() {
+        byte[] ranks = new byte[REGISTERS];
+        for (int i = 0; i < sparseSize; i++) {
+            ranks[sparse[i] >>> 8] = (byte) (sparse[i] & 0xFF);
+        }
+        return ranks;
+    }
+}
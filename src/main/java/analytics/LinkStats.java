@@ -0,0 +1,85 @@
+package analytics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Агрегаты одной ссылки. Пишет только поток-агрегатор, читают запросы статистики - отсюда synchronized
+// без конкуренции на пути записи. Дни считаются по UTC
+public final class LinkStats {
+    public static final String OTHER = "other";
+
+    private final TimeBuckets minutes = new TimeBuckets(60_000L, 60);
+    private final TimeBuckets hours = new TimeBuckets(3_600_000L, 24);
+    private final TimeBuckets days = new TimeBuckets(86_400_000L, 30);
+    private final HyperLogLog visitors = new HyperLogLog();
+    private final Map<String, Long> referrers = new HashMap<>();
+    private final Map<String, Long> userAgents = new HashMap<>();
+    private final int maxKeys;
+    private long clicks;
+
+    LinkStats(int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    synchronized void add(long timeMillis, String referrer, String userAgent, long visitor) {
+        clicks++;
+        minutes.add(timeMillis);
+        hours.add(timeMillis);
+        days.add(timeMillis);
+        visitors.add(visitor);
+        count(referrers, referrer);
+        count(userAgents, userAgent);
+    }
+
+    // Число разных ключей ограничено, остальные копятся в other
+    private void count(Map<String, Long> counts, String key) {
+        if (!counts.containsKey(key) && counts.size() >= maxKeys) {
+            key = OTHER;
+        }
+        counts.merge(key, 1L, Long::sum);
+    }
+
+    // Переходы, прошедшие через аналитику; в отличие от счётчика лимита не восстанавливаются после рестарта
+    public synchronized long getClicks() {
+        return clicks;
+    }
+
+    // 60 минут, 24 часа и 30 дней: от старого к текущему
+    public synchronized int[] getClicksPerMinute(long nowMillis) {
+        return minutes.recent(nowMillis);
+    }
+
+    public synchronized int[] getClicksPerHour(long nowMillis) {
+        return hours.recent(nowMillis);
+    }
+
+    public synchronized int[] getClicksPerDay(long nowMillis) {
+        return days.recent(nowMillis);
+    }
+
+    public synchronized long getUniqueVisitors() {
+        return visitors.estimate();
+    }
+
+    // Копии, упорядоченные по убыванию числа переходов
+    public synchronized Map<String, Long> getReferrers() {
+        return sorted(referrers);
+    }
+
+    public synchronized Map<String, Long> getUserAgents() {
+        return sorted(userAgents);
+    }
+
+    private static Map<String, Long> sorted(Map<String, Long> counts) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : entries) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,51 @@
+package analytics;
+
+import java.util.Arrays;
+
+// Кольцо счётчиков по периодам фиксированной длины. Помнится только последний период:
+// при переходе к новому обнуляются пропущенные ячейки, поэтому сдвигать окно по таймеру не нужно
+final class TimeBuckets {
+    private final long periodMillis;
+    private final int[] counts;
+    private long current = -1;
+
+    TimeBuckets(long periodMillis, int size) {
+        this.periodMillis = periodMillis;
+        this.counts = new int[size];
+    }
+
+    void add(long timeMillis) {
+        long period = timeMillis / periodMillis;
+        if (period > current) {
+            advance(period);
+        } else if (current - period >= counts.length) {
+            // Запоздавшее событие старше окна
+            return;
+        }
+        counts[(int) (period % counts.length)]++;
+    }
+
+    private void advance(long period) {
+        if (current < 0 || period - current >= counts.length) {
+            Arrays.fill(counts, 0);
+        } else {
+            for (long skipped = current + 1; skipped <= period; skipped++) {
+                counts[(int) (skipped % counts.length)] = 0;
+            }
+        }
+        current = period;
+    }
+
+    // От старого периода к текущему; последний элемент - текущий, ещё не закончившийся период
+    int[] recent(long nowMillis) {
+        long now = nowMillis / periodMillis;
+        int[] result = new int[counts.length];
+        for (int i = 0; i < result.length; i++) {
+            long period = now - result.length + 1 + i;
+            if (period <= current && current - period < counts.length) {
+                result[i] = counts[(int) (period % counts.length)];
+            }
+        }
+        return result;
+    }
+}
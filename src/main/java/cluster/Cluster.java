@@ -0,0 +1,142 @@
+package cluster;
+
+import config.AppConfig;
+import model.ShortUrl;
+
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Место узла в кластере: кто он, кому принадлежат остальные части кодов и как пересылать к ним запросы.
+// Кольцо меняется на ходу при перебалансировке, поэтому читается из volatile-поля на каждый запрос
+public class Cluster {
+    // Запрос уже переслан другим узлом: отвечаем сами, даже если по нашему кольцу код чужой,
+    // иначе два узла с разными версиями кольца гоняли бы запрос друг другу
+    public static final String HOP_HEADER = "X-Cluster-Hop";
+    public static final String TOKEN_HEADER = "X-Cluster-Token";
+
+    private final String selfId;
+    private final int virtualNodes;
+    private final ForwardMode forwardMode;
+    private final String token;
+    private final HttpClient httpClient;
+    private volatile HashRing ring;
+    private volatile char[] ownedPartitions;
+    // Журнал удалений на время переноса: части, удаления в которых записываются (null - не записываются),
+    // и записи "код id". Копия могла взять ссылку до удаления, журнал не даёт ей ожить на новом владельце
+    private volatile String deleteLogPartitions;
+    private final Queue<String> deleteLog = new ConcurrentLinkedQueue<>();
+
+    // null - кластер не настроен, узел отвечает за все коды сам
+    public static Cluster fromConfig(AppConfig config) {
+        String nodes = config.getClusterNodes();
+        if (nodes.isBlank()) {
+            return null;
+        }
+        // Служебные /cluster/ запросы меняют кольцо, удаляют и выгружают ссылки вместе с id владельцев,
+        // поэтому без токена кластер не запускается
+        if (config.getClusterToken().isBlank()) {
+            throw new IllegalStateException("❌ Для кластера нужен cluster.token");
+        }
+        return new Cluster(config.getClusterNodeId(), ClusterNode.parseList(nodes), config.getClusterVirtualNodes(),
+                ForwardMode.fromConfig(config.getClusterForwardMode()), config.getClusterToken());
+    }
+
+    public Cluster(String selfId, List<ClusterNode> nodes, int virtualNodes, ForwardMode forwardMode, String token) {
+        this.selfId = selfId;
+        this.virtualNodes = virtualNodes;
+        this.forwardMode = forwardMode;
+        if (token == null || token.isBlank()) {
+            throw new IllegalArgumentException("❌ Токен кластера не может быть пустым");
+        }
+        this.token = token;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(2))
+                .build();
+        updateRing(nodes);
+    }
+
+    // null - код свой или вовсе не похож на код; тогда отвечает этот узел
+    public ClusterNode ownerOf(CharSequence text, int start) {
+        ClusterNode owner = ring.ownerOf(text, start);
+        return owner == null || owner.getId().equals(selfId) ? null : owner;
+    }
+
+    public boolean owns(String shortCode) {
+        ClusterNode owner = ring.ownerOf(shortCode, 0);
+        return owner == null || owner.getId().equals(selfId);
+    }
+
+    public char[] getOwnedPartitions() {
+        return ownedPartitions;
+    }
+
+    // Новый состав кластера: этот узел должен в нём остаться
+    public void updateRing(List<ClusterNode> nodes) {
+        HashRing updated = new HashRing(nodes, virtualNodes);
+        if (updated.getNode(selfId) == null) {
+            throw new IllegalArgumentException("❌ Узла " + selfId + " нет в составе кластера");
+        }
+        ring = updated;
+        ownedPartitions = updated.partitionsOf(selfId);
+    }
+
+    // Начинает журнал удалений заново для частей с символами partitions
+    public void startDeleteLog(String partitions) {
+        deleteLog.clear();
+        deleteLogPartitions = partitions;
+    }
+
+    public void stopDeleteLog() {
+        deleteLogPartitions = null;
+        deleteLog.clear();
+    }
+
+    public void recordDelete(ShortUrl shortUrl) {
+        String partitions = deleteLogPartitions;
+        if (partitions != null && partitions.indexOf(shortUrl.getShortCode().charAt(0)) >= 0) {
+            deleteLog.add(shortUrl.getShortCode() + " " + shortUrl.getId());
+        }
+    }
+
+    public List<String> getDeleteLog() {
+        return new ArrayList<>(deleteLog);
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+
+    public String getSelfId() {
+        return selfId;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public ForwardMode getForwardMode() {
+        return forwardMode;
+    }
+
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    // Служебные запросы узлов друг к другу. Сравнение за постоянное время, чтобы токен нельзя было
+    // подобрать по времени ответа
+    public boolean isAuthorized(String requestToken) {
+        return requestToken != null && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                requestToken.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String getToken() {
+        return token;
+    }
+}
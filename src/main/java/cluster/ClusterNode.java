@@ -0,0 +1,76 @@
+package cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.StringJoiner;
+
+// Узел кластера: имя, по которому считается кольцо, и адрес его WebServer
+public final class ClusterNode {
+    private final String id;
+    private final String url;
+
+    public ClusterNode(String id, String url) {
+        if (id == null || id.isBlank() || url == null || url.isBlank()) {
+            throw new IllegalArgumentException("❌ У узла кластера должны быть имя и адрес");
+        }
+        this.id = id.strip();
+        // Адрес без завершающего слэша: к нему дописывается путь запроса
+        String trimmed = url.strip();
+        this.url = trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    // Список вида a=http://10.0.0.1:8080,b=http://10.0.0.2:8080
+    public static List<ClusterNode> parseList(String spec) {
+        List<ClusterNode> nodes = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int separator = entry.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("❌ Узел кластера задаётся как имя=адрес: " + entry.strip());
+            }
+            nodes.add(new ClusterNode(entry.substring(0, separator), entry.substring(separator + 1)));
+        }
+        return nodes;
+    }
+
+    public static String formatList(List<ClusterNode> nodes) {
+        StringJoiner joiner = new StringJoiner(",");
+        for (ClusterNode node : nodes) {
+            joiner.add(node.toString());
+        }
+        return joiner.toString();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ClusterNode)) {
+            return false;
+        }
+        ClusterNode node = (ClusterNode) other;
+        return id.equals(node.id) && url.equals(node.url);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, url);
+    }
+
+    @Override
+    public String toString() {
+        return id + "=" + url;
+    }
+}
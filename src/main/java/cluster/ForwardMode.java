@@ -0,0 +1,20 @@
+package cluster;
+
+// Что узел делает с запросом к чужому коду
+public enum ForwardMode {
+    // 307 на узел-владелец: клиент делает второй запрос сам, этот узел не тратит на него ничего
+    REDIRECT,
+    // Узел сам спрашивает владельца и отдаёт его ответ: клиенту хватает одного адреса
+    PROXY;
+
+    public static ForwardMode fromConfig(String value) {
+        if (value == null || value.isBlank()) {
+            return REDIRECT;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("❌ Неизвестный режим пересылки: " + value);
+        }
+    }
+}
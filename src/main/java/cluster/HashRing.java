@@ -0,0 +1,108 @@
+package cluster;
+
+import util.Base62;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Консистентное хэширование частей пространства кодов по узлам. Часть - первый символ кода (62 части base62),
+// её номер зашит в код при генерации, поэтому маршрут запроса - один символ и обращение к таблице.
+// Каждый узел занимает virtualNodes точек на кольце: части делятся между узлами почти поровну,
+// а новый узел забирает у каждого старого понемногу, остальные части не двигаются
+public final class HashRing {
+    public static final int PARTITIONS = Base62.RADIX;
+
+    private static final int[] PARTITION_OF_CHAR = new int[128];
+
+    static {
+        Arrays.fill(PARTITION_OF_CHAR, -1);
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            PARTITION_OF_CHAR[Base62.digit(partition)] = partition;
+        }
+    }
+
+    private final List<ClusterNode> nodes;
+    private final ClusterNode[] owners = new ClusterNode[PARTITIONS];
+
+    public HashRing(List<ClusterNode> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("❌ В кластере должен быть хотя бы один узел");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("❌ Число виртуальных узлов должно быть положительным");
+        }
+        Set<String> ids = new HashSet<>();
+        TreeMap<Long, ClusterNode> ring = new TreeMap<>();
+        for (ClusterNode node : nodes) {
+            if (!ids.add(node.getId())) {
+                throw new IllegalArgumentException("❌ Имя узла кластера повторяется: " + node.getId());
+            }
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.putIfAbsent(hash(node.getId() + "#" + i), node);
+            }
+        }
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            // Часть принадлежит первой точке кольца по часовой стрелке от своего хэша
+            Map.Entry<Long, ClusterNode> point = ring.ceilingEntry(hash("partition#" + partition));
+            owners[partition] = (point != null ? point : ring.firstEntry()).getValue();
+        }
+        this.nodes = List.copyOf(nodes);
+    }
+
+    // -1 - символ не из алфавита кодов
+    public static int partitionOf(char c) {
+        return c < PARTITION_OF_CHAR.length ? PARTITION_OF_CHAR[c] : -1;
+    }
+
+    // null - строка не похожа на код, владельца нет
+    public ClusterNode ownerOf(CharSequence text, int start) {
+        if (start >= text.length()) {
+            return null;
+        }
+        int partition = partitionOf(text.charAt(start));
+        return partition < 0 ? null : owners[partition];
+    }
+
+    public ClusterNode ownerOf(int partition) {
+        return owners[partition];
+    }
+
+    // Символы частей узла - префиксы его новых кодов
+    public char[] partitionsOf(String nodeId) {
+        StringBuilder partitions = new StringBuilder();
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            if (owners[partition].getId().equals(nodeId)) {
+                partitions.append(Base62.digit(partition));
+            }
+        }
+        return partitions.toString().toCharArray();
+    }
+
+    public List<ClusterNode> getNodes() {
+        return nodes;
+    }
+
+    public ClusterNode getNode(String nodeId) {
+        for (ClusterNode node : nodes) {
+            if (node.getId().equals(nodeId)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    // FNV-1a с перемешиванием: близкие имена вида a#1, a#2 расходятся по всему кольцу
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ h >>> 33) * 0xff51afd7ed558ccdL;
+        h = (h ^ h >>> 33) * 0xc4ceb9fe1a85ec53L;
+        return h ^ h >>> 33;
+    }
+}
@@ -0,0 +1,175 @@
+package cluster;
+
+import util.Base62;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Перенос частей кодов при смене состава кластера (добавление или вывод узла):
+//  1. части, сменившие владельца, копируются со старого владельца на нового;
+//  2. всем узлам нового состава отправляется новое кольцо - с этого момента новые коды этих частей
+//     создаёт и обслуживает новый владелец;
+//  3. копирование повторяется: доезжают ссылки, созданные на старом владельце до переключения,
+//     и переходы, засчитанные там за это время (счётчик догоняется до большего значения);
+//  4. удаления, записанные с начала переноса на старых и новых владельцах, повторяются на новых:
+//     копия могла взять ссылку до её удаления, и без этого ссылка ожила бы на новом владельце;
+//  5. старые владельцы удаляют ссылки частей, которые им больше не принадлежат.
+// Новый узел перед запуском процедуры уже работает и знает новый состав кластера
+public class Rebalancer {
+    private static final String LINKS_PATH = "/cluster/links";
+    private static final String RING_PATH = "/cluster/ring";
+    private static final String CLEANUP_PATH = "/cluster/cleanup";
+    private static final String DELETES_PATH = "/cluster/deletes";
+
+    private final HttpClient client;
+    private final String token;
+
+    public Rebalancer(String token) {
+        if (token == null || token.isBlank()) {
+            throw new IllegalArgumentException("❌ Для перебалансировки нужен cluster.token");
+        }
+        this.token = token;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    // Возвращает число ссылок, переехавших на новых владельцев
+    public int rebalance(List<ClusterNode> before, List<ClusterNode> after, int virtualNodes)
+            throws IOException, InterruptedException {
+        HashRing oldRing = new HashRing(before, virtualNodes);
+        HashRing newRing = new HashRing(after, virtualNodes);
+        // Откуда -> куда -> символы частей
+        Map<ClusterNode, Map<ClusterNode, StringBuilder>> moves = new LinkedHashMap<>();
+        for (int partition = 0; partition < HashRing.PARTITIONS; partition++) {
+            ClusterNode from = oldRing.ownerOf(partition);
+            ClusterNode to = newRing.ownerOf(partition);
+            if (!from.getId().equals(to.getId())) {
+                moves.computeIfAbsent(from, node -> new LinkedHashMap<>())
+                        .computeIfAbsent(to, node -> new StringBuilder())
+                        .append(Base62.digit(partition));
+            }
+        }
+
+        // Журнал удалений ведут все узлы переноса, каждый - по своим уходящим и приходящим частям
+        Map<ClusterNode, StringBuilder> logged = new LinkedHashMap<>();
+        moves.forEach((from, targets) -> targets.forEach((to, partitions) -> {
+            logged.computeIfAbsent(from, node -> new StringBuilder()).append(partitions);
+            logged.computeIfAbsent(to, node -> new StringBuilder()).append(partitions);
+        }));
+        for (Map.Entry<ClusterNode, StringBuilder> node : logged.entrySet()) {
+            send(node.getKey(), HttpRequest.newBuilder(URI.create(node.getKey().getUrl() + DELETES_PATH))
+                    .PUT(HttpRequest.BodyPublishers.ofString(node.getValue().toString())));
+        }
+
+        int moved;
+        try {
+            moved = copy(moves);
+            String ring = ClusterNode.formatList(after);
+            for (ClusterNode node : after) {
+                send(node, HttpRequest.newBuilder(URI.create(node.getUrl() + RING_PATH))
+                        .PUT(HttpRequest.BodyPublishers.ofString(ring)));
+            }
+            copy(moves);
+            replayDeletes(logged.keySet(), newRing);
+        } finally {
+            for (ClusterNode node : logged.keySet()) {
+                try {
+                    send(node, HttpRequest.newBuilder(URI.create(node.getUrl() + DELETES_PATH)).DELETE());
+                } catch (IOException e) {
+                    System.out.println("⚠️ Узел " + node.getId() + " не остановил журнал удалений: " + e.getMessage());
+                }
+            }
+        }
+        for (ClusterNode node : before) {
+            // Выведенный узел просто останавливают, чистить его незачем
+            if (newRing.getNode(node.getId()) != null) {
+                send(node, HttpRequest.newBuilder(URI.create(node.getUrl() + CLEANUP_PATH))
+                        .POST(HttpRequest.BodyPublishers.noBody()));
+            }
+        }
+        return moved;
+    }
+
+    // Выгрузка идёт потоком прямо в загрузку: ссылки части не собираются в памяти целиком
+    private int copy(Map<ClusterNode, Map<ClusterNode, StringBuilder>> moves) throws IOException, InterruptedException {
+        int imported = 0;
+        for (Map.Entry<ClusterNode, Map<ClusterNode, StringBuilder>> source : moves.entrySet()) {
+            ClusterNode from = source.getKey();
+            for (Map.Entry<ClusterNode, StringBuilder> target : source.getValue().entrySet()) {
+                HttpResponse<InputStream> export = client.send(authorized(HttpRequest.newBuilder(
+                        URI.create(from.getUrl() + LINKS_PATH + "?partitions=" + target.getValue())).GET()).build(),
+                        HttpResponse.BodyHandlers.ofInputStream());
+                if (export.statusCode() != 200) {
+                    export.body().close();
+                    throw new IOException("❌ Узел " + from.getId() + " не отдал ссылки: HTTP " + export.statusCode());
+                }
+                ClusterNode to = target.getKey();
+                String response;
+                try (InputStream body = export.body()) {
+                    response = send(to, HttpRequest.newBuilder(URI.create(to.getUrl() + LINKS_PATH))
+                            .header("Content-Type", "application/x-ndjson")
+                            .POST(HttpRequest.BodyPublishers.ofInputStream(() -> body)));
+                }
+                imported += jsonNumber(response, "imported");
+            }
+        }
+        return imported;
+    }
+
+    // Удаления со всех узлов переноса отправляются новым владельцам кодов; ссылка удаляется, только если
+    // у неё тот же id, - код, занятый заново, не пострадает
+    private void replayDeletes(Collection<ClusterNode> logged, HashRing newRing)
+            throws IOException, InterruptedException {
+        Map<ClusterNode, StringBuilder> byOwner = new LinkedHashMap<>();
+        for (ClusterNode node : logged) {
+            String deletes = send(node, HttpRequest.newBuilder(URI.create(node.getUrl() + DELETES_PATH)).GET());
+            for (String line : deletes.split("\n")) {
+                ClusterNode owner = line.isBlank() ? null : newRing.ownerOf(line, 0);
+                if (owner != null) {
+                    byOwner.computeIfAbsent(owner, key -> new StringBuilder()).append(line).append('\n');
+                }
+            }
+        }
+        for (Map.Entry<ClusterNode, StringBuilder> owner : byOwner.entrySet()) {
+            send(owner.getKey(), HttpRequest.newBuilder(URI.create(owner.getKey().getUrl() + DELETES_PATH))
+                    .POST(HttpRequest.BodyPublishers.ofString(owner.getValue().toString())));
+        }
+    }
+
+    private String send(ClusterNode node, HttpRequest.Builder request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(authorized(request).build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("❌ Узел " + node.getId() + " ответил HTTP " + response.statusCode() + ": "
+                    + response.body());
+        }
+        return response.body();
+    }
+
+    private HttpRequest.Builder authorized(HttpRequest.Builder request) {
+        return request.header(Cluster.TOKEN_HEADER, token);
+    }
+
+    private static int jsonNumber(String json, String name) {
+        int start = json.indexOf("\"" + name + "\":");
+        if (start < 0) {
+            return 0;
+        }
+        start += name.length() + 3;
+        int end = start;
+        while (end < json.length() && Character.isDigit(json.charAt(end))) {
+            end++;
+        }
+        return end > start ? Integer.parseInt(json.substring(start, end)) : 0;
+    }
+}
@@ -0,0 +1,39 @@
+package cluster;
+
+import service.ShortCodeGenerator;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Код узла кластера: первый символ - одна из частей, которыми узел владеет, дальше код обычного генератора.
+// Любой узел находит владельца по первому символу, не заглядывая в хранилища
+public class ShardedShortCodeGenerator implements ShortCodeGenerator {
+    private final ShortCodeGenerator delegate;
+    private final Cluster cluster;
+
+    public ShardedShortCodeGenerator(ShortCodeGenerator delegate, Cluster cluster) {
+        this.delegate = delegate;
+        this.cluster = cluster;
+    }
+
+    @Override
+    public String nextCode() {
+        return partition(cluster.getOwnedPartitions()) + delegate.nextCode();
+    }
+
+    @Override
+    public String[] nextCodes(int count) {
+        char[] owned = cluster.getOwnedPartitions();
+        String[] codes = delegate.nextCodes(count);
+        for (int i = 0; i < count; i++) {
+            codes[i] = partition(owned) + codes[i];
+        }
+        return codes;
+    }
+
+    private char partition(char[] owned) {
+        if (owned.length == 0) {
+            throw new IllegalStateException("❌ Узлу " + cluster.getSelfId() + " не досталось ни одной части кодов");
+        }
+        return owned[ThreadLocalRandom.current().nextInt(owned.length)];
+    }
+}
@@ -3,6 +3,7 @@ package config;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Properties;
 
 public class AppConfig {
@@ -10,17 +11,33 @@ public class AppConfig {
 
     public AppConfig() {
         properties = new Properties();
+        setDefaultProperties();
         loadProperties();
+        applySystemProperties();
     }
 
+    // -Dключ=значение перекрывает файл: так несколько узлов запускаются из одной сборки с разными портами
+    private void applySystemProperties() {
+        for (String key : properties.stringPropertyNames()) {
+            String value = System.getProperty(key);
+            if (value != null) {
+                properties.setProperty(key, value);
+            }
+        }
+    }
+
+    // Значения из файла перекрывают умолчания, отсутствующие ключи остаются со значениями по умолчанию
     private void loadProperties() {
-        try {
-            File configFile = new File("src/config/config.properties");
-            FileInputStream input = new FileInputStream(configFile);
+        File configFile = new File("src/config/config.properties");
+        try (InputStream input = configFile.exists()
+                ? new FileInputStream(configFile)
+                : AppConfig.class.getClassLoader().getResourceAsStream("config.properties")) {
+            if (input == null) {
+                throw new IOException("config.properties не найден");
+            }
             properties.load(input);
             System.out.println("✅ Конфигурация загружена");
         } catch (IOException e) {
-            setDefaultProperties();
             System.out.println("⚠️ Используются значения по умолчанию");
         }
     }
@@ -29,9 +46,63 @@ public class AppConfig {
         properties.setProperty("server.port", "8080");
         properties.setProperty("default.click.limit", "100");
         properties.setProperty("default.ttl.hours", "24");
-        properties.setProperty("cleanup.interval.hours", "1");
-        properties.setProperty("cleanup.initial.delay.minutes", "1");
+        properties.setProperty("cleanup.tick.ms", "1000");
+        properties.setProperty("cleanup.max.evictions.per.tick", "10000");
         properties.setProperty("short.code.length", "6");
+        properties.setProperty("short.code.strategy", "counter");
+        properties.setProperty("dedup.enabled", "false");
+        properties.setProperty("server.executor.mode", "single");
+        properties.setProperty("server.executor.pool.size", "0");
+        properties.setProperty("server.executor.queue.capacity", "1024");
+        properties.setProperty("server.shutdown.drain.seconds", "5");
+        properties.setProperty("server.frontend", "httpserver");
+        properties.setProperty("server.nio.loops", "0");
+        properties.setProperty("server.api.port", "8081");
+        properties.setProperty("storage.engine", "compact");
+        properties.setProperty("storage.enabled", "false");
+        properties.setProperty("storage.directory", "data");
+        properties.setProperty("storage.wal.segment.size.mb", "64");
+        properties.setProperty("storage.fsync.interval.ms", "5");
+        properties.setProperty("storage.click.flush.interval.ms", "1000");
+        properties.setProperty("storage.snapshot.interval.minutes", "10");
+        properties.setProperty("log.level", "info");
+        properties.setProperty("log.level.create", "info");
+        properties.setProperty("log.level.redirect", "info");
+        properties.setProperty("log.level.delete", "info");
+        properties.setProperty("log.level.cleanup", "info");
+        properties.setProperty("log.level.bulk_create", "info");
+        properties.setProperty("log.buffer.size", "8192");
+        properties.setProperty("log.overflow", "drop");
+        properties.setProperty("log.flush.interval.ms", "10");
+        properties.setProperty("analytics.queue.size", "65536");
+        properties.setProperty("analytics.max.keys", "20");
+        properties.setProperty("analytics.drain.interval.ms", "50");
+        properties.setProperty("cache.max.mb", "0");
+        properties.setProperty("cache.negative.entries", "65536");
+        properties.setProperty("filter.enabled", "true");
+        properties.setProperty("redirect.permanent.status", "301");
+        properties.setProperty("redirect.max.age.seconds", "86400");
+        properties.setProperty("cluster.node.id", "");
+        properties.setProperty("cluster.nodes", "");
+        properties.setProperty("cluster.virtual.nodes", "128");
+        properties.setProperty("cluster.forward", "redirect");
+        properties.setProperty("cluster.token", "");
+        properties.setProperty("replication.role", "none");
+        properties.setProperty("replication.port", "9090");
+        properties.setProperty("replication.bind", "127.0.0.1");
+        properties.setProperty("replication.token", "");
+        properties.setProperty("replication.primary", "127.0.0.1:9090");
+        properties.setProperty("replication.queue.size", "65536");
+        properties.setProperty("replication.click.flush.ms", "100");
+        properties.setProperty("ratelimit.enabled", "false");
+        properties.setProperty("ratelimit.redirect.per.second", "100");
+        properties.setProperty("ratelimit.redirect.burst", "200");
+        properties.setProperty("ratelimit.create.per.second", "20");
+        properties.setProperty("ratelimit.create.burst", "100");
+        properties.setProperty("ratelimit.user.per.second", "10");
+        properties.setProperty("ratelimit.user.burst", "50");
+        properties.setProperty("ratelimit.table.size", "65536");
+        properties.setProperty("ratelimit.trusted.proxies", "");
     }
 
     public int getServerPort() {
@@ -46,15 +117,259 @@ public class AppConfig {
         return Integer.parseInt(properties.getProperty("default.ttl.hours"));
     }
 
-    public int getCleanupIntervalHours() {
-        return Integer.parseInt(properties.getProperty("cleanup.interval.hours"));
+    public long getCleanupTickMillis() {
+        return Long.parseLong(properties.getProperty("cleanup.tick.ms"));
     }
 
-    public int getCleanupInitialDelayMinutes() {
-        return Integer.parseInt(properties.getProperty("cleanup.initial.delay.minutes"));
+    public int getCleanupMaxEvictionsPerTick() {
+        return Integer.parseInt(properties.getProperty("cleanup.max.evictions.per.tick"));
     }
 
     public int getShortCodeLength() {
         return Integer.parseInt(properties.getProperty("short.code.length"));
     }
-}
\ No newline at end of file
+
+    // counter | random
+    public String getShortCodeStrategy() {
+        return properties.getProperty("short.code.strategy");
+    }
+
+    // Повторное сокращение того же URL тем же пользователем возвращает прежний код
+    public boolean isDedupEnabled() {
+        return Boolean.parseBoolean(properties.getProperty("dedup.enabled"));
+    }
+
+    // single | pool | virtual
+    public String getServerExecutorMode() {
+        return properties.getProperty("server.executor.mode");
+    }
+
+    // 0 - по числу ядер
+    public int getServerExecutorPoolSize() {
+        int size = Integer.parseInt(properties.getProperty("server.executor.pool.size"));
+        return size > 0 ? size : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getServerExecutorQueueCapacity() {
+        return Integer.parseInt(properties.getProperty("server.executor.queue.capacity"));
+    }
+
+    public int getServerShutdownDrainSeconds() {
+        return Integer.parseInt(properties.getProperty("server.shutdown.drain.seconds"));
+    }
+
+    // httpserver | nio
+    public String getServerFrontend() {
+        return properties.getProperty("server.frontend");
+    }
+
+    // 0 - по числу ядер
+    public int getServerNioLoops() {
+        int loops = Integer.parseInt(properties.getProperty("server.nio.loops"));
+        return loops > 0 ? loops : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getServerApiPort() {
+        return Integer.parseInt(properties.getProperty("server.api.port"));
+    }
+
+    // С фронтендом nio основной порт занят им, а WebServer отвечает на API на своём
+    public int getWebServerPort() {
+        return getServerFrontend().trim().equalsIgnoreCase("nio") ? getServerApiPort() : getServerPort();
+    }
+
+    // heap | compact | interned
+    public String getStorageEngine() {
+        return properties.getProperty("storage.engine");
+    }
+
+    public boolean isStorageEnabled() {
+        return Boolean.parseBoolean(properties.getProperty("storage.enabled"));
+    }
+
+    public String getStorageDirectory() {
+        return properties.getProperty("storage.directory");
+    }
+
+    public int getStorageSegmentSizeMb() {
+        return Integer.parseInt(properties.getProperty("storage.wal.segment.size.mb"));
+    }
+
+    public long getStorageFsyncIntervalMillis() {
+        return Long.parseLong(properties.getProperty("storage.fsync.interval.ms"));
+    }
+
+    public long getStorageClickFlushIntervalMillis() {
+        return Long.parseLong(properties.getProperty("storage.click.flush.interval.ms"));
+    }
+
+    public long getStorageSnapshotIntervalMinutes() {
+        return Long.parseLong(properties.getProperty("storage.snapshot.interval.minutes"));
+    }
+
+    // debug | info | warn | off - события ниже порога не пишутся
+    public String getLogLevel() {
+        return properties.getProperty("log.level");
+    }
+
+    // Уровень события: create, redirect, delete, cleanup, bulk_create
+    public String getLogLevel(String eventType) {
+        return properties.getProperty("log.level." + eventType, "info");
+    }
+
+    public int getLogBufferSize() {
+        return Integer.parseInt(properties.getProperty("log.buffer.size"));
+    }
+
+    // drop | block
+    public String getLogOverflowPolicy() {
+        return properties.getProperty("log.overflow");
+    }
+
+    public long getLogFlushIntervalMillis() {
+        return Long.parseLong(properties.getProperty("log.flush.interval.ms"));
+    }
+
+    public int getAnalyticsQueueSize() {
+        return Integer.parseInt(properties.getProperty("analytics.queue.size"));
+    }
+
+    // Сколько разных источников и браузеров хранится на ссылку, остальные - в other
+    public int getAnalyticsMaxKeys() {
+        return Integer.parseInt(properties.getProperty("analytics.max.keys"));
+    }
+
+    public long getAnalyticsDrainIntervalMillis() {
+        return Long.parseLong(properties.getProperty("analytics.drain.interval.ms"));
+    }
+
+    // Кэш ссылок перед хранилищем на диске, ограничен по памяти; 0 - выключен
+    public long getCacheMaxBytes() {
+        return Long.parseLong(properties.getProperty("cache.max.mb")) * 1024 * 1024;
+    }
+
+    // Коды, которых нет в хранилище: повторный промах не доходит до него
+    public int getCacheNegativeEntries() {
+        return Integer.parseInt(properties.getProperty("cache.negative.entries"));
+    }
+
+    // Фильтр кукушки по живым кодам: неизвестный код получает 404, не доходя до хранилища
+    public boolean isCodeFilterEnabled() {
+        return Boolean.parseBoolean(properties.getProperty("filter.enabled"));
+    }
+
+    // Код ответа для ссылок без лимита: 301 или 308
+    public int getRedirectPermanentStatus() {
+        return Integer.parseInt(properties.getProperty("redirect.permanent.status"));
+    }
+
+    // Сколько браузер и CDN держат редирект ссылки без лимита; 0 - все ссылки отдаются как 302 no-store
+    public long getRedirectMaxAgeSeconds() {
+        return Long.parseLong(properties.getProperty("redirect.max.age.seconds"));
+    }
+
+    // Имя этого узла в cluster.nodes
+    public String getClusterNodeId() {
+        return properties.getProperty("cluster.node.id").trim();
+    }
+
+    // Состав кластера: имя=адрес через запятую; пусто - узел работает один
+    public String getClusterNodes() {
+        return properties.getProperty("cluster.nodes");
+    }
+
+    public int getClusterVirtualNodes() {
+        return Integer.parseInt(properties.getProperty("cluster.virtual.nodes"));
+    }
+
+    // redirect - 307 на владельца кода, proxy - запрос к владельцу от имени клиента
+    public String getClusterForwardMode() {
+        return properties.getProperty("cluster.forward");
+    }
+
+    public String getClusterToken() {
+        return properties.getProperty("cluster.token");
+    }
+
+    // none - узел один, primary - пишет и раздаёт записи репликам, replica - только читает
+    public String getReplicationRole() {
+        String role = properties.getProperty("replication.role").trim().toLowerCase();
+        if (!role.equals("none") && !role.equals("primary") && !role.equals("replica")) {
+            throw new IllegalArgumentException("❌ Неизвестная роль репликации: " + role);
+        }
+        return role;
+    }
+
+    // Порт, на котором основной узел принимает реплики
+    public int getReplicationPort() {
+        return Integer.parseInt(properties.getProperty("replication.port"));
+    }
+
+    // Адрес, на котором основной узел слушает реплики; по умолчанию только loopback
+    public String getReplicationBindAddress() {
+        return properties.getProperty("replication.bind").trim();
+    }
+
+    // Общий секрет основного узла и реплик; без него репликация не запускается
+    public String getReplicationToken() {
+        return properties.getProperty("replication.token");
+    }
+
+    // Адрес основного узла для реплики: хост:порт
+    public String getReplicationPrimary() {
+        return properties.getProperty("replication.primary").trim();
+    }
+
+    // Записей в очереди одной реплики; переполнившая очередь реплика переподключается и получает снимок
+    public int getReplicationQueueSize() {
+        return Integer.parseInt(properties.getProperty("replication.queue.size"));
+    }
+
+    // Как часто пачкой рассылаются счётчики переходов и реплики отправляют свои переходы и подтверждения
+    public long getReplicationClickFlushMillis() {
+        return Long.parseLong(properties.getProperty("replication.click.flush.ms"));
+    }
+
+    // Ограничение частоты запросов клиентов веб-сервера; превысивший лимит получает 429
+    public boolean isRateLimitEnabled() {
+        return Boolean.parseBoolean(properties.getProperty("ratelimit.enabled"));
+    }
+
+    // Редиректы, статистика и чтение через API - в секунду с одного адреса
+    public double getRateLimitRedirectPerSecond() {
+        return Double.parseDouble(properties.getProperty("ratelimit.redirect.per.second"));
+    }
+
+    // Сколько запросов подряд можно сделать после простоя
+    public int getRateLimitRedirectBurst() {
+        return Integer.parseInt(properties.getProperty("ratelimit.redirect.burst"));
+    }
+
+    // Создание и удаление ссылок, массовый импорт - в секунду с одного адреса
+    public double getRateLimitCreatePerSecond() {
+        return Double.parseDouble(properties.getProperty("ratelimit.create.per.second"));
+    }
+
+    public int getRateLimitCreateBurst() {
+        return Integer.parseInt(properties.getProperty("ratelimit.create.burst"));
+    }
+
+    // То же, но на одного пользователя (X-User-Id) со всех адресов
+    public double getRateLimitUserPerSecond() {
+        return Double.parseDouble(properties.getProperty("ratelimit.user.per.second"));
+    }
+
+    public int getRateLimitUserBurst() {
+        return Integer.parseInt(properties.getProperty("ratelimit.user.burst"));
+    }
+
+    // Вёдер в каждой таблице ограничителя (8 байт на ведро); лишние неактивные клиенты вытесняются
+    public int getRateLimitTableSize() {
+        return Integer.parseInt(properties.getProperty("ratelimit.table.size"));
+    }
+
+    // Адреса и подсети прокси перед сервером через запятую; за ними клиент берётся из X-Forwarded-For
+    public String getRateLimitTrustedProxies() {
+        return properties.getProperty("ratelimit.trusted.proxies").trim();
+    }
+}
@@ -0,0 +1,341 @@
+package log;
+
+import config.AppConfig;
+import model.ShortUrl;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+// Асинхронный журнал событий: потоки запросов кладут поля события в заранее созданные ячейки кольца
+// без блокировок и без сборки строк, а один поток-писатель форматирует их пачками и пишет одним вызовом.
+// Кольцо - ограниченная очередь Вьюкова: у ячейки свой номер, по нему видно, свободна она или заполнена
+public final class EventLog implements AutoCloseable {
+    private static final int BATCH_SIZE = 512;
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Читает только писатель
+    private long head;
+
+    private final LogLevel[] levels = new LogLevel[EventType.values().length];
+    private final OverflowPolicy overflowPolicy;
+    private final long flushIntervalNanos;
+    private final Supplier<PrintStream> sink;
+    private final LongAdder dropped = new LongAdder();
+    private final StringBuilder line = new StringBuilder(4096);
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public static EventLog fromConfig(AppConfig config) {
+        LogLevel threshold = LogLevel.fromConfig(config.getLogLevel());
+        Map<EventType, LogLevel> levels = new EnumMap<>(EventType.class);
+        for (EventType type : EventType.values()) {
+            LogLevel level = LogLevel.fromConfig(config.getLogLevel(type.getKey()));
+            // Уровень ниже общего порога равносилен выключенному событию
+            levels.put(type, level.compareTo(threshold) >= 0 ? level : LogLevel.OFF);
+        }
+        // System.out берётся на каждую пачку: перенаправление вывода действует и на уже созданный журнал
+        return new EventLog(config.getLogBufferSize(), OverflowPolicy.fromConfig(config.getLogOverflowPolicy()),
+                levels, config.getLogFlushIntervalMillis(), () -> System.out);
+    }
+
+    public EventLog(int capacity, OverflowPolicy overflowPolicy, Map<EventType, LogLevel> levels,
+                    long flushIntervalMillis, Supplier<PrintStream> sink) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i);
+        }
+        this.mask = size - 1;
+        this.overflowPolicy = overflowPolicy;
+        for (EventType type : EventType.values()) {
+            this.levels[type.ordinal()] = levels.getOrDefault(type, LogLevel.OFF);
+        }
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMillis));
+        this.sink = sink;
+        this.writer = new Thread(this::writeLoop, "event-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public boolean isEnabled(EventType type) {
+        return levels[type.ordinal()] != LogLevel.OFF;
+    }
+
+    public void linkCreated(String shortCode, String originalUrl, UUID userId, int clickLimit) {
+        if (isEnabled(EventType.CREATE)) {
+            Slot slot = claim();
+            if (slot != null) {
+                slot.text = shortCode;
+                slot.end = shortCode.length();
+                slot.url = originalUrl;
+                slot.userId = userId;
+                slot.value = clickLimit;
+                publish(slot, EventType.CREATE);
+            }
+        }
+    }
+
+    // Строки ссылки читает писатель: поток запроса не раскодирует URL ради журнала
+    public void redirected(ShortUrl shortUrl, String status) {
+        if (isEnabled(EventType.REDIRECT)) {
+            Slot slot = claim();
+            if (slot != null) {
+                slot.link = shortUrl;
+                slot.status = status;
+                slot.value = shortUrl.getClickCount();
+                publish(slot, EventType.REDIRECT);
+            }
+        }
+    }
+
+    // Неизвестный код - диапазон строки пути, как он пришёл в запросе
+    public void redirectMissed(CharSequence text, int start, int end, String status) {
+        if (isEnabled(EventType.REDIRECT)) {
+            Slot slot = claim();
+            if (slot != null) {
+                slot.text = text;
+                slot.start = start;
+                slot.end = end;
+                slot.status = status;
+                publish(slot, EventType.REDIRECT);
+            }
+        }
+    }
+
+    public void linkDeleted(String shortCode, UUID userId) {
+        if (isEnabled(EventType.DELETE)) {
+            Slot slot = claim();
+            if (slot != null) {
+                slot.text = shortCode;
+                slot.end = shortCode.length();
+                slot.userId = userId;
+                publish(slot, EventType.DELETE);
+            }
+        }
+    }
+
+    // Одна строка на кусок массового импорта, а не на каждую ссылку: иначе импорт переполнил бы кольцо
+    public void linksBulkCreated(UUID userId, int createdCount, int failedCount) {
+        if (isEnabled(EventType.BULK_CREATE)) {
+            Slot slot = claim();
+            if (slot != null) {
+                slot.userId = userId;
+                slot.value = createdCount;
+                slot.secondValue = failedCount;
+                publish(slot, EventType.BULK_CREATE);
+            }
+        }
+    }
+
+    public void linksExpired(int removedCount) {
+        if (isEnabled(EventType.CLEANUP)) {
+            Slot slot = claim();
+            if (slot != null) {
+                slot.value = removedCount;
+                publish(slot, EventType.CLEANUP);
+            }
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    // Дописывает всё, что успели положить в кольцо, и останавливает писателя
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // null - кольцо заполнено и событие выброшено
+    private Slot claim() {
+        while (true) {
+            long position = tail.get();
+            Slot slot = slots[(int) position & mask];
+            long diff = slot.sequence - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return slot;
+                }
+            } else if (diff < 0) {
+                // Ячейку ещё не дочитал писатель, значит кольцо полно
+                if (overflowPolicy == OverflowPolicy.DROP || !running) {
+                    dropped.increment();
+                    return null;
+                }
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            }
+        }
+    }
+
+    private void publish(Slot slot, EventType type) {
+        slot.type = type;
+        slot.timeMillis = System.currentTimeMillis();
+        // Запись номера публикует поля ячейки писателю
+        slot.sequence = slot.sequence + 1;
+    }
+
+    private void writeLoop() {
+        long reportedDropped = 0;
+        while (true) {
+            boolean stopping = !running;
+            int written = drain();
+            long droppedNow = dropped.sum();
+            if (droppedNow != reportedDropped) {
+                appendDropped(droppedNow - reportedDropped);
+                reportedDropped = droppedNow;
+                written++;
+            }
+            if (written > 0) {
+                flush();
+            }
+            if (stopping && written == 0) {
+                return;
+            }
+            if (written < BATCH_SIZE) {
+                LockSupport.parkNanos(flushIntervalNanos);
+            }
+        }
+    }
+
+    private int drain() {
+        int count = 0;
+        while (count < BATCH_SIZE) {
+            Slot slot = slots[(int) head & mask];
+            if (slot.sequence != head + 1) {
+                break;
+            }
+            int mark = line.length();
+            try {
+                append(slot);
+            } catch (RuntimeException e) {
+                // Сломанное событие не должно останавливать писателя: иначе BLOCK повесит потоки запросов.
+                // Так же теряется переход по ссылке, чья запись в хранилище успела достаться другой
+                line.setLength(mark);
+                dropped.increment();
+            }
+            slot.clear();
+            // Ячейка свободна для позиции на круг дальше
+            slot.sequence = head + slots.length;
+            head++;
+            count++;
+        }
+        return count;
+    }
+
+    private void append(Slot slot) {
+        EventType type = slot.type;
+        line.append("ts=");
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(slot.timeMillis), line);
+        line.append(" level=").append(levels[type.ordinal()]).append(" event=").append(type.getKey());
+        switch (type) {
+            case CREATE:
+                line.append(" code=").append(slot.text, slot.start, slot.end)
+                        .append(" user=").append(slot.userId)
+                        .append(" limit=").append(slot.value);
+                appendUrl(slot.url);
+                break;
+            case REDIRECT:
+                if (slot.link != null) {
+                    line.append(" code=").append(slot.link.getShortCode())
+                            .append(" status=").append(slot.status)
+                            .append(" clicks=").append(slot.value)
+                            .append(" limit=").append(slot.link.getClickLimit());
+                    appendUrl(slot.link.getOriginalUrl());
+                } else {
+                    line.append(" code=").append(slot.text, slot.start, slot.end)
+                            .append(" status=").append(slot.status);
+                }
+                break;
+            case DELETE:
+                line.append(" code=").append(slot.text, slot.start, slot.end)
+                        .append(" user=").append(slot.userId);
+                break;
+            case CLEANUP:
+                line.append(" removed=").append(slot.value);
+                break;
+            case BULK_CREATE:
+                line.append(" user=").append(slot.userId)
+                        .append(" created=").append(slot.value)
+                        .append(" failed=").append(slot.secondValue);
+                break;
+            default:
+                break;
+        }
+        line.append('\n');
+    }
+
+    private void appendUrl(String url) {
+        line.append(" url=");
+        // Кавычки нужны только значениям с пробелами или кавычками, иначе строку не разобрать по полям
+        if (url.indexOf(' ') < 0 && url.indexOf('"') < 0) {
+            line.append(url);
+        } else {
+            line.append('"').append(url.replace("\"", "\\\"")).append('"');
+        }
+    }
+
+    private void appendDropped(long count) {
+        line.append("ts=");
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.now(), line);
+        line.append(" level=WARN event=log_dropped count=").append(count).append('\n');
+    }
+
+    private void flush() {
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        line.setLength(0);
+        PrintStream out = sink.get();
+        out.write(bytes, 0, bytes.length);
+        out.flush();
+    }
+
+    private static final class Slot {
+        volatile long sequence;
+        EventType type;
+        long timeMillis;
+        ShortUrl link;
+        CharSequence text;
+        int start;
+        int end;
+        String url;
+        UUID userId;
+        String status;
+        long value;
+        long secondValue;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+
+        // Ссылки не держим: кольцо не должно продлевать жизнь объектам запросов
+        void clear() {
+            link = null;
+            text = null;
+            url = null;
+            userId = null;
+            status = null;
+            start = 0;
+            end = 0;
+        }
+    }
+}
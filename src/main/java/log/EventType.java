@@ -0,0 +1,20 @@
+package log;
+
+// Имя события - значение поля event в строке журнала
+public enum EventType {
+    CREATE("create"),
+    REDIRECT("redirect"),
+    DELETE("delete"),
+    CLEANUP("cleanup"),
+    BULK_CREATE("bulk_create");
+
+    private final String key;
+
+    EventType(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,17 @@
+package log;
+
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    WARN,
+    // Событие не пишется совсем
+    OFF;
+
+    public static LogLevel fromConfig(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("❌ Неизвестный уровень журнала: " + value);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package log;
+
+public enum OverflowPolicy {
+    // Событие выбрасывается, число потерянных попадает в журнал отдельной строкой
+    DROP,
+    // Поток запроса ждёт, пока писатель освободит место
+    BLOCK;
+
+    public static OverflowPolicy fromConfig(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("❌ Неизвестная политика переполнения журнала: " + value);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Гистограмма задержек в духе HdrHistogram: значения до 64 нс лежат в своих корзинах, дальше каждая степень двойки
+// делится на 32 корзины, так что погрешность любого значения - не больше 1/32 (~3%) при постоянной памяти.
+// Запись - вычисление номера корзины сдвигами и один атомарный инкремент, без блокировок и выделений.
+// Значения больше ~18 минут попадают в последнюю корзину
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LINEAR_LIMIT = SUB_COUNT * 2;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = indexOf((1L << MAX_EXPONENT) - 1) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sumNanos = new LongAdder();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(Math.min(value, (1L << MAX_EXPONENT) - 1)));
+        sumNanos.add(value);
+    }
+
+    // Время от startNanos (System.nanoTime()) до сейчас
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    // Верхняя граница корзины, в которую попал процентиль; 0 - записей нет
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long count : snapshot) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return highestValueOf(i);
+            }
+        }
+        return highestValueOf(BUCKETS - 1);
+    }
+
+    // Накопленные числа записей не больше каждой границы (границы по возрастанию) и общее число - последним.
+    // Значение из одной корзины с границей считается не больше неё: точность та же, что у самой гистограммы
+    long[] cumulativeCounts(long[] boundsNanos) {
+        long[] snapshot = snapshot();
+        long[] result = new long[boundsNanos.length + 1];
+        long seen = 0;
+        int bound = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            while (bound < boundsNanos.length && indexOf(Math.min(boundsNanos[bound], (1L << MAX_EXPONENT) - 1)) < i) {
+                result[bound++] = seen;
+            }
+            seen += snapshot[i];
+        }
+        while (bound < boundsNanos.length) {
+            result[bound++] = seen;
+        }
+        result[boundsNanos.length] = seen;
+        return result;
+    }
+
+    private long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    // Старшие SUB_BITS + 1 бит значения: степень двойки выбирает группу, остальные - корзину в ней
+    private static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_COUNT + 1;
+        long mantissa = (index - LINEAR_LIMIT) % SUB_COUNT + SUB_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,158 @@
+package metrics;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+// Реестр метрик процесса и их выдача в текстовом формате Prometheus.
+// Горячий путь работает со своими LongAdder и LatencyHistogram напрямую, реестр трогают только регистрация
+// при запуске и выдача /metrics. Метрики, которые уже считает кто-то другой (счётчики кэша, очередь
+// исполнителя), регистрируются функцией и читаются в момент выдачи. Повторная регистрация серии
+// с тем же именем и метками заменяет прежнюю
+public final class Metrics {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // Границы корзин гистограмм в выдаче: от микросекунды до 10 секунд
+    private static final long[] BOUNDS_NANOS = {
+            1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000, 25_000_000, 50_000_000, 100_000_000, 250_000_000,
+            500_000_000, 1_000_000_000, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L};
+    private static final String[] BOUNDS_SECONDS = new String[BOUNDS_NANOS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS_NANOS.length; i++) {
+            BOUNDS_SECONDS[i] = BigDecimal.valueOf(BOUNDS_NANOS[i], 9).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    private static final class Family {
+        final String type;
+        final String help;
+        // Метки вида name="value",... -> LongAdder, LongSupplier, DoubleSupplier или LatencyHistogram
+        final Map<String, Object> series = new LinkedHashMap<>();
+
+        Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public LongAdder counter(String name, String help) {
+        return counter(name, "", help);
+    }
+
+    // labels - готовая строка меток без фигурных скобок, например status="FOUND"
+    public synchronized LongAdder counter(String name, String labels, String help) {
+        Object existing = family(name, "counter", help).series.get(labels);
+        if (existing instanceof LongAdder) {
+            return (LongAdder) existing;
+        }
+        LongAdder counter = new LongAdder();
+        family(name, "counter", help).series.put(labels, counter);
+        return counter;
+    }
+
+    // Счётчик, который ведёт другой компонент
+    public void counter(String name, String help, LongSupplier value) {
+        register(name, "counter", help, "", value);
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value) {
+        gauge(name, "", help, value);
+    }
+
+    public void gauge(String name, String labels, String help, DoubleSupplier value) {
+        register(name, "gauge", help, labels, value);
+    }
+
+    public LatencyHistogram histogram(String name, String help) {
+        return histogram(name, "", help);
+    }
+
+    public synchronized LatencyHistogram histogram(String name, String labels, String help) {
+        Object existing = family(name, "histogram", help).series.get(labels);
+        if (existing instanceof LatencyHistogram) {
+            return (LatencyHistogram) existing;
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        family(name, "histogram", help).series.put(labels, histogram);
+        return histogram;
+    }
+
+    private synchronized void register(String name, String type, String help, String labels, Object source) {
+        family(name, type, help).series.put(labels, source);
+    }
+
+    private Family family(String name, String type, String help) {
+        Family family = families.computeIfAbsent(name, key -> new Family(type, help));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("❌ Метрика " + name + " уже зарегистрирована как " + family.type);
+        }
+        return family;
+    }
+
+    // Гистограммы выдаются в секундах, как принято в Prometheus; записываются в наносекундах
+    public synchronized void writeTo(StringBuilder out) {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String labels = series.getKey();
+                Object source = series.getValue();
+                if (source instanceof LatencyHistogram) {
+                    writeHistogram(out, name, labels, (LatencyHistogram) source);
+                    continue;
+                }
+                appendName(out, name, labels).append(' ');
+                if (source instanceof LongAdder) {
+                    out.append(((LongAdder) source).sum());
+                } else if (source instanceof LongSupplier) {
+                    out.append(((LongSupplier) source).getAsLong());
+                } else {
+                    appendDouble(out, ((DoubleSupplier) source).getAsDouble());
+                }
+                out.append('\n');
+            }
+        }
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long[] cumulative = histogram.cumulativeCounts(BOUNDS_NANOS);
+        String separator = labels.isEmpty() ? "" : labels + ",";
+        for (int i = 0; i < BOUNDS_NANOS.length; i++) {
+            out.append(name).append("_bucket{").append(separator).append("le=\"").append(BOUNDS_SECONDS[i])
+                    .append("\"} ").append(cumulative[i]).append('\n');
+        }
+        long count = cumulative[BOUNDS_NANOS.length];
+        out.append(name).append("_bucket{").append(separator).append("le=\"+Inf\"} ").append(count).append('\n');
+        appendName(out, name + "_sum", labels).append(' ');
+        appendDouble(out, histogram.getSumNanos() / 1e9);
+        out.append('\n');
+        appendName(out, name + "_count", labels).append(' ').append(count).append('\n');
+    }
+
+    private static StringBuilder appendName(StringBuilder out, String name, String labels) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        return out;
+    }
+
+    private static void appendDouble(StringBuilder out, double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else {
+            out.append(value);
+        }
+    }
+}
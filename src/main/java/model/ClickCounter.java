@@ -0,0 +1,166 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ClickCounter {
+    // Одна ячейка бюджета на 64-байтную линию кэша, чтобы соседние полосы не делили её
+    private static final int PADDING = 16;
+    private static final int MAX_CHUNK = 64;
+    private static final int MAX_STRIPES = Integer.highestOneBit(
+            Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) * 2;
+
+    private final int limit;
+    // Переходы, ещё не розданные ни одной полосе
+    private final AtomicInteger remaining;
+    private final LongAdder clicks;
+    private volatile AtomicIntegerArray stripeBudgets;
+
+    public ClickCounter(int limit) {
+        this(limit, 0);
+    }
+
+    public ClickCounter(int limit, int initialClicks) {
+        this.limit = limit;
+        this.remaining = new AtomicInteger(Math.max(0, limit - initialClicks));
+        this.clicks = new LongAdder();
+        this.clicks.add(initialClicks);
+    }
+
+    public int getLimit() { return limit; }
+
+    public int getCount() {
+        return (int) clicks.sum();
+    }
+
+    // Резервирует один переход из лимита; лимит никогда не превышается
+    public boolean tryAcquire() {
+        AtomicIntegerArray budgets = stripeBudgets;
+        if (budgets == null) {
+            int left = remaining.get();
+            if (left <= 0) {
+                return false;
+            }
+            if (remaining.compareAndSet(left, left - 1)) {
+                clicks.increment();
+                return true;
+            }
+            // CAS проиграл другому потоку - ссылка горячая, переходим на полосы
+            budgets = inflate();
+        }
+        if (acquireStriped(budgets)) {
+            clicks.increment();
+            return true;
+        }
+        return false;
+    }
+
+    // Поднимает счётчик до значения с диска, с основного узла или со старого владельца; счётчик может
+    // быть горячим, поэтому разница снимается сначала с общего остатка, а недостающее - с бюджетов полос
+    public void advanceTo(int clickCount) {
+        int delta = clickCount - getCount();
+        if (delta <= 0) {
+            return;
+        }
+        clicks.add(delta);
+        int owed = delta;
+        int left;
+        while ((left = remaining.get()) > 0) {
+            int taken = Math.min(left, owed);
+            if (remaining.compareAndSet(left, left - taken)) {
+                owed -= taken;
+                break;
+            }
+        }
+        AtomicIntegerArray budgets = stripeBudgets;
+        if (budgets != null) {
+            for (int i = 0; i < budgets.length() && owed > 0; i += PADDING) {
+                owed -= takeUpTo(budgets, i, owed);
+            }
+        }
+    }
+
+    public boolean isExhausted() {
+        if (remaining.get() > 0) {
+            return false;
+        }
+        AtomicIntegerArray budgets = stripeBudgets;
+        if (budgets != null) {
+            for (int i = 0; i < budgets.length(); i += PADDING) {
+                if (budgets.get(i) > 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean acquireStriped(AtomicIntegerArray budgets) {
+        int stripes = budgets.length() / PADDING;
+        int home = stripeIndex(stripes) * PADDING;
+
+        // 1. Локальный бюджет полосы
+        if (takeOne(budgets, home)) {
+            return true;
+        }
+
+        // 2. Новая порция из общего остатка; у края лимита порции уменьшаются до одного перехода,
+        // чтобы неиспользованный бюджет не застревал в чужих полосах
+        while (true) {
+            int left = remaining.get();
+            if (left <= 0) {
+                break;
+            }
+            int chunk = Math.max(1, Math.min(MAX_CHUNK, left / (stripes * 2)));
+            if (remaining.compareAndSet(left, left - chunk)) {
+                if (chunk > 1) {
+                    budgets.addAndGet(home, chunk - 1);
+                }
+                return true;
+            }
+        }
+
+        // 3. Общий остаток исчерпан - добираем из остальных полос
+        for (int i = 0; i < budgets.length(); i += PADDING) {
+            if (i != home && takeOne(budgets, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean takeOne(AtomicIntegerArray budgets, int index) {
+        int available;
+        while ((available = budgets.get(index)) > 0) {
+            if (budgets.compareAndSet(index, available, available - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int takeUpTo(AtomicIntegerArray budgets, int index, int wanted) {
+        int available;
+        while ((available = budgets.get(index)) > 0) {
+            int taken = Math.min(available, wanted);
+            if (budgets.compareAndSet(index, available, available - taken)) {
+                return taken;
+            }
+        }
+        return 0;
+    }
+
+    private synchronized AtomicIntegerArray inflate() {
+        if (stripeBudgets == null) {
+            stripeBudgets = new AtomicIntegerArray(MAX_STRIPES * PADDING);
+        }
+        return stripeBudgets;
+    }
+
+    private static int stripeIndex(int stripes) {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (stripes - 1);
+    }
+}
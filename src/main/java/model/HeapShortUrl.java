@@ -0,0 +1,78 @@
+package model;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.UUID;
+
+// Ссылка как отдельный объект в куче
+final class HeapShortUrl extends ShortUrl {
+    private final UUID id;
+    private final String originalUrl;
+    private final String shortCode;
+    private final UUID userId;
+    private final ClickCounter clickCounter;
+    private final LocalDateTime createdAt;
+    private final long createdAtMillis;
+    private final LocalDateTime expiresAt;
+    private final long expiresAtMillis;
+    private volatile boolean isActive;
+
+    HeapShortUrl(UUID id, String originalUrl, String shortCode, UUID userId, int clickLimit, int clickCount,
+                 LocalDateTime createdAt, LocalDateTime expiresAt, boolean isActive) {
+        this(id, originalUrl, shortCode, userId, clickLimit, clickCount, createdAt, toEpochMillis(createdAt),
+                expiresAt, toEpochMillis(expiresAt), isActive);
+    }
+
+    HeapShortUrl(UUID id, String originalUrl, String shortCode, UUID userId, int clickLimit, int clickCount,
+                 long createdAtMillis, long expiresAtMillis, boolean isActive) {
+        this(id, originalUrl, shortCode, userId, clickLimit, clickCount, toLocalDateTime(createdAtMillis),
+                createdAtMillis, toLocalDateTime(expiresAtMillis), expiresAtMillis, isActive);
+    }
+
+    private HeapShortUrl(UUID id, String originalUrl, String shortCode, UUID userId, int clickLimit, int clickCount,
+                         LocalDateTime createdAt, long createdAtMillis, LocalDateTime expiresAt, long expiresAtMillis,
+                         boolean isActive) {
+        this.id = id;
+        this.originalUrl = originalUrl;
+        this.shortCode = shortCode;
+        this.userId = userId;
+        this.clickCounter = new ClickCounter(clickLimit, clickCount);
+        this.createdAt = createdAt;
+        this.createdAtMillis = createdAtMillis;
+        this.expiresAt = expiresAt;
+        this.expiresAtMillis = expiresAtMillis;
+        this.isActive = isActive;
+    }
+
+    @Override public UUID getId() { return id; }
+    @Override public String getOriginalUrl() { return originalUrl; }
+    @Override public String getShortCode() { return shortCode; }
+    @Override public UUID getUserId() { return userId; }
+    @Override public int getClickLimit() { return clickCounter.getLimit(); }
+    @Override public int getClickCount() { return clickCounter.getCount(); }
+    @Override public LocalDateTime getCreatedAt() { return createdAt; }
+    @Override public long getCreatedAtMillis() { return createdAtMillis; }
+    @Override public LocalDateTime getExpiresAt() { return expiresAt; }
+    @Override public long getExpiresAtMillis() { return expiresAtMillis; }
+    @Override public boolean isActive() { return isActive; }
+    @Override public void setActive(boolean active) { isActive = active; }
+
+    @Override
+    public boolean tryRegisterClick() {
+        return clickCounter.tryAcquire();
+    }
+
+    @Override
+    public boolean isClickLimitExceeded() {
+        return clickCounter.isExhausted();
+    }
+
+    @Override
+    public void restoreClickCount(int clickCount) {
+        clickCounter.advanceTo(clickCount);
+    }
+
+    private static long toEpochMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -1,54 +1,98 @@
 package model;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.UUID;
 
-public class ShortUrl {
-    private UUID id;
-    private String originalUrl;
-    private String shortCode;
-    private UUID userId;
-    private int clickLimit;
-    private int clickCount;
-    private LocalDateTime createdAt;
-    private LocalDateTime expiresAt;
-    private boolean isActive;
-
-    public ShortUrl(String originalUrl, String shortCode, UUID userId, int clickLimit, LocalDateTime expiresAt) {
-        this.id = UUID.randomUUID();
-        this.originalUrl = originalUrl;
-        this.shortCode = shortCode;
-        this.userId = userId;
-        this.clickLimit = clickLimit;
-        this.clickCount = 0;
-        this.createdAt = LocalDateTime.now();
-        this.expiresAt = expiresAt;
-        this.isActive = true;
-    }
-
-    // Getters and setters
-    public UUID getId() { return id; }
-    public String getOriginalUrl() { return originalUrl; }
-    public String getShortCode() { return shortCode; }
-    public UUID getUserId() { return userId; }
-    public int getClickLimit() { return clickLimit; }
-    public int getClickCount() { return clickCount; }
-    public LocalDateTime getCreatedAt() { return createdAt; }
-    public LocalDateTime getExpiresAt() { return expiresAt; }
-    public boolean isActive() { return isActive; }
-
-    public void incrementClickCount() { this.clickCount++; }
-    public void setActive(boolean active) { isActive = active; }
+// Ссылка глазами сервиса. Хранилище может держать её в куче (HeapShortUrl)
+// или в собственных таблицах, отдавая наружу лёгкие представления
+public abstract class ShortUrl {
+    // Лимит ссылки без ограничения переходов
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    public static ShortUrl create(String originalUrl, String shortCode, UUID userId, int clickLimit,
+                                  LocalDateTime expiresAt) {
+        return new HeapShortUrl(UUID.randomUUID(), originalUrl, shortCode, userId, clickLimit, 0,
+                LocalDateTime.now(), expiresAt, true);
+    }
+
+    // Восстановление сохранённой ссылки при загрузке с диска
+    public static ShortUrl restore(UUID id, String originalUrl, String shortCode, UUID userId, int clickLimit,
+                                   int clickCount, LocalDateTime createdAt, LocalDateTime expiresAt,
+                                   boolean isActive) {
+        return new HeapShortUrl(id, originalUrl, shortCode, userId, clickLimit, clickCount, createdAt, expiresAt,
+                isActive);
+    }
+
+    // То же по миллисекундам эпохи: момент создания и истечения не зависит от часового пояса,
+    // в котором ссылку сохранили
+    public static ShortUrl restore(UUID id, String originalUrl, String shortCode, UUID userId, int clickLimit,
+                                   int clickCount, long createdAtMillis, long expiresAtMillis, boolean isActive) {
+        return new HeapShortUrl(id, originalUrl, shortCode, userId, clickLimit, clickCount, createdAtMillis,
+                expiresAtMillis, isActive);
+    }
+
+    // Миллисекунды эпохи переводятся в то же локальное время, в котором ссылки создаются
+    protected static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    public abstract UUID getId();
+    public abstract String getOriginalUrl();
+    public abstract String getShortCode();
+    public abstract UUID getUserId();
+    public abstract int getClickLimit();
+    public abstract int getClickCount();
+    public abstract LocalDateTime getCreatedAt();
+    public abstract long getCreatedAtMillis();
+    public abstract LocalDateTime getExpiresAt();
+    // expiresAt в миллисекундах эпохи: проверка истечения без LocalDateTime.now()
+    public abstract long getExpiresAtMillis();
+    public abstract boolean isActive();
+    public abstract void setActive(boolean active);
+
+    // Атомарно занимает один переход из лимита; false - лимит уже исчерпан
+    public abstract boolean tryRegisterClick();
+
+    public abstract boolean isClickLimitExceeded();
+
+    // Счётчик с диска, с основного узла или со старого владельца: только растёт, лимит не превышается
+    public abstract void restoreClickCount(int clickCount);
+
+    public void incrementClickCount() { tryRegisterClick(); }
+
+    // Верхняя граница длины адреса в UTF-8: столько места в буфере нужно writeOriginalUrl
+    public int getOriginalUrlMaxBytes() {
+        return getOriginalUrl().length() * 3;
+    }
+
+    // Адрес в UTF-8 прямо в буфер ответа. Адреса почти всегда ASCII и пишутся посимвольно;
+    // представления хранилищ копируют готовые байты без строки
+    public void writeOriginalUrl(ByteBuffer out) {
+        String url = getOriginalUrl();
+        int length = url.length();
+        for (int i = 0; i < length; i++) {
+            char c = url.charAt(i);
+            if (c >= 0x80) {
+                out.put(url.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            out.put((byte) c);
+        }
+    }
 
     public boolean isExpired() {
-        return LocalDateTime.now().isAfter(expiresAt);
+        return System.currentTimeMillis() > getExpiresAtMillis();
     }
 
-    public boolean isClickLimitExceeded() {
-        return clickCount >= clickLimit;
+    public boolean isUnlimited() {
+        return getClickLimit() == UNLIMITED;
     }
 
     public boolean isValid() {
-        return isActive && !isExpired() && !isClickLimitExceeded();
+        return isActive() && !isExpired() && !isClickLimitExceeded();
     }
-}
\ No newline at end of file
+}
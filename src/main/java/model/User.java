@@ -1,33 +1,149 @@
 package model;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 public class User {
-    private UUID id;
-    private List<ShortUrl> shortUrls;
+    private final UUID id;
+    // Ссылки пользователя меняются из потоков создания, удаления и очистки.
+    // linksById - главный индекс: остальные два меняются внутри его compute, под блокировкой ключа
+    private final ConcurrentHashMap<UUID, ShortUrl> linksById;
+    private final ConcurrentHashMap<String, ShortUrl> linksByCode;
+    private final ConcurrentSkipListMap<Position, ShortUrl> linksByCreation = new ConcurrentSkipListMap<>();
 
     public User() {
-        this.id = UUID.randomUUID();
-        this.shortUrls = new ArrayList<>();
+        this(UUID.randomUUID());
+    }
+
+    public User(UUID id) {
+        this(id, 16);
+    }
+
+    // expectedLinks - сколько ссылок ждать: при восстановлении индексы не перестраиваются по мере роста
+    public User(UUID id, int expectedLinks) {
+        this.id = id;
+        this.linksById = new ConcurrentHashMap<>(expectedLinks);
+        this.linksByCode = new ConcurrentHashMap<>(expectedLinks);
     }
 
     public UUID getId() { return id; }
-    public List<ShortUrl> getShortUrls() { return shortUrls; }
+
+    // Ссылки в порядке создания; size() у этой коллекции обходит все ссылки, для подсчёта есть getLinkCount()
+    public Collection<ShortUrl> getShortUrls() {
+        return Collections.unmodifiableCollection(linksByCreation.values());
+    }
+
+    public int getLinkCount() {
+        return linksById.size();
+    }
 
     public void addShortUrl(ShortUrl shortUrl) {
-        shortUrls.add(shortUrl);
+        add(shortUrl, Position.of(shortUrl));
+    }
+
+    // Ссылки с диска при восстановлении. Идут по возрастанию времени создания: вставка в конец списка
+    // не бегает по всему индексу, как вставки в случайном порядке. Позиции считаются один раз до сортировки -
+    // поля компактной ссылки читаются из таблицы при каждом вызове
+    public void restoreShortUrls(Collection<ShortUrl> shortUrls) {
+        List<Map.Entry<Position, ShortUrl>> ordered = new ArrayList<>(shortUrls.size());
+        for (ShortUrl shortUrl : shortUrls) {
+            ordered.add(Map.entry(Position.of(shortUrl), shortUrl));
+        }
+        ordered.sort(Map.Entry.comparingByKey());
+        for (Map.Entry<Position, ShortUrl> entry : ordered) {
+            add(entry.getValue(), entry.getKey());
+        }
+    }
+
+    private void add(ShortUrl shortUrl, Position position) {
+        linksById.computeIfAbsent(position.linkId, linkId -> {
+            linksByCode.put(shortUrl.getShortCode(), shortUrl);
+            linksByCreation.put(position, shortUrl);
+            return shortUrl;
+        });
     }
 
     public boolean removeShortUrl(UUID shortUrlId) {
-        return shortUrls.removeIf(url -> url.getId().equals(shortUrlId));
+        boolean[] removed = new boolean[1];
+        linksById.computeIfPresent(shortUrlId, (linkId, shortUrl) -> {
+            linksByCode.remove(shortUrl.getShortCode(), shortUrl);
+            linksByCreation.remove(new Position(shortUrl.getCreatedAtMillis(), linkId));
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
     }
 
     public ShortUrl findShortUrlById(UUID shortUrlId) {
-        return shortUrls.stream()
-                .filter(url -> url.getId().equals(shortUrlId))
-                .findFirst()
-                .orElse(null);
+        return linksById.get(shortUrlId);
+    }
+
+    public ShortUrl findShortUrlByCode(String shortCode) {
+        return linksByCode.get(shortCode);
+    }
+
+    // Страница ссылок по времени создания, начиная после after (null - с начала): O(log n + limit).
+    // Ссылки на позиции after может уже не быть - страница всё равно продолжается с того же места
+    public List<ShortUrl> getShortUrlsPage(Position after, int limit) {
+        NavigableMap<Position, ShortUrl> tail = after == null
+                ? linksByCreation
+                : linksByCreation.tailMap(after, false);
+        List<ShortUrl> page = new ArrayList<>(Math.min(limit, 1024));
+        for (ShortUrl shortUrl : tail.values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(shortUrl);
+        }
+        return page;
+    }
+
+    // Ключ порядка создания; id различает ссылки, созданные в одну миллисекунду
+    public static final class Position implements Comparable<Position> {
+        private static final int CURSOR_BYTES = Long.BYTES * 3;
+
+        private final long createdAtMillis;
+        private final UUID linkId;
+
+        private Position(long createdAtMillis, UUID linkId) {
+            this.createdAtMillis = createdAtMillis;
+            this.linkId = linkId;
+        }
+
+        public static Position of(ShortUrl shortUrl) {
+            return new Position(shortUrl.getCreatedAtMillis(), shortUrl.getId());
+        }
+
+        // Курсор для продолжения списка клиентом: время создания и id в base64url, без самой ссылки
+        public String toCursor() {
+            ByteBuffer bytes = ByteBuffer.allocate(CURSOR_BYTES).putLong(createdAtMillis)
+                    .putLong(linkId.getMostSignificantBits()).putLong(linkId.getLeastSignificantBits());
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.array());
+        }
+
+        // IllegalArgumentException - строка не является курсором
+        public static Position fromCursor(String cursor) {
+            byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+            if (bytes.length != CURSOR_BYTES) {
+                throw new IllegalArgumentException("Неверная длина курсора: " + cursor);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            return new Position(buffer.getLong(), new UUID(buffer.getLong(), buffer.getLong()));
+        }
+
+        @Override
+        public int compareTo(Position other) {
+            int byTime = Long.compare(createdAtMillis, other.createdAtMillis);
+            return byTime != 0 ? byTime : linkId.compareTo(other.linkId);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,107 @@
+package ratelimit;
+
+import config.AppConfig;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+// Допуск запросов к веб-серверу: чтение (редиректы, статистика, GET API) ограничено по адресу клиента,
+// запись - и по адресу, и по X-User-Id, чтобы один адрес не создавал ссылки от имени множества пользователей
+// и один пользователь не обходил лимит сменой адресов
+public final class RateLimiter {
+    // Ключи IPv4 помечены битом 32: с ними совпал бы лишь префикс IPv6 из зарезервированной ::/8
+    private static final long IPV4_KEY = 1L << 32;
+
+    private final TokenBucketTable reads;
+    private final TokenBucketTable writes;
+    private final TokenBucketTable users;
+    private final TrustedProxies proxies;
+
+    public RateLimiter(TokenBucketTable reads, TokenBucketTable writes, TokenBucketTable users) {
+        this(reads, writes, users, "");
+    }
+
+    // trustedProxies - адреса и подсети через запятую, чей X-Forwarded-For принимается
+    public RateLimiter(TokenBucketTable reads, TokenBucketTable writes, TokenBucketTable users,
+                       String trustedProxies) {
+        this.reads = reads;
+        this.writes = writes;
+        this.users = users;
+        this.proxies = TrustedProxies.parse(trustedProxies);
+    }
+
+    // null - ограничение выключено
+    public static RateLimiter fromConfig(AppConfig config) {
+        if (!config.isRateLimitEnabled()) {
+            return null;
+        }
+        int capacity = config.getRateLimitTableSize();
+        return new RateLimiter(
+                new TokenBucketTable(config.getRateLimitRedirectPerSecond(), config.getRateLimitRedirectBurst(), capacity),
+                new TokenBucketTable(config.getRateLimitCreatePerSecond(), config.getRateLimitCreateBurst(), capacity),
+                new TokenBucketTable(config.getRateLimitUserPerSecond(), config.getRateLimitUserBurst(), capacity),
+                config.getRateLimitTrustedProxies());
+    }
+
+    // Без доверенных прокси X-Forwarded-For не читается вовсе, и собирать его значение незачем
+    public boolean hasTrustedProxies() {
+        return !proxies.isEmpty();
+    }
+
+    // 0 - запрос разрешён, иначе через сколько наносекунд стоит повторить.
+    // peer - адрес соединения, forwardedFor - X-Forwarded-For (null - заголовка нет)
+    public long acquireRead(InetAddress peer, String forwardedFor) {
+        return reads.tryAcquire(clientKey(peer, forwardedFor));
+    }
+
+    // userId - сырой заголовок X-User-Id, без разбора: некорректный всё равно получит 400 позже
+    public long acquireWrite(InetAddress peer, String forwardedFor, String userId) {
+        long wait = writes.tryAcquire(clientKey(peer, forwardedFor));
+        if (wait != 0 || userId == null) {
+            return wait;
+        }
+        return users.tryAcquire(userKey(userId));
+    }
+
+    public long getRejectedCount() {
+        return reads.getRejectedCount() + writes.getRejectedCount() + users.getRejectedCount();
+    }
+
+    public long getEvictedCount() {
+        return reads.getEvictedCount() + writes.getEvictedCount() + users.getEvictedCount();
+    }
+
+    private long clientKey(InetAddress peer, String forwardedFor) {
+        if (peer == null) {
+            return 0;
+        }
+        if (peer instanceof Inet4Address && (forwardedFor == null || proxies.isEmpty())) {
+            // hashCode у IPv4 - сам адрес, без копии байтов
+            return IPV4_KEY | peer.hashCode() & 0xffffffffL;
+        }
+        return addressKey(proxies.isEmpty() ? peer.getAddress() : proxies.clientAddress(peer, forwardedFor));
+    }
+
+    // IPv4 - весь адрес, IPv6 - префикс /64: клиенту обычно выдают целую подсеть /64,
+    // и по полному адресу он обходил бы лимит сменой адреса внутри неё
+    private static long addressKey(byte[] address) {
+        if (address.length == 4) {
+            return IPV4_KEY | ((address[0] & 0xffL) << 24 | (address[1] & 0xff) << 16
+                    | (address[2] & 0xff) << 8 | address[3] & 0xff);
+        }
+        long prefix = 0;
+        for (int i = 0; i < 8; i++) {
+            prefix = prefix << 8 | address[i] & 0xff;
+        }
+        return prefix;
+    }
+
+    // UUID в любом регистре - один и тот же пользователь
+    private static long userKey(String userId) {
+        long hash = 0;
+        for (int i = 0; i < userId.length(); i++) {
+            hash = hash * 31 + (userId.charAt(i) | 0x20);
+        }
+        return hash;
+    }
+}
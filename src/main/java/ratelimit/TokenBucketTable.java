@@ -0,0 +1,125 @@
+package ratelimit;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Вёдра токенов по ключу в таблице фиксированного размера, без блокировок.
+// Ведро хранится как GCRA: одно число - момент, когда ведро снова станет полным ("теоретическое время прихода").
+// Запрос проходит, если этот момент опережает текущий не больше чем на запас (burst - 1) интервалов,
+// и сдвигает его на один интервал. Слот - один long: 24 бита отпечатка ключа и 40 бит времени в тиках
+// по ~1 мкс, поэтому ведро обновляется одним CAS, а чтение и отказ ничего не пишут.
+// Слот, чьё время уже прошло, - это полное ведро: его можно отдать другому ключу без потери состояния.
+// Если в окне пробирования все вёдра заняты активными клиентами, вытесняется самое полное из них
+public final class TokenBucketTable {
+    private static final int PROBE = 8;
+    private static final int TICK_SHIFT = 10;
+    private static final int TIME_BITS = 40;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+    // Время в слоте идёт по кругу (~13 дней); разница времён честна, пока она меньше половины круга
+    private static final long MAX_WINDOW_TICKS = 1L << (TIME_BITS - 2);
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final long intervalTicks;
+    private final long toleranceTicks;
+    private final long windowTicks;
+    private final long originNanos = System.nanoTime();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    public TokenBucketTable(double permitsPerSecond, int burst, int capacity) {
+        if (!(permitsPerSecond > 0) || burst < 1 || capacity < 1) {
+            throw new IllegalArgumentException("❌ Частота, запас и размер таблицы ограничителя должны быть положительными");
+        }
+        intervalTicks = Math.round(1e9 / permitsPerSecond / (1 << TICK_SHIFT));
+        if (intervalTicks < 1) {
+            throw new IllegalArgumentException("❌ Слишком большая частота для ограничителя: " + permitsPerSecond + "/с");
+        }
+        toleranceTicks = intervalTicks * (burst - 1);
+        windowTicks = toleranceTicks + intervalTicks;
+        if (windowTicks >= MAX_WINDOW_TICKS) {
+            throw new IllegalArgumentException("❌ Запас ограничителя копится дольше трёх суток: " + burst);
+        }
+        int size = capacity <= PROBE ? PROBE : Integer.highestOneBit((Math.min(capacity, 1 << 30) - 1) << 1);
+        slots = new AtomicLongArray(size);
+        mask = size - 1;
+    }
+
+    // 0 - запрос разрешён, иначе через сколько наносекунд появится токен
+    public long tryAcquire(long key) {
+        long hash = mix(key);
+        long fingerprint = (hash >>> TIME_BITS) | 1;
+        int start = (int) hash & mask;
+        long now = (System.nanoTime() - originNanos) >>> TICK_SHIFT;
+        while (true) {
+            int victim = -1;
+            long victimSlot = 0;
+            long victimAhead = Long.MAX_VALUE;
+            boolean retry = false;
+            for (int i = 0; i < PROBE; i++) {
+                int index = (start + i) & mask;
+                long slot = slots.get(index);
+                long ahead = slot == 0 ? 0 : ahead(slot, now);
+                if (slot != 0 && slot >>> TIME_BITS == fingerprint) {
+                    long next = ahead + intervalTicks;
+                    if (next > windowTicks) {
+                        rejected.increment();
+                        return (ahead - toleranceTicks) << TICK_SHIFT;
+                    }
+                    if (slots.compareAndSet(index, slot, pack(fingerprint, now + next))) {
+                        return 0;
+                    }
+                    retry = true;
+                    break;
+                }
+                if (ahead < victimAhead) {
+                    victim = index;
+                    victimSlot = slot;
+                    victimAhead = ahead;
+                }
+            }
+            if (retry) {
+                continue;
+            }
+            // Ключа нет: новое ведро сразу тратит один токен
+            if (slots.compareAndSet(victim, victimSlot, pack(fingerprint, now + intervalTicks))) {
+                if (victimAhead > 0) {
+                    evicted.increment();
+                }
+                return 0;
+            }
+        }
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    // Вытеснено вёдер, ещё не успевших наполниться: таблица мала для числа активных клиентов
+    public long getEvictedCount() {
+        return evicted.sum();
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    // На сколько тиков ведро слота ещё не полное; 0 - полное. Время дальше окна в будущем
+    // возможно только у давно забытого слота после оборота часов - он тоже считается полным
+    private long ahead(long slot, long now) {
+        long ahead = ((slot - now) << (64 - TIME_BITS)) >> (64 - TIME_BITS);
+        return ahead > 0 && ahead <= windowTicks ? ahead : 0;
+    }
+
+    private static long pack(long fingerprint, long time) {
+        return fingerprint << TIME_BITS | time & TIME_MASK;
+    }
+
+    // Перемешивание из SplitMix64: адреса IPv4 и соседние ключи расходятся по всей таблице
+    private static long mix(long key) {
+        long z = key + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
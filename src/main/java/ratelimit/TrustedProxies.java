@@ -0,0 +1,156 @@
+package ratelimit;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+// Прокси и балансировщики перед сервером (ratelimit.trusted.proxies): адреса и подсети вида 10.0.0.0/8.
+// За ними адрес соединения - это адрес прокси, поэтому клиент берётся из X-Forwarded-For: список идёт
+// справа налево, пока адреса принадлежат доверенным прокси, и первый чужой адрес - клиент.
+// Левее него всё пишет сам клиент, и доверять этому нельзя
+final class TrustedProxies {
+    static final TrustedProxies NONE = new TrustedProxies(new byte[0][], new int[0]);
+
+    private final byte[][] networks;
+    private final int[] prefixes;
+
+    private TrustedProxies(byte[][] networks, int[] prefixes) {
+        this.networks = networks;
+        this.prefixes = prefixes;
+    }
+
+    // Адреса и подсети через запятую; имена хостов не принимаются - их пришлось бы разрешать через DNS
+    static TrustedProxies parse(String list) {
+        if (list == null || list.isBlank()) {
+            return NONE;
+        }
+        String[] parts = list.split(",");
+        byte[][] networks = new byte[parts.length][];
+        int[] prefixes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i].trim();
+            int slash = part.indexOf('/');
+            byte[] network = parseAddress(slash >= 0 ? part.substring(0, slash) : part);
+            if (network == null) {
+                throw new IllegalArgumentException("❌ Некорректный адрес доверенного прокси: " + part);
+            }
+            int prefix = network.length * 8;
+            if (slash >= 0) {
+                try {
+                    prefix = Integer.parseInt(part.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    prefix = -1;
+                }
+                if (prefix < 0 || prefix > network.length * 8) {
+                    throw new IllegalArgumentException("❌ Некорректная длина подсети доверенного прокси: " + part);
+                }
+            }
+            networks[i] = network;
+            prefixes[i] = prefix;
+        }
+        return new TrustedProxies(networks, prefixes);
+    }
+
+    boolean isEmpty() {
+        return networks.length == 0;
+    }
+
+    // Байты адреса клиента; peer - адрес соединения
+    byte[] clientAddress(InetAddress peer, String forwardedFor) {
+        byte[] client = peer.getAddress();
+        if (forwardedFor == null || !isTrusted(client)) {
+            return client;
+        }
+        int end = forwardedFor.length();
+        while (end >= 0) {
+            int comma = forwardedFor.lastIndexOf(',', end - 1);
+            byte[] hop = parseAddress(forwardedFor.substring(comma + 1, end).trim());
+            // Мусор в списке дописан не доверенным прокси - тогда клиент тот, кто его передал
+            if (hop == null) {
+                break;
+            }
+            client = hop;
+            if (!isTrusted(hop)) {
+                break;
+            }
+            end = comma;
+        }
+        return client;
+    }
+
+    private boolean isTrusted(byte[] address) {
+        for (int i = 0; i < networks.length; i++) {
+            if (matches(networks[i], prefixes[i], address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(byte[] network, int prefix, byte[] address) {
+        if (network.length != address.length) {
+            return false;
+        }
+        int full = prefix / 8;
+        for (int i = 0; i < full; i++) {
+            if (network[i] != address[i]) {
+                return false;
+            }
+        }
+        int rest = prefix % 8;
+        return rest == 0 || ((network[full] ^ address[full]) & (0xff00 >> rest)) == 0;
+    }
+
+    // IPv4 вида 192.0.2.1 или IPv6, в том числе в скобках и с портом; null - не адрес.
+    // Строка с двоеточием InetAddress разбирает только как литерал IPv6, без обращения к DNS,
+    // а IPv4 проверяется здесь: неполный или неверный адрес из цифр InetAddress отдал бы резолверу
+    static byte[] parseAddress(String text) {
+        if (text.startsWith("[")) {
+            int close = text.indexOf(']');
+            if (close < 0) {
+                return null;
+            }
+            text = text.substring(1, close);
+        } else if (text.indexOf(':') >= 0 && text.indexOf(':') == text.lastIndexOf(':') && text.indexOf('.') >= 0) {
+            // IPv4 с портом
+            text = text.substring(0, text.indexOf(':'));
+        }
+        if (text.indexOf(':') < 0) {
+            return parseIpv4(text);
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.digit(c, 16) < 0 && c != ':' && c != '.') {
+                return null;
+            }
+        }
+        try {
+            return InetAddress.getByName(text).getAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private static byte[] parseIpv4(String text) {
+        byte[] address = new byte[4];
+        int part = 0;
+        int value = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : '.';
+            if (c == '.') {
+                if (value < 0 || part == 4) {
+                    return null;
+                }
+                address[part++] = (byte) value;
+                value = -1;
+            } else if (c >= '0' && c <= '9' && value != 0) {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return part == 4 ? address : null;
+    }
+}
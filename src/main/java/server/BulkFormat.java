@@ -0,0 +1,197 @@
+package server;
+
+import model.ShortUrl;
+import service.BulkLinkRequest;
+import service.BulkLinkResult;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// Формат массового импорта: строка запроса -> BulkLinkRequest, результат -> строка ответа.
+// Ответ идёт в том же формате, что и запрос
+enum BulkFormat {
+    // {"url": "https://...", "limit": 10} на строку, limit необязателен, "unlimited" - без ограничения
+    NDJSON("application/x-ndjson; charset=UTF-8"),
+    // url[,limit] на строку, первая строка может быть заголовком
+    CSV("text/csv; charset=UTF-8");
+
+    private final String contentType;
+
+    BulkFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    static BulkFormat fromContentType(String contentType) {
+        return contentType != null && contentType.toLowerCase().contains("csv") ? CSV : NDJSON;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    // Строки читаются по мере того, как сервис забирает запросы, - тело целиком в память не попадает
+    Iterator<BulkLinkRequest> requests(BufferedReader reader) {
+        return new Iterator<>() {
+            private int lineNumber;
+            private BulkLinkRequest next;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    String line;
+                    while (next == null && (line = reader.readLine()) != null) {
+                        lineNumber++;
+                        if (!line.isBlank() && !(BulkFormat.this == CSV && lineNumber == 1 && isCsvHeader(line))) {
+                            next = parse(line.strip(), lineNumber);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return next != null;
+            }
+
+            @Override
+            public BulkLinkRequest next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                BulkLinkRequest request = next;
+                next = null;
+                return request;
+            }
+        };
+    }
+
+    String header() {
+        return this == CSV ? "line,url,short_url,error\n" : "";
+    }
+
+    void append(StringBuilder out, BulkLinkResult result) {
+        if (this == CSV) {
+            out.append(result.getLine()).append(',');
+            appendCsv(out, result.getOriginalUrl());
+            out.append(',');
+            appendCsv(out, result.getShortUrl());
+            out.append(',');
+            appendCsv(out, result.getError());
+        } else {
+            out.append("{\"line\":").append(result.getLine());
+            if (result.getOriginalUrl() != null) {
+                out.append(",\"url\":");
+                JsonWriter.appendString(out, result.getOriginalUrl());
+            }
+            if (result.isSuccess()) {
+                out.append(",\"shortUrl\":");
+                JsonWriter.appendString(out, result.getShortUrl());
+            } else {
+                out.append(",\"error\":");
+                JsonWriter.appendString(out, result.getError());
+            }
+            out.append('}');
+        }
+        out.append('\n');
+    }
+
+    // Ошибка разбора не бросается, а становится запросом с ошибкой - её увидит клиент в строке ответа
+    BulkLinkRequest parse(String line, int lineNumber) {
+        try {
+            return this == CSV ? parseCsv(line, lineNumber) : parseJson(line, lineNumber);
+        } catch (IllegalArgumentException e) {
+            return BulkLinkRequest.malformed(lineNumber, e.getMessage());
+        }
+    }
+
+    private static boolean isCsvHeader(String line) {
+        String first = line.strip().toLowerCase();
+        return first.equals("url") || first.startsWith("url,");
+    }
+
+    private static BulkLinkRequest parseCsv(String line, int lineNumber) {
+        List<String> fields = new ArrayList<>(2);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().strip());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("❌ Незакрытая кавычка в строке CSV");
+        }
+        fields.add(field.toString().strip());
+        if (fields.size() > 2) {
+            throw new IllegalArgumentException("❌ Ожидается url[,limit]");
+        }
+        return BulkLinkRequest.of(lineNumber, fields.get(0),
+                fields.size() > 1 && !fields.get(1).isEmpty() ? parseLimit(fields.get(1)) : 0);
+    }
+
+    // Плоский объект из строк и целых чисел - ровно то, что нужно строке импорта; неизвестные поля пропускаются
+    private static BulkLinkRequest parseJson(String line, int lineNumber) {
+        JsonCursor cursor = new JsonCursor(line);
+        String url = null;
+        int limit = 0;
+        cursor.expect('{');
+        if (!cursor.tryConsume('}')) {
+            do {
+                String key = cursor.readString();
+                cursor.expect(':');
+                String value = cursor.peek() == '"' ? cursor.readString() : cursor.readLiteral();
+                if (key.equals("url")) {
+                    url = value;
+                } else if (key.equals("limit") && !value.equals("null")) {
+                    limit = parseLimit(value);
+                }
+            } while (cursor.tryConsume(','));
+            cursor.expect('}');
+        }
+        cursor.expectEnd();
+        if (url == null) {
+            throw new IllegalArgumentException("❌ Нет поля url");
+        }
+        return BulkLinkRequest.of(lineNumber, url, limit);
+    }
+
+    private static int parseLimit(String value) {
+        if (value.equals("unlimited")) {
+            return ShortUrl.UNLIMITED;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("❌ Лимит переходов должен быть целым числом: " + value);
+        }
+    }
+
+    private static void appendCsv(StringBuilder out, String value) {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            out.append(value);
+        } else {
+            out.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package server;
+
+import model.ShortUrl;
+
+import java.util.UUID;
+
+// Ссылка целиком, как её переносят между узлами кластера: одна строка NDJSON на ссылку.
+// В отличие от ответа API здесь есть id, владелец и счётчик, а время - миллисекунды эпохи
+final class ClusterFormat {
+    static final String CONTENT_TYPE = "application/x-ndjson; charset=UTF-8";
+
+    private ClusterFormat() {
+    }
+
+    static void append(StringBuilder out, ShortUrl shortUrl) {
+        out.append("{\"id\":\"").append(shortUrl.getId())
+                .append("\",\"userId\":\"").append(shortUrl.getUserId())
+                .append("\",\"code\":");
+        JsonWriter.appendString(out, shortUrl.getShortCode());
+        out.append(",\"url\":");
+        JsonWriter.appendString(out, shortUrl.getOriginalUrl());
+        out.append(",\"clickLimit\":").append(shortUrl.getClickLimit())
+                .append(",\"clicks\":").append(shortUrl.getClickCount())
+                .append(",\"createdAt\":").append(shortUrl.getCreatedAtMillis())
+                .append(",\"expiresAt\":").append(shortUrl.getExpiresAtMillis())
+                .append(",\"active\":").append(shortUrl.isActive())
+                .append("}\n");
+    }
+
+    static ShortUrl parse(String line) {
+        JsonCursor cursor = new JsonCursor(line);
+        UUID id = null;
+        UUID userId = null;
+        String code = null;
+        String url = null;
+        int clickLimit = 0;
+        int clicks = 0;
+        long createdAt = 0;
+        long expiresAt = 0;
+        boolean active = true;
+        cursor.expect('{');
+        if (!cursor.tryConsume('}')) {
+            do {
+                String key = cursor.readString();
+                cursor.expect(':');
+                String value = cursor.peek() == '"' ? cursor.readString() : cursor.readLiteral();
+                try {
+                    switch (key) {
+                        case "id": id = UUID.fromString(value); break;
+                        case "userId": userId = UUID.fromString(value); break;
+                        case "code": code = value; break;
+                        case "url": url = value; break;
+                        case "clickLimit": clickLimit = Integer.parseInt(value); break;
+                        case "clicks": clicks = Integer.parseInt(value); break;
+                        case "createdAt": createdAt = Long.parseLong(value); break;
+                        case "expiresAt": expiresAt = Long.parseLong(value); break;
+                        case "active": active = Boolean.parseBoolean(value); break;
+                        default: break;
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("❌ Неверное значение поля " + key + ": " + value);
+                }
+            } while (cursor.tryConsume(','));
+            cursor.expect('}');
+        }
+        cursor.expectEnd();
+        if (id == null || userId == null || code == null || url == null) {
+            throw new IllegalArgumentException("❌ У ссылки должны быть id, userId, code и url");
+        }
+        return ShortUrl.restore(id, url, code, userId, clickLimit, clicks, createdAt, expiresAt, active);
+    }
+}
@@ -0,0 +1,68 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public enum ExecutorMode {
+    // Все запросы обрабатывает поток-диспетчер HttpServer
+    SINGLE,
+    // Ограниченный пул платформенных потоков
+    POOL,
+    // Виртуальный поток на запрос (Java 21+)
+    VIRTUAL;
+
+    public static ExecutorMode fromConfig(String value) {
+        if (value == null || value.isBlank()) {
+            return SINGLE;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("❌ Неизвестный режим исполнителя: " + value);
+        }
+    }
+
+    // null означает исполнитель по умолчанию, то есть поток-диспетчер
+    ExecutorService createExecutor(int poolSize, int queueCapacity) {
+        switch (this) {
+            case POOL:
+                return newBoundedPool(poolSize, queueCapacity);
+            case VIRTUAL:
+                ExecutorService virtual = newVirtualThreadExecutor();
+                if (virtual != null) {
+                    return virtual;
+                }
+                System.out.println("⚠️ Виртуальные потоки недоступны в Java " +
+                        Runtime.version().feature() + ", используется пул потоков");
+                return newBoundedPool(poolSize, queueCapacity);
+            default:
+                return null;
+        }
+    }
+
+    private static ExecutorService newBoundedPool(int poolSize, int queueCapacity) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "http-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // При переполненной очереди запрос выполняет сам диспетчер - это естественное обратное давление
+        return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        // Проект собирается под Java 17, поэтому фабрику виртуальных потоков ищем рефлексией
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
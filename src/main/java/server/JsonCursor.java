@@ -0,0 +1,100 @@
+package server;
+
+// Разбор плоского JSON-объекта прямо по строке запроса: строки, числа, true/false/null, без дерева объектов
+final class JsonCursor {
+    private final String text;
+    private int position;
+
+    JsonCursor(String text) {
+        this.text = text;
+    }
+
+    char peek() {
+        skipWhitespace();
+        if (position >= text.length()) {
+            throw new IllegalArgumentException("❌ Неожиданный конец JSON");
+        }
+        return text.charAt(position);
+    }
+
+    void expect(char expected) {
+        if (peek() != expected) {
+            throw new IllegalArgumentException("❌ Ожидался символ '" + expected + "' в позиции " + position);
+        }
+        position++;
+    }
+
+    boolean tryConsume(char expected) {
+        skipWhitespace();
+        if (position < text.length() && text.charAt(position) == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    void expectEnd() {
+        skipWhitespace();
+        if (position != text.length()) {
+            throw new IllegalArgumentException("❌ Лишние символы после JSON-объекта");
+        }
+    }
+
+    String readString() {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+        while (position < text.length()) {
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (position >= text.length()) {
+                break;
+            }
+            char escaped = text.charAt(position++);
+            switch (escaped) {
+                case 'n': value.append('\n'); break;
+                case 't': value.append('\t'); break;
+                case 'r': value.append('\r'); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'u':
+                    if (position + 4 > text.length()) {
+                        throw new IllegalArgumentException("❌ Неверная escape-последовательность в JSON");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("❌ Неверная escape-последовательность в JSON");
+                    }
+                    position += 4;
+                    break;
+                default: value.append(escaped);
+            }
+        }
+        throw new IllegalArgumentException("❌ Незакрытая строка в JSON");
+    }
+
+    // Число, true/false или null - как текст до разделителя
+    String readLiteral() {
+        skipWhitespace();
+        int start = position;
+        while (position < text.length() && ",}] \t".indexOf(text.charAt(position)) < 0) {
+            position++;
+        }
+        if (start == position) {
+            throw new IllegalArgumentException("❌ Ожидалось значение в позиции " + position);
+        }
+        return text.substring(start, position);
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Буфер ответа на поток обработчика: JSON собирается в переиспользуемый StringBuilder и кодируется в UTF-8
+// прямо в переиспользуемый массив, без промежуточных String и byte[] на каждый ответ
+final class JsonWriter {
+    private static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+    // Буферы после редкого большого ответа не держим: поток пула живёт долго
+    private static final int MAX_RETAINED_CHARS = 64 * 1024;
+
+    private StringBuilder json = new StringBuilder(1024);
+    private byte[] bytes = new byte[4096];
+
+    StringBuilder begin() {
+        if (json.capacity() > MAX_RETAINED_CHARS) {
+            json = new StringBuilder(1024);
+            bytes = new byte[4096];
+        }
+        json.setLength(0);
+        return json;
+    }
+
+    void send(HttpExchange exchange, int statusCode) throws IOException {
+        send(exchange, statusCode, CONTENT_TYPE);
+    }
+
+    // Тот же буфер для текстовых ответов, например метрик
+    void send(HttpExchange exchange, int statusCode, String contentType) throws IOException {
+        int length = encode();
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(statusCode, length);
+
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes, 0, length);
+        }
+    }
+
+    private int encode() {
+        // Худший случай - три байта на char (суррогатная пара - четыре байта на два char)
+        if (bytes.length < json.length() * 3) {
+            bytes = new byte[json.length() * 3];
+        }
+        int length = 0;
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c < 0x80) {
+                bytes[length++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[length++] = (byte) (0xC0 | c >> 6);
+                bytes[length++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < json.length()
+                    && Character.isLowSurrogate(json.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, json.charAt(++i));
+                bytes[length++] = (byte) (0xF0 | codePoint >> 18);
+                bytes[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                bytes[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                bytes[length++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // Одиночная половина пары - как у String.getBytes
+                bytes[length++] = '?';
+            } else {
+                bytes[length++] = (byte) (0xE0 | c >> 12);
+                bytes[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[length++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return length;
+    }
+
+    // Значения от клиента (хост из Referer, URL импорта) могут содержать кавычки и управляющие символы
+    static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,877 @@
+package server;
+
+import cluster.Cluster;
+import cluster.ClusterNode;
+import config.AppConfig;
+import metrics.LatencyHistogram;
+import model.ShortUrl;
+import ratelimit.RateLimiter;
+import service.RedirectStatus;
+import service.UrlShortenerService;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Фронтенд только для переходов по коротким ссылкам на NIO: по циклу событий на ядро, каждый со своим
+// селектором и своими прямыми буферами. Запрос разбирается прямо в буфере чтения, код ищется через представление
+// этих же байтов без строки, а ответы на все запросы, пришедшие одним чтением (конвейер HTTP/1.1), собираются
+// из заранее закодированных кусков в прямой буфер записи и уходят одним write.
+// Всё, что не переход (главная страница, API, статистика, /metrics), получает 307 на порт WebServer
+public class NioRedirectServer {
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+    // Строка запроса и заголовки перехода; больше - это не браузер, а ответ 431
+    private static final int MAX_REQUEST_BYTES = 8 * 1024;
+    // Места под ответ без Location: строка статуса и все заголовки с запасом
+    private static final int RESPONSE_RESERVE = 1024;
+
+    private static final byte[] FOUND = ascii("HTTP/1.1 302 Found\r\nCache-Control: no-store\r\nContent-Length: 0\r\n");
+    private static final byte[] MOVED_PERMANENTLY = ascii("HTTP/1.1 301 Moved Permanently\r\nContent-Length: 0\r\n");
+    private static final byte[] PERMANENT_REDIRECT = ascii("HTTP/1.1 308 Permanent Redirect\r\nContent-Length: 0\r\n");
+    private static final byte[] NOT_MODIFIED = ascii("HTTP/1.1 304 Not Modified\r\n");
+    private static final byte[] TEMPORARY_REDIRECT = ascii("HTTP/1.1 307 Temporary Redirect\r\nContent-Length: 0\r\n");
+    private static final byte[] BAD_REQUEST = ascii("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n");
+    private static final byte[] TOO_LARGE = ascii("HTTP/1.1 431 Request Header Fields Too Large\r\nContent-Length: 0\r\n");
+    private static final byte[] SERVER_ERROR = ascii("HTTP/1.1 500 Internal Server Error\r\nContent-Length: 0\r\n");
+    private static final byte[] TOO_MANY_REQUESTS = ascii("HTTP/1.1 429 Too Many Requests\r\nRetry-After: ");
+    private static final byte[] PUBLIC_MAX_AGE = ascii("Cache-Control: public, max-age=");
+    private static final byte[] ETAG = ascii("ETag: ");
+    private static final byte[] LOCATION = ascii("Location: ");
+    private static final byte[] CONNECTION_CLOSE = ascii("Connection: close\r\n");
+    private static final byte[] CONNECTION_KEEP_ALIVE = ascii("Connection: keep-alive\r\n");
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] HTTP_1_1 = ascii("HTTP/1.1");
+    private static final byte[] HTTP_1_0 = ascii("HTTP/1.0");
+    private static final byte[] GET = ascii("GET");
+    private static final byte[] HEAD = ascii("HEAD");
+    private static final byte[] METRICS = ascii("metrics");
+    private static final byte[] REPLICATION = ascii("replication");
+    private static final byte[] CLOSE = ascii("close");
+    private static final byte[] KEEP_ALIVE = ascii("keep-alive");
+    // Имена заголовков в нижнем регистре: сравнение идёт по байтам с (b | 0x20)
+    private static final byte[] HEADER_CONNECTION = ascii("connection");
+    private static final byte[] HEADER_IF_NONE_MATCH = ascii("if-none-match");
+    private static final byte[] HEADER_REFERER = ascii("referer");
+    private static final byte[] HEADER_USER_AGENT = ascii("user-agent");
+    private static final byte[] HEADER_CONTENT_LENGTH = ascii("content-length");
+    private static final byte[] HEADER_TRANSFER_ENCODING = ascii("transfer-encoding");
+    private static final byte[] HEADER_HOST = ascii("host");
+    private static final byte[] HEADER_HOP = ascii(Cluster.HOP_HEADER.toLowerCase());
+    private static final byte[] HEADER_TOKEN = ascii(Cluster.TOKEN_HEADER.toLowerCase());
+    private static final byte[] HEADER_FORWARDED_FOR = ascii("x-forwarded-for");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    // Страницы отказа по статусу перехода: заголовки с длиной и тело. Страницы короткие, текстом,
+    // как у кода, отсечённого фильтром в WebServer, - переходы обслуживаются ботам и браузерам, не людям
+    private static final byte[][] NOT_FOUND_HEADS = new byte[RedirectStatus.values().length][];
+    private static final byte[][] NOT_FOUND_BODIES = new byte[RedirectStatus.values().length][];
+    private static final byte[] TOO_MANY_REQUESTS_BODY = "⏳ Слишком много запросов, повторите позже\n"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TOO_MANY_REQUESTS_HEAD = ascii("\r\nContent-Type: text/plain; charset=UTF-8\r\n"
+            + "Content-Length: " + TOO_MANY_REQUESTS_BODY.length + "\r\n");
+
+    static {
+        for (RedirectStatus status : RedirectStatus.values()) {
+            byte[] body = (status.getMessage() + "\n").getBytes(StandardCharsets.UTF_8);
+            NOT_FOUND_BODIES[status.ordinal()] = body;
+            NOT_FOUND_HEADS[status.ordinal()] = ascii("HTTP/1.1 404 Not Found\r\n"
+                    + "Content-Type: text/plain; charset=UTF-8\r\nContent-Length: " + body.length + "\r\n");
+        }
+    }
+
+    private final UrlShortenerService service;
+    private final int port;
+    private final int loopCount;
+    // Порт WebServer, куда уходят все запросы, кроме переходов
+    private final int apiPort;
+    // null - узел работает один и отвечает за все коды
+    private final Cluster cluster;
+    // null - частота запросов не ограничена
+    private final RateLimiter rateLimiter;
+    private final LatencyHistogram latency;
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] loops;
+    private volatile boolean running;
+
+    public NioRedirectServer(UrlShortenerService service, int port, int loopCount, int apiPort, Cluster cluster,
+                             RateLimiter rateLimiter) {
+        if (loopCount < 1) {
+            throw new IllegalArgumentException("❌ Число циклов событий должно быть положительным: " + loopCount);
+        }
+        this.service = service;
+        this.port = port;
+        this.loopCount = loopCount;
+        this.apiPort = apiPort;
+        this.cluster = cluster;
+        this.rateLimiter = rateLimiter;
+        this.latency = service.getMetrics().histogram("http_request_seconds", "handler=\"nio\"",
+                "Обработка HTTP-запроса");
+    }
+
+    // null - переходы обслуживает сам WebServer
+    public static NioRedirectServer fromConfig(UrlShortenerService service, AppConfig config, Cluster cluster) {
+        String frontend = config.getServerFrontend().trim().toLowerCase();
+        if (frontend.isEmpty() || frontend.equals("httpserver")) {
+            return null;
+        }
+        if (!frontend.equals("nio")) {
+            throw new IllegalArgumentException("❌ Неизвестный фронтенд сервера: " + frontend);
+        }
+        return new NioRedirectServer(service, config.getServerPort(), config.getServerNioLoops(),
+                config.getWebServerPort(), cluster, RateLimiter.fromConfig(config));
+    }
+
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        running = true;
+        loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop(i);
+        }
+        // Соединения принимает первый цикл и раздаёт всем по кругу
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+        if (rateLimiter != null) {
+            service.getMetrics().counter("nio_rate_limited_total", "Переходы, получившие 429 во фронтенде NIO",
+                    rateLimiter::getRejectedCount);
+        }
+        System.out.println("✅ Фронтенд NIO запущен: http://localhost:" + getPort() + " (циклов событий: "
+                + loopCount + ", API на порту " + apiPort + ")");
+    }
+
+    public int getPort() {
+        if (serverChannel != null && serverChannel.isOpen()) {
+            try {
+                return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+            } catch (IOException e) {
+                return port;
+            }
+        }
+        return port;
+    }
+
+    public void stop() {
+        if (loops == null) {
+            return;
+        }
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // Канал и так закрывается
+        }
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        for (EventLoop loop : loops) {
+            try {
+                loop.thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        loops = null;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    // Состояние соединения между чтениями: недоразобранный вход и не принятый сокетом выход
+    private static final class Connection {
+        final SocketChannel channel;
+        final InetAddress address;
+        SelectionKey key;
+        ByteBuffer pending;
+        ByteBuffer unwritten;
+        boolean closeAfterWrite;
+
+        Connection(SocketChannel channel, InetAddress address) {
+            this.channel = channel;
+            this.address = address;
+        }
+    }
+
+    // Байты буфера как строка ASCII без копирования; живёт, пока буфер не перезаписан
+    private static final class AsciiView implements CharSequence {
+        private ByteBuffer buffer;
+        private int offset;
+        private int length;
+
+        AsciiView wrap(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.offset = start;
+            this.length = end - start;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(offset + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            buffer.get(offset, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    // Цикл событий: свой поток, селектор и буферы. Соединение живёт в одном цикле от принятия до закрытия,
+    // поэтому всё его состояние читается без синхронизации
+    private final class EventLoop {
+        final Selector selector;
+        final Thread thread;
+        final Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+        final ByteBuffer in = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+        ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        final AsciiView code = new AsciiView();
+        int nextLoop;
+        // Начало ответа на текущий запрос в буфере записи: при исключении обработчика недописанный ответ
+        // срезается до этой позиции, и 500 не склеивается с его байтами в потоке конвейера
+        int responseStart;
+        long dateSecond = -1;
+        byte[] dateLine;
+
+        // Разобранный запрос: границы полей в буфере чтения, -1 - поля нет
+        boolean redirect;
+        boolean head;
+        boolean keepAlive;
+        boolean http10;
+        int pathStart;
+        int pathEnd;
+        int ifNoneMatchStart;
+        int ifNoneMatchEnd;
+        int refererStart;
+        int refererEnd;
+        int userAgentStart;
+        int userAgentEnd;
+        int hostStart;
+        int hostEnd;
+        int tokenStart;
+        int tokenEnd;
+        int forwardedForStart;
+        int forwardedForEnd;
+        // Значения прежних заголовков X-Forwarded-For, если он повторён
+        String forwardedForPrefix;
+        boolean hop;
+        boolean hasBody;
+
+        EventLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this::run, "nio-loop-" + index);
+        }
+
+        void run() {
+            try {
+                while (running) {
+                    selector.select(this::onKey);
+                    SocketChannel channel;
+                    while ((channel = incoming.poll()) != null) {
+                        register(channel);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) {
+                    System.err.println("❌ Цикл событий NIO остановлен: " + e.getMessage());
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        close((Connection) key.attachment());
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Селектор и так закрывается
+                }
+            }
+        }
+
+        // Исключение одного соединения закрывает только его: цикл, принимающий соединения, должен жить дальше
+        void onKey(SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                try {
+                    accept();
+                } catch (RuntimeException e) {
+                    System.err.println("❌ Ошибка приёма соединения: " + e);
+                }
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isWritable()) {
+                    onWritable(connection);
+                } else if (key.isReadable()) {
+                    onReadable(connection);
+                }
+            } catch (IOException e) {
+                // Клиент закрыл соединение или сбросил его
+                close(connection);
+            } catch (RuntimeException e) {
+                System.err.println("❌ Ошибка соединения NIO, соединение закрыто: " + e);
+                close(connection);
+            }
+        }
+
+        void accept() {
+            SocketChannel channel;
+            try {
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    // Ответы короткие, и каждый нужен клиенту сразу, не после подтверждения предыдущего
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    // floorMod: счётчик переполняется после 2^31 соединений, индекс не должен стать отрицательным
+                    EventLoop target = loops[Math.floorMod(nextLoop++, loops.length)];
+                    if (target == this) {
+                        register(channel);
+                    } else {
+                        target.incoming.add(channel);
+                        target.selector.wakeup();
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("⚠️ Не удалось принять соединение: " + e.getMessage());
+                }
+            }
+        }
+
+        void register(SocketChannel channel) {
+            try {
+                InetAddress address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+                Connection connection = new Connection(channel, address);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Соединение уже закрыто клиентом
+                }
+            }
+        }
+
+        void onReadable(Connection connection) throws IOException {
+            in.clear();
+            if (connection.pending != null) {
+                in.put(connection.pending);
+                connection.pending = null;
+            }
+            int read = connection.channel.read(in);
+            if (read < 0) {
+                close(connection);
+                return;
+            }
+            in.flip();
+            process(connection);
+        }
+
+        // Сокет снова принимает данные: дописываем хвост ответа и разбираем то, что ждало за ним в конвейере
+        void onWritable(Connection connection) throws IOException {
+            connection.channel.write(connection.unwritten);
+            if (connection.unwritten.hasRemaining()) {
+                return;
+            }
+            connection.unwritten = null;
+            if (connection.closeAfterWrite) {
+                close(connection);
+                return;
+            }
+            connection.key.interestOps(SelectionKey.OP_READ);
+            if (connection.pending != null) {
+                in.clear();
+                in.put(connection.pending);
+                connection.pending = null;
+                in.flip();
+                process(connection);
+            }
+        }
+
+        // Отвечает на все полные запросы в буфере чтения. Пока сокет не принял прежний ответ,
+        // новые запросы не разбираются: клиент, не читающий ответы, не раздует память сервера
+        void process(Connection connection) throws IOException {
+            out.clear();
+            while (in.hasRemaining() && connection.unwritten == null && !connection.closeAfterWrite) {
+                int headerEnd = indexOfHeaderEnd(in.position(), in.limit());
+                if (headerEnd < 0) {
+                    if (in.remaining() > MAX_REQUEST_BYTES) {
+                        respondAndClose(connection, TOO_LARGE);
+                    }
+                    break;
+                }
+                long started = System.nanoTime();
+                responseStart = out.position();
+                try {
+                    handle(connection, in.position(), headerEnd);
+                } catch (RuntimeException e) {
+                    System.err.println("❌ Ошибка обработки перехода: " + e.getMessage());
+                    out.position(responseStart);
+                    respondAndClose(connection, SERVER_ERROR);
+                }
+                latency.recordSince(started);
+                in.position(headerEnd);
+            }
+            if (in.hasRemaining() && !connection.closeAfterWrite) {
+                connection.pending = ByteBuffer.allocate(in.remaining()).put(in).flip();
+            }
+            flush(connection);
+            if (connection.unwritten != null) {
+                connection.key.interestOps(SelectionKey.OP_WRITE);
+            } else if (connection.closeAfterWrite) {
+                close(connection);
+            }
+        }
+
+        // Позиция сразу после пустой строки, завершающей заголовки; -1 - запрос ещё не пришёл целиком
+        int indexOfHeaderEnd(int from, int to) {
+            for (int i = from + 3; i < to; i++) {
+                if (in.get(i) == '\n') {
+                    if (in.get(i - 1) == '\r' && in.get(i - 2) == '\n' && in.get(i - 3) == '\r') {
+                        return i + 1;
+                    }
+                } else if (in.get(i) != '\r') {
+                    // Ни здесь, ни на следующем байте конец заголовков закончиться не может
+                    i++;
+                }
+            }
+            return -1;
+        }
+
+        void handle(Connection connection, int start, int end) {
+            if (!parse(start, end)) {
+                respondAndClose(connection, BAD_REQUEST);
+                return;
+            }
+            if (!redirect) {
+                // Остальные методы - это API: 307 сохраняет метод, тело клиент отправит уже на WebServer
+                redirectToApi(connection);
+                return;
+            }
+            if (hasBody) {
+                // Тело у перехода не бывает, а разбирать и пропускать его фронтенд не умеет
+                respondAndClose(connection, BAD_REQUEST);
+                return;
+            }
+            if (rejectIfOverLimit(connection)) {
+                return;
+            }
+            int codeStart = pathStart + 1;
+            if (codeStart == pathEnd || indexOf((byte) '/', codeStart, pathEnd) >= 0
+                    || equalsBytes(codeStart, pathEnd, METRICS) || equalsBytes(codeStart, pathEnd, REPLICATION)) {
+                redirectToApi(connection);
+                return;
+            }
+            code.wrap(in, codeStart, pathEnd);
+            if (forwardIfForeign(connection)) {
+                return;
+            }
+            int length = code.length();
+            if (!service.mightExist(code, 0, length)) {
+                respondNotFound(connection, RedirectStatus.NOT_FOUND);
+                return;
+            }
+            ShortUrl shortUrl = service.findShortUrlInBuffer(code, 0, length);
+            RedirectStatus status = head ? service.checkRedirect(shortUrl) : service.registerRedirect(shortUrl);
+            if (status != RedirectStatus.FOUND) {
+                respondNotFound(connection, status);
+                return;
+            }
+            if (!head) {
+                service.publishClick(shortUrl, string(refererStart, refererEnd), string(userAgentStart, userAgentEnd),
+                        connection.address);
+            }
+            respondRedirect(connection, shortUrl);
+        }
+
+        // Строка запроса и нужные заголовки; false - запрос не HTTP/1.x или путь не начинается со слэша
+        boolean parse(int start, int end) {
+            if (!hasOnlyLineBreakControls(start, end)) {
+                return false;
+            }
+            int lineEnd = indexOf((byte) '\r', start, end);
+            int methodEnd = indexOf((byte) ' ', start, lineEnd);
+            if (methodEnd < 0) {
+                return false;
+            }
+            int targetEnd = indexOf((byte) ' ', methodEnd + 1, lineEnd);
+            if (targetEnd < 0 || in.get(methodEnd + 1) != '/') {
+                return false;
+            }
+            if (equalsBytes(targetEnd + 1, lineEnd, HTTP_1_1)) {
+                http10 = false;
+            } else if (equalsBytes(targetEnd + 1, lineEnd, HTTP_1_0)) {
+                http10 = true;
+            } else {
+                return false;
+            }
+            head = equalsBytes(start, methodEnd, HEAD);
+            redirect = head || equalsBytes(start, methodEnd, GET);
+            pathStart = methodEnd + 1;
+            int queryStart = indexOf((byte) '?', pathStart, targetEnd);
+            pathEnd = queryStart >= 0 ? queryStart : targetEnd;
+
+            keepAlive = !http10;
+            ifNoneMatchStart = refererStart = userAgentStart = hostStart = tokenStart = forwardedForStart = -1;
+            forwardedForPrefix = null;
+            hop = false;
+            hasBody = false;
+            int lineStart = lineEnd + 2;
+            while (lineStart < end - 2) {
+                int nextLineEnd = indexOf((byte) '\r', lineStart, end);
+                int colon = indexOf((byte) ':', lineStart, nextLineEnd);
+                if (colon > lineStart) {
+                    int valueStart = colon + 1;
+                    while (valueStart < nextLineEnd && (in.get(valueStart) == ' ' || in.get(valueStart) == '\t')) {
+                        valueStart++;
+                    }
+                    int valueEnd = nextLineEnd;
+                    while (valueEnd > valueStart && (in.get(valueEnd - 1) == ' ' || in.get(valueEnd - 1) == '\t')) {
+                        valueEnd--;
+                    }
+                    header(lineStart, colon, valueStart, valueEnd);
+                }
+                lineStart = nextLineEnd + 2;
+            }
+            return true;
+        }
+
+        // Управляющие байты допустимы только как CRLF в конце строки и табуляция в заголовках, как в HttpServer:
+        // голый LF или CR в пути или в Host попал бы в Location ответа 307 и разделил бы ответ надвое
+        boolean hasOnlyLineBreakControls(int start, int end) {
+            boolean requestLine = true;
+            for (int i = start; i < end; i++) {
+                byte value = in.get(i);
+                if (value == '\r') {
+                    if (i + 1 == end || in.get(i + 1) != '\n') {
+                        return false;
+                    }
+                    i++;
+                    requestLine = false;
+                } else if (value >= 0 && value < ' ' && (value != '\t' || requestLine) || value == 0x7f) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void header(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+            if (nameIs(nameStart, nameEnd, HEADER_CONNECTION)) {
+                if (containsIgnoreCase(valueStart, valueEnd, CLOSE)) {
+                    keepAlive = false;
+                } else if (containsIgnoreCase(valueStart, valueEnd, KEEP_ALIVE)) {
+                    keepAlive = true;
+                }
+            } else if (nameIs(nameStart, nameEnd, HEADER_IF_NONE_MATCH)) {
+                ifNoneMatchStart = valueStart;
+                ifNoneMatchEnd = valueEnd;
+            } else if (nameIs(nameStart, nameEnd, HEADER_REFERER)) {
+                refererStart = valueStart;
+                refererEnd = valueEnd;
+            } else if (nameIs(nameStart, nameEnd, HEADER_USER_AGENT)) {
+                userAgentStart = valueStart;
+                userAgentEnd = valueEnd;
+            } else if (nameIs(nameStart, nameEnd, HEADER_HOST)) {
+                hostStart = valueStart;
+                hostEnd = valueEnd;
+            } else if (nameIs(nameStart, nameEnd, HEADER_CONTENT_LENGTH)) {
+                hasBody |= valueEnd > valueStart && !(valueEnd - valueStart == 1 && in.get(valueStart) == '0');
+            } else if (nameIs(nameStart, nameEnd, HEADER_TRANSFER_ENCODING)) {
+                hasBody = true;
+            } else if (nameIs(nameStart, nameEnd, HEADER_HOP)) {
+                hop = true;
+            } else if (nameIs(nameStart, nameEnd, HEADER_TOKEN)) {
+                tokenStart = valueStart;
+                tokenEnd = valueEnd;
+            } else if (nameIs(nameStart, nameEnd, HEADER_FORWARDED_FOR)) {
+                if (forwardedForStart >= 0) {
+                    forwardedForPrefix = forwardedFor() + ",";
+                }
+                forwardedForStart = valueStart;
+                forwardedForEnd = valueEnd;
+            }
+        }
+
+        // Повторные заголовки - продолжение одного списка; строка собирается, только если её прочтут
+        String forwardedFor() {
+            String last = string(forwardedForStart, forwardedForEnd);
+            return forwardedForPrefix == null || last == null ? last : forwardedForPrefix + last;
+        }
+
+        // Как в WebServer: пересланный соседом запрос с верным токеном кластера лимит не тратит
+        boolean rejectIfOverLimit(Connection connection) {
+            if (rateLimiter == null || hop && cluster != null
+                    && cluster.isAuthorized(string(tokenStart, tokenEnd))) {
+                return false;
+            }
+            long waitNanos = rateLimiter.acquireRead(connection.address,
+                    rateLimiter.hasTrustedProxies() ? forwardedFor() : null);
+            if (waitNanos == 0) {
+                return false;
+            }
+            reserve(connection, RESPONSE_RESERVE + TOO_MANY_REQUESTS_BODY.length);
+            out.put(TOO_MANY_REQUESTS);
+            putDecimal(Math.max(1, (waitNanos + 999_999_999) / 1_000_000_000));
+            out.put(TOO_MANY_REQUESTS_HEAD);
+            finishHeaders(connection);
+            if (!head) {
+                out.put(TOO_MANY_REQUESTS_BODY);
+            }
+            return true;
+        }
+
+        // Фронтенд не проксирует: чужой код получает 307 на узел-владелец при любом режиме пересылки кластера
+        boolean forwardIfForeign(Connection connection) {
+            if (cluster == null || hop) {
+                return false;
+            }
+            ClusterNode owner = cluster.ownerOf(code, 0);
+            if (owner == null) {
+                return false;
+            }
+            String target = owner.getUrl() + string(pathStart, requestTargetEnd());
+            reserve(connection, RESPONSE_RESERVE + target.length() * 3);
+            out.put(TEMPORARY_REDIRECT);
+            putLocation(target);
+            finishHeaders(connection);
+            return true;
+        }
+
+        // Главная страница, API и всё остальное - на WebServer того же хоста. Соединение закрывается:
+        // клиент, пришедший сюда за API, дальше будет говорить с другим портом
+        void redirectToApi(Connection connection) {
+            String host = hostStart >= 0 ? string(hostStart, hostEnd) : "localhost";
+            int portStart = host.lastIndexOf(':');
+            if (portStart > host.lastIndexOf(']')) {
+                host = host.substring(0, portStart);
+            }
+            String target = "http://" + host + ":" + apiPort + string(pathStart, requestTargetEnd());
+            keepAlive = false;
+            reserve(connection, RESPONSE_RESERVE + target.length() * 3);
+            out.put(TEMPORARY_REDIRECT);
+            putLocation(target);
+            finishHeaders(connection);
+        }
+
+        // Конец пути вместе со строкой запроса: при пересылке она сохраняется
+        int requestTargetEnd() {
+            return indexOf((byte) ' ', pathEnd, in.limit());
+        }
+
+        void respondNotFound(Connection connection, RedirectStatus status) {
+            byte[] body = NOT_FOUND_BODIES[status.ordinal()];
+            reserve(connection, RESPONSE_RESERVE + body.length);
+            out.put(NOT_FOUND_HEADS[status.ordinal()]);
+            finishHeaders(connection);
+            if (!head) {
+                out.put(body);
+            }
+        }
+
+        void respondRedirect(Connection connection, ShortUrl shortUrl) {
+            reserve(connection, RESPONSE_RESERVE + shortUrl.getOriginalUrlMaxBytes());
+            long maxAge = service.getRedirectMaxAgeSeconds(shortUrl);
+            if (maxAge > 0) {
+                String etag = WebServer.etagOf(shortUrl);
+                if (WebServer.etagMatches(ifNoneMatchStart >= 0 ? string(ifNoneMatchStart, ifNoneMatchEnd) : null, etag)) {
+                    out.put(NOT_MODIFIED);
+                } else {
+                    out.put(service.getPermanentRedirectStatus() == 308
+                            ? PERMANENT_REDIRECT : MOVED_PERMANENTLY);
+                }
+                out.put(PUBLIC_MAX_AGE);
+                putDecimal(maxAge);
+                out.put(CRLF);
+                out.put(ETAG);
+                putAscii(etag);
+                out.put(CRLF);
+            } else {
+                out.put(FOUND);
+            }
+            // Адрес копируется из хранилища прямо в буфер ответа, без строки
+            out.put(LOCATION);
+            shortUrl.writeOriginalUrl(out);
+            out.put(CRLF);
+            finishHeaders(connection);
+        }
+
+        void respondAndClose(Connection connection, byte[] response) {
+            keepAlive = false;
+            reserve(connection, RESPONSE_RESERVE);
+            out.put(response);
+            finishHeaders(connection);
+        }
+
+        // Date, Connection и пустая строка; после ответа без keep-alive соединение закрывается
+        void finishHeaders(Connection connection) {
+            long second = System.currentTimeMillis() / 1000;
+            if (second != dateSecond) {
+                dateSecond = second;
+                dateLine = ascii("Date: " + DATE_FORMAT.format(Instant.ofEpochSecond(second)) + "\r\n");
+            }
+            out.put(dateLine);
+            if (!keepAlive) {
+                out.put(CONNECTION_CLOSE);
+                connection.closeAfterWrite = true;
+            } else if (http10) {
+                out.put(CONNECTION_KEEP_ALIVE);
+            }
+            out.put(CRLF);
+        }
+
+        void putLocation(String location) {
+            out.put(LOCATION);
+            putAscii(location);
+            out.put(CRLF);
+        }
+
+        // Адреса почти всегда ASCII; остальное уходит в UTF-8, как его отправил бы и HttpServer
+        void putAscii(String text) {
+            int length = text.length();
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c >= 0x80) {
+                    out.put(text.substring(i).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                out.put((byte) c);
+            }
+        }
+
+        void putDecimal(long value) {
+            if (value >= 10) {
+                putDecimal(value / 10);
+            }
+            out.put((byte) ('0' + value % 10));
+        }
+
+        // Гарантирует место под ответ: накопленное уходит в сокет, а что он не принял - в хвост соединения
+        void reserve(Connection connection, int bytes) {
+            if (out.remaining() >= bytes) {
+                return;
+            }
+            try {
+                flush(connection);
+            } catch (IOException e) {
+                // Ошибку сокета заметит следующая запись или чтение; ответ просто не дойдёт
+                connection.closeAfterWrite = true;
+            }
+            if (out.capacity() < bytes) {
+                out = ByteBuffer.allocateDirect(bytes);
+            }
+        }
+
+        void flush(Connection connection) throws IOException {
+            out.flip();
+            if (connection.unwritten == null && out.hasRemaining()) {
+                connection.channel.write(out);
+            }
+            if (out.hasRemaining()) {
+                ByteBuffer previous = connection.unwritten;
+                int size = out.remaining() + (previous != null ? previous.remaining() : 0);
+                ByteBuffer unwritten = ByteBuffer.allocate(size);
+                if (previous != null) {
+                    unwritten.put(previous);
+                }
+                connection.unwritten = unwritten.put(out).flip();
+            }
+            out.clear();
+            responseStart = 0;
+        }
+
+        void close(Connection connection) {
+            connection.key.cancel();
+            try {
+                connection.channel.close();
+            } catch (IOException e) {
+                // Соединение уже закрыто клиентом
+            }
+        }
+
+        int indexOf(byte value, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (in.get(i) == value) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        boolean equalsBytes(int from, int to, byte[] expected) {
+            if (to - from != expected.length) {
+                return false;
+            }
+            for (int i = 0; i < expected.length; i++) {
+                if (in.get(from + i) != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean nameIs(int from, int to, byte[] lowerCaseName) {
+            if (to - from != lowerCaseName.length) {
+                return false;
+            }
+            for (int i = 0; i < lowerCaseName.length; i++) {
+                if ((in.get(from + i) | 0x20) != lowerCaseName[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean containsIgnoreCase(int from, int to, byte[] lowerCaseWord) {
+            for (int i = from; i + lowerCaseWord.length <= to; i++) {
+                if (nameIs(i, i + lowerCaseWord.length, lowerCaseWord)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // null - поля в запросе нет
+        String string(int from, int to) {
+            if (from < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[to - from];
+            in.get(from, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
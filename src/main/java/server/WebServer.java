@@ -1,72 +1,304 @@
 package server;
 
+import analytics.LinkStats;
+import cluster.Cluster;
+import cluster.ClusterNode;
+import cluster.ForwardMode;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
+import config.AppConfig;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import model.ShortUrl;
+import model.User;
+import ratelimit.RateLimiter;
+import service.BulkLinkRequest;
+import service.BulkLinkResult;
+import service.RedirectStatus;
 import service.UrlShortenerService;
+import storage.ReplicationStatus;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class WebServer {
+    private static final String HTML_CONTENT_TYPE = "text/html; charset=UTF-8";
+    private static final String TEXT_CONTENT_TYPE = "text/plain; charset=UTF-8";
+    private static final String STATS_PATH = "/stats/";
+    private static final String API_PATH = "/api/";
+    private static final String BULK_PATH = "/api/links/bulk";
+    private static final String CLUSTER_PATH = "/cluster/";
+    private static final String REPLICATION_PATH = "/replication";
+    private static final String METRICS_PATH = "/metrics";
+    private static final Duration PROXY_TIMEOUT = Duration.ofSeconds(5);
+    // Заголовки, которые узел-владелец должен увидеть от клиента, и те, что он возвращает клиенту
+    private static final String[] PROXIED_REQUEST_HEADERS = {"X-User-Id", "Content-Type", "If-None-Match",
+            "Referer", "User-Agent"};
+    private static final String[] PROXIED_RESPONSE_HEADERS = {"Location", "Content-Type", "Cache-Control", "ETag",
+            "Allow"};
+    private static final byte[] TOO_MANY_REQUESTS_PAGE = "⏳ Слишком много запросов, повторите позже\n"
+            .getBytes(StandardCharsets.UTF_8);
+    // Буфер ответа у каждого потока исполнителя свой и живёт вместе с потоком
+    private static final ThreadLocal<JsonWriter> JSON = ThreadLocal.withInitial(JsonWriter::new);
+
     private final UrlShortenerService urlShortenerService;
     private HttpServer server;
+    private ExecutorService executor;
     private final int port;
+    private final ExecutorMode executorMode;
+    private final int poolSize;
+    private final int queueCapacity;
+    private final int drainSeconds;
+    // null - узел работает один и отвечает за все коды
+    private final Cluster cluster;
+    // null - репликации нет
+    private final ReplicationStatus replication;
+    // null - частота запросов не ограничена
+    private final RateLimiter rateLimiter;
 
     public WebServer(UrlShortenerService urlShortenerService, int port) {
+        this(urlShortenerService, port, ExecutorMode.SINGLE, 1, 1, 0);
+    }
+
+    public WebServer(UrlShortenerService urlShortenerService, AppConfig config) {
+        this(urlShortenerService, config, null);
+    }
+
+    public WebServer(UrlShortenerService urlShortenerService, AppConfig config, Cluster cluster) {
+        this(urlShortenerService, config, cluster, null);
+    }
+
+    public WebServer(UrlShortenerService urlShortenerService, AppConfig config, Cluster cluster,
+                     ReplicationStatus replication) {
+        this(urlShortenerService, config.getWebServerPort(),
+                ExecutorMode.fromConfig(config.getServerExecutorMode()),
+                config.getServerExecutorPoolSize(),
+                config.getServerExecutorQueueCapacity(),
+                config.getServerShutdownDrainSeconds(),
+                cluster, replication, RateLimiter.fromConfig(config));
+    }
+
+    public WebServer(UrlShortenerService urlShortenerService, int port, ExecutorMode executorMode,
+                     int poolSize, int queueCapacity, int drainSeconds) {
+        this(urlShortenerService, port, executorMode, poolSize, queueCapacity, drainSeconds, null, null);
+    }
+
+    public WebServer(UrlShortenerService urlShortenerService, int port, ExecutorMode executorMode,
+                     int poolSize, int queueCapacity, int drainSeconds, Cluster cluster,
+                     ReplicationStatus replication) {
+        this(urlShortenerService, port, executorMode, poolSize, queueCapacity, drainSeconds, cluster, replication,
+                null);
+    }
+
+    public WebServer(UrlShortenerService urlShortenerService, int port, ExecutorMode executorMode,
+                     int poolSize, int queueCapacity, int drainSeconds, Cluster cluster,
+                     ReplicationStatus replication, RateLimiter rateLimiter) {
         this.urlShortenerService = urlShortenerService;
         this.port = port;
+        this.executorMode = executorMode;
+        this.poolSize = poolSize;
+        this.queueCapacity = queueCapacity;
+        this.drainSeconds = drainSeconds;
+        this.cluster = cluster;
+        this.replication = replication;
+        this.rateLimiter = rateLimiter;
     }
 
     public void start() throws IOException {
+        // Без TCP_NODELAY короткие ответы keep-alive ждут Nagle и подтверждения клиента;
+        // свойство читается при первом создании HttpServer, явное значение из -D не трогаем
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
         server = HttpServer.create(new InetSocketAddress(port), 0);
-        server.createContext("/", new RedirectHandler());
-        server.setExecutor(null);
+        Metrics metrics = urlShortenerService.getMetrics();
+        server.createContext("/", timed(metrics, "redirect", new RedirectHandler()));
+        server.createContext(STATS_PATH, timed(metrics, "stats", new StatsHandler()));
+        ApiHandler apiHandler = new ApiHandler();
+        server.createContext(API_PATH, timed(metrics, "api", apiHandler));
+        server.createContext(BULK_PATH, timed(metrics, "bulk", new BulkHandler(apiHandler)));
+        server.createContext(METRICS_PATH, new MetricsHandler());
+        if (cluster != null) {
+            urlShortenerService.setLinkDeletedListener(cluster::recordDelete);
+            server.createContext(CLUSTER_PATH, new ClusterHandler());
+        }
+        if (replication != null) {
+            server.createContext(REPLICATION_PATH, new ReplicationHandler());
+        }
+        executor = executorMode.createExecutor(poolSize, queueCapacity);
+        server.setExecutor(executor);
+        registerServerMetrics(metrics);
         server.start();
-        System.out.println("✅ Веб-сервер запущен: http://localhost:" + port);
-        System.out.println("🔗 Формат коротких ссылок: http://localhost:" + port + "/КОРОТКИЙ_КОД");
+        System.out.println("✅ Веб-сервер запущен: http://localhost:" + getPort() + " (режим: " + executorMode + ")");
+        System.out.println("🔗 Формат коротких ссылок: http://localhost:" + getPort() + "/КОРОТКИЙ_КОД");
+    }
+
+    public int getPort() {
+        return server != null ? server.getAddress().getPort() : port;
     }
 
     public void stop() {
         if (server != null) {
-            server.stop(0);
+            // Перестаём принимать соединения и ждём завершения текущих обменов
+            server.stop(drainSeconds);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(drainSeconds, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+    }
+
+    // Время до возврата из обработчика: ответ узла-владельца при пересылке приходит позже и сюда не входит
+    private static HttpHandler timed(Metrics metrics, String name, HttpHandler handler) {
+        LatencyHistogram latency = metrics.histogram("http_request_seconds", "handler=\"" + name + "\"",
+                "Обработка HTTP-запроса");
+        return exchange -> {
+            long started = System.nanoTime();
+            try {
+                handler.handle(exchange);
+            } finally {
+                latency.recordSince(started);
+            }
+        };
+    }
+
+    // У исполнителя SINGLE очереди нет: запросы ждут в самом HttpServer
+    private void registerServerMetrics(Metrics metrics) {
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            metrics.gauge("http_executor_queue_depth", "Запросы в очереди пула обработчиков",
+                    () -> pool.getQueue().size());
+            metrics.gauge("http_executor_active_threads", "Потоки пула, занятые запросом", pool::getActiveCount);
+        }
+        if (rateLimiter != null) {
+            metrics.counter("http_rate_limited_total", "Запросы, получившие 429", rateLimiter::getRejectedCount);
+            metrics.counter("http_rate_limit_evictions_total", "Вёдра активных клиентов, вытесненные из таблиц",
+                    rateLimiter::getEvictedCount);
         }
     }
 
+    // Страницы собираются и кодируются один раз при запуске: на запрос не строится ни одной строки,
+    // а исход поиска приходит статусом, без исключений
     private class RedirectHandler implements HttpHandler {
+        private final byte[] welcomePage = createWelcomePage().getBytes(StandardCharsets.UTF_8);
+        private final byte[][] errorPages = new byte[RedirectStatus.values().length][];
+        // Ответ на код, отсечённый фильтром: обычно это перебор путей, полная страница ему ни к чему
+        private final byte[] rejectedPage = (RedirectStatus.NOT_FOUND.getMessage() + "\n").getBytes(StandardCharsets.UTF_8);
+
+        RedirectHandler() {
+            for (RedirectStatus status : RedirectStatus.values()) {
+                errorPages[status.ordinal()] = createErrorPage(status.getMessage()).getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String path = exchange.getRequestURI().getPath();
-            String shortCode = path.substring(1); // Убираем начальный слэш
+            // Сырой путь уже лежит в URI; коды - только ASCII, раскодировать нечего
+            String path = exchange.getRequestURI().getRawPath();
+            if (rejectIfOverLimit(exchange, false)) {
+                return;
+            }
 
-            String response;
-            int statusCode;
+            if (path.length() <= 1) {
+                // Главная страница
+                sendPage(exchange, 200, HTML_CONTENT_TYPE, welcomePage);
+                return;
+            }
 
-            try {
-                if (shortCode.isEmpty()) {
-                    // Главная страница
-                    response = createWelcomePage();
-                    statusCode = 200;
-                } else {
-                    // Редирект по короткой ссылке
-                    String originalUrl = urlShortenerService.redirect(shortCode);
+            // Код - всё после начального слэша
+            if (forwardIfForeign(exchange, path, 1)) {
+                return;
+            }
+            if (!urlShortenerService.mightExist(path, 1, path.length())) {
+                sendPage(exchange, 404, TEXT_CONTENT_TYPE, rejectedPage);
+                return;
+            }
+            // HEAD проверяет ссылку, но не тратит переход и не попадает в аналитику
+            boolean head = exchange.getRequestMethod().equals("HEAD");
+            ShortUrl shortUrl = urlShortenerService.findShortUrl(path, 1, path.length());
+            RedirectStatus status = head ? urlShortenerService.checkRedirect(shortUrl)
+                    : urlShortenerService.registerRedirect(shortUrl);
+            if (status != RedirectStatus.FOUND) {
+                sendPage(exchange, 404, HTML_CONTENT_TYPE, errorPages[status.ordinal()]);
+                return;
+            }
 
-                    // 302 Redirect
-                    exchange.getResponseHeaders().set("Location", originalUrl);
-                    exchange.sendResponseHeaders(302, -1);
-                    return;
-                }
-            } catch (Exception e) {
-                response = createErrorPage(e.getMessage());
-                statusCode = 404;
+            // Имена заголовков в нормализованном виде Headers: иначе getFirst строит новую строку ключа
+            Headers requestHeaders = exchange.getRequestHeaders();
+            if (!head) {
+                urlShortenerService.publishClick(shortUrl, requestHeaders.getFirst("Referer"),
+                        requestHeaders.getFirst("User-agent"), exchange.getRemoteAddress().getAddress());
             }
 
-            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
-            exchange.sendResponseHeaders(statusCode, response.getBytes().length);
+            Headers responseHeaders = exchange.getResponseHeaders();
+            responseHeaders.set("Location", shortUrl.getOriginalUrl());
+            long maxAge = urlShortenerService.getRedirectMaxAgeSeconds(shortUrl);
+            int statusCode;
+            if (maxAge > 0) {
+                // Ссылка без лимита: повторные визиты обслуживает кэш браузера или CDN,
+                // после max-age они переспрашивают с If-None-Match и получают 304
+                String etag = etagOf(shortUrl);
+                responseHeaders.set("Cache-Control", "public, max-age=" + maxAge);
+                responseHeaders.set("ETag", etag);
+                statusCode = etagMatches(requestHeaders.getFirst("If-none-match"), etag)
+                        ? 304 : urlShortenerService.getPermanentRedirectStatus();
+            } else {
+                // Каждый визит ссылки с лимитом должен дойти до нас и занять переход
+                responseHeaders.set("Cache-Control", "no-store");
+                statusCode = 302;
+            }
+            // Ответ без тела HttpServer завершает прямо в sendResponseHeaders и закрывает соединение,
+            // если тело запроса ещё не дочитано; пустое тело GET дочитывается здесь, иначе keep-alive теряется
+            exchange.getRequestBody().close();
+            exchange.sendResponseHeaders(statusCode, -1);
+            // Без close() соединение не возвращается в keep-alive и сбрасывается
+            exchange.close();
+        }
+
+        // Тело HEAD-ответа не отправляется, но Content-Length тот же, что у GET
+        private void sendPage(HttpExchange exchange, int statusCode, String contentType, byte[] page)
+                throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", Integer.toString(page.length));
+                exchange.sendResponseHeaders(statusCode, -1);
+                exchange.close();
+                return;
+            }
+            exchange.sendResponseHeaders(statusCode, page.length);
 
             try (OutputStream os = exchange.getResponseBody()) {
-                os.write(response.getBytes());
+                os.write(page);
             }
         }
 
@@ -82,7 +314,7 @@ public class WebServer {
                         * { margin: 0; padding: 0; box-sizing: border-box; }
                         body { 
                             font-family: 'Segoe UI', Tahoma, Geneva, Verdana, sans-serif; 
-                            background: linear-gradient(135deg, #667eea 0%, #764ba2 100%);
+                            background: linear-gradient(135deg, #667eea 0%%, #764ba2 100%%);
                             min-height: 100vh;
                             display: flex;
                             align-items: center;
@@ -94,7 +326,7 @@ public class WebServer {
                             border-radius: 20px;
                             box-shadow: 0 20px 40px rgba(0,0,0,0.1);
                             max-width: 600px;
-                            width: 90%;
+                            width: 90%%;
                         }
                         h1 { 
                             color: #333; 
@@ -154,7 +386,7 @@ public class WebServer {
                     </div>
                 </body>
                 </html>
-                """.formatted(port);
+                """.formatted(getPort());
         }
 
         private String createErrorPage(String error) {
@@ -168,7 +400,7 @@ public class WebServer {
                     <style>
                         body { 
                             font-family: 'Segoe UI', Tahoma, Geneva, Verdana, sans-serif; 
-                            background: linear-gradient(135deg, #ff6b6b 0%, #ee5a24 100%);
+                            background: linear-gradient(135deg, #ff6b6b 0%%, #ee5a24 100%%);
                             min-height: 100vh;
                             display: flex;
                             align-items: center;
@@ -180,7 +412,7 @@ public class WebServer {
                             border-radius: 20px;
                             box-shadow: 0 20px 40px rgba(0,0,0,0.1);
                             max-width: 500px;
-                            width: 90%;
+                            width: 90%%;
                             text-align: center;
                         }
                         h1 { color: #e74c3c; margin-bottom: 20px; }
@@ -210,4 +442,773 @@ public class WebServer {
                 """.formatted(error);
         }
     }
-}
\ No newline at end of file
+
+    // Цель ссылки не меняется, поэтому тег - её id: код, созданный заново под другой URL, получит другой тег.
+    // Общие с NioRedirectServer, чтобы оба фронтенда отдавали один и тот же тег
+    static String etagOf(ShortUrl shortUrl) {
+        UUID id = shortUrl.getId();
+        return '"' + Long.toString(id.getMostSignificantBits() ^ id.getLeastSignificantBits(), 36) + '"';
+    }
+
+    static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.strip();
+            // Для If-None-Match слабое сравнение: W/"x" совпадает с "x"
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // GET /stats/КОД с заголовком X-User-Id владельца: аналитика ссылки в JSON.
+    // Чужая ссылка отвечает тем же 404, что и несуществующая, чтобы по коду нельзя было проверить её наличие
+    private class StatsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getRawPath();
+            if (rejectIfOverLimit(exchange, false)) {
+                return;
+            }
+            if (forwardIfForeign(exchange, path, STATS_PATH.length())) {
+                return;
+            }
+            String shortCode = path.substring(STATS_PATH.length());
+            UUID userId;
+            try {
+                userId = UUID.fromString(exchange.getRequestHeaders().getFirst("X-user-id"));
+            } catch (RuntimeException e) {
+                sendJson(exchange, 400, "{\"error\":\"Нужен заголовок X-User-Id с UUID владельца\"}");
+                return;
+            }
+
+            LinkStats stats;
+            try {
+                stats = urlShortenerService.getLinkStats(shortCode, userId);
+            } catch (RuntimeException e) {
+                sendJson(exchange, 404, "{\"error\":\"Короткая ссылка не найдена\"}");
+                return;
+            }
+            JsonWriter writer = JSON.get();
+            appendStats(writer.begin(), shortCode, stats);
+            writer.send(exchange, 200);
+        }
+
+        private void appendStats(StringBuilder json, String shortCode, LinkStats stats) {
+            long now = System.currentTimeMillis();
+            json.append("{\"code\":");
+            JsonWriter.appendString(json, shortCode);
+            if (stats == null) {
+                json.append(",\"clicks\":0,\"uniqueVisitors\":0,\"perMinute\":[],\"perHour\":[],")
+                        .append("\"perDay\":[],\"referrers\":{},\"userAgents\":{}}");
+                return;
+            }
+            json.append(",\"clicks\":").append(stats.getClicks())
+                    .append(",\"uniqueVisitors\":").append(stats.getUniqueVisitors());
+            appendArray(json.append(",\"perMinute\":"), stats.getClicksPerMinute(now));
+            appendArray(json.append(",\"perHour\":"), stats.getClicksPerHour(now));
+            appendArray(json.append(",\"perDay\":"), stats.getClicksPerDay(now));
+            appendCounts(json.append(",\"referrers\":"), stats.getReferrers());
+            appendCounts(json.append(",\"userAgents\":"), stats.getUserAgents());
+            json.append('}');
+        }
+
+        private void appendArray(StringBuilder json, int[] values) {
+            json.append('[');
+            for (int i = 0; i < values.length; i++) {
+                json.append(i > 0 ? "," : "").append(values[i]);
+            }
+            json.append(']');
+        }
+
+        private void appendCounts(StringBuilder json, Map<String, Long> counts) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                JsonWriter.appendString(json, entry.getKey());
+                json.append(':').append(entry.getValue());
+            }
+            json.append('}');
+        }
+    }
+
+    // REST API поверх UrlShortenerService:
+    //   POST   /api/users                          - новый пользователь
+    //   POST   /api/links            + X-User-Id   - {"url": "...", "limit": 10}, limit необязателен
+    //   GET    /api/links/КОД        + X-User-Id   - ссылка владельца
+    //   DELETE /api/links/КОД        + X-User-Id   - удаление
+    //   GET    /api/users/ID/links?after=КУРСОР&limit=100 - страница ссылок по времени создания
+    // Ответы - JSON известной длины, поэтому соединение остаётся в keep-alive
+    private class ApiHandler implements HttpHandler {
+        private static final String LINKS_PATH = API_PATH + "links";
+        private static final String USERS_PATH = API_PATH + "users";
+        private static final int MAX_BODY_BYTES = 16 * 1024;
+        private static final int DEFAULT_PAGE_SIZE = 100;
+        private static final int MAX_PAGE_SIZE = 1000;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getRawPath();
+            String method = exchange.getRequestMethod();
+            if (rejectIfOverLimit(exchange, !method.equals("GET") && !method.equals("HEAD"))) {
+                return;
+            }
+            // Ссылку читает и удаляет её узел; ответ пересылки может прийти позже, поэтому до finally с close()
+            if (isLinkPath(path) && forwardIfForeign(exchange, path, LINKS_PATH.length() + 1)) {
+                return;
+            }
+            try {
+                if (rejectIfReadOnly(exchange, method)) {
+                    return;
+                }
+                if (path.equals(LINKS_PATH)) {
+                    if (requireMethod(exchange, method, "POST")) {
+                        createLink(exchange);
+                    }
+                } else if (isLinkPath(path)) {
+                    String shortCode = path.substring(LINKS_PATH.length() + 1);
+                    if (method.equals("DELETE")) {
+                        deleteLink(exchange, shortCode);
+                    } else if (requireMethod(exchange, method, "GET")) {
+                        getLink(exchange, shortCode);
+                    }
+                } else if (path.equals(USERS_PATH)) {
+                    if (requireMethod(exchange, method, "POST")) {
+                        JsonWriter writer = JSON.get();
+                        writer.begin().append("{\"id\":\"").append(urlShortenerService.createUser()).append("\"}");
+                        writer.send(exchange, 201);
+                    }
+                } else if (path.startsWith(USERS_PATH + "/") && path.endsWith("/links")) {
+                    if (requireMethod(exchange, method, "GET")) {
+                        listLinks(exchange, path.substring(USERS_PATH.length() + 1, path.length() - "/links".length()));
+                    }
+                } else {
+                    sendError(exchange, 404, "Нет такого метода API");
+                }
+            } finally {
+                // Непрочитанное тело запроса дочитывается здесь, иначе соединение нельзя переиспользовать
+                exchange.close();
+            }
+        }
+
+        private void createLink(HttpExchange exchange) throws IOException {
+            UUID userId = requireUserId(exchange);
+            if (userId == null) {
+                return;
+            }
+            byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                sendError(exchange, 413, "Тело запроса больше " + MAX_BODY_BYTES + " байт");
+                return;
+            }
+            // Тело - тот же объект, что строка NDJSON массового импорта
+            BulkLinkRequest request = BulkFormat.NDJSON.parse(new String(body, StandardCharsets.UTF_8).strip(), 1);
+            if (request.getError() != null) {
+                sendError(exchange, 400, request.getError());
+                return;
+            }
+            if (request.getClickLimit() < 0) {
+                sendError(exchange, 400, "❌ Лимит переходов должен быть положительным");
+                return;
+            }
+            ShortUrl shortUrl;
+            try {
+                shortUrl = request.getClickLimit() > 0
+                        ? urlShortenerService.createLink(request.getOriginalUrl(), userId, request.getClickLimit())
+                        : urlShortenerService.createLink(request.getOriginalUrl(), userId);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            } catch (IllegalStateException | UncheckedIOException e) {
+                // Коды кончились, фильтр не перестроился, журнал не пишется - запрос в этом не виноват
+                sendError(exchange, 503, e.getMessage());
+                return;
+            }
+            exchange.getResponseHeaders().set("Location", LINKS_PATH + "/" + shortUrl.getShortCode());
+            JsonWriter writer = JSON.get();
+            appendLink(writer.begin(), shortUrl);
+            writer.send(exchange, 201);
+        }
+
+        private void getLink(HttpExchange exchange, String shortCode) throws IOException {
+            UUID userId = requireUserId(exchange);
+            if (userId == null) {
+                return;
+            }
+            ShortUrl shortUrl;
+            try {
+                shortUrl = urlShortenerService.getShortUrl(shortCode, userId);
+            } catch (RuntimeException e) {
+                // Как и у /stats: чужая ссылка неотличима от несуществующей
+                sendError(exchange, 404, "Короткая ссылка не найдена");
+                return;
+            }
+            JsonWriter writer = JSON.get();
+            appendLink(writer.begin(), shortUrl);
+            writer.send(exchange, 200);
+        }
+
+        private void deleteLink(HttpExchange exchange, String shortCode) throws IOException {
+            UUID userId = requireUserId(exchange);
+            if (userId == null) {
+                return;
+            }
+            if (urlShortenerService.deleteShortUrl(shortCode, userId)) {
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                sendError(exchange, 404, "Короткая ссылка не найдена");
+            }
+        }
+
+        private void listLinks(HttpExchange exchange, String rawUserId) throws IOException {
+            UUID userId;
+            try {
+                userId = UUID.fromString(rawUserId);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, "Неверный id пользователя: " + rawUserId);
+                return;
+            }
+            User.Position after = null;
+            int limit = DEFAULT_PAGE_SIZE;
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query != null) {
+                for (String parameter : query.split("&")) {
+                    if (parameter.startsWith("after=")) {
+                        String cursor = parameter.substring("after=".length());
+                        try {
+                            after = User.Position.fromCursor(cursor);
+                        } catch (IllegalArgumentException e) {
+                            sendError(exchange, 400, "Неверный курсор: " + cursor);
+                            return;
+                        }
+                    } else if (parameter.startsWith("limit=")) {
+                        try {
+                            limit = Integer.parseInt(parameter.substring("limit=".length()));
+                        } catch (NumberFormatException e) {
+                            limit = -1;
+                        }
+                    }
+                }
+            }
+            if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                sendError(exchange, 400, "limit должен быть от 1 до " + MAX_PAGE_SIZE);
+                return;
+            }
+
+            List<ShortUrl> links;
+            try {
+                links = urlShortenerService.getUserLinks(userId, after, limit);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 404, e.getMessage());
+                return;
+            }
+            JsonWriter writer = JSON.get();
+            StringBuilder json = writer.begin().append("{\"links\":[");
+            for (int i = 0; i < links.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                appendLink(json, links.get(i));
+            }
+            // Курсор следующей страницы - позиция последней ссылки, а не её код: ссылку могут удалить
+            // до следующего запроса; null - страниц больше нет
+            json.append("],\"next\":");
+            if (links.size() == limit) {
+                JsonWriter.appendString(json, User.Position.of(links.get(links.size() - 1)).toCursor());
+            } else {
+                json.append("null");
+            }
+            json.append('}');
+            writer.send(exchange, 200);
+        }
+
+        private void appendLink(StringBuilder json, ShortUrl shortUrl) {
+            String shortCode = shortUrl.getShortCode();
+            json.append("{\"code\":");
+            JsonWriter.appendString(json, shortCode);
+            json.append(",\"shortUrl\":");
+            JsonWriter.appendString(json, urlShortenerService.formatShortUrl(shortCode));
+            json.append(",\"url\":");
+            JsonWriter.appendString(json, shortUrl.getOriginalUrl());
+            json.append(",\"clicks\":").append(shortUrl.getClickCount())
+                    .append(",\"clickLimit\":").append(shortUrl.getClickLimit())
+                    .append(",\"createdAt\":\"");
+            DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(shortUrl.getCreatedAtMillis()), json);
+            json.append("\",\"expiresAt\":\"");
+            DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(shortUrl.getExpiresAtMillis()), json);
+            json.append("\",\"active\":").append(shortUrl.isValid()).append('}');
+        }
+
+        private boolean isLinkPath(String path) {
+            return path.startsWith(LINKS_PATH + "/") && path.indexOf('/', LINKS_PATH.length() + 1) < 0;
+        }
+
+        private boolean requireMethod(HttpExchange exchange, String method, String expected) throws IOException {
+            if (method.equals(expected)) {
+                return true;
+            }
+            exchange.getResponseHeaders().set("Allow", expected);
+            sendError(exchange, 405, "Нужен " + expected);
+            return false;
+        }
+
+        // null - ответ 400 уже отправлен
+        private UUID requireUserId(HttpExchange exchange) throws IOException {
+            try {
+                return UUID.fromString(exchange.getRequestHeaders().getFirst("X-user-id"));
+            } catch (RuntimeException e) {
+                sendError(exchange, 400, "Нужен заголовок X-User-Id с UUID владельца");
+                return null;
+            }
+        }
+    }
+
+    // POST /api/links/bulk с заголовком X-User-Id: NDJSON или CSV (по Content-Type) на входе, результаты
+    // в том же формате идут чанками по мере создания, поэтому ни запрос, ни ответ целиком в памяти не лежат
+    private class BulkHandler implements HttpHandler {
+        private final ApiHandler apiHandler;
+
+        BulkHandler(ApiHandler apiHandler) {
+            this.apiHandler = apiHandler;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            // Контекст ловит и /api/links/bulkXY - это обычный код ссылки
+            if (!exchange.getRequestURI().getRawPath().equals(BULK_PATH)) {
+                apiHandler.handle(exchange);
+                return;
+            }
+            if (rejectIfOverLimit(exchange, true)) {
+                return;
+            }
+            if (rejectIfReadOnly(exchange, exchange.getRequestMethod())) {
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendJson(exchange, 405, "{\"error\":\"Нужен POST\"}");
+                return;
+            }
+            UUID userId;
+            try {
+                userId = UUID.fromString(exchange.getRequestHeaders().getFirst("X-user-id"));
+            } catch (RuntimeException e) {
+                sendJson(exchange, 400, "{\"error\":\"Нужен заголовок X-User-Id с UUID владельца\"}");
+                return;
+            }
+
+            BulkFormat format = BulkFormat.fromContentType(exchange.getRequestHeaders().getFirst("Content-type"));
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            BulkResponse response = new BulkResponse(exchange, format);
+            try {
+                urlShortenerService.createShortUrls(userId, format.requests(reader), response::write);
+            } catch (IllegalArgumentException e) {
+                // Пользователь проверяется до первого результата, поэтому заголовки ещё не отправлены
+                sendJson(exchange, 404, "{\"error\":\"Пользователь не найден\"}");
+                return;
+            }
+            response.finish();
+        }
+    }
+
+    // Заголовки уходят с первым результатом; строки копятся в буфере и сбрасываются пачками
+    private static final class BulkResponse {
+        private static final int FLUSH_BYTES = 16 * 1024;
+
+        private final HttpExchange exchange;
+        private final BulkFormat format;
+        private final StringBuilder buffer = new StringBuilder(FLUSH_BYTES + 1024);
+        private OutputStream body;
+
+        BulkResponse(HttpExchange exchange, BulkFormat format) {
+            this.exchange = exchange;
+            this.format = format;
+        }
+
+        void write(BulkLinkResult result) {
+            if (body == null) {
+                start();
+            }
+            format.append(buffer, result);
+            if (buffer.length() >= FLUSH_BYTES) {
+                flush();
+            }
+        }
+
+        void finish() throws IOException {
+            if (body == null) {
+                start();
+            }
+            flush();
+            body.close();
+        }
+
+        private void start() {
+            try {
+                exchange.getResponseHeaders().set("Content-Type", format.getContentType());
+                // 0 - длина заранее неизвестна, ответ уходит чанками
+                exchange.sendResponseHeaders(200, 0);
+                body = exchange.getResponseBody();
+                buffer.append(format.header());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void flush() {
+            try {
+                body.write(buffer.toString().getBytes(StandardCharsets.UTF_8));
+                body.flush();
+                buffer.setLength(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Служебные запросы узлов кластера друг к другу, их шлёт cluster.Rebalancer:
+    //   GET  /cluster/ring                  - текущий состав кластера
+    //   PUT  /cluster/ring                  - новый состав: имя=адрес через запятую
+    //   GET  /cluster/links?partitions=aB9  - ссылки этих частей кодов, NDJSON
+    //   POST /cluster/links                 - ссылки с другого узла, NDJSON
+    //   POST /cluster/cleanup               - удалить ссылки частей, которые узлу больше не принадлежат
+    //   PUT  /cluster/deletes               - начать журнал удалений в частях из тела (символы частей)
+    //   GET  /cluster/deletes               - записанные удаления, строки "код id" (204 - удалений нет)
+    //   POST /cluster/deletes               - удалить здесь ссылки из строк "код id", если id совпадает
+    //   DELETE /cluster/deletes             - остановить журнал удалений
+    private class ClusterHandler implements HttpHandler {
+        private static final String RING_PATH = CLUSTER_PATH + "ring";
+        private static final String LINKS_PATH = CLUSTER_PATH + "links";
+        private static final String CLEANUP_PATH = CLUSTER_PATH + "cleanup";
+        private static final String DELETES_PATH = CLUSTER_PATH + "deletes";
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getRawPath();
+            String method = exchange.getRequestMethod();
+            try {
+                if (!cluster.isAuthorized(exchange.getRequestHeaders().getFirst(Cluster.TOKEN_HEADER))) {
+                    sendError(exchange, 403, "Нужен заголовок " + Cluster.TOKEN_HEADER);
+                } else if (path.equals(RING_PATH) && method.equals("GET")) {
+                    byte[] ring = ClusterNode.formatList(cluster.getRing().getNodes()).getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", TEXT_CONTENT_TYPE);
+                    exchange.sendResponseHeaders(200, ring.length);
+                    exchange.getResponseBody().write(ring);
+                } else if (path.equals(RING_PATH) && method.equals("PUT")) {
+                    updateRing(exchange);
+                } else if (path.equals(LINKS_PATH) && method.equals("GET")) {
+                    exportLinks(exchange);
+                } else if (path.equals(LINKS_PATH) && method.equals("POST")) {
+                    importLinks(exchange);
+                } else if (path.equals(CLEANUP_PATH) && method.equals("POST")) {
+                    int removed = urlShortenerService.removeLinks(
+                            shortUrl -> !cluster.owns(shortUrl.getShortCode()));
+                    sendJson(exchange, 200, "{\"removed\":" + removed + "}");
+                } else if (path.equals(DELETES_PATH)) {
+                    handleDeleteLog(exchange, method);
+                } else {
+                    sendError(exchange, 404, "Нет такого служебного метода");
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void updateRing(HttpExchange exchange) throws IOException {
+            String spec = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            try {
+                cluster.updateRing(ClusterNode.parseList(spec));
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+            exchange.sendResponseHeaders(204, -1);
+        }
+
+        // Тело запроса читается до ответа при любом методе: ответ без тела на непрочитанный запрос
+        // HttpServer закрывает вместе с соединением, а POST по такому соединению из пула не повторяется
+        private void handleDeleteLog(HttpExchange exchange, String method) throws IOException {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            switch (method) {
+                case "PUT":
+                    cluster.startDeleteLog(body.strip());
+                    exchange.sendResponseHeaders(204, -1);
+                    break;
+                case "GET":
+                    byte[] deletes = String.join("\n", cluster.getDeleteLog()).getBytes(StandardCharsets.UTF_8);
+                    if (deletes.length == 0) {
+                        exchange.sendResponseHeaders(204, -1);
+                    } else {
+                        exchange.getResponseHeaders().set("Content-Type", TEXT_CONTENT_TYPE);
+                        exchange.sendResponseHeaders(200, deletes.length);
+                        exchange.getResponseBody().write(deletes);
+                    }
+                    break;
+                case "POST":
+                    Map<String, String> deleted = new HashMap<>();
+                    for (String line : body.split("\n")) {
+                        int space = line.indexOf(' ');
+                        if (space > 0) {
+                            deleted.put(line.substring(0, space), line.substring(space + 1).strip());
+                        }
+                    }
+                    int removed = deleted.isEmpty() ? 0 : urlShortenerService.removeLinks(shortUrl ->
+                            shortUrl.getId().toString().equals(deleted.get(shortUrl.getShortCode())));
+                    sendJson(exchange, 200, "{\"removed\":" + removed + "}");
+                    break;
+                case "DELETE":
+                    cluster.stopDeleteLog();
+                    exchange.sendResponseHeaders(204, -1);
+                    break;
+                default:
+                    sendError(exchange, 404, "Нет такого служебного метода");
+            }
+        }
+
+        private void exportLinks(HttpExchange exchange) throws IOException {
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query == null || !query.startsWith("partitions=")) {
+                sendError(exchange, 400, "Нужен параметр partitions");
+                return;
+            }
+            String partitions = query.substring("partitions=".length());
+            exchange.getResponseHeaders().set("Content-Type", ClusterFormat.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream body = exchange.getResponseBody();
+            StringBuilder buffer = new StringBuilder(16 * 1024);
+            try {
+                urlShortenerService.forEachLink(shortUrl -> {
+                    if (partitions.indexOf(shortUrl.getShortCode().charAt(0)) < 0) {
+                        return;
+                    }
+                    ClusterFormat.append(buffer, shortUrl);
+                    if (buffer.length() >= 16 * 1024) {
+                        writeChunk(body, buffer);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writeChunk(body, buffer);
+        }
+
+        private void importLinks(HttpExchange exchange) throws IOException {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            int imported = 0;
+            int skipped = 0;
+            int failed = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    if (urlShortenerService.importLink(ClusterFormat.parse(line.strip()))) {
+                        imported++;
+                    } else {
+                        skipped++;
+                    }
+                } catch (IllegalArgumentException e) {
+                    failed++;
+                }
+            }
+            sendJson(exchange, failed == 0 ? 200 : 400,
+                    "{\"imported\":" + imported + ",\"skipped\":" + skipped + ",\"failed\":" + failed + "}");
+        }
+
+        private void writeChunk(OutputStream body, StringBuilder buffer) {
+            try {
+                body.write(buffer.toString().getBytes(StandardCharsets.UTF_8));
+                buffer.setLength(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // GET /replication: роль узла, номер записи и отставание реплик
+    //   {"role":"replica","readOnly":true,"sequence":1042,"connected":1,"lagRecords":0,"lagMillis":3}
+    private class ReplicationHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!exchange.getRequestMethod().equals("GET")) {
+                    exchange.getResponseHeaders().set("Allow", "GET");
+                    sendError(exchange, 405, "Нужен GET");
+                    return;
+                }
+                JsonWriter writer = JSON.get();
+                StringBuilder json = writer.begin().append("{\"role\":");
+                JsonWriter.appendString(json, replication.getRole());
+                json.append(",\"readOnly\":").append(replication.isReadOnly())
+                        .append(",\"sequence\":").append(replication.getSequence())
+                        .append(",\"connected\":").append(replication.getConnectedCount())
+                        .append(",\"lagRecords\":").append(replication.getLagRecords())
+                        .append(",\"lagMillis\":").append(replication.getLagMillis())
+                        .append('}');
+                writer.send(exchange, 200);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    // GET /metrics: метрики сервиса, хранилища и сервера в текстовом формате Prometheus
+    private class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!exchange.getRequestMethod().equals("GET")) {
+                    exchange.getResponseHeaders().set("Allow", "GET");
+                    sendError(exchange, 405, "Нужен GET");
+                    return;
+                }
+                JsonWriter writer = JSON.get();
+                urlShortenerService.getMetrics().writeTo(writer.begin());
+                writer.send(exchange, 200, Metrics.CONTENT_TYPE);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    // На реплике API только читает: создание и удаление идут на основной узел
+    private boolean rejectIfReadOnly(HttpExchange exchange, String method) throws IOException {
+        if (replication == null || !replication.isReadOnly() || method.equals("GET") || method.equals("HEAD")) {
+            return false;
+        }
+        exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+        sendError(exchange, 405, "Реплика только читает: создавайте и удаляйте ссылки на основном узле");
+        return true;
+    }
+
+    // true - клиент превысил лимит и получил 429. Проверка идёт до пересылки и поиска ссылки,
+    // а ответ - заранее собранная строка, поэтому поток флуда стоит серверу одного CAS на запрос
+    private boolean rejectIfOverLimit(HttpExchange exchange, boolean write) throws IOException {
+        if (rateLimiter == null || isTrustedHop(exchange.getRequestHeaders())) {
+            return false;
+        }
+        InetAddress address = exchange.getRemoteAddress().getAddress();
+        String forwardedFor = rateLimiter.hasTrustedProxies() ? forwardedFor(exchange.getRequestHeaders()) : null;
+        long waitNanos = write
+                ? rateLimiter.acquireWrite(address, forwardedFor, exchange.getRequestHeaders().getFirst("X-user-id"))
+                : rateLimiter.acquireRead(address, forwardedFor);
+        if (waitNanos == 0) {
+            return false;
+        }
+        Headers responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.set("Retry-After", Long.toString(Math.max(1, (waitNanos + 999_999_999) / 1_000_000_000)));
+        responseHeaders.set("Content-Type", TEXT_CONTENT_TYPE);
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            responseHeaders.set("Content-Length", Integer.toString(TOO_MANY_REQUESTS_PAGE.length));
+            exchange.sendResponseHeaders(429, -1);
+        } else {
+            exchange.sendResponseHeaders(429, TOO_MANY_REQUESTS_PAGE.length);
+            exchange.getResponseBody().write(TOO_MANY_REQUESTS_PAGE);
+        }
+        exchange.close();
+        return true;
+    }
+
+    // Все значения X-Forwarded-For одной строкой: повторные заголовки - продолжение одного списка
+    private static String forwardedFor(Headers requestHeaders) {
+        List<String> values = requestHeaders.get("X-forwarded-for");
+        return values == null ? null : String.join(",", values);
+    }
+
+    // Запрос, пересланный соседним узлом: клиента уже проверил тот узел, а адрес здесь - адрес соседа.
+    // Заголовок пересылки без верного токена кластера может подделать кто угодно, такой запрос считается обычным
+    private boolean isTrustedHop(Headers requestHeaders) {
+        return cluster != null && requestHeaders.containsKey(Cluster.HOP_HEADER)
+                && cluster.isAuthorized(requestHeaders.getFirst(Cluster.TOKEN_HEADER));
+    }
+
+    // true - код принадлежит другому узлу кластера и запрос передан ему
+    private boolean forwardIfForeign(HttpExchange exchange, String path, int codeStart) throws IOException {
+        if (cluster == null || exchange.getRequestHeaders().containsKey(Cluster.HOP_HEADER)) {
+            return false;
+        }
+        ClusterNode owner = cluster.ownerOf(path, codeStart);
+        if (owner == null) {
+            return false;
+        }
+        URI uri = exchange.getRequestURI();
+        String target = owner.getUrl() + uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+        if (cluster.getForwardMode() == ForwardMode.REDIRECT) {
+            // 307, а не 302: DELETE к API должен остаться DELETE
+            exchange.getResponseHeaders().set("Location", target);
+            exchange.sendResponseHeaders(307, -1);
+            exchange.close();
+        } else {
+            proxy(exchange, target);
+        }
+        return true;
+    }
+
+    // Ответ владельца приходит асинхронно: поток исполнителя не ждёт другой узел, и два узла,
+    // пересылающие запросы друг другу, не займут потоки друг друга
+    private void proxy(HttpExchange exchange, String target) throws IOException {
+        byte[] requestBody = exchange.getRequestBody().readAllBytes();
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(target))
+                .timeout(PROXY_TIMEOUT)
+                .method(exchange.getRequestMethod(), requestBody.length == 0
+                        ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(requestBody))
+                .header(Cluster.HOP_HEADER, cluster.getSelfId())
+                .header(Cluster.TOKEN_HEADER, cluster.getToken());
+        Headers requestHeaders = exchange.getRequestHeaders();
+        for (String name : PROXIED_REQUEST_HEADERS) {
+            String value = requestHeaders.getFirst(name);
+            if (value != null) {
+                request.header(name, value);
+            }
+        }
+        cluster.getHttpClient().sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray())
+                .whenComplete((response, error) -> {
+                    try {
+                        if (error != null) {
+                            sendError(exchange, 502, "Узел-владелец кода недоступен");
+                            return;
+                        }
+                        Headers responseHeaders = exchange.getResponseHeaders();
+                        for (String name : PROXIED_RESPONSE_HEADERS) {
+                            response.headers().firstValue(name).ifPresent(value -> responseHeaders.set(name, value));
+                        }
+                        byte[] body = response.body();
+                        exchange.sendResponseHeaders(response.statusCode(), body.length == 0 ? -1 : body.length);
+                        if (body.length > 0) {
+                            exchange.getResponseBody().write(body);
+                        }
+                    } catch (IOException e) {
+                        // Клиент ушёл, не дождавшись ответа
+                    } finally {
+                        exchange.close();
+                    }
+                });
+    }
+
+    private static void sendJson(HttpExchange exchange, int statusCode, String body) throws IOException {
+        JsonWriter writer = JSON.get();
+        writer.begin().append(body);
+        writer.send(exchange, statusCode);
+    }
+
+    private static void sendError(HttpExchange exchange, int statusCode, String error) throws IOException {
+        JsonWriter writer = JSON.get();
+        StringBuilder json = writer.begin().append("{\"error\":");
+        JsonWriter.appendString(json, error);
+        json.append('}');
+        writer.send(exchange, statusCode);
+    }
+}
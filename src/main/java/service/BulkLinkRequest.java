@@ -0,0 +1,31 @@
+package service;
+
+// Одна строка массового импорта. Строку, которую не удалось разобрать, тоже передают дальше:
+// её ошибка должна попасть в результаты на своём месте
+public final class BulkLinkRequest {
+    private final int line;
+    private final String originalUrl;
+    // 0 - лимит по умолчанию из конфига
+    private final int clickLimit;
+    private final String error;
+
+    private BulkLinkRequest(int line, String originalUrl, int clickLimit, String error) {
+        this.line = line;
+        this.originalUrl = originalUrl;
+        this.clickLimit = clickLimit;
+        this.error = error;
+    }
+
+    public static BulkLinkRequest of(int line, String originalUrl, int clickLimit) {
+        return new BulkLinkRequest(line, originalUrl, clickLimit, null);
+    }
+
+    public static BulkLinkRequest malformed(int line, String error) {
+        return new BulkLinkRequest(line, null, 0, error);
+    }
+
+    public int getLine() { return line; }
+    public String getOriginalUrl() { return originalUrl; }
+    public int getClickLimit() { return clickLimit; }
+    public String getError() { return error; }
+}
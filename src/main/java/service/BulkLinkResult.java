@@ -0,0 +1,25 @@
+package service;
+
+public final class BulkLinkResult {
+    private final int line;
+    private final String originalUrl;
+    private final String shortUrl;
+    private final String error;
+
+    BulkLinkResult(int line, String originalUrl, String shortUrl, String error) {
+        this.line = line;
+        this.originalUrl = originalUrl;
+        this.shortUrl = shortUrl;
+        this.error = error;
+    }
+
+    public int getLine() { return line; }
+    public String getOriginalUrl() { return originalUrl; }
+    // null, если ссылка не создана
+    public String getShortUrl() { return shortUrl; }
+    public String getError() { return error; }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -0,0 +1,69 @@
+package service;
+
+import util.Base62;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class CounterShortCodeGenerator implements ShortCodeGenerator {
+    // Каждый счётчик на своей линии кэша: 8 long = 64 байта
+    private static final int PADDING = 8;
+    private static final long SCRAMBLE_TARGET = 2_654_435_761L;
+
+    private final int length;
+    private final int shards;
+    private final long space;
+    private final long multiplier;
+    private final long offset;
+    private final AtomicLongArray counters;
+
+    public CounterShortCodeGenerator(int length) {
+        this(length, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)));
+    }
+
+    public CounterShortCodeGenerator(int length, int shards) {
+        this.length = length;
+        this.shards = shards;
+        this.space = Base62.space(length);
+        this.multiplier = chooseMultiplier(space);
+        // Случайное смещение, чтобы после перезапуска нумерация не начиналась с уже выданных кодов
+        this.offset = ThreadLocalRandom.current().nextLong(space);
+        this.counters = new AtomicLongArray(shards * PADDING);
+    }
+
+    @Override
+    public String nextCode() {
+        int shard = (int) (Thread.currentThread().getId() % shards);
+        return encode(counters.getAndIncrement(shard * PADDING), shard);
+    }
+
+    // Весь диапазон номеров берётся одним getAndAdd
+    @Override
+    public String[] nextCodes(int count) {
+        int shard = (int) (Thread.currentThread().getId() % shards);
+        long first = counters.getAndAdd(shard * PADDING, count);
+        String[] codes = new String[count];
+        for (int i = 0; i < count; i++) {
+            codes[i] = encode(first + i, shard);
+        }
+        return codes;
+    }
+
+    private String encode(long sequence, int shard) {
+        // Номера шардов чередуются, поэтому последовательности разных шардов не пересекаются
+        long index = Math.floorMod(sequence * shards + shard, space);
+        // Умножение на число, взаимно простое с 62^length, - биекция: коды уникальны, но не идут подряд
+        long value = Math.floorMod(index * multiplier + offset, space);
+        char[] code = new char[length];
+        Base62.encode(value, code, 0, length);
+        return new String(code);
+    }
+
+    private static long chooseMultiplier(long space) {
+        long candidate = Math.max(1, Math.min(SCRAMBLE_TARGET, Long.MAX_VALUE / space));
+        while (candidate > 1 && (candidate % 2 == 0 || candidate % 31 == 0)) {
+            candidate--;
+        }
+        return candidate;
+    }
+}
@@ -0,0 +1,220 @@
+package service;
+
+import util.Base62;
+
+import java.util.UUID;
+import java.util.function.Predicate;
+
+// (пользователь, лимит переходов, URL в виде UrlValidator.normalize) -> код ссылки, чтобы повторная отправка
+// того же URL тем же пользователем вернула прежний код, а не новую ссылку. Ключ - 128-битный хеш тройки,
+// код упакован в long, поэтому запись - три long в массивах открытой адресации, без объектов на ссылку.
+// Индекс только подсказывает: найденный код сервис проверяет по хранилищу, так что удалённая, истёкшая
+// или исчерпанная ссылка повторно не выдаётся, даже если её запись здесь ещё не стёрта
+final class DedupIndex {
+    private static final long EMPTY = 0;
+    private static final long TOMBSTONE = -1;
+    private static final int SEGMENTS = 64;
+    // 6 бит на символ base62 и 4 бита длины: до 10 символов в long, ни 0, ни -1 не получаются
+    private static final int MAX_CODE_LENGTH = 10;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    DedupIndex() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(16);
+        }
+    }
+
+    // Код, записанный под ключом, или null
+    String get(UUID userId, int clickLimit, String normalizedUrl) {
+        long hi = hashHi(userId, clickLimit, normalizedUrl);
+        long lo = hashLo(userId, clickLimit, normalizedUrl);
+        Segment segment = segments[(int) (hi >>> 58)];
+        synchronized (segment) {
+            int slot = segment.find(hi, lo);
+            return slot >= 0 ? unpackCode(segment.codes[slot]) : null;
+        }
+    }
+
+    // Записывает код под ключом и возвращает null. Если ключ уже занят кодом, который live признаёт
+    // пригодным, ничего не меняет и возвращает этот код: два одновременных создания одной ссылки не разойдутся
+    String putIfAbsent(UUID userId, int clickLimit, String normalizedUrl, String shortCode, Predicate<String> live) {
+        long packed = packCode(shortCode);
+        if (packed == EMPTY) {
+            // Такой код не упаковывается: ссылка просто не участвует в дедупликации
+            return null;
+        }
+        long hi = hashHi(userId, clickLimit, normalizedUrl);
+        long lo = hashLo(userId, clickLimit, normalizedUrl);
+        Segment segment = segments[(int) (hi >>> 58)];
+        synchronized (segment) {
+            int slot = segment.find(hi, lo);
+            if (slot >= 0) {
+                String existing = unpackCode(segment.codes[slot]);
+                if (segment.codes[slot] != packed && live.test(existing)) {
+                    return existing;
+                }
+                segment.codes[slot] = packed;
+                return null;
+            }
+            segment.insert(hi, lo, packed);
+            return null;
+        }
+    }
+
+    // Стирает запись, только если она всё ещё указывает на shortCode
+    void remove(UUID userId, int clickLimit, String normalizedUrl, String shortCode) {
+        long hi = hashHi(userId, clickLimit, normalizedUrl);
+        long lo = hashLo(userId, clickLimit, normalizedUrl);
+        Segment segment = segments[(int) (hi >>> 58)];
+        synchronized (segment) {
+            int slot = segment.find(hi, lo);
+            if (slot >= 0 && segment.codes[slot] == packCode(shortCode)) {
+                segment.codes[slot] = TOMBSTONE;
+                segment.size--;
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    long bytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += (long) segment.codes.length * 3 * Long.BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    // Две независимые 64-битные половины: FNV-1a и мультипликативный хеш, каждая досаливается половиной id
+    // пользователя и лимитом и перемешивается финализатором MurmurHash3
+    private static long hashHi(UUID userId, int clickLimit, String url) {
+        long hash = 0xcbf29ce484222325L ^ userId.getMostSignificantBits() ^ clickLimit;
+        for (int i = 0; i < url.length(); i++) {
+            hash = (hash ^ url.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(hash ^ url.length());
+    }
+
+    private static long hashLo(UUID userId, int clickLimit, String url) {
+        long hash = userId.getLeastSignificantBits() + (long) clickLimit * 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < url.length(); i++) {
+            hash = Long.rotateLeft(hash + url.charAt(i) * 0x9E3779B97F4A7C15L, 27) * 0xC2B2AE3D27D4EB4FL;
+        }
+        return mix(hash + url.length());
+    }
+
+    private static long mix(long key) {
+        key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+
+    // EMPTY - код не из base62 или длиннее 10 символов
+    private static long packCode(String shortCode) {
+        int length = shortCode.length();
+        if (length == 0 || length > MAX_CODE_LENGTH) {
+            return EMPTY;
+        }
+        long packed = 0;
+        for (int i = 0; i < length; i++) {
+            int value = Base62.valueOf(shortCode.charAt(i));
+            if (value < 0) {
+                return EMPTY;
+            }
+            packed = packed << 6 | value;
+        }
+        return packed << 4 | length;
+    }
+
+    private static String unpackCode(long packed) {
+        int length = (int) (packed & 0xF);
+        char[] chars = new char[length];
+        packed >>>= 4;
+        for (int i = length - 1; i >= 0; i--) {
+            chars[i] = Base62.digit((int) (packed & 0x3F));
+            packed >>>= 6;
+        }
+        return new String(chars);
+    }
+
+    // Сегмент под своим монитором: индекс трогает только создание и удаление ссылок, не переходы
+    private static final class Segment {
+        long[] his;
+        long[] los;
+        long[] codes;
+        int size;
+        // Занятые слоты вместе с надгробиями
+        int used;
+
+        Segment(int capacity) {
+            his = new long[capacity];
+            los = new long[capacity];
+            codes = new long[capacity];
+        }
+
+        int find(long hi, long lo) {
+            int mask = codes.length - 1;
+            for (int slot = (int) lo & mask; ; slot = (slot + 1) & mask) {
+                long code = codes[slot];
+                if (code == EMPTY) {
+                    return -1;
+                }
+                if (code != TOMBSTONE && his[slot] == hi && los[slot] == lo) {
+                    return slot;
+                }
+            }
+        }
+
+        void insert(long hi, long lo, long packed) {
+            int mask = codes.length - 1;
+            int slot = (int) lo & mask;
+            while (codes[slot] != EMPTY && codes[slot] != TOMBSTONE) {
+                slot = (slot + 1) & mask;
+            }
+            if (codes[slot] == EMPTY) {
+                used++;
+            }
+            his[slot] = hi;
+            los[slot] = lo;
+            codes[slot] = packed;
+            size++;
+            if (used * 4 > codes.length * 3) {
+                rehash();
+            }
+        }
+
+        void rehash() {
+            long[] oldHis = his;
+            long[] oldLos = los;
+            long[] oldCodes = codes;
+            int capacity = size * 2 > oldCodes.length / 2 ? oldCodes.length * 2 : oldCodes.length;
+            his = new long[capacity];
+            los = new long[capacity];
+            codes = new long[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldCodes.length; i++) {
+                if (oldCodes[i] != EMPTY && oldCodes[i] != TOMBSTONE) {
+                    int slot = (int) oldLos[i] & mask;
+                    while (codes[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    his[slot] = oldHis[i];
+                    los[slot] = oldLos[i];
+                    codes[slot] = oldCodes[i];
+                }
+            }
+            used = size;
+        }
+    }
+}
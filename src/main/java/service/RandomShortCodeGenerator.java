@@ -0,0 +1,39 @@
+package service;
+
+import storage.ShortUrlStore;
+import util.Base62;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+public class RandomShortCodeGenerator implements ShortCodeGenerator {
+    private static final int MAX_ATTEMPTS = 8;
+
+    private final int length;
+    private final ShortUrlStore store;
+
+    public RandomShortCodeGenerator(int length, ShortUrlStore store) {
+        if (length < 1) {
+            throw new IllegalArgumentException("❌ Длина короткого кода должна быть положительной");
+        }
+        this.length = length;
+        this.store = store;
+    }
+
+    @Override
+    public String nextCode() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] code = new char[length];
+        String candidate = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            for (int i = 0; i < length; i++) {
+                code[i] = Base62.digit(random.nextInt(Base62.RADIX));
+            }
+            candidate = new String(code);
+            if (store.get(candidate) == null) {
+                return candidate;
+            }
+        }
+        // Пространство кодов почти заполнено - пусть повторную попытку сделает вставка
+        return candidate;
+    }
+}
@@ -0,0 +1,20 @@
+package service;
+
+// Итог попытки перехода: быстрый путь редиректа возвращает его вместо исключения
+public enum RedirectStatus {
+    FOUND(""),
+    NOT_FOUND("🔗 Короткая ссылка не найдена"),
+    INACTIVE("❌ Ссылка неактивна"),
+    EXPIRED("⏰ Срок действия ссылки истек"),
+    LIMIT_EXCEEDED("🚫 Лимит переходов исчерпан");
+
+    private final String message;
+
+    RedirectStatus(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,30 @@
+package service;
+
+import config.AppConfig;
+import storage.ShortUrlStore;
+
+public interface ShortCodeGenerator {
+    // Кандидат в короткие коды; окончательную уникальность проверяет вставка в хранилище
+    String nextCode();
+
+    // Пачка кандидатов для массового создания; генераторы со счётчиком резервируют её одной операцией
+    default String[] nextCodes(int count) {
+        String[] codes = new String[count];
+        for (int i = 0; i < count; i++) {
+            codes[i] = nextCode();
+        }
+        return codes;
+    }
+
+    static ShortCodeGenerator fromConfig(AppConfig config, ShortUrlStore store) {
+        String strategy = config.getShortCodeStrategy();
+        switch (strategy.trim().toLowerCase()) {
+            case "counter":
+                return new CounterShortCodeGenerator(config.getShortCodeLength());
+            case "random":
+                return new RandomShortCodeGenerator(config.getShortCodeLength(), store);
+            default:
+                throw new IllegalArgumentException("❌ Неизвестная стратегия генерации кодов: " + strategy);
+        }
+    }
+}
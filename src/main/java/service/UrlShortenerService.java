@@ -1,31 +1,121 @@
 package service;
 
+import analytics.ClickAnalytics;
+import analytics.LinkStats;
 import config.AppConfig;
+import log.EventLog;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
 import model.ShortUrl;
 import model.User;
+import storage.ShortUrlStore;
 import util.UrlValidator;
 
+import java.net.InetAddress;
 import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 public class UrlShortenerService {
-    private final Map<String, ShortUrl> shortCodeToUrlMap;
+    private static final int MAX_CODE_ATTEMPTS = 16;
+    public static final int BULK_CHUNK_SIZE = 1024;
+
+    private final ShortUrlStore store;
+    private final ShortCodeGenerator codeGenerator;
     private final UserService userService;
     private final ScheduledExecutorService scheduler;
     private final int serverPort;
     private final AppConfig config;
+    private final EventLog events;
+    private final ClickAnalytics analytics;
+    private final int permanentRedirectStatus;
+    private final long redirectMaxAgeSeconds;
+    private final Metrics metrics = new Metrics();
+    private final LatencyHistogram redirectLatency;
+    private final LatencyHistogram createLatency;
+    private final LatencyHistogram cleanupLatency;
+    private final LongAdder[] redirectsByStatus = new LongAdder[RedirectStatus.values().length];
+    private final LongAdder linksCreated;
+    private final LongAdder linksDeleted;
+    private final LongAdder linksExpired;
+    // null - дедупликация выключена
+    private final DedupIndex dedup;
+    private final LongAdder dedupHits;
+    private final LongAdder dedupMisses;
+    private volatile Consumer<ShortUrl> linkDeletedListener = shortUrl -> { };
 
     public UrlShortenerService(UserService userService, AppConfig config) {
-        this.shortCodeToUrlMap = new HashMap<>();
+        this(userService, config, ShortUrlStore.inMemory(config, 1024));
+    }
+
+    public UrlShortenerService(UserService userService, AppConfig config, ShortUrlStore store) {
+        this(userService, config, store, ShortCodeGenerator.fromConfig(config, store));
+    }
+
+    public UrlShortenerService(UserService userService, AppConfig config, ShortUrlStore store,
+                               ShortCodeGenerator codeGenerator) {
+        this(userService, config, store, codeGenerator, EventLog.fromConfig(config));
+    }
+
+    // Журнал переходит во владение сервиса и закрывается в shutdown()
+    public UrlShortenerService(UserService userService, AppConfig config, ShortUrlStore store,
+                               ShortCodeGenerator codeGenerator, EventLog events) {
+        this.store = store;
+        this.events = events;
+        this.analytics = ClickAnalytics.fromConfig(config);
+        this.codeGenerator = codeGenerator;
         this.userService = userService;
-        this.scheduler = Executors.newScheduledThreadPool(1);
+        this.scheduler = Executors.newScheduledThreadPool(1, runnable -> {
+            // Фоновая очистка не должна удерживать JVM после остановки сервера
+            Thread thread = new Thread(runnable, "url-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
         this.config = config;
         this.serverPort = config.getServerPort();
+        this.permanentRedirectStatus = config.getRedirectPermanentStatus();
+        if (permanentRedirectStatus != 301 && permanentRedirectStatus != 308) {
+            throw new IllegalArgumentException("❌ Постоянный редирект - 301 или 308, а не " + permanentRedirectStatus);
+        }
+        this.redirectMaxAgeSeconds = Math.max(0, config.getRedirectMaxAgeSeconds());
+        this.redirectLatency = metrics.histogram("shortener_redirect_seconds",
+                "Переход через сервис: поиск, проверка и учёт");
+        this.createLatency = metrics.histogram("shortener_create_seconds", "Создание одной ссылки");
+        this.cleanupLatency = metrics.histogram("shortener_cleanup_seconds", "Тик очистки истёкших ссылок");
+        for (RedirectStatus status : RedirectStatus.values()) {
+            redirectsByStatus[status.ordinal()] = metrics.counter("shortener_redirects_total",
+                    "status=\"" + status.name() + "\"", "Переходы по исходу проверки ссылки");
+        }
+        this.linksCreated = metrics.counter("shortener_links_created_total", "Созданные ссылки, включая массовые");
+        this.linksDeleted = metrics.counter("shortener_links_deleted_total", "Ссылки, удалённые владельцами");
+        this.linksExpired = metrics.counter("shortener_links_expired_total", "Ссылки, выселенные очисткой");
+        metrics.gauge("shortener_links", "Живые ссылки в хранилище", store::size);
+        metrics.counter("shortener_events_dropped_total", "События, не поместившиеся в буфер журнала",
+                events::getDroppedCount);
+        metrics.counter("shortener_analytics_dropped_total", "Переходы, не попавшие в аналитику из-за очереди",
+                analytics::getDroppedCount);
+        store.registerMetrics(metrics);
+        this.dedup = config.isDedupEnabled() ? new DedupIndex() : null;
+        this.dedupHits = metrics.counter("shortener_dedup_hits_total", "Создания, вернувшие уже существующую ссылку");
+        this.dedupMisses = metrics.counter("shortener_dedup_misses_total",
+                "Создания с дедупликацией, не нашедшие пригодной ссылки");
+        if (dedup != null) {
+            metrics.gauge("shortener_dedup_entries", "Записи индекса дедупликации", dedup::size);
+            metrics.gauge("shortener_dedup_bytes", "Память индекса дедупликации", dedup::bytes);
+            // Ссылки, поднятые из хранилища при запуске, тоже должны находиться повторной отправкой
+            store.forEach(this::indexDuplicate);
+        }
         startCleanupTask();
     }
 
@@ -34,58 +124,367 @@ public class UrlShortenerService {
     }
 
     public String createShortUrlWithCustomLimit(String originalUrl, UUID userId, int clickLimit) {
+        return formatShortUrl(createLink(originalUrl, userId, clickLimit).getShortCode());
+    }
+
+    // Пользователь для внешних клиентов REST API; в консоли он создаётся при запуске
+    public UUID createUser() {
+        return userService.createUser();
+    }
+
+    public ShortUrl createLink(String originalUrl, UUID userId) {
+        return createLink(originalUrl, userId, config.getDefaultClickLimit());
+    }
+
+    // Созданная ссылка целиком - для ответов API, которым кроме адреса нужны лимит и срок жизни
+    public ShortUrl createLink(String originalUrl, UUID userId, int clickLimit) {
+        long started = System.nanoTime();
+        try {
+            return insertLink(originalUrl, userId, clickLimit);
+        } finally {
+            createLatency.recordSince(started);
+        }
+    }
+
+    private ShortUrl insertLink(String originalUrl, UUID userId, int clickLimit) {
         if (!UrlValidator.isValidUrl(originalUrl)) {
             throw new IllegalArgumentException("❌ Неверный формат URL");
         }
 
         User user = userService.getUser(userId);
-        String shortCode = generateUniqueShortCode(originalUrl, userId);
+        if (user == null) {
+            throw new IllegalArgumentException("❌ Пользователь не найден: " + userId);
+        }
+
+        // Повторная отправка того же URL тем же пользователем возвращает прежнюю ссылку
+        String normalizedUrl = dedup != null ? UrlValidator.normalize(originalUrl) : null;
+        if (normalizedUrl != null) {
+            ShortUrl duplicate = findDuplicate(userId, normalizedUrl, clickLimit);
+            if (duplicate != null) {
+                return duplicate;
+            }
+        }
 
         // Время жизни - из конфига
         LocalDateTime expiresAt = LocalDateTime.now().plusHours(config.getDefaultTtlHours());
 
-        ShortUrl shortUrl = new ShortUrl(originalUrl, shortCode, userId, clickLimit, expiresAt);
-        user.addShortUrl(shortUrl);
-        shortCodeToUrlMap.put(shortCode, shortUrl);
+        ShortUrl shortUrl = insertWithFreshCode(originalUrl, userId, clickLimit, expiresAt);
+        if (normalizedUrl != null) {
+            ShortUrl winner = claimDuplicate(shortUrl, normalizedUrl);
+            if (winner != null) {
+                return winner;
+            }
+        }
+        shortUrl = addToUser(user, shortUrl);
+
+        events.linkCreated(shortUrl.getShortCode(), originalUrl, userId, clickLimit);
+        linksCreated.increment();
+        return shortUrl;
+    }
+
+    // Живая ссылка пользователя на тот же URL с тем же лимитом, у которой ещё остались переходы; null - такой нет
+    private ShortUrl findDuplicate(UUID userId, String normalizedUrl, int clickLimit) {
+        String shortCode = dedup.get(userId, clickLimit, normalizedUrl);
+        ShortUrl duplicate = shortCode != null ? reusableLink(shortCode, userId, normalizedUrl, clickLimit) : null;
+        (duplicate != null ? dedupHits : dedupMisses).increment();
+        return duplicate;
+    }
+
+    // Индекс только подсказывает код: сама ссылка берётся из хранилища и проверяется целиком
+    private ShortUrl reusableLink(String shortCode, UUID userId, String normalizedUrl, int clickLimit) {
+        ShortUrl shortUrl = store.get(shortCode);
+        if (shortUrl == null || !shortUrl.getUserId().equals(userId) || shortUrl.getClickLimit() != clickLimit
+                || !shortUrl.isActive() || shortUrl.isExpired() || shortUrl.isClickLimitExceeded()
+                || !UrlValidator.normalize(shortUrl.getOriginalUrl()).equals(normalizedUrl)) {
+            return null;
+        }
+        return shortUrl;
+    }
 
-        System.out.println("✅ Создана короткая ссылка: " + shortCode + " → " + originalUrl);
+    // Записывает новую ссылку в индекс. Если ту же пару успел создать параллельный запрос,
+    // новая ссылка удаляется и возвращается его; null - новая ссылка осталась
+    private ShortUrl claimDuplicate(ShortUrl created, String normalizedUrl) {
+        ShortUrl[] winner = new ShortUrl[1];
+        String winnerCode = dedup.putIfAbsent(created.getUserId(), created.getClickLimit(), normalizedUrl,
+                created.getShortCode(), shortCode -> (winner[0] = reusableLink(shortCode, created.getUserId(),
+                        normalizedUrl, created.getClickLimit())) != null);
+        if (winnerCode == null) {
+            return null;
+        }
+        store.remove(created);
+        return winner[0];
+    }
+
+    // Ссылка, попавшая в хранилище помимо создания (запуск, перенос с другого узла); первая из равных остаётся
+    private void indexDuplicate(ShortUrl shortUrl) {
+        dedup.putIfAbsent(shortUrl.getUserId(), shortUrl.getClickLimit(),
+                UrlValidator.normalize(shortUrl.getOriginalUrl()), shortUrl.getShortCode(), shortCode -> true);
+    }
+
+    private void forgetDuplicate(ShortUrl shortUrl) {
+        if (dedup != null) {
+            dedup.remove(shortUrl.getUserId(), shortUrl.getClickLimit(),
+                    UrlValidator.normalize(shortUrl.getOriginalUrl()), shortUrl.getShortCode());
+        }
+    }
+
+    // Массовое создание: запросы читаются кусками по BULK_CHUNK_SIZE, результат каждого уходит в results
+    // сразу после обработки его куска - память не зависит от размера импорта. Возвращает число созданных
+    public int createShortUrls(UUID userId, Iterator<BulkLinkRequest> requests, Consumer<BulkLinkResult> results) {
+        User user = userService.getUser(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("❌ Пользователь не найден: " + userId);
+        }
+
+        List<BulkLinkRequest> chunk = new ArrayList<>(BULK_CHUNK_SIZE);
+        int created = 0;
+        while (requests.hasNext()) {
+            chunk.add(requests.next());
+            if (chunk.size() == BULK_CHUNK_SIZE || !requests.hasNext()) {
+                int chunkCreated = createChunk(user, userId, chunk, results);
+                linksCreated.add(chunkCreated);
+                created += chunkCreated;
+                chunk.clear();
+            }
+        }
+        return created;
+    }
+
+    private int createChunk(User user, UUID userId, List<BulkLinkRequest> chunk, Consumer<BulkLinkResult> results) {
+        // Проверка - самая дорогая часть на строку, поэтому идёт параллельно в общем ForkJoinPool
+        String[] errors = new String[chunk.size()];
+        IntStream.range(0, chunk.size()).parallel().forEach(i -> errors[i] = validate(chunk.get(i)));
+
+        int validCount = 0;
+        for (String error : errors) {
+            if (error == null) {
+                validCount++;
+            }
+        }
+        // Повторы уже созданных ссылок отвечают прежним кодом и новых кодов не занимают
+        ShortUrl[] duplicates = new ShortUrl[chunk.size()];
+        String[] normalizedUrls = new String[chunk.size()];
+        if (dedup != null) {
+            for (int i = 0; i < chunk.size(); i++) {
+                if (errors[i] == null) {
+                    BulkLinkRequest request = chunk.get(i);
+                    normalizedUrls[i] = UrlValidator.normalize(request.getOriginalUrl());
+                    duplicates[i] = findDuplicate(userId, normalizedUrls[i], clickLimitOf(request));
+                    if (duplicates[i] != null) {
+                        validCount--;
+                    }
+                }
+            }
+        }
+        // Коды для всего куска - одним резервированием, ссылки - одной вставкой в хранилище
+        String[] codes = codeGenerator.nextCodes(validCount);
+        LocalDateTime expiresAt = LocalDateTime.now().plusHours(config.getDefaultTtlHours());
+        List<ShortUrl> candidates = new ArrayList<>(validCount);
+        for (int i = 0; i < chunk.size(); i++) {
+            if (errors[i] == null && duplicates[i] == null) {
+                BulkLinkRequest request = chunk.get(i);
+                candidates.add(ShortUrl.create(request.getOriginalUrl(), codes[candidates.size()], userId,
+                        clickLimitOf(request), expiresAt));
+            }
+        }
+        ShortUrl[] existing = store.putAllIfAbsent(candidates);
+
+        int created = 0;
+        int candidate = 0;
+        for (int i = 0; i < chunk.size(); i++) {
+            BulkLinkRequest request = chunk.get(i);
+            if (errors[i] != null) {
+                results.accept(new BulkLinkResult(request.getLine(), request.getOriginalUrl(), null, errors[i]));
+                continue;
+            }
+            if (duplicates[i] != null) {
+                results.accept(new BulkLinkResult(request.getLine(), request.getOriginalUrl(),
+                        formatShortUrl(duplicates[i].getShortCode()), null));
+                continue;
+            }
+            ShortUrl shortUrl = candidates.get(candidate);
+            try {
+                // Занятый код - редкость (случайная стратегия); такие ссылки вставляются по одной
+                if (existing[candidate] != null) {
+                    shortUrl = insertWithFreshCode(shortUrl.getOriginalUrl(), userId, shortUrl.getClickLimit(), expiresAt);
+                }
+                // Тот же URL дважды в одном куске или параллельно с другим запросом: ответ - уже созданная ссылка
+                ShortUrl winner = normalizedUrls[i] != null ? claimDuplicate(shortUrl, normalizedUrls[i]) : null;
+                if (winner != null) {
+                    results.accept(new BulkLinkResult(request.getLine(), request.getOriginalUrl(),
+                            formatShortUrl(winner.getShortCode()), null));
+                    candidate++;
+                    continue;
+                }
+                addToUser(user, shortUrl);
+                created++;
+                results.accept(new BulkLinkResult(request.getLine(), request.getOriginalUrl(),
+                        formatShortUrl(shortUrl.getShortCode()), null));
+            } catch (IllegalStateException e) {
+                results.accept(new BulkLinkResult(request.getLine(), request.getOriginalUrl(), null, e.getMessage()));
+            }
+            candidate++;
+        }
+        events.linksBulkCreated(userId, created, chunk.size() - created);
+        return created;
+    }
+
+    // null - запрос корректен
+    private static String validate(BulkLinkRequest request) {
+        if (request.getError() != null) {
+            return request.getError();
+        }
+        if (!UrlValidator.isValidUrl(request.getOriginalUrl())) {
+            return "❌ Неверный формат URL";
+        }
+        if (request.getClickLimit() < 0) {
+            return "❌ Лимит переходов должен быть положительным";
+        }
+        return null;
+    }
+
+    private int clickLimitOf(BulkLinkRequest request) {
+        return request.getClickLimit() > 0 ? request.getClickLimit() : config.getDefaultClickLimit();
+    }
+
+    private ShortUrl insertWithFreshCode(String originalUrl, UUID userId, int clickLimit, LocalDateTime expiresAt) {
+        for (int attempt = 0; attempt < MAX_CODE_ATTEMPTS; attempt++) {
+            ShortUrl candidate = ShortUrl.create(originalUrl, codeGenerator.nextCode(), userId, clickLimit, expiresAt);
+            // Код занят - пробуем следующий, существующую ссылку не перезаписываем
+            if (store.putIfAbsent(candidate) == null) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("❌ Не удалось сгенерировать уникальный короткий код");
+    }
+
+    // Хранилище может держать ссылку в своём представлении - пользователь должен видеть те же переходы
+    private ShortUrl addToUser(User user, ShortUrl shortUrl) {
+        ShortUrl stored = store.get(shortUrl.getShortCode());
+        ShortUrl added = stored != null ? stored : shortUrl;
+        user.addShortUrl(added);
+        return added;
+    }
+
+    public String formatShortUrl(String shortCode) {
         return "http://localhost:" + serverPort + "/" + shortCode;
     }
 
     public String redirect(String shortCode) {
-        ShortUrl shortUrl = shortCodeToUrlMap.get(shortCode);
-
-        if (shortUrl == null) {
-            throw new RuntimeException("🔗 Короткая ссылка не найдена: " + shortCode);
+        long started = System.nanoTime();
+        try {
+            return redirectTo(shortCode);
+        } finally {
+            redirectLatency.recordSince(started);
         }
+    }
 
-        if (!shortUrl.isValid()) {
-            if (shortUrl.isExpired()) {
-                throw new RuntimeException("⏰ Срок действия ссылки истек");
-            } else if (shortUrl.isClickLimitExceeded()) {
-                throw new RuntimeException("🚫 Лимит переходов исчерпан (" +
+    private String redirectTo(String shortCode) {
+        ShortUrl shortUrl = findShortUrl(shortCode, 0, shortCode.length());
+
+        switch (registerRedirect(shortUrl)) {
+            case NOT_FOUND:
+                throw new RuntimeException(RedirectStatus.NOT_FOUND.getMessage() + ": " + shortCode);
+            case INACTIVE:
+                throw new RuntimeException(RedirectStatus.INACTIVE.getMessage());
+            case EXPIRED:
+                throw new RuntimeException(RedirectStatus.EXPIRED.getMessage());
+            case LIMIT_EXCEEDED:
+                throw new RuntimeException(RedirectStatus.LIMIT_EXCEEDED.getMessage() + " (" +
                         shortUrl.getClickCount() + "/" + shortUrl.getClickLimit() + ")");
-            } else {
-                throw new RuntimeException("❌ Ссылка неактивна");
-            }
+            default:
+                break;
         }
 
-        shortUrl.incrementClickCount();
-        System.out.println("🔗 Переход по ссылке: " + shortCode + " → " + shortUrl.getOriginalUrl() +
-                " (переходы: " + shortUrl.getClickCount() + "/" + shortUrl.getClickLimit() + ")");
+        analytics.publish(shortUrl, null, null, null);
         return shortUrl.getOriginalUrl();
     }
 
-    public String getUrlStats(String shortCode, UUID userId) {
-        ShortUrl shortUrl = shortCodeToUrlMap.get(shortCode);
+    // Быстрый путь для HTTP: код берётся прямо из пути запроса, без substring; промах сразу попадает в журнал
+    public ShortUrl findShortUrl(CharSequence text, int start, int end) {
+        ShortUrl shortUrl = store.get(text, start, end);
+        if (shortUrl == null) {
+            events.redirectMissed(text, start, end, RedirectStatus.NOT_FOUND.name());
+        }
+        return shortUrl;
+    }
 
+    // То же для кода, лежащего в буфере, который перезапишут сразу после ответа (фронтенд NIO):
+    // журнал форматирует промах позже в своём потоке, поэтому получает копию кода, а попадание не копирует ничего
+    public ShortUrl findShortUrlInBuffer(CharSequence text, int start, int end) {
+        ShortUrl shortUrl = store.get(text, start, end);
         if (shortUrl == null) {
-            throw new RuntimeException("🔗 Короткая ссылка не найдена");
+            String shortCode = text.subSequence(start, end).toString();
+            events.redirectMissed(shortCode, 0, shortCode.length(), RedirectStatus.NOT_FOUND.name());
         }
+        return shortUrl;
+    }
 
-        if (!shortUrl.getUserId().equals(userId)) {
-            throw new RuntimeException("🚫 Доступ запрещен");
+    // false - кода точно нет, его отсёк фильтр хранилища; такой промах не пишется в журнал,
+    // иначе перебор путей ботами забил бы кольцо событий
+    public boolean mightExist(CharSequence text, int start, int end) {
+        return store.mightContain(text, start, end);
+    }
+
+    // Проверяет ссылку и засчитывает переход; результат - статус, без исключений и сборки строк
+    public RedirectStatus registerRedirect(ShortUrl shortUrl) {
+        if (shortUrl == null) {
+            redirectsByStatus[RedirectStatus.NOT_FOUND.ordinal()].increment();
+            return RedirectStatus.NOT_FOUND;
+        }
+        RedirectStatus status;
+        if (!shortUrl.isActive()) {
+            status = RedirectStatus.INACTIVE;
+        } else if (shortUrl.isExpired()) {
+            status = RedirectStatus.EXPIRED;
+        } else if (!shortUrl.tryRegisterClick()) {
+            // Проверка лимита и учёт перехода - одна атомарная операция
+            status = RedirectStatus.LIMIT_EXCEEDED;
+        } else {
+            store.recordClick(shortUrl);
+            status = RedirectStatus.FOUND;
         }
+        redirectsByStatus[status.ordinal()].increment();
+        events.redirected(shortUrl, status.name());
+        return status;
+    }
+
+    // То же без учёта перехода - для HEAD: проверка ссылки не должна тратить её лимит
+    public RedirectStatus checkRedirect(ShortUrl shortUrl) {
+        if (shortUrl == null) {
+            return RedirectStatus.NOT_FOUND;
+        }
+        if (!shortUrl.isActive()) {
+            return RedirectStatus.INACTIVE;
+        }
+        if (shortUrl.isExpired()) {
+            return RedirectStatus.EXPIRED;
+        }
+        return shortUrl.isClickLimitExceeded() ? RedirectStatus.LIMIT_EXCEEDED : RedirectStatus.FOUND;
+    }
+
+    // Сколько секунд клиент и CDN могут отвечать на переход сами; 0 - каждый визит должен дойти до сервиса.
+    // Кэшируются только ссылки без лимита: иначе повторные визиты не занимали бы переходы.
+    // Удаление такой ссылки клиенты с кэшем увидят не раньше, чем через max-age
+    public long getRedirectMaxAgeSeconds(ShortUrl shortUrl) {
+        if (!shortUrl.isUnlimited() || redirectMaxAgeSeconds == 0) {
+            return 0;
+        }
+        long secondsLeft = (shortUrl.getExpiresAtMillis() - System.currentTimeMillis()) / 1000;
+        return Math.max(0, Math.min(redirectMaxAgeSeconds, secondsLeft));
+    }
+
+    public int getPermanentRedirectStatus() {
+        return permanentRedirectStatus;
+    }
+
+    // Переход из HTTP: источник, браузер и адрес уходят в аналитику, разбирает их фоновый поток
+    public void publishClick(ShortUrl shortUrl, String referrer, String userAgent, InetAddress address) {
+        analytics.publish(shortUrl, referrer, userAgent, address);
+    }
+
+    public String getUrlStats(String shortCode, UUID userId) {
+        ShortUrl shortUrl = findOwnedShortUrl(shortCode, userId);
 
         return String.format(
                 """
@@ -105,55 +504,197 @@ public class UrlShortenerService {
                 shortUrl.getCreatedAt(),
                 shortUrl.getExpiresAt(),
                 shortUrl.isValid() ? "✅ Активна" : "❌ Неактивна"
+        ) + formatAnalytics(analytics.getStats(shortCode));
+    }
+
+    // null - переходов с последнего запуска не было
+    public LinkStats getLinkStats(String shortCode, UUID userId) {
+        findOwnedShortUrl(shortCode, userId);
+        return analytics.getStats(shortCode);
+    }
+
+    // Ссылка владельца; чужая и несуществующая неразличимы для вызывающего кроме текста ошибки
+    public ShortUrl getShortUrl(String shortCode, UUID userId) {
+        return findOwnedShortUrl(shortCode, userId);
+    }
+
+    // Страница ссылок пользователя по времени создания после позиции after (null - с начала);
+    // ссылка на этой позиции могла быть уже удалена или истечь
+    public List<ShortUrl> getUserLinks(UUID userId, User.Position after, int limit) {
+        User user = userService.getUser(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("❌ Пользователь не найден: " + userId);
+        }
+        return user.getShortUrlsPage(after, limit);
+    }
+
+    private ShortUrl findOwnedShortUrl(String shortCode, UUID userId) {
+        ShortUrl shortUrl = store.get(shortCode);
+
+        if (shortUrl == null) {
+            throw new RuntimeException("🔗 Короткая ссылка не найдена");
+        }
+
+        if (!shortUrl.getUserId().equals(userId)) {
+            throw new RuntimeException("🚫 Доступ запрещен");
+        }
+        return shortUrl;
+    }
+
+    private static String formatAnalytics(LinkStats stats) {
+        if (stats == null) {
+            return "📈 Аналитика: переходов пока не было\n";
+        }
+        long now = System.currentTimeMillis();
+        return String.format(
+                """
+                📈 Переходы за час: %d, за сутки: %d, за 30 дней: %d
+                👤 Уникальных посетителей (оценка): %d
+                🌐 Источники: %s
+                🧭 Браузеры: %s
+                """,
+                Arrays.stream(stats.getClicksPerMinute(now)).sum(),
+                Arrays.stream(stats.getClicksPerHour(now)).sum(),
+                Arrays.stream(stats.getClicksPerDay(now)).sum(),
+                stats.getUniqueVisitors(),
+                formatBreakdown(stats.getReferrers()),
+                formatBreakdown(stats.getUserAgents())
         );
     }
 
+    private static String formatBreakdown(Map<String, Long> counts) {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(entry.getKey()).append(" (").append(entry.getValue()).append(')');
+        }
+        return result.toString();
+    }
+
+    // Слушатель получает каждую ссылку, удалённую владельцем, например для журнала удалений при переносе частей
+    public void setLinkDeletedListener(Consumer<ShortUrl> linkDeletedListener) {
+        this.linkDeletedListener = linkDeletedListener;
+    }
+
     public boolean deleteShortUrl(String shortCode, UUID userId) {
-        ShortUrl shortUrl = shortCodeToUrlMap.get(shortCode);
+        ShortUrl shortUrl = store.get(shortCode);
 
-        if (shortUrl != null && shortUrl.getUserId().equals(userId)) {
-            shortCodeToUrlMap.remove(shortCode);
+        // remove(shortUrl) срабатывает только у одного из параллельных удаляющих
+        if (shortUrl != null && shortUrl.getUserId().equals(userId) && store.remove(shortUrl)) {
             User user = userService.getUser(userId);
-            user.removeShortUrl(shortUrl.getId());
-            System.out.println("🗑️ Удалена короткая ссылка: " + shortCode);
+            if (user != null) {
+                user.removeShortUrl(shortUrl.getId());
+            }
+            analytics.forget(shortCode);
+            forgetDuplicate(shortUrl);
+            events.linkDeleted(shortCode, userId);
+            linksDeleted.increment();
+            linkDeletedListener.accept(shortUrl);
             return true;
         }
 
         return false;
     }
 
-    private String generateUniqueShortCode(String originalUrl, UUID userId) {
-        // Генерация уникального кода из конфига
-        String baseString = originalUrl + userId.toString() + System.currentTimeMillis();
-        int hashCode = Math.abs(baseString.hashCode());
-        return Integer.toString(hashCode, 36).substring(0, config.getShortCodeLength()).toUpperCase();
-    }
-
     private void startCleanupTask() {
-        // Очистка просроченных ссылок из конфига
+        // Каждый тик выселяем только наступившие истечения, не больше лимита за раз
+        long tickMillis = config.getCleanupTickMillis();
         scheduler.scheduleAtFixedRate(() -> {
-            cleanUpExpiredUrls();
-        }, config.getCleanupInitialDelayMinutes(), config.getCleanupIntervalHours(), TimeUnit.HOURS);
+            evictExpiredUrls(config.getCleanupMaxEvictionsPerTick());
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
     }
 
-    private void cleanUpExpiredUrls() {
-        int removedCount = 0;
-        for (var iterator = shortCodeToUrlMap.entrySet().iterator(); iterator.hasNext();) {
-            var entry = iterator.next();
-            ShortUrl url = entry.getValue();
-            if (url.isExpired()) {
-                User user = userService.getUser(url.getUserId());
-                user.removeShortUrl(url.getId());
-                iterator.remove();
-                removedCount++;
+    // Ссылки этого узла - для переноса частей кодов на другие узлы кластера
+    public void forEachLink(Consumer<ShortUrl> action) {
+        store.forEach(action);
+    }
+
+    // Ссылка с другого узла со своим кодом и владельцем; true - новая. Уже перенесённая ссылка
+    // только догоняет счётчик переходов, засчитанных на старом узле после первой копии
+    public boolean importLink(ShortUrl shortUrl) {
+        ShortUrl existing = store.putIfAbsent(shortUrl);
+        if (existing == null) {
+            addToUser(userService.restoreUser(shortUrl.getUserId()), shortUrl);
+            if (dedup != null) {
+                indexDuplicate(shortUrl);
             }
+            return true;
         }
+        if (existing.getId().equals(shortUrl.getId()) && shortUrl.getClickCount() > existing.getClickCount()) {
+            existing.restoreClickCount(shortUrl.getClickCount());
+            store.recordClick(existing);
+        }
+        return false;
+    }
+
+    // Удаляет ссылки, которые выбрал filter, - после того как их части переехали на другой узел.
+    // Это не удаление владельцем: событие в журнал не пишется
+    public int removeLinks(Predicate<ShortUrl> filter) {
+        List<ShortUrl> selected = new ArrayList<>();
+        store.forEach(shortUrl -> {
+            if (filter.test(shortUrl)) {
+                selected.add(shortUrl);
+            }
+        });
+        int removed = 0;
+        for (ShortUrl shortUrl : selected) {
+            if (store.remove(shortUrl)) {
+                User user = userService.getUser(shortUrl.getUserId());
+                if (user != null) {
+                    user.removeShortUrl(shortUrl.getId());
+                }
+                analytics.forget(shortUrl.getShortCode());
+                forgetDuplicate(shortUrl);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public int cleanUpExpiredUrls() {
+        return evictExpiredUrls(Integer.MAX_VALUE);
+    }
+
+    private int evictExpiredUrls(int maxEvictions) {
+        long started = System.nanoTime();
+        try {
+            int removedCount = evictExpiredBatch(maxEvictions);
+            linksExpired.add(removedCount);
+            return removedCount;
+        } finally {
+            cleanupLatency.recordSince(started);
+        }
+    }
+
+    private int evictExpiredBatch(int maxEvictions) {
+        int removedCount = store.evictExpired(System.currentTimeMillis(), maxEvictions, url -> {
+            User user = userService.getUser(url.getUserId());
+            if (user != null) {
+                user.removeShortUrl(url.getId());
+            }
+            analytics.forget(url.getShortCode());
+            forgetDuplicate(url);
+        });
         if (removedCount > 0) {
-            System.out.println("🧹 Удалено просроченных ссылок: " + removedCount);
+            events.linksExpired(removedCount);
         }
+        return removedCount;
+    }
+
+    public int getLinkCount() {
+        return store.size();
+    }
+
+    // Метрики сервиса и его хранилища; веб-сервер добавляет свои и отдаёт всё на /metrics
+    public Metrics getMetrics() {
+        return metrics;
     }
 
     public void shutdown() {
         scheduler.shutdown();
+        events.close();
+        analytics.close();
     }
 }
\ No newline at end of file
@@ -2,24 +2,48 @@ package service;
 
 import model.User;
 
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class UserService {
     private final Map<UUID, User> users;
+    private volatile Consumer<UUID> userCreatedListener = userId -> { };
 
     public UserService() {
-        this.users = new HashMap<>();
+        this.users = new ConcurrentHashMap<>();
     }
 
+    // Слушатель получает id каждого нового пользователя, например для записи в журнал
+    public void setUserCreatedListener(Consumer<UUID> userCreatedListener) {
+        this.userCreatedListener = userCreatedListener;
+    }
+
+    // null для неизвестного id: пользователи появляются только через createUser() и restoreUser()
     public User getUser(UUID userId) {
-        return users.computeIfAbsent(userId, k -> new User());
+        return users.get(userId);
     }
 
     public UUID createUser() {
         User user = new User();
         users.put(user.getId(), user);
+        userCreatedListener.accept(user.getId());
         return user.getId();
     }
+
+    // Пользователь с известным id - при восстановлении состояния с диска
+    public User restoreUser(UUID userId) {
+        return users.computeIfAbsent(userId, User::new);
+    }
+
+    // То же с известным числом ссылок пользователя
+    public User restoreUser(UUID userId, int expectedLinks) {
+        return users.computeIfAbsent(userId, id -> new User(id, expectedLinks));
+    }
+
+    public Collection<UUID> getUserIds() {
+        return users.keySet();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,571 @@
+package storage;
+
+import config.AppConfig;
+import metrics.Metrics;
+import model.ShortUrl;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Кэш горячих ссылок перед другим хранилищем, ограниченный по байтам. Политика - W-TinyLFU:
+// новая ссылка попадает в окно LRU (1% объёма), из окна - в сегментированный LRU (пробный + защищённый сегмент),
+// но только если по FrequencySketch её запрашивают чаще, чем ту, что пришлось бы вытеснить.
+// Чтение не берёт блокировок: попадание пишется в полосу буфера чтений, политику двигает тот,
+// кто захватит блокировку. Отсутствующие коды запоминаются отдельно, чтобы перебор случайных кодов
+// не доходил до хранилища.
+// Ссылка в кэше держит неизменные поля в куче, а переходы и активность пишет сразу в исходную ссылку хранилища
+public class CachingShortUrlStore implements ShortUrlStore {
+    // Node, CachedLink, узел ConcurrentHashMap и заголовки двух строк; сами символы считаются отдельно
+    private static final int ENTRY_OVERHEAD_BYTES = 200;
+    private static final int AVERAGE_ENTRY_BYTES = 256;
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+    private static final int READ_BUFFER_SIZE = 64;
+    private static final int DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+    // Длинные «коды» из перебора не стоит хранить даже в кэше отсутствующих
+    private static final int MAX_NEGATIVE_CODE_LENGTH = 32;
+    private static final int WRITE_STRIPES = 1 << 12;
+
+    private static final int NONE = 0;
+    private static final int WINDOW = 1;
+    private static final int PROBATION = 2;
+    private static final int PROTECTED = 3;
+
+    private final ShortUrlStore backing;
+    private final ConcurrentHashMap<Object, Node> data;
+    private final AtomicReferenceArray<String> negatives;
+    private final int negativeMask;
+    // Версия полосы кодов растёт после каждой вставки и удаления кода этой полосы: загрузка, которая
+    // пересеклась с записью своего кода, не оставляет в кэше своего результата. Записи других кодов
+    // задевают загрузку только при общей полосе
+    private final AtomicLongArray writeVersions = new AtomicLongArray(WRITE_STRIPES);
+    private final ThreadLocal<LookupKey> lookupKeys = ThreadLocal.withInitial(LookupKey::new);
+
+    private final ReadBuffer[] readBuffers;
+    private final int readBufferMask;
+
+    // Поля политики меняются только под evictionLock
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final Node window = Node.sentinel();
+    private final Node probation = Node.sentinel();
+    private final Node protectedSegment = Node.sentinel();
+    private final long maxBytes;
+    private final long windowMaxBytes;
+    private final long protectedMaxBytes;
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // null - кэш выключен в конфиге, хранилище используется как есть
+    public static ShortUrlStore fromConfig(AppConfig config, ShortUrlStore backing) {
+        long maxBytes = config.getCacheMaxBytes();
+        return maxBytes > 0 ? new CachingShortUrlStore(backing, maxBytes, config.getCacheNegativeEntries()) : backing;
+    }
+
+    public CachingShortUrlStore(ShortUrlStore backing, long maxBytes, int negativeEntries) {
+        this.backing = backing;
+        this.maxBytes = maxBytes;
+        this.windowMaxBytes = Math.max(1, maxBytes * WINDOW_PERCENT / 100);
+        this.protectedMaxBytes = (maxBytes - windowMaxBytes) * PROTECTED_PERCENT / 100;
+        int expectedEntries = (int) Math.min(1 << 24, Math.max(64, maxBytes / AVERAGE_ENTRY_BYTES));
+        this.data = new ConcurrentHashMap<>(Math.min(expectedEntries, 1 << 16));
+        this.sketch = new FrequencySketch(expectedEntries);
+        int negativeSize = Integer.highestOneBit(Math.max(2, negativeEntries - 1)) << 1;
+        this.negatives = new AtomicReferenceArray<>(negativeSize);
+        this.negativeMask = negativeSize - 1;
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+        this.readBuffers = new ReadBuffer[stripes];
+        for (int i = 0; i < stripes; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+        this.readBufferMask = stripes - 1;
+    }
+
+    @Override
+    public ShortUrl get(String shortCode) {
+        return get(shortCode, 0, shortCode.length());
+    }
+
+    // Путь редиректа: ключ поиска - переиспользуемое окно в строке пути, попадание ничего не выделяет
+    @Override
+    public ShortUrl get(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        Node node = data.get(lookupKeys.get().wrap(text, start, end, hash));
+        if (node != null) {
+            hits.increment();
+            recordRead(node);
+            return node.link;
+        }
+        int slot = spread(hash) & negativeMask;
+        String missing = negatives.get(slot);
+        if (missing != null && contentEquals(missing, text, start, end)) {
+            negativeHits.increment();
+            return null;
+        }
+        return load(text, start, end, hash);
+    }
+
+    @Override
+    public boolean mightContain(CharSequence text, int start, int end) {
+        return backing.mightContain(text, start, end);
+    }
+
+    @Override
+    public ShortUrl putIfAbsent(ShortUrl shortUrl) {
+        ShortUrl existing = backing.putIfAbsent(unwrap(shortUrl));
+        if (existing == null) {
+            written(shortUrl.getShortCode());
+        }
+        return existing;
+    }
+
+    @Override
+    public ShortUrl[] putAllIfAbsent(List<ShortUrl> shortUrls) {
+        ShortUrl[] existing = backing.putAllIfAbsent(shortUrls);
+        for (int i = 0; i < existing.length; i++) {
+            if (existing[i] == null) {
+                written(shortUrls.get(i).getShortCode());
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public boolean remove(ShortUrl shortUrl) {
+        if (!backing.remove(unwrap(shortUrl))) {
+            return false;
+        }
+        written(shortUrl.getShortCode());
+        return true;
+    }
+
+    @Override
+    public int evictExpired(long nowMillis, int maxEvictions, Consumer<ShortUrl> onEvicted) {
+        return backing.evictExpired(nowMillis, maxEvictions, shortUrl -> {
+            written(shortUrl.getShortCode());
+            onEvicted.accept(shortUrl);
+        });
+    }
+
+    @Override
+    public int size() {
+        return backing.size();
+    }
+
+    @Override
+    public void forEach(Consumer<ShortUrl> action) {
+        backing.forEach(action);
+    }
+
+    // Переход уже засчитан в исходной ссылке; хранилищу остаётся пометить её для сброса на диск
+    @Override
+    public void recordClick(ShortUrl shortUrl) {
+        backing.recordClick(unwrap(shortUrl));
+    }
+
+    @Override
+    public void registerMetrics(Metrics metrics) {
+        metrics.counter("shortener_cache_hits_total", "Ссылки, отданные кэшем", this::getHitCount);
+        metrics.counter("shortener_cache_negative_hits_total", "Известные кэшу отсутствующие коды",
+                this::getNegativeHitCount);
+        metrics.counter("shortener_cache_misses_total", "Запросы, дошедшие до хранилища", this::getMissCount);
+        metrics.counter("shortener_cache_evictions_total", "Ссылки, вытесненные из кэша", this::getEvictionCount);
+        metrics.gauge("shortener_cache_entries", "Ссылок в кэше", this::getEntryCount);
+        metrics.gauge("shortener_cache_bytes", "Оценка памяти ссылок в кэше", this::getWeightedBytes);
+        backing.registerMetrics(metrics);
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getNegativeHitCount() {
+        return negativeHits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    // Доля запросов, не дошедших до хранилища
+    public double getHitRatio() {
+        long served = hits.sum() + negativeHits.sum();
+        long total = served + misses.sum();
+        return total == 0 ? 0 : (double) served / total;
+    }
+
+    public int getEntryCount() {
+        return data.size();
+    }
+
+    public long getWeightedBytes() {
+        evictionLock.lock();
+        try {
+            return windowBytes + probationBytes + protectedBytes;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private ShortUrl load(CharSequence text, int start, int end, int hash) {
+        int stripe = spread(hash) & (WRITE_STRIPES - 1);
+        long versionBefore = writeVersions.get(stripe);
+        ShortUrl shortUrl = backing.get(text, start, end);
+        misses.increment();
+        if (shortUrl == null) {
+            if (end - start <= MAX_NEGATIVE_CODE_LENGTH) {
+                String missing = text.subSequence(start, end).toString();
+                int slot = spread(hash) & negativeMask;
+                negatives.set(slot, missing);
+                // Код могли вставить, пока мы его искали
+                if (writeVersions.get(stripe) != versionBefore) {
+                    negatives.compareAndSet(slot, missing, null);
+                }
+            }
+            return null;
+        }
+
+        // Наружу при промахе уходит исходная ссылка: её, а не копию, держат индексы пользователя
+        Node node = new Node(new CachedLink(shortUrl));
+        if (data.putIfAbsent(node.code, node) != null) {
+            return shortUrl;
+        }
+        evictionLock.lock();
+        try {
+            if (node.queue == NONE && !node.removed) {
+                onInsert(node);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        // Ссылку могли удалить, пока мы её загружали
+        if (writeVersions.get(stripe) != versionBefore) {
+            invalidate(node.code);
+        }
+        return shortUrl;
+    }
+
+    // Вызывается после изменения хранилища: порядок «хранилище, версия полосы, кэш» закрывает гонку с load()
+    private void written(String shortCode) {
+        int spread = spread(shortCode.hashCode());
+        writeVersions.incrementAndGet(spread & (WRITE_STRIPES - 1));
+        invalidate(shortCode);
+        int slot = spread & negativeMask;
+        String missing = negatives.get(slot);
+        if (missing != null && missing.equals(shortCode)) {
+            negatives.compareAndSet(slot, missing, null);
+        }
+    }
+
+    private void invalidate(String shortCode) {
+        Node node = data.remove(shortCode);
+        if (node == null) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            node.removed = true;
+            if (node.queue != NONE) {
+                unlink(node);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void recordRead(Node node) {
+        ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & readBufferMask];
+        long position = buffer.writes.get();
+        long pending = position - buffer.reads;
+        // Полный буфер теряет обращение: для частот это шум, а читатель не ждёт
+        if (pending < READ_BUFFER_SIZE && buffer.writes.compareAndSet(position, position + 1)) {
+            buffer.nodes.lazySet((int) position & (READ_BUFFER_SIZE - 1), node);
+        }
+        if (pending >= DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            long position = buffer.reads;
+            long written = buffer.writes.get();
+            while (position < written) {
+                Node node = buffer.nodes.getAndSet((int) position & (READ_BUFFER_SIZE - 1), null);
+                // Ячейку заняли, но ссылку ещё не положили - дочитаем в следующий раз
+                if (node == null) {
+                    break;
+                }
+                onAccess(node);
+                position++;
+            }
+            buffer.reads = position;
+        }
+    }
+
+    private void onAccess(Node node) {
+        sketch.increment(node.hash);
+        switch (node.queue) {
+            case WINDOW:
+                unlink(node);
+                link(window, node, WINDOW);
+                break;
+            case PROBATION:
+                unlink(node);
+                link(protectedSegment, node, PROTECTED);
+                while (protectedBytes > protectedMaxBytes) {
+                    Node demoted = protectedSegment.prev;
+                    unlink(demoted);
+                    link(probation, demoted, PROBATION);
+                }
+                break;
+            case PROTECTED:
+                unlink(node);
+                link(protectedSegment, node, PROTECTED);
+                break;
+            default:
+                // Ссылку уже вытеснили или удалили
+                break;
+        }
+    }
+
+    private void onInsert(Node node) {
+        drainReadBuffers();
+        sketch.increment(node.hash);
+        link(window, node, WINDOW);
+        while (windowBytes > windowMaxBytes) {
+            Node candidate = window.prev;
+            unlink(candidate);
+            admit(candidate);
+        }
+    }
+
+    // Кандидат из окна вытесняет жертв из хвоста основной части, только пока встречается чаще каждой из них
+    private void admit(Node candidate) {
+        long mainMaxBytes = maxBytes - windowMaxBytes;
+        while (probationBytes + protectedBytes + candidate.weight > mainMaxBytes) {
+            Node victim = probation.prev != probation ? probation.prev : protectedSegment.prev;
+            if (victim == protectedSegment
+                    || sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash)) {
+                evict(candidate);
+                return;
+            }
+            unlink(victim);
+            evict(victim);
+        }
+        link(probation, candidate, PROBATION);
+    }
+
+    private void evict(Node node) {
+        node.removed = true;
+        data.remove(node.code, node);
+        evictions.increment();
+    }
+
+    private void link(Node head, Node node, int queue) {
+        node.next = head.next;
+        node.prev = head;
+        head.next.prev = node;
+        head.next = node;
+        node.queue = queue;
+        addBytes(queue, node.weight);
+    }
+
+    private void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        addBytes(node.queue, -node.weight);
+        node.queue = NONE;
+    }
+
+    private void addBytes(int queue, long delta) {
+        if (queue == WINDOW) {
+            windowBytes += delta;
+        } else if (queue == PROBATION) {
+            probationBytes += delta;
+        } else {
+            protectedBytes += delta;
+        }
+    }
+
+    private static ShortUrl unwrap(ShortUrl shortUrl) {
+        return shortUrl instanceof CachedLink ? ((CachedLink) shortUrl).link : shortUrl;
+    }
+
+    // Тот же хеш, что у String.hashCode(): ключ-окно и строка-код попадают в одну корзину ConcurrentHashMap
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+
+    private static int spread(int hash) {
+        return (hash ^ hash >>> 16) * 0x45d9f3b;
+    }
+
+    private static boolean contentEquals(String value, CharSequence text, int start, int end) {
+        if (value.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Ключ поиска без строки: equals сравнивает символы со строкой-ключом из карты
+    private static final class LookupKey {
+        private CharSequence text;
+        private int start;
+        private int end;
+        private int hash;
+
+        LookupKey wrap(CharSequence text, int start, int end, int hash) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.hash = hash;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof String && contentEquals((String) other, text, start, end);
+        }
+    }
+
+    private static final class ReadBuffer {
+        final AtomicLong writes = new AtomicLong();
+        final AtomicReferenceArray<Node> nodes = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        // Меняется только под evictionLock
+        volatile long reads;
+    }
+
+    private static final class Node {
+        final String code;
+        final int hash;
+        final CachedLink link;
+        final int weight;
+        // Поля ниже - под evictionLock
+        Node prev;
+        Node next;
+        int queue;
+        boolean removed;
+
+        Node(CachedLink link) {
+            this.code = link.getShortCode();
+            this.hash = code.hashCode();
+            this.link = link;
+            this.weight = ENTRY_OVERHEAD_BYTES + code.length() + link.getOriginalUrl().length();
+        }
+
+        private Node() {
+            this.code = null;
+            this.hash = 0;
+            this.link = null;
+            this.weight = 0;
+        }
+
+        static Node sentinel() {
+            Node head = new Node();
+            head.prev = head;
+            head.next = head;
+            return head;
+        }
+    }
+
+    // Неизменные поля - копия в куче, поэтому горячий редирект не читает таблицу и строки вне кучи;
+    // переходы и активность идут в исходную ссылку и сразу видны хранилищу
+    private static final class CachedLink extends ShortUrl {
+        private final ShortUrl link;
+        private final String originalUrl;
+        private final String shortCode;
+        private final long idHi;
+        private final long idLo;
+        private final long userHi;
+        private final long userLo;
+        private final int clickLimit;
+        private final long createdAtMillis;
+        private final long expiresAtMillis;
+
+        CachedLink(ShortUrl link) {
+            this.link = link;
+            this.originalUrl = link.getOriginalUrl();
+            this.shortCode = link.getShortCode();
+            UUID id = link.getId();
+            this.idHi = id.getMostSignificantBits();
+            this.idLo = id.getLeastSignificantBits();
+            UUID userId = link.getUserId();
+            this.userHi = userId.getMostSignificantBits();
+            this.userLo = userId.getLeastSignificantBits();
+            this.clickLimit = link.getClickLimit();
+            this.createdAtMillis = link.getCreatedAtMillis();
+            this.expiresAtMillis = link.getExpiresAtMillis();
+        }
+
+        @Override public UUID getId() { return new UUID(idHi, idLo); }
+        @Override public String getOriginalUrl() { return originalUrl; }
+        @Override public String getShortCode() { return shortCode; }
+        @Override public UUID getUserId() { return new UUID(userHi, userLo); }
+        @Override public int getClickLimit() { return clickLimit; }
+        @Override public int getClickCount() { return link.getClickCount(); }
+        @Override public LocalDateTime getCreatedAt() { return toLocalDateTime(createdAtMillis); }
+        @Override public long getCreatedAtMillis() { return createdAtMillis; }
+        @Override public LocalDateTime getExpiresAt() { return toLocalDateTime(expiresAtMillis); }
+        @Override public long getExpiresAtMillis() { return expiresAtMillis; }
+        @Override public boolean isActive() { return link.isActive(); }
+        @Override public void setActive(boolean active) { link.setActive(active); }
+
+        @Override
+        public boolean tryRegisterClick() {
+            return link.tryRegisterClick();
+        }
+
+        @Override
+        public boolean isClickLimitExceeded() {
+            return link.isClickLimitExceeded();
+        }
+
+        @Override
+        public void restoreClickCount(int clickCount) {
+            link.restoreClickCount(clickCount);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package storage;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+// Упакованный код -> номер записи: открытая адресация на long[]/int[] без узлов на каждую ссылку.
+// Запись под блокировкой сегмента, чтение без блокировок: ключ публикуется после номера записи
+final class CodeIndex {
+    private static final long EMPTY = 0;
+    private static final long TOMBSTONE = -1;
+    private static final int SEGMENTS = 64;
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    CodeIndex(int initialCapacity) {
+        int perSegment = Math.max(16, Integer.highestOneBit(Math.max(1, initialCapacity / SEGMENTS)) * 2);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    // -1, если кода нет
+    int get(long key) {
+        long hash = mix(key);
+        Table table = segments[(int) (hash >>> 58)].table;
+        long[] keys = table.keys;
+        for (int slot = (int) hash & table.mask; ; slot = (slot + 1) & table.mask) {
+            long current = (long) KEYS.getAcquire(keys, slot);
+            if (current == key) {
+                return table.records[slot];
+            }
+            if (current == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    // Возвращает уже занятую запись или -1, если вставлена новая из newRecord
+    int putIfAbsent(long key, IntSupplier newRecord) {
+        long hash = mix(key);
+        Segment segment = segments[(int) (hash >>> 58)];
+        synchronized (segment) {
+            Table table = segment.table;
+            int free = -1;
+            int slot = (int) hash & table.mask;
+            for (long current; (current = table.keys[slot]) != EMPTY; slot = (slot + 1) & table.mask) {
+                if (current == key) {
+                    return table.records[slot];
+                }
+                if (current == TOMBSTONE && free < 0) {
+                    free = slot;
+                }
+            }
+            if (free < 0) {
+                free = slot;
+                segment.used++;
+            }
+            table.records[free] = newRecord.getAsInt();
+            KEYS.setRelease(table.keys, free, key);
+            segment.size++;
+            if (segment.used * 4 > table.keys.length * 3) {
+                segment.rehash();
+            }
+            return -1;
+        }
+    }
+
+    // Удаляет код, только если он всё ещё указывает на record
+    boolean remove(long key, int record) {
+        long hash = mix(key);
+        Segment segment = segments[(int) (hash >>> 58)];
+        synchronized (segment) {
+            Table table = segment.table;
+            for (int slot = (int) hash & table.mask; ; slot = (slot + 1) & table.mask) {
+                long current = table.keys[slot];
+                if (current == key) {
+                    if (table.records[slot] != record) {
+                        return false;
+                    }
+                    KEYS.setRelease(table.keys, slot, TOMBSTONE);
+                    segment.size--;
+                    return true;
+                }
+                if (current == EMPTY) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    // Слабо согласованный обход, как у ConcurrentHashMap
+    void forEach(IntConsumer action) {
+        for (Segment segment : segments) {
+            Table table = segment.table;
+            for (int slot = 0; slot < table.keys.length; slot++) {
+                long key = (long) KEYS.getAcquire(table.keys, slot);
+                if (key != EMPTY && key != TOMBSTONE) {
+                    action.accept(table.records[slot]);
+                }
+            }
+        }
+    }
+
+    long bytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += (long) segment.table.keys.length * (Long.BYTES + Integer.BYTES);
+        }
+        return bytes;
+    }
+
+    private static long mix(long key) {
+        key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+
+    private static final class Table {
+        final long[] keys;
+        final int[] records;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            records = new int[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private static final class Segment {
+        volatile Table table;
+        volatile int size;
+        // Занятые слоты вместе с надгробиями
+        int used;
+
+        Segment(int capacity) {
+            table = new Table(capacity);
+        }
+
+        // Новая таблица строится сбоку; читатели старой видят её целиком, пока не перечитают ссылку
+        void rehash() {
+            Table old = table;
+            int capacity = size * 2 > old.keys.length / 2 ? old.keys.length * 2 : old.keys.length;
+            Table grown = new Table(capacity);
+            for (int slot = 0; slot < old.keys.length; slot++) {
+                long key = old.keys[slot];
+                if (key != EMPTY && key != TOMBSTONE) {
+                    int target = (int) mix(key) & grown.mask;
+                    while (grown.keys[target] != EMPTY) {
+                        target = (target + 1) & grown.mask;
+                    }
+                    grown.keys[target] = key;
+                    grown.records[target] = old.records[slot];
+                }
+            }
+            used = size;
+            table = grown;
+        }
+    }
+}
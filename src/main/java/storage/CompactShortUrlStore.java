@@ -0,0 +1,350 @@
+package storage;
+
+import metrics.Metrics;
+import model.ShortUrl;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// Хранилище на компактной таблице записей: коды упакованы в long, строки лежат вне кучи,
+// а наружу выдаются лёгкие представления ShortUrl поверх номера записи. С internUrls (движок interned)
+// схема, хост, каталоги и запросы адресов хранятся один раз в общем словаре UrlDictionary
+public class CompactShortUrlStore implements ShortUrlStore {
+    private static final long DEFAULT_TICK_MILLIS = 1000;
+
+    private final LinkTable table;
+    private final CodeIndex index;
+    // Коды, которые не упаковываются в long (длиннее 9 символов или не ASCII); на практике пусто
+    private final ConcurrentHashMap<String, Integer> longCodes = new ConcurrentHashMap<>();
+    private final RecordExpirationIndex expirationIndex;
+
+    public CompactShortUrlStore() {
+        this(1024);
+    }
+
+    public CompactShortUrlStore(int initialCapacity) {
+        this(initialCapacity, DEFAULT_TICK_MILLIS);
+    }
+
+    public CompactShortUrlStore(int initialCapacity, long expirationTickMillis) {
+        this(initialCapacity, expirationTickMillis, false);
+    }
+
+    public CompactShortUrlStore(int initialCapacity, long expirationTickMillis, boolean internUrls) {
+        this.table = new LinkTable(internUrls);
+        this.index = new CodeIndex(initialCapacity);
+        this.expirationIndex = new RecordExpirationIndex(expirationTickMillis);
+    }
+
+    @Override
+    public ShortUrl get(String shortCode) {
+        int record = find(shortCode);
+        return record >= 0 ? new Link(record) : null;
+    }
+
+    // Упакованный код считается прямо по символам пути - поиск без промежуточной строки
+    @Override
+    public ShortUrl get(CharSequence text, int start, int end) {
+        long key = LinkTable.packCode(text, start, end);
+        if (key == 0) {
+            return get(text.subSequence(start, end).toString());
+        }
+        int record = index.get(key);
+        return record >= 0 && table.code(record) == key ? new Link(record) : null;
+    }
+
+    @Override
+    public ShortUrl putIfAbsent(ShortUrl shortUrl) {
+        String shortCode = shortUrl.getShortCode();
+        byte[] url = LinkTable.utf8(shortUrl.getOriginalUrl());
+        long key = LinkTable.packCode(shortCode);
+        int existing;
+        int[] created = {-1};
+        if (key != 0) {
+            existing = index.putIfAbsent(key, () -> created[0] = table.allocate(shortUrl, key, url, null));
+        } else {
+            Integer record = longCodes.computeIfAbsent(shortCode,
+                    code -> created[0] = table.allocate(shortUrl, 0, url, LinkTable.utf8(code)));
+            existing = created[0] >= 0 ? -1 : record;
+        }
+        if (existing >= 0) {
+            return new Link(existing);
+        }
+        expirationIndex.add(created[0], shortUrl.getExpiresAtMillis());
+        return null;
+    }
+
+    // Ссылки сравниваются по id: сюда может прийти и представление, и исходный объект, переданный в putIfAbsent
+    @Override
+    public boolean remove(ShortUrl shortUrl) {
+        String shortCode = shortUrl.getShortCode();
+        int record = find(shortCode);
+        if (record < 0) {
+            return false;
+        }
+        UUID id = shortUrl.getId();
+        if (table.idHi(record) != id.getMostSignificantBits() || table.idLo(record) != id.getLeastSignificantBits()) {
+            return false;
+        }
+        if (!unindex(record)) {
+            return false;
+        }
+        table.free(record);
+        return true;
+    }
+
+    @Override
+    public int evictExpired(long nowMillis, int maxEvictions, Consumer<ShortUrl> onEvicted) {
+        return expirationIndex.expire(nowMillis, maxEvictions, record -> {
+            // В тике могла остаться уже удалённая или переиспользованная запись
+            if (table.expiresAtMillis(record) >= nowMillis) {
+                return false;
+            }
+            if (!unindex(record)) {
+                return false;
+            }
+            onEvicted.accept(new Link(record));
+            table.free(record);
+            return true;
+        });
+    }
+
+    @Override
+    public int size() {
+        return index.size() + longCodes.size();
+    }
+
+    @Override
+    public void forEach(Consumer<ShortUrl> action) {
+        index.forEach(record -> action.accept(new Link(record)));
+        longCodes.values().forEach(record -> action.accept(new Link(record)));
+    }
+
+    @Override
+    public void registerMetrics(Metrics metrics) {
+        metrics.gauge("shortener_store_heap_bytes", "Память ссылок в куче: таблица записей и индекс кодов",
+                this::heapBytes);
+        metrics.gauge("shortener_store_offheap_bytes", "Память строк URL вне кучи", this::offHeapBytes);
+        metrics.gauge("shortener_store_url_dictionary_entries", "Куски URL в общем словаре движка interned",
+                this::urlDictionarySize);
+        metrics.gauge("shortener_store_bytes_per_link", "Память хранилища на одну живую ссылку", () -> {
+            int size = size();
+            return size == 0 ? Double.NaN : (double) (heapBytes() + offHeapBytes()) / size;
+        });
+    }
+
+    // Память под ссылки: таблица, индекс и словарь URL в куче, строки вне кучи
+    public long heapBytes() {
+        return table.heapBytes() + index.bytes() + table.dictionaryBytes();
+    }
+
+    public long offHeapBytes() {
+        return table.offHeapBytes();
+    }
+
+    // Куски адресов в словаре движка interned; 0 у compact
+    public int urlDictionarySize() {
+        return table.dictionarySize();
+    }
+
+    public int pendingExpirationTicks() {
+        return expirationIndex.pendingTicks();
+    }
+
+    private int find(String shortCode) {
+        long key = LinkTable.packCode(shortCode);
+        if (key == 0) {
+            Integer record = longCodes.get(shortCode);
+            return record != null ? record : -1;
+        }
+        int record = index.get(key);
+        // Слот мог быть занят заново между чтением ключа и номера записи
+        return record >= 0 && table.code(record) == key ? record : -1;
+    }
+
+    // Снимает код записи с индекса, только если он всё ещё указывает на неё
+    private boolean unindex(int record) {
+        long key = table.code(record);
+        return key > 0 ? index.remove(key, record) : longCodes.remove(table.shortCode(record), record);
+    }
+
+    // Представление записи: всё читается из таблицы при обращении
+    // Каждое чтение сверяется с поколением записи после чтения, а изменение - в той же CAS: представление
+    // из очереди журнала или аналитики не выдаст данные ссылки, которой запись досталась после удаления,
+    // и не засчитает ей переход
+    private final class Link extends ShortUrl {
+        private final int record;
+        private final int generation;
+
+        Link(int record) {
+            this.record = record;
+            this.generation = table.generation(record);
+        }
+
+        @Override
+        public UUID getId() {
+            UUID id = new UUID(table.idHi(record), table.idLo(record));
+            checkGeneration();
+            return id;
+        }
+
+        @Override
+        public String getOriginalUrl() {
+            try {
+                String url = table.originalUrl(record);
+                checkGeneration();
+                return url;
+            } catch (RuntimeException e) {
+                // Строка переиспользованной записи могла быть уже освобождена
+                checkGeneration();
+                throw e;
+            }
+        }
+
+        @Override
+        public int getOriginalUrlMaxBytes() {
+            try {
+                int length = table.originalUrlLength(record);
+                checkGeneration();
+                return length;
+            } catch (RuntimeException e) {
+                checkGeneration();
+                throw e;
+            }
+        }
+
+        @Override
+        public void writeOriginalUrl(ByteBuffer out) {
+            try {
+                table.writeOriginalUrl(record, out);
+                checkGeneration();
+            } catch (RuntimeException e) {
+                checkGeneration();
+                throw e;
+            }
+        }
+
+        @Override
+        public String getShortCode() {
+            try {
+                String shortCode = table.shortCode(record);
+                checkGeneration();
+                return shortCode;
+            } catch (RuntimeException e) {
+                checkGeneration();
+                throw e;
+            }
+        }
+
+        @Override
+        public UUID getUserId() {
+            UUID userId = new UUID(table.userHi(record), table.userLo(record));
+            checkGeneration();
+            return userId;
+        }
+
+        @Override
+        public int getClickLimit() {
+            int clickLimit = table.clickLimit(record);
+            checkGeneration();
+            return clickLimit;
+        }
+
+        @Override
+        public int getClickCount() {
+            int clickCount = table.clickCount(record, generation);
+            checkGeneration();
+            return clickCount;
+        }
+
+        @Override
+        public LocalDateTime getCreatedAt() {
+            return toLocalDateTime(getCreatedAtMillis());
+        }
+
+        @Override
+        public long getCreatedAtMillis() {
+            long createdAt = table.createdAtMillis(record);
+            checkGeneration();
+            return createdAt;
+        }
+
+        @Override
+        public LocalDateTime getExpiresAt() {
+            return toLocalDateTime(getExpiresAtMillis());
+        }
+
+        @Override
+        public long getExpiresAtMillis() {
+            long expiresAt = table.expiresAtMillis(record);
+            checkGeneration();
+            return expiresAt;
+        }
+
+        @Override
+        public boolean isActive() {
+            boolean active = table.isActive(record);
+            checkGeneration();
+            return active;
+        }
+
+        @Override
+        public void setActive(boolean active) {
+            if (!table.setActive(record, generation, active)) {
+                throw staleRecord();
+            }
+        }
+
+        @Override
+        public boolean tryRegisterClick() {
+            if (table.tryAcquire(record, generation)) {
+                return true;
+            }
+            // Отказ и по лимиту, и по чужому поколению: второе - ошибка, как у любого чтения
+            checkGeneration();
+            return false;
+        }
+
+        @Override
+        public boolean isClickLimitExceeded() {
+            boolean exhausted = table.isExhausted(record, generation);
+            checkGeneration();
+            return exhausted;
+        }
+
+        @Override
+        public void restoreClickCount(int clickCount) {
+            if (!table.advanceClicks(record, generation, clickCount)) {
+                throw staleRecord();
+            }
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Link && ((Link) other).record == record && ((Link) other).generation == generation
+                    && ((Link) other).store() == store();
+        }
+
+        @Override
+        public int hashCode() {
+            return record;
+        }
+
+        private CompactShortUrlStore store() {
+            return CompactShortUrlStore.this;
+        }
+
+        private void checkGeneration() {
+            if (!table.isGeneration(record, generation)) {
+                throw staleRecord();
+            }
+        }
+
+        private IllegalStateException staleRecord() {
+            return new IllegalStateException("❌ Ссылка удалена, её запись уже занята другой ссылкой");
+        }
+    }
+}
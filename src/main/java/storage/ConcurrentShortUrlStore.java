@@ -0,0 +1,72 @@
+package storage;
+
+import model.ShortUrl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+public class ConcurrentShortUrlStore implements ShortUrlStore {
+    private static final long DEFAULT_TICK_MILLIS = 1000;
+
+    private final ConcurrentHashMap<String, ShortUrl> shortCodeToUrlMap;
+    private final ExpirationIndex expirationIndex;
+
+    public ConcurrentShortUrlStore() {
+        this(1024);
+    }
+
+    public ConcurrentShortUrlStore(int initialCapacity) {
+        this(initialCapacity, DEFAULT_TICK_MILLIS);
+    }
+
+    public ConcurrentShortUrlStore(int initialCapacity, long expirationTickMillis) {
+        // get() в ConcurrentHashMap не берёт блокировок, поэтому редиректы читают без конкуренции
+        this.shortCodeToUrlMap = new ConcurrentHashMap<>(initialCapacity);
+        this.expirationIndex = new ExpirationIndex(expirationTickMillis);
+    }
+
+    @Override
+    public ShortUrl get(String shortCode) {
+        return shortCodeToUrlMap.get(shortCode);
+    }
+
+    @Override
+    public ShortUrl putIfAbsent(ShortUrl shortUrl) {
+        ShortUrl existing = shortCodeToUrlMap.putIfAbsent(shortUrl.getShortCode(), shortUrl);
+        if (existing == null) {
+            expirationIndex.add(shortUrl);
+        }
+        return existing;
+    }
+
+    @Override
+    public boolean remove(ShortUrl shortUrl) {
+        if (shortCodeToUrlMap.remove(shortUrl.getShortCode(), shortUrl)) {
+            expirationIndex.remove(shortUrl);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int evictExpired(long nowMillis, int maxEvictions, Consumer<ShortUrl> onEvicted) {
+        return expirationIndex.expire(nowMillis, maxEvictions, shortUrl -> {
+            if (!shortCodeToUrlMap.remove(shortUrl.getShortCode(), shortUrl)) {
+                return false;
+            }
+            onEvicted.accept(shortUrl);
+            return true;
+        });
+    }
+
+    @Override
+    public int size() {
+        return shortCodeToUrlMap.size();
+    }
+
+    @Override
+    public void forEach(Consumer<ShortUrl> action) {
+        // Слабо согласованный обход: не бросает ConcurrentModificationException при параллельных записях
+        shortCodeToUrlMap.values().forEach(action);
+    }
+}
@@ -0,0 +1,137 @@
+package storage;
+
+// Фильтр кукушки: множество 16-битных отпечатков кодов с удалением. Корзина - один long из четырёх отпечатков,
+// у кода две возможные корзины, вторая вычисляется из первой и отпечатка (i2 = i1 ^ h(fp)),
+// поэтому отпечаток можно переложить, не зная самого кода.
+// Ложных отрицаний нет, пока удаляются только добавленные коды; ложных срабатываний ~8/65536 (0.012%).
+// Не потокобезопасен: пишут под блокировкой FilteredShortUrlStore, читают оптимистично
+final class CuckooFilter {
+    static final int SLOTS_PER_BUCKET = 4;
+    private static final int MAX_KICKS = 500;
+    private static final int MAX_LOAD_PERCENT = 90;
+
+    private static final long LANES = 0x0001_0001_0001_0001L;
+    private static final long HIGH_BITS = 0x8000_8000_8000_8000L;
+
+    private final long[] buckets;
+    private final int mask;
+    private int count;
+    private long random = 0x9E3779B97F4A7C15L;
+
+    CuckooFilter(int expectedEntries) {
+        int needed = (int) Math.min(1 << 30, (long) expectedEntries * 100 / MAX_LOAD_PERCENT / SLOTS_PER_BUCKET + 1);
+        int size = Integer.highestOneBit(Math.max(16, needed - 1)) << 1;
+        this.buckets = new long[size];
+        this.mask = size - 1;
+    }
+
+    // Хэш кода как части строки: без substring, как и поиск в хранилище.
+    // Множитель 31, как в String.hashCode, на алфавите кодов даёт много совпадений ("xn" и "z0")
+    static long hash(CharSequence text, int start, int end) {
+        long h = end - start;
+        for (int i = start; i < end; i++) {
+            h = (h + text.charAt(i)) * 0x9E3779B97F4A7C15L;
+        }
+        h = (h ^ h >>> 33) * 0xff51afd7ed558ccdL;
+        h = (h ^ h >>> 33) * 0xc4ceb9fe1a85ec53L;
+        return h ^ h >>> 33;
+    }
+
+    boolean mightContain(long hash) {
+        long fingerprint = fingerprint(hash);
+        int first = (int) hash & mask;
+        return hasLane(buckets[first], fingerprint) || hasLane(buckets[alternate(first, fingerprint)], fingerprint);
+    }
+
+    // false - фильтр переполнен; один отпечаток при этом потерян, фильтр надо перестроить
+    boolean add(long hash) {
+        long fingerprint = fingerprint(hash);
+        int index = (int) hash & mask;
+        if (tryPlace(index, fingerprint) || tryPlace(alternate(index, fingerprint), fingerprint)) {
+            count++;
+            return true;
+        }
+        for (int kick = 0; kick < MAX_KICKS; kick++) {
+            // Выселяем случайного соседа во вторую его корзину
+            random ^= random << 13;
+            random ^= random >>> 7;
+            random ^= random << 17;
+            int shift = (int) (random & (SLOTS_PER_BUCKET - 1)) << 4;
+            long victim = buckets[index] >>> shift & 0xFFFF;
+            buckets[index] = buckets[index] & ~(0xFFFFL << shift) | fingerprint << shift;
+            fingerprint = victim;
+            index = alternate(index, fingerprint);
+            if (tryPlace(index, fingerprint)) {
+                count++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Удаляет одну копию отпечатка; коды с одинаковым отпечатком и корзиной хранятся копиями
+    boolean remove(long hash) {
+        long fingerprint = fingerprint(hash);
+        int first = (int) hash & mask;
+        if (clearLane(first, fingerprint) || clearLane(alternate(first, fingerprint), fingerprint)) {
+            count--;
+            return true;
+        }
+        return false;
+    }
+
+    boolean isFull() {
+        return (long) count * 100 >= (long) buckets.length * SLOTS_PER_BUCKET * MAX_LOAD_PERCENT;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int capacity() {
+        return buckets.length * SLOTS_PER_BUCKET;
+    }
+
+    long sizeInBytes() {
+        return (long) buckets.length * Long.BYTES;
+    }
+
+    private boolean tryPlace(int index, long fingerprint) {
+        long bucket = buckets[index];
+        long empty = zeroLanes(bucket);
+        if (empty == 0) {
+            return false;
+        }
+        buckets[index] = bucket | fingerprint << (Long.numberOfTrailingZeros(empty) & ~15);
+        return true;
+    }
+
+    private boolean clearLane(int index, long fingerprint) {
+        long bucket = buckets[index];
+        long matches = zeroLanes(bucket ^ fingerprint * LANES);
+        if (matches == 0) {
+            return false;
+        }
+        buckets[index] = bucket & ~(0xFFFFL << (Long.numberOfTrailingZeros(matches) & ~15));
+        return true;
+    }
+
+    private int alternate(int index, long fingerprint) {
+        return (index ^ (int) (fingerprint * 0x5bd1e995L)) & mask;
+    }
+
+    // 0 зарезервирован под пустую ячейку
+    private static long fingerprint(long hash) {
+        long fingerprint = hash >>> 48;
+        return fingerprint != 0 ? fingerprint : 1;
+    }
+
+    private static boolean hasLane(long bucket, long fingerprint) {
+        return zeroLanes(bucket ^ fingerprint * LANES) != 0;
+    }
+
+    // Старший бит каждой нулевой 16-битной ячейки; младший из них точен, выше бывают ложные
+    private static long zeroLanes(long bucket) {
+        return (bucket - LANES) & ~bucket & HIGH_BITS;
+    }
+}
@@ -0,0 +1,77 @@
+package storage;
+
+import model.ShortUrl;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+
+// Ссылки, разложенные по тикам истечения: очистка трогает только наступившие тики, а не всю карту
+public class ExpirationIndex {
+    private final long tickMillis;
+    private final ConcurrentHashMap<Long, Set<ShortUrl>> buckets = new ConcurrentHashMap<>();
+    // Упорядоченные номера непустых (или ещё не убранных) тиков
+    private final ConcurrentSkipListSet<Long> ticks = new ConcurrentSkipListSet<>();
+
+    public ExpirationIndex(long tickMillis) {
+        this.tickMillis = tickMillis;
+    }
+
+    public void add(ShortUrl shortUrl) {
+        // compute() атомарен по ключу, поэтому добавление не теряется при параллельном удалении пустого тика
+        buckets.compute(tickOf(shortUrl), (tick, bucket) -> {
+            if (bucket == null) {
+                bucket = ConcurrentHashMap.newKeySet();
+                ticks.add(tick);
+            }
+            bucket.add(shortUrl);
+            return bucket;
+        });
+    }
+
+    public void remove(ShortUrl shortUrl) {
+        Set<ShortUrl> bucket = buckets.get(tickOf(shortUrl));
+        if (bucket != null) {
+            bucket.remove(shortUrl);
+        }
+    }
+
+    // Выселяет не больше maxEvictions ссылок из наступивших тиков; остаток уйдёт на следующем тике
+    public int expire(long nowMillis, int maxEvictions, Predicate<ShortUrl> evictor) {
+        long nowTick = nowMillis / tickMillis;
+        int evicted = 0;
+        for (Iterator<Long> dueTicks = ticks.headSet(nowTick, true).iterator();
+             dueTicks.hasNext() && evicted < maxEvictions; ) {
+            Long tick = dueTicks.next();
+            Set<ShortUrl> bucket = buckets.get(tick);
+            if (bucket != null) {
+                for (Iterator<ShortUrl> links = bucket.iterator(); links.hasNext() && evicted < maxEvictions; ) {
+                    ShortUrl shortUrl = links.next();
+                    // remove() из набора выигрывает только один из параллельных очистителей
+                    if (bucket.remove(shortUrl) && evictor.test(shortUrl)) {
+                        evicted++;
+                    }
+                }
+            }
+            buckets.computeIfPresent(tick, (key, current) -> {
+                if (!current.isEmpty()) {
+                    return current;
+                }
+                ticks.remove(key);
+                return null;
+            });
+        }
+        return evicted;
+    }
+
+    public int pendingTicks() {
+        return ticks.size();
+    }
+
+    // Номер тика округляется вверх: ссылка выселяется не раньше своего expiresAt и не позже чем через тик
+    private long tickOf(ShortUrl shortUrl) {
+        return shortUrl.getExpiresAtMillis() / tickMillis + 1;
+    }
+}
@@ -0,0 +1,382 @@
+package storage;
+
+import config.AppConfig;
+import metrics.Metrics;
+import model.ShortUrl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+// Сторож перед хранилищем: фильтр кукушки по всем живым кодам отсекает неизвестные коды без обращения
+// к хранилищу, а значит и к диску. Перебор случайных путей ботами стоит хэша и двух чтений памяти.
+// Фильтр разбит на полосы по битам хэша, которые не входят ни в корзину, ни в отпечаток: у каждой полосы
+// свой фильтр и свой StampedLock, поэтому вставки в разные полосы не ждут друг друга.
+// Чтение полосы оптимистичное, без блокировок; если полоса в этот момент меняется или потеряла отпечаток,
+// код считается возможно существующим и идёт в хранилище - ложных «нет» не бывает.
+// Отпечаток добавляется до вставки в хранилище и снимается после удаления из него
+public class FilteredShortUrlStore implements ShortUrlStore {
+    private static final int MAX_REBUILD_ATTEMPTS = 3;
+    private static final int STRIPES = 64;
+    // Корзина берёт младшие биты хэша (не больше 30), отпечаток - старшие 16, полоса - биты 40-45
+    private static final int STRIPE_SHIFT = 40;
+
+    private final ShortUrlStore backing;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    // Коды, чей отпечаток уже в фильтре, а вставка в хранилище ещё идёт: перестройка их не потеряет
+    private final Map<String, Integer> pending = new ConcurrentHashMap<>();
+    // Перестройка идёт в потоке, который её запросил, и одна за раз; запрос во время неё
+    // выполняется следующим проходом
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    private volatile boolean rebuildRequested;
+    // Нечётное - идёт перестройка; растёт в её начале и в конце. Удаление, которое с ней пересеклось,
+    // не трогает новый фильтр, иначе сняло бы чужой отпечаток. Лишний отпечаток даёт только ложное срабатывание
+    private volatile long generation;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    // Поля меняются только под записью lock полосы
+    private static final class Stripe {
+        final StampedLock lock = new StampedLock();
+        CuckooFilter filter;
+        // false - отпечаток не влез; до конца перестройки полоса на всё отвечает «возможно»
+        boolean complete;
+        // Отпечатки, добавленные во время перестройки; null - перестройки нет
+        long[] journal;
+        int journalSize;
+
+        void record(long hash) {
+            if (journalSize == journal.length) {
+                journal = Arrays.copyOf(journal, journalSize * 2);
+            }
+            journal[journalSize++] = hash;
+        }
+    }
+
+    // Фильтр выключен в конфиге - хранилище используется как есть
+    public static ShortUrlStore fromConfig(AppConfig config, ShortUrlStore backing) {
+        return config.isCodeFilterEnabled() ? new FilteredShortUrlStore(backing) : backing;
+    }
+
+    // Коды, восстановленные хранилищем с диска, попадают в фильтр сразу
+    public FilteredShortUrlStore(ShortUrlStore backing) {
+        this.backing = backing;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        rebuild();
+    }
+
+    @Override
+    public ShortUrl get(String shortCode) {
+        return get(shortCode, 0, shortCode.length());
+    }
+
+    @Override
+    public ShortUrl get(CharSequence text, int start, int end) {
+        if (!mightContain(text, start, end)) {
+            return null;
+        }
+        ShortUrl shortUrl = backing.get(text, start, end);
+        if (shortUrl == null) {
+            falsePositives.increment();
+        }
+        return shortUrl;
+    }
+
+    @Override
+    public boolean mightContain(CharSequence text, int start, int end) {
+        long hash = CuckooFilter.hash(text, start, end);
+        Stripe stripe = stripeOf(hash);
+        long stamp = stripe.lock.tryOptimisticRead();
+        if (stamp == 0) {
+            return true;
+        }
+        boolean found = !stripe.complete || stripe.filter.mightContain(hash);
+        if (found || !stripe.lock.validate(stamp)) {
+            return true;
+        }
+        // Отказ считается здесь: веб-сервер спрашивает фильтр напрямую, не через get
+        rejected.increment();
+        return false;
+    }
+
+    @Override
+    public ShortUrl putIfAbsent(ShortUrl shortUrl) {
+        String shortCode = shortUrl.getShortCode();
+        if (addPending(shortCode)) {
+            rebuild();
+        }
+        ShortUrl existing = null;
+        boolean inserted = false;
+        try {
+            existing = backing.putIfAbsent(shortUrl);
+            inserted = existing == null;
+        } finally {
+            resolvePending(shortCode, inserted);
+        }
+        return existing;
+    }
+
+    @Override
+    public ShortUrl[] putAllIfAbsent(List<ShortUrl> shortUrls) {
+        boolean overflow = false;
+        for (ShortUrl shortUrl : shortUrls) {
+            overflow |= addPending(shortUrl.getShortCode());
+        }
+        if (overflow) {
+            rebuild();
+        }
+        ShortUrl[] existing = null;
+        try {
+            existing = backing.putAllIfAbsent(shortUrls);
+        } finally {
+            for (int i = 0; i < shortUrls.size(); i++) {
+                resolvePending(shortUrls.get(i).getShortCode(), existing != null && existing[i] == null);
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public boolean remove(ShortUrl shortUrl) {
+        long generationBefore = generation;
+        if (!backing.remove(shortUrl)) {
+            return false;
+        }
+        forget(List.of(shortUrl.getShortCode()), generationBefore);
+        return true;
+    }
+
+    // Отпечатки снимаются после очистки: колбэк хранилища может идти под его блокировкой,
+    // и брать под ней блокировки полос незачем
+    @Override
+    public int evictExpired(long nowMillis, int maxEvictions, Consumer<ShortUrl> onEvicted) {
+        long generationBefore = generation;
+        List<String> evicted = new ArrayList<>();
+        int removed = backing.evictExpired(nowMillis, maxEvictions, shortUrl -> {
+            evicted.add(shortUrl.getShortCode());
+            onEvicted.accept(shortUrl);
+        });
+        forget(evicted, generationBefore);
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return backing.size();
+    }
+
+    @Override
+    public void forEach(Consumer<ShortUrl> action) {
+        backing.forEach(action);
+    }
+
+    @Override
+    public void recordClick(ShortUrl shortUrl) {
+        backing.recordClick(shortUrl);
+    }
+
+    @Override
+    public void registerMetrics(Metrics metrics) {
+        metrics.counter("shortener_filter_rejected_total", "Неизвестные коды, отсечённые фильтром",
+                this::getRejectedCount);
+        metrics.counter("shortener_filter_false_positives_total", "Коды, пропущенные фильтром и не найденные",
+                this::getFalsePositiveCount);
+        metrics.gauge("shortener_filter_bytes", "Память фильтра кодов", this::getFilterBytes);
+        backing.registerMetrics(metrics);
+    }
+
+    // Запросы, которым фильтр ответил «нет» и которые не дошли до хранилища
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    // Фильтр пропустил, а в хранилище кода не оказалось
+    public long getFalsePositiveCount() {
+        return falsePositives.sum();
+    }
+
+    public int getFingerprintCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                count += stripe.filter.size();
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return count;
+    }
+
+    public long getFilterBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                bytes += stripe.filter.sizeInBytes();
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return bytes;
+    }
+
+    private Stripe stripeOf(long hash) {
+        return stripes[(int) (hash >>> STRIPE_SHIFT) & (STRIPES - 1)];
+    }
+
+    // true - полоса заполнена или потеряла отпечаток, нужна перестройка
+    private boolean addPending(String shortCode) {
+        pending.merge(shortCode, 1, Integer::sum);
+        long hash = CuckooFilter.hash(shortCode, 0, shortCode.length());
+        Stripe stripe = stripeOf(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            if (stripe.complete && !stripe.filter.add(hash)) {
+                stripe.complete = false;
+            }
+            // Идущая перестройка дольёт отпечаток из журнала, а не вместит - пройдёт ещё раз сама
+            if (stripe.journal != null) {
+                stripe.record(hash);
+                return false;
+            }
+            return !stripe.complete || stripe.filter.isFull();
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    // Удачная вставка только снимает код из pending: её отпечаток уже на месте.
+    // Отпечаток неудачной снимается в любом поколении, и до того, как код покинет pending: пока код там,
+    // любая перестройка переносит его копию в новый фильтр, и снимается именно она, а не копия живой ссылки
+    // с тем же кодом. Во время перестройки копия остаётся в новом фильтре лишней - это лишь ложное срабатывание
+    private void resolvePending(String shortCode, boolean inserted) {
+        if (!inserted) {
+            long hash = CuckooFilter.hash(shortCode, 0, shortCode.length());
+            Stripe stripe = stripeOf(hash);
+            long stamp = stripe.lock.writeLock();
+            try {
+                stripe.filter.remove(hash);
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+        pending.compute(shortCode, (code, count) -> count == 1 ? null : count - 1);
+    }
+
+    private void forget(List<String> shortCodes, long generationBefore) {
+        if ((generationBefore & 1) != 0) {
+            return;
+        }
+        for (String shortCode : shortCodes) {
+            long hash = CuckooFilter.hash(shortCode, 0, shortCode.length());
+            Stripe stripe = stripeOf(hash);
+            long stamp = stripe.lock.writeLock();
+            try {
+                // Перестройка, начавшаяся после удаления из хранилища, уже не видела этот код
+                if (generation != generationBefore) {
+                    return;
+                }
+                stripe.filter.remove(hash);
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    // Перестройка идёт без блокировок полос: пока обход хранилища собирает новые фильтры, полосы
+    // принимают вставки и пишут их отпечатки в журнал, а чтения идут в старые фильтры.
+    // В конце журнал каждой полосы доливается в её новый фильтр, и тот подменяет старый
+    private void rebuild() {
+        rebuildRequested = true;
+        while (rebuildRequested && rebuildLock.tryLock()) {
+            try {
+                if (!rebuildRequested) {
+                    continue;
+                }
+                rebuildRequested = false;
+                int entries = Math.max(1024, Math.max(capacity(), (backing.size() + pending.size()) * 2));
+                for (int attempt = 0; !tryRebuild(entries); attempt++) {
+                    // Свободного места с запасом, а отпечатки не влезают: один код вставляют сразу много раз
+                    if (attempt == MAX_REBUILD_ATTEMPTS) {
+                        throw new IllegalStateException("❌ Не удалось перестроить фильтр кодов");
+                    }
+                    entries *= 2;
+                }
+            } finally {
+                rebuildLock.unlock();
+            }
+        }
+    }
+
+    // false - какая-то полоса не вместила свои отпечатки и осталась неполной
+    private boolean tryRebuild(int expectedEntries) {
+        generation++;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.writeLock();
+            try {
+                stripe.journal = new long[16];
+                stripe.journalSize = 0;
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+        CuckooFilter[] rebuilt = new CuckooFilter[STRIPES];
+        boolean[] overflow = new boolean[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            rebuilt[i] = new CuckooFilter(expectedEntries / STRIPES);
+        }
+        // Сначала pending, потом хранилище: код, покинувший pending до его обхода, к этому моменту
+        // уже вставлен в хранилище. Лишняя копия даст лишь ложное срабатывание
+        pending.forEach((shortCode, count) -> addCopies(rebuilt, overflow, shortCode, count));
+        backing.forEach(shortUrl -> addCopies(rebuilt, overflow, shortUrl.getShortCode(), 1));
+        boolean complete = true;
+        for (int i = 0; i < STRIPES; i++) {
+            Stripe stripe = stripes[i];
+            long stamp = stripe.lock.writeLock();
+            try {
+                for (int j = 0; j < stripe.journalSize && !overflow[i]; j++) {
+                    overflow[i] = !rebuilt[i].add(stripe.journal[j]);
+                }
+                stripe.filter = rebuilt[i];
+                stripe.complete = !overflow[i];
+                stripe.journal = null;
+                complete &= stripe.complete;
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+        generation++;
+        return complete;
+    }
+
+    private int capacity() {
+        int capacity = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                capacity += stripe.filter != null ? stripe.filter.capacity() : 0;
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return capacity;
+    }
+
+    private void addCopies(CuckooFilter[] targets, boolean[] overflow, String shortCode, int copies) {
+        long hash = CuckooFilter.hash(shortCode, 0, shortCode.length());
+        int index = (int) (hash >>> STRIPE_SHIFT) & (STRIPES - 1);
+        for (int i = 0; i < copies && !overflow[index]; i++) {
+            overflow[index] = !targets[index].add(hash);
+        }
+    }
+}
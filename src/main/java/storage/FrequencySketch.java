@@ -0,0 +1,75 @@
+package storage;
+
+// Частота обращений к кодам для допуска в кэш (TinyLFU): Count-Min из четырёх 4-битных счётчиков на код.
+// Все четыре счётчика кода лежат в одном блоке из восьми long (64 байта, одна строка кэша процессора),
+// поэтому обновление стоит одного промаха по памяти, а не четырёх.
+// После sampleSize увеличений все счётчики делятся пополам - старая популярность со временем забывается.
+// Не потокобезопасен: вызывается под блокировкой политики кэша
+final class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final int BLOCK_SHIFT = 3;
+
+    private final long[] table;
+    private final int blockMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int expectedEntries) {
+        int size = Integer.highestOneBit(Math.max(64, expectedEntries - 1)) << 1;
+        this.table = new long[size];
+        this.blockMask = (size >>> BLOCK_SHIFT) - 1;
+        this.sampleSize = 10 * size;
+    }
+
+    int frequency(int hash) {
+        int block = block(hash);
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long mixed = mix(hash, i);
+            int offset = (int) (mixed & 15) << 2;
+            frequency = Math.min(frequency, (int) (table[index(block, mixed)] >>> offset & 15));
+        }
+        return frequency;
+    }
+
+    void increment(int hash) {
+        int block = block(hash);
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long mixed = mix(hash, i);
+            int index = index(block, mixed);
+            int offset = (int) (mixed & 15) << 2;
+            if ((table[index] >>> offset & 15) != 15) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = table[i] >>> 1 & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int block(int hash) {
+        return (hash * 0x9E3779B9 >>> 16 ^ hash) & blockMask;
+    }
+
+    // Номер long внутри блока
+    private static int index(int block, long mixed) {
+        return block << BLOCK_SHIFT | (int) (mixed >>> 32) & 7;
+    }
+
+    private static long mix(int hash, int depth) {
+        long mixed = (hash + SEEDS[depth]) * SEEDS[depth];
+        return mixed ^ mixed >>> 29;
+    }
+}
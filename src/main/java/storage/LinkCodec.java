@@ -0,0 +1,107 @@
+package storage;
+
+import model.ShortUrl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+// Двоичный формат ссылки, общий для журнала, снимков и репликации. Время - миллисекунды эпохи:
+// копия, прочитанная в другом часовом поясе, истекает в тот же момент
+final class LinkCodec {
+    static final int FIXED_SIZE = 16 + 16 + 4 + 4 + 8 + 8 + 1 + 2 + 4;
+    // Смещение длины кода в записи ссылки
+    static final int CODE_OFFSET = 16 + 16 + 4 + 4 + 8 + 8 + 1;
+
+    private LinkCodec() {
+    }
+
+    // Пишет ссылку в scratch (или в новый буфер, если scratch мал) и возвращает буфер, готовый к чтению
+    static ByteBuffer encode(ShortUrl shortUrl, ByteBuffer scratch) {
+        byte[] code = shortUrl.getShortCode().getBytes(StandardCharsets.UTF_8);
+        byte[] url = shortUrl.getOriginalUrl().getBytes(StandardCharsets.UTF_8);
+        int size = FIXED_SIZE + code.length + url.length;
+        ByteBuffer buffer = scratch.capacity() >= size ? scratch.clear() : ByteBuffer.allocate(size);
+        putUuid(buffer, shortUrl.getId());
+        putUuid(buffer, shortUrl.getUserId());
+        buffer.putInt(shortUrl.getClickLimit());
+        buffer.putInt(shortUrl.getClickCount());
+        buffer.putLong(shortUrl.getCreatedAtMillis());
+        buffer.putLong(shortUrl.getExpiresAtMillis());
+        buffer.put((byte) (shortUrl.isActive() ? 1 : 0));
+        buffer.putShort((short) code.length);
+        buffer.put(code);
+        buffer.putInt(url.length);
+        buffer.put(url);
+        return buffer.flip();
+    }
+
+    static ShortUrl decode(ByteBuffer buffer) {
+        return decode(buffer, false);
+    }
+
+    // Записи старого формата: то же расположение, но время там - локальное время узла, записанное как UTC
+    static ShortUrl decodeLocalTime(ByteBuffer buffer) {
+        return decode(buffer, true);
+    }
+
+    private static ShortUrl decode(ByteBuffer buffer, boolean localTime) {
+        UUID id = getUuid(buffer);
+        UUID userId = getUuid(buffer);
+        int clickLimit = buffer.getInt();
+        int clickCount = buffer.getInt();
+        long createdAt = buffer.getLong();
+        long expiresAt = buffer.getLong();
+        boolean active = buffer.get() != 0;
+        String code = getString(buffer, buffer.getShort() & 0xFFFF);
+        String url = getString(buffer, buffer.getInt());
+        if (localTime) {
+            return ShortUrl.restore(id, url, code, userId, clickLimit, clickCount, fromLocalTimeMillis(createdAt),
+                    fromLocalTimeMillis(expiresAt), active);
+        }
+        return ShortUrl.restore(id, url, code, userId, clickLimit, clickCount, createdAt, expiresAt, active);
+    }
+
+    static void putCode(ByteBuffer buffer, String shortCode) {
+        byte[] code = shortCode.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) code.length);
+        buffer.put(code);
+    }
+
+    static String getCode(ByteBuffer buffer) {
+        return getString(buffer, buffer.getShort() & 0xFFFF);
+    }
+
+    // Хэш байтов кода, записанного с offset (длина + байты), без разбора строки и без сдвига позиции
+    static int codeHash(ByteBuffer buffer, int offset) {
+        int length = buffer.getShort(offset) & 0xFFFF;
+        int hash = 1;
+        for (int i = offset + 2; i < offset + 2 + length; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        return hash;
+    }
+
+    static void putUuid(ByteBuffer buffer, UUID uuid) {
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+    }
+
+    static UUID getUuid(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    // Старый формат хранил LocalDateTime как "наивное" время: верно только в том же часовом поясе
+    private static LocalDateTime fromLocalTimeMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000),
+                Math.floorMod(millis, 1000) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    private static String getString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,401 @@
+package storage;
+
+import model.ClickCounter;
+import model.ShortUrl;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Ссылки как записи фиксированной длины в страницах long[]: без объектов UUID, LocalDateTime и String на ссылку.
+// Номер записи не меняется, пока ссылка жива, поэтому представление ShortUrl держит только его
+final class LinkTable {
+    private static final int PAGE_SHIFT = 14;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+    // Поля записи
+    private static final int CODE = 0;
+    private static final int ID_HI = 1;
+    private static final int ID_LO = 2;
+    private static final int USER_HI = 3;
+    private static final int USER_LO = 4;
+    private static final int CREATED = 5;
+    private static final int EXPIRES = 6;
+    private static final int URL = 7;
+    // Младшие 32 бита - переходы, старшие - поколение записи: CAS перехода не пройдёт по записи,
+    // которую уже заняла другая ссылка. Остаток лимита - это limit - переходы, лимит лежит в META
+    private static final int CLICKS = 8;
+    // Младшие 32 бита - лимит, бит 32 - активность, биты 40-63 - поколение записи
+    private static final int META = 9;
+    private static final int STRIDE = 10;
+
+    // Горячая ссылка: счётчик переехал в ClickCounter с полосами из hotCounters
+    private static final long INFLATED = -1L;
+    private static final long ACTIVE = 1L << 32;
+    private static final long CLICK_MASK = 0xFFFFFFFFL;
+    private static final int GENERATION_SHIFT = 40;
+    private static final long GENERATION_MASK = -1L << GENERATION_SHIFT;
+
+    // Освобождённая запись переиспользуется не раньше, чем через эту паузу: обычные представления
+    // успевают отработать со старыми данными. Представления, которые живут дольше (очереди журнала
+    // и аналитики), сверяют поколение: оно растёт до того, как запись получит новую ссылку
+    private static final long REUSE_DELAY_SECONDS = 5;
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long startedMillis = System.currentTimeMillis();
+    private final UrlArena arena = new UrlArena();
+    // Словарь кусков URL; null - адреса лежат в arena целиком
+    private final UrlDictionary dictionary;
+    private final ConcurrentHashMap<Integer, ClickCounter> hotCounters = new ConcurrentHashMap<>();
+
+    // Поля ниже меняются под монитором this
+    private volatile long[][] pages = new long[16][];
+    private int recordCount;
+    // Очередь освобождённых записей по времени освобождения: (секунды с создания таблицы << 32 | номер записи)
+    private long[] freed = new long[64];
+    private int freedHead;
+    private int freedSize;
+
+    LinkTable(boolean internUrls) {
+        this.dictionary = internUrls ? new UrlDictionary() : null;
+    }
+
+    synchronized int allocate(ShortUrl shortUrl, long code, byte[] url, byte[] longCode) {
+        int record = reuseOrGrow();
+        long[] page = pages[record >>> PAGE_SHIFT];
+        int base = (record & PAGE_MASK) * STRIDE;
+        page[base + CODE] = longCode != null ? ~arena.append(longCode) : code;
+        page[base + ID_HI] = shortUrl.getId().getMostSignificantBits();
+        page[base + ID_LO] = shortUrl.getId().getLeastSignificantBits();
+        page[base + USER_HI] = shortUrl.getUserId().getMostSignificantBits();
+        page[base + USER_LO] = shortUrl.getUserId().getLeastSignificantBits();
+        page[base + CREATED] = shortUrl.getCreatedAtMillis();
+        page[base + EXPIRES] = shortUrl.getExpiresAtMillis();
+        page[base + URL] = arena.append(dictionary != null ? dictionary.encode(url) : url);
+        int limit = shortUrl.getClickLimit();
+        long generation = page[base + META] >>> GENERATION_SHIFT;
+        page[base + META] = (page[base + META] & GENERATION_MASK) | (shortUrl.isActive() ? ACTIVE : 0)
+                | (limit & CLICK_MASK);
+        // Публикация со сбросом: увидевший новое поколение в счётчике увидит и смену поколения в META
+        LONGS.setRelease(page, base + CLICKS, generation << 32 | shortUrl.getClickCount() & CLICK_MASK);
+        return record;
+    }
+
+    // Запись возвращается в очередь; строки и счётчик освобождаются при повторном использовании
+    synchronized void free(int record) {
+        if (freedSize == freed.length) {
+            long[] grown = new long[freed.length * 2];
+            for (int i = 0; i < freedSize; i++) {
+                grown[i] = freed[(freedHead + i) % freed.length];
+            }
+            freed = grown;
+            freedHead = 0;
+        }
+        freed[(freedHead + freedSize++) % freed.length] = secondsSinceStart() << 32 | record;
+    }
+
+    private int reuseOrGrow() {
+        if (freedSize > 0) {
+            long head = freed[freedHead];
+            if (secondsSinceStart() - (head >>> 32) >= REUSE_DELAY_SECONDS) {
+                freedHead = (freedHead + 1) % freed.length;
+                freedSize--;
+                int record = (int) head;
+                nextGeneration(record);
+                long code = get(record, CODE);
+                if (code < 0) {
+                    arena.release(~code);
+                }
+                long url = get(record, URL);
+                if (dictionary != null) {
+                    dictionary.release(arena.chunk(url), (int) url + 4);
+                }
+                arena.release(url);
+                hotCounters.remove(record);
+                return record;
+            }
+        }
+        int record = recordCount++;
+        int pageIndex = record >>> PAGE_SHIFT;
+        if (pageIndex == pages.length) {
+            long[][] grown = new long[pages.length * 2][];
+            System.arraycopy(pages, 0, grown, 0, pages.length);
+            pages = grown;
+        }
+        if (pages[pageIndex] == null) {
+            pages[pageIndex] = new long[STRIDE << PAGE_SHIFT];
+        }
+        return record;
+    }
+
+    // Код до 9 символов ASCII упаковывается в long по 7 бит на символ; 0 - код не упаковывается
+    static long packCode(String shortCode) {
+        return packCode(shortCode, 0, shortCode.length());
+    }
+
+    static long packCode(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length <= 0 || length > 9) {
+            return 0;
+        }
+        long packed = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == 0 || c > 127) {
+                return 0;
+            }
+            packed = packed << 7 | c;
+        }
+        return packed;
+    }
+
+    static String unpackCode(long packed) {
+        char[] chars = new char[9];
+        int start = chars.length;
+        while (packed != 0) {
+            chars[--start] = (char) (packed & 0x7F);
+            packed >>>= 7;
+        }
+        return new String(chars, start, chars.length - start);
+    }
+
+    long code(int record) {
+        return get(record, CODE);
+    }
+
+    int generation(int record) {
+        return (int) (getVolatile(record, META) >>> GENERATION_SHIFT);
+    }
+
+    // Как StampedLock.validate: поля, прочитанные до проверки, принадлежат записи этого поколения
+    boolean isGeneration(int record, int generation) {
+        VarHandle.acquireFence();
+        return generation(record) == generation;
+    }
+
+    // Поколение меняется раньше строк и полей записи: представление, прочитавшее новые данные, увидит и его
+    private void nextGeneration(int record) {
+        long[] page = pages[record >>> PAGE_SHIFT];
+        int index = (record & PAGE_MASK) * STRIDE + META;
+        long meta;
+        do {
+            meta = (long) LONGS.getVolatile(page, index);
+        } while (!LONGS.compareAndSet(page, index, meta, meta + (1L << GENERATION_SHIFT)));
+        VarHandle.releaseFence();
+    }
+
+    String shortCode(int record) {
+        long code = get(record, CODE);
+        return code < 0 ? arena.read(~code) : unpackCode(code);
+    }
+
+    boolean hasCode(int record, String shortCode) {
+        long code = get(record, CODE);
+        return code < 0 ? arena.read(~code).equals(shortCode) : code == packCode(shortCode);
+    }
+
+    long idHi(int record) {
+        return get(record, ID_HI);
+    }
+
+    long idLo(int record) {
+        return get(record, ID_LO);
+    }
+
+    long userHi(int record) {
+        return get(record, USER_HI);
+    }
+
+    long userLo(int record) {
+        return get(record, USER_LO);
+    }
+
+    long createdAtMillis(int record) {
+        return get(record, CREATED);
+    }
+
+    long expiresAtMillis(int record) {
+        return get(record, EXPIRES);
+    }
+
+    String originalUrl(int record) {
+        long url = get(record, URL);
+        if (dictionary == null) {
+            return arena.read(url);
+        }
+        ByteBuffer chunk = arena.chunk(url);
+        int offset = (int) url + 4;
+        byte[] bytes = new byte[dictionary.decodedLength(chunk, offset)];
+        dictionary.decode(chunk, offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    int originalUrlLength(int record) {
+        long url = get(record, URL);
+        return dictionary == null ? arena.length(url)
+                : dictionary.decodedLength(arena.chunk(url), (int) url + 4);
+    }
+
+    // Адрес в UTF-8 прямо в буфер: путь редиректа не создаёт ни строки, ни массива
+    void writeOriginalUrl(int record, ByteBuffer out) {
+        long url = get(record, URL);
+        if (dictionary == null) {
+            arena.copyTo(url, out);
+        } else {
+            dictionary.decode(arena.chunk(url), (int) url + 4, out);
+        }
+    }
+
+    int clickLimit(int record) {
+        return (int) getVolatile(record, META);
+    }
+
+    boolean isActive(int record) {
+        return (getVolatile(record, META) & ACTIVE) != 0;
+    }
+
+    // false - запись уже другого поколения; поколение и активность в одном слове, сверка и запись - одна CAS
+    boolean setActive(int record, int generation, boolean active) {
+        long[] page = pages[record >>> PAGE_SHIFT];
+        int index = (record & PAGE_MASK) * STRIDE + META;
+        long meta;
+        do {
+            meta = (long) LONGS.getVolatile(page, index);
+            if ((int) (meta >>> GENERATION_SHIFT) != generation) {
+                return false;
+            }
+        } while (!LONGS.compareAndSet(page, index, meta, active ? meta | ACTIVE : meta & ~ACTIVE));
+        return true;
+    }
+
+    // Значение записи другого поколения не имеет смысла - вызывающий сверяет поколение после чтения
+    int clickCount(int record, int generation) {
+        long clicks = getVolatile(record, CLICKS);
+        if (clicks != INFLATED) {
+            return (int) clicks;
+        }
+        ClickCounter counter = hotCounter(record, generation);
+        return counter != null ? counter.getCount() : 0;
+    }
+
+    boolean isExhausted(int record, int generation) {
+        long clicks = getVolatile(record, CLICKS);
+        if (clicks != INFLATED) {
+            return (int) clicks >= clickLimit(record);
+        }
+        ClickCounter counter = hotCounter(record, generation);
+        return counter == null || counter.isExhausted();
+    }
+
+    // Переход засчитывается одной CAS, в которой сверяется и поколение: false - лимит исчерпан или запись
+    // уже другого поколения. При конкуренции ссылка уходит на полосы ClickCounter
+    boolean tryAcquire(int record, int generation) {
+        long[] page = pages[record >>> PAGE_SHIFT];
+        int index = (record & PAGE_MASK) * STRIDE + CLICKS;
+        long clicks = (long) LONGS.getVolatile(page, index);
+        if (clicks != INFLATED) {
+            if ((int) (clicks >>> 32) != generation || (int) clicks >= clickLimit(record)) {
+                return false;
+            }
+            if (LONGS.compareAndSet(page, index, clicks, clicks + 1)) {
+                return true;
+            }
+        }
+        ClickCounter counter = hotCounter(record, generation);
+        return counter != null && isGeneration(record, generation) && counter.tryAcquire();
+    }
+
+    // false - запись уже другого поколения
+    boolean advanceClicks(int record, int generation, int clickCount) {
+        long[] page = pages[record >>> PAGE_SHIFT];
+        int index = (record & PAGE_MASK) * STRIDE + CLICKS;
+        long clicks;
+        while ((clicks = (long) LONGS.getVolatile(page, index)) != INFLATED) {
+            if ((int) (clicks >>> 32) != generation) {
+                return false;
+            }
+            if (clickCount <= (int) clicks) {
+                return true;
+            }
+            if (LONGS.compareAndSet(page, index, clicks, (clicks & ~CLICK_MASK) | clickCount & CLICK_MASK)) {
+                return true;
+            }
+        }
+        ClickCounter counter = hotCounter(record, generation);
+        if (counter == null || !isGeneration(record, generation)) {
+            return false;
+        }
+        counter.advanceTo(clickCount);
+        return true;
+    }
+
+    // Переключает запись на ClickCounter или ждёт, пока это закончит другой поток:
+    // слово становится INFLATED раньше, чем счётчик попадает в карту, поэтому get() здесь не годится.
+    // null - запись уже другого поколения. Внутри computeIfAbsent слово INFLATED без счётчика бывает
+    // только у записи, которую уже переиспользуют (счётчик убран, allocate ещё не записал новое слово),
+    // а слово с чужим поколением - у записи новой ссылки: такие слова не раздуваются, иначе в карте
+    // остался бы счётчик со старым лимитом и чужими переходами. Слово своего поколения могло устареть:
+    // поколение в META уже сменилось, а allocate ещё не переписал счётчик. Поэтому после CAS поколение
+    // сверяется ещё раз - reuseOrGrow меняет его до hotCounters.remove, а remove ждёт этой лямбды.
+    // Уже готовый счётчик карта отдаёт без проверок, и вызывающий сверяет поколение после получения
+    private ClickCounter hotCounter(int record, int generation) {
+        long[] page = pages[record >>> PAGE_SHIFT];
+        int index = (record & PAGE_MASK) * STRIDE + CLICKS;
+        return hotCounters.computeIfAbsent(record, key -> {
+            while (true) {
+                long clicks = (long) LONGS.getVolatile(page, index);
+                if (clicks == INFLATED || (int) (clicks >>> 32) != generation) {
+                    return null;
+                }
+                ClickCounter counter = new ClickCounter(clickLimit(record), (int) clicks);
+                if (LONGS.compareAndSet(page, index, clicks, INFLATED)) {
+                    // Слово INFLATED без счётчика allocate перепишет при выдаче записи
+                    return generation(record) == generation ? counter : null;
+                }
+            }
+        });
+    }
+
+    // Память таблицы: страницы записей в куче и строки вне кучи
+    synchronized long heapBytes() {
+        long bytes = 0;
+        for (long[] page : pages) {
+            if (page != null) {
+                bytes += (long) page.length * Long.BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    long offHeapBytes() {
+        return arena.allocatedBytes();
+    }
+
+    // Куски в словаре и его память в куче; 0 без словаря
+    int dictionarySize() {
+        return dictionary != null ? dictionary.size() : 0;
+    }
+
+    long dictionaryBytes() {
+        return dictionary != null ? dictionary.bytes() : 0;
+    }
+
+    private long secondsSinceStart() {
+        return (System.currentTimeMillis() - startedMillis) / 1000;
+    }
+
+    private long get(int record, int field) {
+        return pages[record >>> PAGE_SHIFT][(record & PAGE_MASK) * STRIDE + field];
+    }
+
+    private long getVolatile(int record, int field) {
+        return (long) LONGS.getVolatile(pages[record >>> PAGE_SHIFT], (record & PAGE_MASK) * STRIDE + field);
+    }
+
+    static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
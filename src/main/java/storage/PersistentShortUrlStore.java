@@ -0,0 +1,487 @@
+package storage;
+
+import config.AppConfig;
+import metrics.Metrics;
+import model.ShortUrl;
+import service.UserService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+// Ссылки живут в памяти, журнал и снимки только делают их долговечными: редиректы диск не трогают
+public class PersistentShortUrlStore implements ShortUrlStore, Closeable {
+    static final byte USER_CREATED = 1;
+    // Создание ссылки со временем в локальном поясе узла: пишут только журналы старого формата
+    static final byte LINK_CREATED_LOCAL_TIME = 2;
+    static final byte LINK_DELETED = 3;
+    // Переходы по коду без id: пишут только журналы старого формата
+    static final byte CLICKS = 4;
+    static final byte LINK_CREATED = 5;
+    // Переходы по коду и id: счётчик не достанется ссылке, занявшей код после удаления
+    static final byte LINK_CLICKS = 6;
+
+    private static final int CLICK_BATCH_BYTES = 64 * 1024;
+    private static final int STRIPES = 64;
+    private static final ThreadLocal<ByteBuffer> SCRATCH = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4096));
+
+    private final Path directory;
+    private final ShortUrlStore memory;
+    private final UserService userService;
+    private final WriteAheadLog wal;
+    // Создание кода проверяет, пишет в журнал и публикует ссылку под замком его полосы: две ссылки
+    // под одним кодом не попадут в журнал обе, а удаление не опередит в журнале создание
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    // Коды с переходами, ещё не записанными в журнал
+    private final Set<String> dirtyCodes = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+
+    private PersistentShortUrlStore(Path directory, ShortUrlStore memory, UserService userService,
+                                    WriteAheadLog wal) {
+        this.directory = directory;
+        this.memory = memory;
+        this.userService = userService;
+        this.wal = wal;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "storage-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static PersistentShortUrlStore open(AppConfig config, UserService userService) throws IOException {
+        PersistentShortUrlStore store = open(Paths.get(config.getStorageDirectory()), userService,
+                config.getStorageSegmentSizeMb() * 1024 * 1024, config.getStorageFsyncIntervalMillis(),
+                capacity -> ShortUrlStore.inMemory(config, capacity));
+        store.scheduleMaintenance(config.getStorageClickFlushIntervalMillis(),
+                config.getStorageSnapshotIntervalMinutes());
+        return store;
+    }
+
+    public static PersistentShortUrlStore open(Path directory, UserService userService, int segmentSize,
+                                               long fsyncIntervalMillis) throws IOException {
+        return open(directory, userService, segmentSize, fsyncIntervalMillis, CompactShortUrlStore::new);
+    }
+
+    // Восстановление: последний снимок + воспроизведение журнала после него прямо в хранилище из memoryFactory
+    public static PersistentShortUrlStore open(Path directory, UserService userService, int segmentSize,
+                                               long fsyncIntervalMillis, IntFunction<ShortUrlStore> memoryFactory)
+            throws IOException {
+        long started = System.nanoTime();
+        SnapshotFile.Contents snapshot = SnapshotFile.readLatest(directory, memoryFactory);
+        long replayFrom = snapshot != null ? snapshot.walSequence : 0;
+        List<UUID> users = snapshot != null ? snapshot.users : new ArrayList<>();
+        ShortUrlStore links = snapshot != null ? snapshot.links : memoryFactory.apply(1024);
+        long snapshotLoaded = System.nanoTime();
+
+        long nextSegment = replayFrom;
+        List<Path> segments = new ArrayList<>();
+        for (Path segment : WriteAheadLog.listSegments(directory)) {
+            long sequence = WriteAheadLog.segmentSequence(segment);
+            nextSegment = Math.max(nextSegment, sequence + 1);
+            if (sequence >= replayFrom) {
+                segments.add(segment);
+            }
+        }
+        // Журнал воспроизводится частями по кодам: порядок важен только у записей одного кода.
+        // Каждая часть проходит все сегменты по порядку и применяет свои коды
+        int partitions = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+        try {
+            IntStream.range(0, partitions).parallel().forEach(partition -> {
+                for (Path segment : segments) {
+                    try {
+                        // Оборванный хвост сегмента - след падения; следующий запуск начинал новый сегмент
+                        if (!WriteAheadLog.replaySegment(segment,
+                                (type, payload) -> apply(type, payload, users, links, partition, partitions))
+                                && partition == 0) {
+                            System.out.println("⚠️ Отброшен оборванный хвост журнала " + segment.getFileName());
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        long walReplayed = System.nanoTime();
+
+        // Индексы разных пользователей независимы и строятся параллельно
+        Map<UUID, List<ShortUrl>> linksByUser = new HashMap<>();
+        links.forEach(shortUrl -> linksByUser.computeIfAbsent(shortUrl.getUserId(), userId -> new ArrayList<>())
+                .add(shortUrl));
+        linksByUser.entrySet().parallelStream().forEach(entry -> userService
+                .restoreUser(entry.getKey(), entry.getValue().size()).restoreShortUrls(entry.getValue()));
+        for (UUID userId : users) {
+            userService.restoreUser(userId);
+        }
+
+        WriteAheadLog wal = new WriteAheadLog(directory, nextSegment, segmentSize, fsyncIntervalMillis);
+        long finished = System.nanoTime();
+        System.out.println("✅ Восстановлено ссылок: " + links.size() + " за " + (finished - started) / 1_000_000
+                + " мс (снимок " + (snapshotLoaded - started) / 1_000_000
+                + ", журнал " + (walReplayed - snapshotLoaded) / 1_000_000
+                + ", пользователи " + (finished - walReplayed) / 1_000_000 + " мс, потоков " + partitions + ")");
+        PersistentShortUrlStore store = new PersistentShortUrlStore(directory, links, userService, wal);
+        userService.setUserCreatedListener(store::userCreated);
+        return store;
+    }
+
+    // Запись журнала для части partition: остальные части пропускают её коды, пользователей добавляет часть 0
+    private static void apply(byte type, ByteBuffer payload, List<UUID> users, ShortUrlStore links,
+                              int partition, int partitions) {
+        switch (type) {
+            case USER_CREATED:
+                if (partition == 0) {
+                    users.add(LinkCodec.getUuid(payload));
+                }
+                break;
+            case LINK_CREATED:
+            case LINK_CREATED_LOCAL_TIME:
+                if (!owns(payload, payload.position() + LinkCodec.CODE_OFFSET, partition, partitions)) {
+                    break;
+                }
+                // Ссылка, созданная во время записи снимка, есть и в нём, и в журнале - оставляем снимок,
+                // в нём переходы свежее. Другой id под тем же кодом - код заняли заново после удаления
+                ShortUrl created = type == LINK_CREATED ? LinkCodec.decode(payload)
+                        : LinkCodec.decodeLocalTime(payload);
+                ShortUrl previous = links.putIfAbsent(created);
+                if (previous != null && !previous.getId().equals(created.getId())) {
+                    links.remove(previous);
+                    links.putIfAbsent(created);
+                }
+                break;
+            case LINK_DELETED:
+                if (!owns(payload, payload.position(), partition, partitions)) {
+                    break;
+                }
+                // Код и id: удаление не трогает ссылку, занявшую код позже. В журналах старого формата id нет
+                ShortUrl deleted = links.get(LinkCodec.getCode(payload));
+                UUID deletedId = payload.hasRemaining() ? LinkCodec.getUuid(payload) : null;
+                if (deleted != null && (deletedId == null || deleted.getId().equals(deletedId))) {
+                    links.remove(deleted);
+                }
+                break;
+            case CLICKS:
+            case LINK_CLICKS:
+                // Пачка хранит абсолютные значения, поэтому повтор после снимка безопасен
+                while (payload.hasRemaining()) {
+                    if (!owns(payload, payload.position(), partition, partitions)) {
+                        payload.position(payload.position() + 2 + (payload.getShort(payload.position()) & 0xFFFF)
+                                + (type == LINK_CLICKS ? 16 : 0) + 4);
+                        continue;
+                    }
+                    String code = LinkCodec.getCode(payload);
+                    UUID linkId = type == LINK_CLICKS ? LinkCodec.getUuid(payload) : null;
+                    int clickCount = payload.getInt();
+                    ShortUrl link = links.get(code);
+                    if (link != null && (linkId == null || link.getId().equals(linkId))) {
+                        link.restoreClickCount(clickCount);
+                    }
+                }
+                break;
+            default:
+                throw new IllegalStateException("Неизвестный тип записи журнала: " + type);
+        }
+    }
+
+    private static boolean owns(ByteBuffer payload, int codeOffset, int partition, int partitions) {
+        return partitions == 1 || Math.floorMod(LinkCodec.codeHash(payload, codeOffset), partitions) == partition;
+    }
+
+    @Override
+    public ShortUrl get(String shortCode) {
+        return memory.get(shortCode);
+    }
+
+    @Override
+    public ShortUrl get(CharSequence text, int start, int end) {
+        return memory.get(text, start, end);
+    }
+
+    // Ссылка появляется в памяти только после записи в журнал; fsync ждём уже без замка.
+    // Не дождались fsync - ссылка убирается из памяти: клиент получил ошибку, и переход по ней
+    // не должен работать до перезапуска, после которого её может не оказаться
+    @Override
+    public ShortUrl putIfAbsent(ShortUrl shortUrl) {
+        ReentrantLock stripe = stripeOf(shortUrl.getShortCode());
+        long position;
+        stripe.lock();
+        try {
+            ShortUrl existing = memory.get(shortUrl.getShortCode());
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                position = wal.append(LINK_CREATED, LinkCodec.encode(shortUrl, SCRATCH.get()));
+            } catch (IOException e) {
+                throw new UncheckedIOException("❌ Не удалось сохранить ссылку", e);
+            }
+            memory.putIfAbsent(shortUrl);
+        } finally {
+            stripe.unlock();
+        }
+        try {
+            wal.sync(position);
+        } catch (UncheckedIOException e) {
+            withdraw(List.of(shortUrl));
+            throw e;
+        }
+        return null;
+    }
+
+    // Вся пачка пишется в журнал подряд и ждёт одного fsync вместо fsync на каждую ссылку.
+    // Пачка занимает все полосы по порядку, как в PrimaryShortUrlStore
+    @Override
+    public ShortUrl[] putAllIfAbsent(List<ShortUrl> shortUrls) {
+        ShortUrl[] existing = new ShortUrl[shortUrls.size()];
+        List<ShortUrl> fresh = new ArrayList<>(shortUrls.size());
+        long position = -1;
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+        try {
+            Map<String, ShortUrl> batch = new HashMap<>();
+            for (int i = 0; i < existing.length; i++) {
+                ShortUrl shortUrl = shortUrls.get(i);
+                existing[i] = memory.get(shortUrl.getShortCode());
+                if (existing[i] == null) {
+                    // Повтор кода внутри пачки получает первую ссылку с ним
+                    existing[i] = batch.putIfAbsent(shortUrl.getShortCode(), shortUrl);
+                }
+                if (existing[i] == null) {
+                    fresh.add(shortUrl);
+                }
+            }
+            int appended = 0;
+            try {
+                for (ShortUrl shortUrl : fresh) {
+                    position = wal.append(LINK_CREATED, LinkCodec.encode(shortUrl, SCRATCH.get()));
+                    appended++;
+                }
+            } catch (IOException e) {
+                revertCreated(fresh.subList(0, appended));
+                throw new UncheckedIOException("❌ Не удалось сохранить ссылки", e);
+            }
+            memory.putAllIfAbsent(fresh);
+        } finally {
+            for (int i = STRIPES - 1; i >= 0; i--) {
+                stripes[i].unlock();
+            }
+        }
+        if (position >= 0) {
+            try {
+                wal.sync(position);
+            } catch (UncheckedIOException e) {
+                withdraw(fresh);
+                throw e;
+            }
+        }
+        return existing;
+    }
+
+    // Ссылки, чьё создание не дождалось fsync, уходят из памяти под своими полосами. remove сверяет id,
+    // так что ссылку, занявшую код после удаления, это не тронет. Удаления в журнал не пишутся:
+    // после ошибки fsync или закрытия журнал записей не принимает
+    private void withdraw(List<ShortUrl> created) {
+        for (ShortUrl shortUrl : created) {
+            ReentrantLock stripe = stripeOf(shortUrl.getShortCode());
+            stripe.lock();
+            try {
+                memory.remove(shortUrl);
+            } finally {
+                stripe.unlock();
+            }
+        }
+    }
+
+    // Пачка не попала в память целиком: её уже записанные создания гасятся удалениями, иначе ссылки
+    // вернулись бы после перезапуска. Если журнал не принимает и удаления, остаётся только сообщение об ошибке
+    private void revertCreated(List<ShortUrl> created) {
+        try {
+            long position = -1;
+            for (ShortUrl shortUrl : created) {
+                position = appendDeleted(shortUrl);
+            }
+            if (position >= 0) {
+                wal.sync(position);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("❌ Не удалось отменить в журнале созданные ссылки: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean remove(ShortUrl shortUrl) {
+        if (!memory.remove(shortUrl)) {
+            return false;
+        }
+        try {
+            wal.sync(appendDeleted(shortUrl));
+        } catch (IOException e) {
+            throw new UncheckedIOException("❌ Не удалось сохранить удаление ссылки", e);
+        }
+        return true;
+    }
+
+    // Выселение просроченных не ждёт fsync: после перезапуска ссылка всё равно окажется просроченной
+    @Override
+    public int evictExpired(long nowMillis, int maxEvictions, Consumer<ShortUrl> onEvicted) {
+        return memory.evictExpired(nowMillis, maxEvictions, shortUrl -> {
+            try {
+                appendDeleted(shortUrl);
+            } catch (IOException e) {
+                System.err.println("❌ Не удалось записать выселение ссылки: " + e.getMessage());
+            }
+            onEvicted.accept(shortUrl);
+        });
+    }
+
+    private long appendDeleted(ShortUrl shortUrl) throws IOException {
+        dirtyCodes.remove(shortUrl.getShortCode());
+        ByteBuffer payload = SCRATCH.get().clear();
+        LinkCodec.putCode(payload, shortUrl.getShortCode());
+        LinkCodec.putUuid(payload, shortUrl.getId());
+        return wal.append(LINK_DELETED, payload.flip());
+    }
+
+    @Override
+    public int size() {
+        return memory.size();
+    }
+
+    @Override
+    public void forEach(Consumer<ShortUrl> action) {
+        memory.forEach(action);
+    }
+
+    @Override
+    public void registerMetrics(Metrics metrics) {
+        metrics.gauge("shortener_store_dirty_clicks", "Ссылки с переходами, ещё не сброшенными в журнал",
+                dirtyCodes::size);
+        memory.registerMetrics(metrics);
+    }
+
+    @Override
+    public void recordClick(ShortUrl shortUrl) {
+        // contains() не берёт блокировок: горячая ссылка попадает в набор один раз за период сброса
+        String code = shortUrl.getShortCode();
+        if (!dirtyCodes.contains(code)) {
+            dirtyCodes.add(code);
+        }
+    }
+
+    public void userCreated(UUID userId) {
+        ByteBuffer payload = SCRATCH.get().clear();
+        LinkCodec.putUuid(payload, userId);
+        try {
+            appendAndSync(USER_CREATED, payload.flip());
+        } catch (IOException e) {
+            throw new UncheckedIOException("❌ Не удалось сохранить пользователя", e);
+        }
+    }
+
+    // Переходы пишутся пачками без ожидания fsync: их теряется не больше, чем за один интервал.
+    // С каждым счётчиком пишется id ссылки: код могут удалить и занять заново до следующего запуска
+    public void flushClicks() throws IOException {
+        ByteBuffer batch = ByteBuffer.allocate(CLICK_BATCH_BYTES);
+        for (String code : dirtyCodes) {
+            dirtyCodes.remove(code);
+            ShortUrl shortUrl = memory.get(code);
+            if (shortUrl == null) {
+                continue;
+            }
+            if (batch.remaining() < 2 + code.length() * 3 + 16 + 4) {
+                wal.append(LINK_CLICKS, batch.flip());
+                batch.clear();
+            }
+            LinkCodec.putCode(batch, code);
+            LinkCodec.putUuid(batch, shortUrl.getId());
+            batch.putInt(shortUrl.getClickCount());
+        }
+        if (batch.position() > 0) {
+            wal.append(LINK_CLICKS, batch.flip());
+        }
+    }
+
+    // Сегмент сменяется под всеми полосами: создание, уже записанное в старый сегмент, успевает появиться
+    // в памяти до обхода снимка - иначе снимок его не увидит, а сегмент с ним будет удалён
+    public void snapshot() throws IOException {
+        flushClicks();
+        long sequence;
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+        try {
+            sequence = wal.rollSegment();
+        } finally {
+            for (int i = STRIPES - 1; i >= 0; i--) {
+                stripes[i].unlock();
+            }
+        }
+        SnapshotFile.write(directory, sequence, userService.getUserIds(), memory);
+        // Снимок покрывает всё, что было до сегмента sequence, и write вернулся после fsync каталога
+        wal.deleteSegmentsBefore(sequence);
+        SnapshotFile.deleteOlderThan(directory, sequence);
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushClicks();
+        wal.close();
+    }
+
+    // Исключение, вылетевшее из задачи, молча отменяет её повторы, поэтому ловится любое: после ошибки
+    // журнала append и sync бросают UncheckedIOException, а сброс и снимки должны пробовать дальше
+    private void scheduleMaintenance(long clickFlushIntervalMillis, long snapshotIntervalMinutes) {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                flushClicks();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("❌ Не удалось сохранить переходы: " + e.getMessage());
+            }
+        }, clickFlushIntervalMillis, clickFlushIntervalMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("❌ Не удалось записать снимок: " + e.getMessage());
+            }
+        }, snapshotIntervalMinutes, snapshotIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    private void appendAndSync(byte type, ByteBuffer payload) throws IOException {
+        wal.sync(wal.append(type, payload));
+    }
+
+    private ReentrantLock stripeOf(String shortCode) {
+        return stripes[(shortCode.hashCode() & 0x7fffffff) % STRIPES];
+    }
+}
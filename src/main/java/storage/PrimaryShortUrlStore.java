@@ -0,0 +1,493 @@
+package storage;
+
+import config.AppConfig;
+import metrics.Metrics;
+import model.ShortUrl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Основной узел репликации - единственный, кто создаёт и удаляет ссылки. Обёртка хранилища публикует каждое
+// создание, удаление и пачку переходов в поток записей, который рассылается репликам по TCP.
+// Новая реплика сначала получает снимок всех ссылок, затем записи, опубликованные с момента её подключения:
+// записи применяются идемпотентно, поэтому пересечение снимка и потока безопасно.
+// Реплика, переполнившая свою очередь, отключается и при переподключении снова получает снимок.
+// Снимок содержит id владельцев ссылок, а переходы реплик тратят лимиты, поэтому порт по умолчанию слушает
+// только loopback, а реплика сначала предъявляет токен репликации
+public class PrimaryShortUrlStore implements ShortUrlStore, ReplicationStatus, Closeable {
+    private static final int STRIPES = 64;
+    private static final long HEARTBEAT_MILLIS = 500;
+    private static final int CLICK_BATCH_BYTES = 64 * 1024;
+    private static final int SOCKET_BUFFER_BYTES = 64 * 1024;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+    private static final ThreadLocal<ByteBuffer> SCRATCH = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4096));
+
+    private final ShortUrlStore backing;
+    private final ServerSocket serverSocket;
+    private final String token;
+    private final int queueCapacity;
+    // Создание и удаление одного кода публикуются в том же порядке, в каком прошли через хранилище
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    // Номер записи выдаётся и кадр раскладывается по очередям под одним замком: у всех реплик один порядок
+    private final Object publishLock = new Object();
+    private volatile long sequence;
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    // Коды с переходами, ещё не отправленными репликам
+    private final Set<String> dirtyCodes = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+    private final Thread acceptor;
+    private final AtomicInteger sessionIds = new AtomicInteger();
+    private final LongAdder droppedReplicas = new LongAdder();
+    private volatile boolean closed;
+
+    // Узел не основной - хранилище используется как есть
+    public static ShortUrlStore fromConfig(AppConfig config, ShortUrlStore backing) throws IOException {
+        if (!config.getReplicationRole().equals("primary")) {
+            return backing;
+        }
+        return new PrimaryShortUrlStore(backing, InetAddress.getByName(config.getReplicationBindAddress()),
+                config.getReplicationPort(), requireToken(config), config.getReplicationQueueSize(),
+                config.getReplicationClickFlushMillis());
+    }
+
+    // port 0 - свободный порт, см. getPort()
+    public PrimaryShortUrlStore(ShortUrlStore backing, InetAddress bindAddress, int port, String token,
+                                int queueCapacity, long clickFlushMillis) throws IOException {
+        if (token == null || token.isBlank()) {
+            throw new IllegalArgumentException("❌ Токен репликации не может быть пустым");
+        }
+        this.backing = backing;
+        this.token = token;
+        this.queueCapacity = queueCapacity;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(bindAddress, port));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replication-clicks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushClicks, clickFlushMillis, clickFlushMillis,
+                TimeUnit.MILLISECONDS);
+        this.acceptor = new Thread(this::acceptLoop, "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    public ShortUrl get(String shortCode) {
+        return backing.get(shortCode);
+    }
+
+    @Override
+    public ShortUrl get(CharSequence text, int start, int end) {
+        return backing.get(text, start, end);
+    }
+
+    @Override
+    public boolean mightContain(CharSequence text, int start, int end) {
+        return backing.mightContain(text, start, end);
+    }
+
+    @Override
+    public ShortUrl putIfAbsent(ShortUrl shortUrl) {
+        ReentrantLock stripe = stripeOf(shortUrl.getShortCode());
+        stripe.lock();
+        try {
+            ShortUrl existing = backing.putIfAbsent(shortUrl);
+            if (existing == null) {
+                publishCreated(shortUrl);
+            }
+            return existing;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    // Пачка занимает все полосы по порядку: вставка идёт одним вызовом хранилища и одним fsync
+    @Override
+    public ShortUrl[] putAllIfAbsent(List<ShortUrl> shortUrls) {
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+        try {
+            ShortUrl[] existing = backing.putAllIfAbsent(shortUrls);
+            for (int i = 0; i < existing.length; i++) {
+                if (existing[i] == null) {
+                    publishCreated(shortUrls.get(i));
+                }
+            }
+            return existing;
+        } finally {
+            for (int i = STRIPES - 1; i >= 0; i--) {
+                stripes[i].unlock();
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(ShortUrl shortUrl) {
+        ReentrantLock stripe = stripeOf(shortUrl.getShortCode());
+        stripe.lock();
+        try {
+            if (!backing.remove(shortUrl)) {
+                return false;
+            }
+            publishDeleted(shortUrl);
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    // Без полос: колбэк может идти под блокировкой хранилища. Удаление несёт id, поэтому не заденет
+    // ссылку, созданную под тем же кодом позже; истёкшую ссылку реплики выселяют и сами
+    @Override
+    public int evictExpired(long nowMillis, int maxEvictions, Consumer<ShortUrl> onEvicted) {
+        return backing.evictExpired(nowMillis, maxEvictions, shortUrl -> {
+            dirtyCodes.remove(shortUrl.getShortCode());
+            publishDeleted(shortUrl);
+            onEvicted.accept(shortUrl);
+        });
+    }
+
+    @Override
+    public int size() {
+        return backing.size();
+    }
+
+    @Override
+    public void forEach(Consumer<ShortUrl> action) {
+        backing.forEach(action);
+    }
+
+    @Override
+    public void recordClick(ShortUrl shortUrl) {
+        backing.recordClick(shortUrl);
+        String code = shortUrl.getShortCode();
+        if (!dirtyCodes.contains(code)) {
+            dirtyCodes.add(code);
+        }
+    }
+
+    @Override
+    public void registerMetrics(Metrics metrics) {
+        registerReplicationMetrics(metrics, this);
+        metrics.counter("shortener_replication_dropped_replicas_total", "Реплики, отключённые за переполнение очереди",
+                this::getDroppedReplicaCount);
+        backing.registerMetrics(metrics);
+    }
+
+    // Общее для основного узла и реплики: смысл значений - как в ReplicationStatus
+    static void registerReplicationMetrics(Metrics metrics, ReplicationStatus status) {
+        metrics.gauge("shortener_replication_sequence", "role=\"" + status.getRole() + "\"",
+                "Номер последней опубликованной или применённой записи", status::getSequence);
+        metrics.gauge("shortener_replication_connected", "role=\"" + status.getRole() + "\"",
+                "Подключённые реплики или связь реплики с основным узлом", status::getConnectedCount);
+        metrics.gauge("shortener_replication_lag_records", "role=\"" + status.getRole() + "\"",
+                "Отставание худшей реплики в записях", status::getLagRecords);
+        metrics.gauge("shortener_replication_lag_seconds", "role=\"" + status.getRole() + "\"",
+                "Отставание худшей реплики по времени", () -> status.getLagMillis() / 1000.0);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    // Реплики, отключённые за переполнение очереди
+    public long getDroppedReplicaCount() {
+        return droppedReplicas.sum();
+    }
+
+    @Override
+    public String getRole() {
+        return "primary";
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    @Override
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public int getConnectedCount() {
+        return sessions.size();
+    }
+
+    @Override
+    public long getLagRecords() {
+        long lag = 0;
+        for (Session session : sessions) {
+            lag = Math.max(lag, sequence - session.ackedSequence);
+        }
+        return lag;
+    }
+
+    @Override
+    public long getLagMillis() {
+        long lag = 0;
+        for (Session session : sessions) {
+            lag = Math.max(lag, session.lagMillis);
+        }
+        return lag;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        scheduler.shutdown();
+        serverSocket.close();
+        for (Session session : sessions) {
+            session.close();
+        }
+    }
+
+    // Переходы уходят репликам пачками абсолютных значений, не чаще интервала сброса.
+    // С каждым счётчиком идёт id ссылки, как в журнале: код могут удалить и занять заново
+    void flushClicks() {
+        ByteBuffer batch = ByteBuffer.allocate(CLICK_BATCH_BYTES);
+        for (String code : dirtyCodes) {
+            dirtyCodes.remove(code);
+            ShortUrl shortUrl = backing.get(code);
+            if (shortUrl == null) {
+                continue;
+            }
+            if (batch.remaining() < 2 + code.length() * 3 + 16 + 4) {
+                publish(ReplicationProtocol.CLICKS, batch.flip());
+                batch.clear();
+            }
+            LinkCodec.putCode(batch, code);
+            LinkCodec.putUuid(batch, shortUrl.getId());
+            batch.putInt(shortUrl.getClickCount());
+        }
+        if (batch.position() > 0) {
+            publish(ReplicationProtocol.CLICKS, batch.flip());
+        }
+    }
+
+    private void publishCreated(ShortUrl shortUrl) {
+        publish(ReplicationProtocol.LINK_CREATED, LinkCodec.encode(shortUrl, SCRATCH.get()));
+    }
+
+    private void publishDeleted(ShortUrl shortUrl) {
+        publish(ReplicationProtocol.LINK_DELETED, ReplicationProtocol.deletion(shortUrl, SCRATCH.get()));
+    }
+
+    private void publish(byte type, ByteBuffer payload) {
+        synchronized (publishLock) {
+            long next = sequence + 1;
+            sequence = next;
+            if (!sessions.isEmpty()) {
+                offer(ReplicationProtocol.encode(type, next, System.currentTimeMillis(), payload));
+            }
+        }
+    }
+
+    // Вызывается под publishLock: запрос пишущего потока не ждёт сеть
+    private void offer(byte[] frame) {
+        for (Session session : sessions) {
+            if (!session.queue.offer(frame)) {
+                System.err.println("⚠️ Реплика " + session.name + " не успевает, отключаем: получит снимок заново");
+                droppedReplicas.increment();
+                sessions.remove(session);
+                session.close();
+            }
+        }
+    }
+
+    static String requireToken(AppConfig config) {
+        String token = config.getReplicationToken();
+        if (token.isBlank()) {
+            throw new IllegalStateException("❌ Для репликации нужен replication.token");
+        }
+        return token;
+    }
+
+    private ReentrantLock stripeOf(String shortCode) {
+        return stripes[(shortCode.hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                new Session(socket).start();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("❌ Ошибка приёма реплики: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Реплика: поток отправки (рукопожатие, снимок, затем очередь) и поток приёма подтверждений и переходов
+    private final class Session {
+        final String name;
+        final Socket socket;
+        final BlockingQueue<byte[]> queue;
+        DataInputStream in;
+        long snapshotSequence;
+        volatile long ackedSequence;
+        volatile long lagMillis;
+
+        Session(Socket socket) {
+            this.name = socket.getRemoteSocketAddress() + "#" + sessionIds.incrementAndGet();
+            this.socket = socket;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        // Рукопожатие идёт в потоке отправки: медленный или чужой клиент не задерживает приём остальных
+        void start() {
+            Thread sender = new Thread(this::sendLoop, "replication-send-" + name);
+            sender.setDaemon(true);
+            sender.start();
+        }
+
+        private boolean handshake() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), SOCKET_BUFFER_BYTES));
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            if (!ReplicationProtocol.isHello(ReplicationProtocol.read(in), token)) {
+                System.err.println("⚠️ Подключение " + name + " к репликации без верного токена, закрываем");
+                return false;
+            }
+            socket.setSoTimeout(0);
+            return true;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void sendLoop() {
+            try {
+                if (!handshake()) {
+                    return;
+                }
+                // С этого момента все записи попадают в очередь реплики, всё более раннее - в её снимок
+                synchronized (publishLock) {
+                    snapshotSequence = sequence;
+                    sessions.add(this);
+                }
+                Thread receiver = new Thread(this::receiveLoop, "replication-receive-" + name);
+                receiver.setDaemon(true);
+                receiver.start();
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(socket.getOutputStream(), SOCKET_BUFFER_BYTES));
+                sendSnapshot(out);
+                while (!closed && !socket.isClosed()) {
+                    byte[] frame = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (frame == null) {
+                        out.write(ReplicationProtocol.encode(ReplicationProtocol.HEARTBEAT, sequence,
+                                System.currentTimeMillis(), null));
+                    } else {
+                        out.write(frame);
+                    }
+                    // Пока очередь не пуста, кадры копятся в буфере и уходят одной записью в сокет
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                // Реплика отключилась; переподключившись, она получит снимок заново
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                sessions.remove(this);
+                close();
+            }
+        }
+
+        private void sendSnapshot(DataOutputStream out) throws IOException {
+            long now = System.currentTimeMillis();
+            ByteBuffer scratch = ByteBuffer.allocate(4096);
+            out.write(ReplicationProtocol.encode(ReplicationProtocol.SNAPSHOT_BEGIN, snapshotSequence, now, null));
+            try {
+                backing.forEach(shortUrl -> {
+                    try {
+                        out.write(ReplicationProtocol.encode(ReplicationProtocol.LINK_CREATED, snapshotSequence, now,
+                                LinkCodec.encode(shortUrl, scratch)));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.write(ReplicationProtocol.encode(ReplicationProtocol.SNAPSHOT_END, snapshotSequence, now, null));
+            out.flush();
+        }
+
+        private void receiveLoop() {
+            try {
+                while (true) {
+                    ReplicationProtocol.Frame frame = ReplicationProtocol.read(in);
+                    if (frame.type == ReplicationProtocol.ACK) {
+                        ackedSequence = frame.payload.getLong();
+                        lagMillis = frame.payload.getLong();
+                    } else if (frame.type == ReplicationProtocol.CLICK_DELTAS) {
+                        applyClickDeltas(frame.payload);
+                    }
+                }
+            } catch (IOException e) {
+                // Соединение закрыто; поток отправки заметит это сам
+            } finally {
+                close();
+            }
+        }
+
+        // Переходы, засчитанные репликой, занимают лимит здесь же: основной узел решает, исчерпан ли он,
+        // и разошлёт новый счётчик всем репликам
+        private void applyClickDeltas(ByteBuffer payload) {
+            while (payload.hasRemaining()) {
+                String code = LinkCodec.getCode(payload);
+                UUID linkId = LinkCodec.getUuid(payload);
+                int delta = payload.getInt();
+                ShortUrl shortUrl = backing.get(code);
+                if (shortUrl == null || !shortUrl.getId().equals(linkId)) {
+                    // Переходы удалённой ссылки не тратят лимит новой ссылки под тем же кодом
+                    continue;
+                }
+                for (int i = 0; i < delta && shortUrl.tryRegisterClick(); i++) {
+                    // счётчик растёт в условии цикла
+                }
+                recordClick(shortUrl);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package storage;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.IntPredicate;
+
+// ExpirationIndex для LinkTable: тики хранят номера записей в int[], а не объекты.
+// Удалённые ссылки из тиков не вычищаются - при выселении запись перепроверяется
+final class RecordExpirationIndex {
+    private final long tickMillis;
+    private final ConcurrentHashMap<Long, Bucket> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Long> ticks = new ConcurrentSkipListSet<>();
+
+    RecordExpirationIndex(long tickMillis) {
+        this.tickMillis = tickMillis;
+    }
+
+    void add(int record, long expiresAtMillis) {
+        // compute() атомарен по ключу, поэтому добавление не теряется при параллельном удалении пустого тика
+        buckets.compute(expiresAtMillis / tickMillis + 1, (tick, bucket) -> {
+            if (bucket == null) {
+                bucket = new Bucket();
+                ticks.add(tick);
+            }
+            bucket.push(record);
+            return bucket;
+        });
+    }
+
+    // evictor решает, истекла ли запись на самом деле, и выселяет её
+    int expire(long nowMillis, int maxEvictions, IntPredicate evictor) {
+        long nowTick = nowMillis / tickMillis;
+        int evicted = 0;
+        for (Iterator<Long> dueTicks = ticks.headSet(nowTick, true).iterator();
+             dueTicks.hasNext() && evicted < maxEvictions; ) {
+            Long tick = dueTicks.next();
+            Bucket bucket = buckets.get(tick);
+            if (bucket != null) {
+                int record;
+                while (evicted < maxEvictions && (record = bucket.pop()) >= 0) {
+                    if (evictor.test(record)) {
+                        evicted++;
+                    }
+                }
+            }
+            buckets.computeIfPresent(tick, (key, current) -> {
+                if (!current.isEmpty()) {
+                    return current;
+                }
+                ticks.remove(key);
+                return null;
+            });
+        }
+        return evicted;
+    }
+
+    int pendingTicks() {
+        return ticks.size();
+    }
+
+    private static final class Bucket {
+        private int[] records = new int[4];
+        private int size;
+
+        synchronized void push(int record) {
+            if (size == records.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(records, 0, grown, 0, size);
+                records = grown;
+            }
+            records[size++] = record;
+        }
+
+        synchronized int pop() {
+            return size > 0 ? records[--size] : -1;
+        }
+
+        synchronized boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package storage;
+
+import config.AppConfig;
+import metrics.Metrics;
+import model.ShortUrl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Реплика только для чтения: ссылки приходят потоком записей с основного узла (PrimaryShortUrlStore)
+// и лежат в локальном хранилище, редиректы обслуживаются отсюда без обращения к основному узлу.
+// При каждом подключении реплика получает снимок в новое хранилище и подменяет им старое, когда снимок
+// дочитан: пока идёт догонка, редиректы отвечает прежняя копия.
+// Переходы засчитываются на месте и раз в интервал уходят основному узлу приращениями; его счётчик
+// возвращается в потоке записей и применяется по максимуму, поэтому свои неотправленные переходы не теряются
+public class ReplicaShortUrlStore implements ShortUrlStore, ReplicationStatus, Closeable {
+    private static final long RECONNECT_MIN_MILLIS = 100;
+    private static final long RECONNECT_MAX_MILLIS = 2000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int CLICK_BATCH_BYTES = 64 * 1024;
+    private static final int SOCKET_BUFFER_BYTES = 64 * 1024;
+
+    private final Supplier<ShortUrlStore> localFactory;
+    private final InetSocketAddress primary;
+    private final String token;
+    private volatile ShortUrlStore current;
+    // Переходы, засчитанные здесь и ещё не отправленные основному узлу, по id ссылки:
+    // код могут удалить и занять заново, пока переходы старой ссылки ждут отправки
+    private final Map<UUID, PendingClicks> pendingClicks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Thread syncThread;
+
+    // Пишет в сокет только поток scheduler; поток синхронизации подменяет соединение
+    private volatile DataOutputStream out;
+    private volatile Socket socket;
+    private volatile boolean connected;
+    private volatile boolean closed;
+    private volatile long appliedSequence;
+    private volatile long primarySequence;
+    private volatile long lagMillis;
+    private final LongAdder snapshots = new LongAdder();
+
+    // Узел не реплика - null
+    public static ReplicaShortUrlStore fromConfig(AppConfig config, Supplier<ShortUrlStore> localFactory) {
+        if (!config.getReplicationRole().equals("replica")) {
+            return null;
+        }
+        String address = config.getReplicationPrimary();
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("❌ Адрес основного узла должен быть вида хост:порт: " + address);
+        }
+        return new ReplicaShortUrlStore(localFactory, new InetSocketAddress(address.substring(0, colon),
+                Integer.parseInt(address.substring(colon + 1))), PrimaryShortUrlStore.requireToken(config),
+                config.getReplicationClickFlushMillis());
+    }
+
+    public ReplicaShortUrlStore(Supplier<ShortUrlStore> localFactory, InetSocketAddress primary, String token,
+                                long clickFlushMillis) {
+        if (token == null || token.isBlank()) {
+            throw new IllegalArgumentException("❌ Токен репликации не может быть пустым");
+        }
+        this.localFactory = localFactory;
+        this.primary = primary;
+        this.token = token;
+        this.current = localFactory.get();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-acks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sendAck, clickFlushMillis, clickFlushMillis, TimeUnit.MILLISECONDS);
+        this.syncThread = new Thread(this::syncLoop, "replica-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    @Override
+    public ShortUrl get(String shortCode) {
+        return current.get(shortCode);
+    }
+
+    @Override
+    public ShortUrl get(CharSequence text, int start, int end) {
+        return current.get(text, start, end);
+    }
+
+    @Override
+    public boolean mightContain(CharSequence text, int start, int end) {
+        return current.mightContain(text, start, end);
+    }
+
+    @Override
+    public ShortUrl putIfAbsent(ShortUrl shortUrl) {
+        throw readOnly();
+    }
+
+    @Override
+    public ShortUrl[] putAllIfAbsent(List<ShortUrl> shortUrls) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean remove(ShortUrl shortUrl) {
+        throw readOnly();
+    }
+
+    // Истёкшие ссылки реплика выселяет сама, не дожидаясь удаления от основного узла
+    @Override
+    public int evictExpired(long nowMillis, int maxEvictions, Consumer<ShortUrl> onEvicted) {
+        return current.evictExpired(nowMillis, maxEvictions, onEvicted);
+    }
+
+    @Override
+    public int size() {
+        return current.size();
+    }
+
+    @Override
+    public void forEach(Consumer<ShortUrl> action) {
+        current.forEach(action);
+    }
+
+    @Override
+    public void recordClick(ShortUrl shortUrl) {
+        current.recordClick(shortUrl);
+        PendingClicks pending = pendingClicks.get(shortUrl.getId());
+        if (pending == null) {
+            pending = pendingClicks.computeIfAbsent(shortUrl.getId(),
+                    linkId -> new PendingClicks(linkId, shortUrl.getShortCode()));
+        }
+        pending.count.incrementAndGet();
+    }
+
+    // Хранилище под current заменяется при каждом снимке, поэтому его метрики не регистрируются
+    @Override
+    public void registerMetrics(Metrics metrics) {
+        PrimaryShortUrlStore.registerReplicationMetrics(metrics, this);
+        metrics.counter("shortener_replication_snapshots_total", "Снимки, полученные репликой",
+                this::getSnapshotCount);
+    }
+
+    // Сколько раз реплика получала снимок: первое подключение и каждое переподключение
+    public long getSnapshotCount() {
+        return snapshots.sum();
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public String getRole() {
+        return "replica";
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public long getSequence() {
+        return appliedSequence;
+    }
+
+    @Override
+    public int getConnectedCount() {
+        return connected ? 1 : 0;
+    }
+
+    @Override
+    public long getLagRecords() {
+        return Math.max(0, primarySequence - appliedSequence);
+    }
+
+    @Override
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        scheduler.shutdown();
+        Socket active = socket;
+        if (active != null) {
+            active.close();
+        }
+        try {
+            syncThread.join(CONNECT_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private IllegalStateException readOnly() {
+        return new IllegalStateException("❌ Реплика только читает: создавайте и удаляйте ссылки на основном узле");
+    }
+
+    private void syncLoop() {
+        long backoff = RECONNECT_MIN_MILLIS;
+        while (!closed) {
+            try (Socket connection = new Socket()) {
+                connection.connect(primary, CONNECT_TIMEOUT_MILLIS);
+                connection.setTcpNoDelay(true);
+                socket = connection;
+                DataOutputStream stream = new DataOutputStream(
+                        new BufferedOutputStream(connection.getOutputStream(), SOCKET_BUFFER_BYTES));
+                stream.write(ReplicationProtocol.hello(token));
+                stream.flush();
+                out = stream;
+                backoff = RECONNECT_MIN_MILLIS;
+                readLoop(new DataInputStream(new BufferedInputStream(connection.getInputStream(), SOCKET_BUFFER_BYTES)));
+            } catch (IOException e) {
+                if (connected && !closed) {
+                    System.err.println("⚠️ Связь с основным узлом потеряна: "
+                            + (e.getMessage() != null ? e.getMessage() : "соединение закрыто"));
+                }
+            } catch (RuntimeException e) {
+                // Кадр не применился (неизвестный тип, обрезанные данные): соединение бросаем, а не поток,
+                // иначе реплика навсегда осталась бы со старой копией. Новый снимок после переподключения
+                // заменит и то, что кадр успел применить
+                if (!closed) {
+                    System.err.println("❌ Не удалось применить запись репликации, переподключение: " + e);
+                }
+            } finally {
+                connected = false;
+                out = null;
+                socket = null;
+            }
+            if (!closed) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoff = Math.min(RECONNECT_MAX_MILLIS, backoff * 2);
+            }
+        }
+    }
+
+    private void readLoop(DataInputStream in) throws IOException {
+        ShortUrlStore target = current;
+        while (true) {
+            ReplicationProtocol.Frame frame = ReplicationProtocol.read(in);
+            // Перезапущенный основной узел нумерует записи заново, снимок задаёт отсчёт
+            primarySequence = frame.type == ReplicationProtocol.SNAPSHOT_BEGIN
+                    ? frame.sequence : Math.max(primarySequence, frame.sequence);
+            switch (frame.type) {
+                case ReplicationProtocol.SNAPSHOT_BEGIN:
+                    // Снимок собирается рядом; старая копия обслуживает редиректы, пока он не дочитан
+                    target = localFactory.get();
+                    break;
+                case ReplicationProtocol.SNAPSHOT_END:
+                    current = target;
+                    appliedSequence = frame.sequence;
+                    snapshots.increment();
+                    connected = true;
+                    break;
+                case ReplicationProtocol.HEARTBEAT:
+                    if (appliedSequence >= frame.sequence) {
+                        lagMillis = 0;
+                    }
+                    break;
+                default:
+                    apply(target, frame);
+                    if (frame.sequence > appliedSequence) {
+                        appliedSequence = frame.sequence;
+                        lagMillis = Math.max(0, System.currentTimeMillis() - frame.timeMillis);
+                    }
+            }
+        }
+    }
+
+    // Повтор записи ничего не меняет: снимок и поток после него пересекаются
+    static void apply(ShortUrlStore target, ReplicationProtocol.Frame frame) {
+        ByteBuffer payload = frame.payload;
+        switch (frame.type) {
+            case ReplicationProtocol.LINK_CREATED:
+                ShortUrl created = LinkCodec.decode(payload);
+                ShortUrl previous = target.putIfAbsent(created);
+                if (previous != null && !previous.getId().equals(created.getId())) {
+                    // Код заняли заново после удаления, которое сюда ещё не дошло
+                    target.remove(previous);
+                    target.putIfAbsent(created);
+                } else if (previous != null) {
+                    previous.restoreClickCount(created.getClickCount());
+                }
+                break;
+            case ReplicationProtocol.LINK_DELETED:
+                String code = LinkCodec.getCode(payload);
+                UUID id = LinkCodec.getUuid(payload);
+                ShortUrl deleted = target.get(code);
+                if (deleted != null && deleted.getId().equals(id)) {
+                    target.remove(deleted);
+                }
+                break;
+            case ReplicationProtocol.CLICKS:
+                while (payload.hasRemaining()) {
+                    ShortUrl shortUrl = target.get(LinkCodec.getCode(payload));
+                    UUID linkId = LinkCodec.getUuid(payload);
+                    int clickCount = payload.getInt();
+                    if (shortUrl != null && shortUrl.getId().equals(linkId)) {
+                        shortUrl.restoreClickCount(clickCount);
+                    }
+                }
+                break;
+            default:
+                throw new IllegalStateException("Неизвестный тип записи репликации: " + frame.type);
+        }
+    }
+
+    // Подтверждение и накопленные переходы; при обрыве переходы возвращаются в очередь до следующего подключения
+    private void sendAck() {
+        DataOutputStream stream = out;
+        if (stream == null || !connected) {
+            return;
+        }
+        List<PendingClicks> sent = new ArrayList<>();
+        List<Integer> deltas = new ArrayList<>();
+        try {
+            ByteBuffer ack = ByteBuffer.allocate(16).putLong(appliedSequence).putLong(lagMillis).flip();
+            stream.write(ReplicationProtocol.encode(ReplicationProtocol.ACK, appliedSequence,
+                    System.currentTimeMillis(), ack));
+            ByteBuffer batch = ByteBuffer.allocate(CLICK_BATCH_BYTES);
+            for (PendingClicks pending : pendingClicks.values()) {
+                int delta = pending.count.getAndSet(0);
+                if (delta == 0) {
+                    // Счётчик живой ссылки не удаляется: переход между обнулением и удалением потерялся бы
+                    ShortUrl live = current.get(pending.code);
+                    if (live == null || !live.getId().equals(pending.linkId)) {
+                        pendingClicks.remove(pending.linkId, pending);
+                    }
+                    continue;
+                }
+                sent.add(pending);
+                deltas.add(delta);
+                if (batch.remaining() < 2 + pending.code.length() * 3 + 16 + 4) {
+                    stream.write(ReplicationProtocol.encode(ReplicationProtocol.CLICK_DELTAS, appliedSequence,
+                            System.currentTimeMillis(), batch.flip()));
+                    batch.clear();
+                }
+                LinkCodec.putCode(batch, pending.code);
+                LinkCodec.putUuid(batch, pending.linkId);
+                batch.putInt(delta);
+            }
+            if (batch.position() > 0) {
+                stream.write(ReplicationProtocol.encode(ReplicationProtocol.CLICK_DELTAS, appliedSequence,
+                        System.currentTimeMillis(), batch.flip()));
+            }
+            stream.flush();
+        } catch (IOException e) {
+            // Часть пачки могла дойти: переход засчитается дважды, но не потеряется
+            for (int i = 0; i < sent.size(); i++) {
+                PendingClicks pending = sent.get(i);
+                pendingClicks.computeIfAbsent(pending.linkId, linkId -> pending).count.addAndGet(deltas.get(i));
+            }
+            Socket active = socket;
+            if (active != null) {
+                try {
+                    active.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static final class PendingClicks {
+        final UUID linkId;
+        final String code;
+        final AtomicInteger count = new AtomicInteger();
+
+        PendingClicks(UUID linkId, String code) {
+            this.linkId = linkId;
+            this.code = code;
+        }
+    }
+}
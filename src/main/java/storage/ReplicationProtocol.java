@@ -0,0 +1,97 @@
+package storage;
+
+import model.ShortUrl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+// Кадры репликации поверх TCP: длина (int), тип, номер записи, время публикации на основном узле (мс), данные.
+// Реплика первым кадром шлёт HELLO с токеном репликации; без него основной узел закрывает соединение.
+// Основной узел -> реплика: SNAPSHOT_BEGIN, ссылки снимка, SNAPSHOT_END, затем живой поток записей и HEARTBEAT.
+// Реплика -> основной узел: ACK (применённый номер и отставание) и CLICK_DELTAS (код, id ссылки и переходы,
+// засчитанные репликой; переходы уже удалённой ссылки основной узел отбрасывает).
+// Ссылки кодируются так же, как в журнале и снимках (LinkCodec)
+final class ReplicationProtocol {
+    static final byte SNAPSHOT_BEGIN = 1;
+    static final byte SNAPSHOT_END = 2;
+    static final byte LINK_CREATED = 3;
+    // Код и id: реплика удаляет ссылку, только если под кодом лежит именно она
+    static final byte LINK_DELETED = 4;
+    // Код, id ссылки и абсолютный счётчик переходов: повтор и пересечение со снимком безопасны,
+    // счётчик не попадает на новую ссылку под тем же кодом
+    static final byte CLICKS = 5;
+    static final byte HEARTBEAT = 6;
+    static final byte ACK = 7;
+    static final byte CLICK_DELTAS = 8;
+    static final byte HELLO = 9;
+
+    private static final int HEADER_SIZE = 1 + 8 + 8;
+    private static final int MAX_FRAME_SIZE = 1 << 24;
+
+    static final class Frame {
+        final byte type;
+        final long sequence;
+        final long timeMillis;
+        final ByteBuffer payload;
+
+        Frame(byte type, long sequence, long timeMillis, ByteBuffer payload) {
+            this.type = type;
+            this.sequence = sequence;
+            this.timeMillis = timeMillis;
+            this.payload = payload;
+        }
+    }
+
+    private ReplicationProtocol() {
+    }
+
+    // Кадр целиком, с длиной: один массив уходит в очереди всех реплик
+    static byte[] encode(byte type, long sequence, long timeMillis, ByteBuffer payload) {
+        int length = HEADER_SIZE + (payload != null ? payload.remaining() : 0);
+        ByteBuffer frame = ByteBuffer.allocate(4 + length);
+        frame.putInt(length).put(type).putLong(sequence).putLong(timeMillis);
+        if (payload != null) {
+            frame.put(payload);
+        }
+        return frame.array();
+    }
+
+    static ByteBuffer deletion(ShortUrl shortUrl, ByteBuffer scratch) {
+        ByteBuffer payload = scratch.clear();
+        LinkCodec.putCode(payload, shortUrl.getShortCode());
+        LinkCodec.putUuid(payload, shortUrl.getId());
+        return payload.flip();
+    }
+
+    static byte[] hello(String token) {
+        return encode(HELLO, 0, System.currentTimeMillis(),
+                ByteBuffer.wrap(token.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // Токен сравнивается за постоянное время
+    static boolean isHello(Frame frame, String token) {
+        if (frame.type != HELLO) {
+            return false;
+        }
+        byte[] received = new byte[frame.payload.remaining()];
+        frame.payload.get(received);
+        return MessageDigest.isEqual(received, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Frame read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < HEADER_SIZE || length > MAX_FRAME_SIZE) {
+            throw new IOException("❌ Повреждённый кадр репликации: длина " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte type = buffer.get();
+        long sequence = buffer.getLong();
+        long timeMillis = buffer.getLong();
+        return new Frame(type, sequence, timeMillis, buffer.slice());
+    }
+}
@@ -0,0 +1,22 @@
+package storage;
+
+// Состояние репликации узла для /replication: основной узел отвечает за все свои реплики, реплика - за себя
+public interface ReplicationStatus {
+    // primary или replica
+    String getRole();
+
+    // Реплика не принимает создание и удаление ссылок: они идут через основной узел
+    boolean isReadOnly();
+
+    // Основной узел - номер последней опубликованной записи, реплика - последней применённой
+    long getSequence();
+
+    // Основной узел - подключённые реплики, реплика - 1, если связь с основным узлом есть
+    int getConnectedCount();
+
+    // Сколько записей ещё не применено: у основного узла - худшая из реплик
+    long getLagRecords();
+
+    // На сколько миллисекунд применение отстаёт от публикации: у основного узла - худшая из реплик
+    long getLagMillis();
+}
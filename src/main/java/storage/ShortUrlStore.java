@@ -0,0 +1,68 @@
+package storage;
+
+import config.AppConfig;
+import metrics.Metrics;
+import model.ShortUrl;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface ShortUrlStore {
+    ShortUrl get(String shortCode);
+
+    // Код как часть строки, например пути запроса; реализации могут искать без substring
+    default ShortUrl get(CharSequence text, int start, int end) {
+        return get(text.subSequence(start, end).toString());
+    }
+
+    // false - кода точно нет; true - может быть, решает get
+    default boolean mightContain(CharSequence text, int start, int end) {
+        return true;
+    }
+
+    // Возвращает уже существующую ссылку с таким кодом или null, если вставка прошла
+    ShortUrl putIfAbsent(ShortUrl shortUrl);
+
+    // Пачка вставок: для каждой ссылки - то же, что вернул бы putIfAbsent
+    default ShortUrl[] putAllIfAbsent(List<ShortUrl> shortUrls) {
+        ShortUrl[] existing = new ShortUrl[shortUrls.size()];
+        for (int i = 0; i < existing.length; i++) {
+            existing[i] = putIfAbsent(shortUrls.get(i));
+        }
+        return existing;
+    }
+
+    // Удаляет ссылку, только если по коду всё ещё лежит именно она
+    boolean remove(ShortUrl shortUrl);
+
+    // Удаляет до maxEvictions ссылок, истёкших к nowMillis; onEvicted получает каждую удалённую
+    int evictExpired(long nowMillis, int maxEvictions, Consumer<ShortUrl> onEvicted);
+
+    int size();
+
+    void forEach(Consumer<ShortUrl> action);
+
+    // Вызывается после каждого засчитанного перехода
+    default void recordClick(ShortUrl shortUrl) {
+    }
+
+    // Метрики хранилища для /metrics; обёртка регистрирует свои и передаёт вызов дальше
+    default void registerMetrics(Metrics metrics) {
+    }
+
+    // heap - объекты ShortUrl в ConcurrentHashMap, compact - таблица записей со строками вне кучи,
+    // interned - то же, но куски адресов, общие для многих ссылок, хранятся в словаре один раз
+    static ShortUrlStore inMemory(AppConfig config, int initialCapacity) {
+        String engine = config.getStorageEngine();
+        switch (engine.trim().toLowerCase()) {
+            case "heap":
+                return new ConcurrentShortUrlStore(initialCapacity, config.getCleanupTickMillis());
+            case "compact":
+                return new CompactShortUrlStore(initialCapacity, config.getCleanupTickMillis());
+            case "interned":
+                return new CompactShortUrlStore(initialCapacity, config.getCleanupTickMillis(), true);
+            default:
+                throw new IllegalArgumentException("❌ Неизвестный движок хранилища: " + engine);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package storage;
+
+import model.ShortUrl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32C;
+
+// Компактный двоичный снимок: пользователи и ссылки на момент начала сегмента журнала walSequence
+final class SnapshotFile {
+    private static final int MAGIC = 0x55534E50;
+    // Версия 1 хранила время ссылок локальным, версия 2 - миллисекундами эпохи
+    private static final int VERSION = 2;
+    private static final int LOCAL_TIME_VERSION = 1;
+    private static final int END_OF_LINKS = -1;
+    private static final int BUFFER_SIZE = 1 << 22;
+    private static final int DECODE_CHUNK_SIZE = 1 << 20;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+
+    static final class Contents {
+        final long walSequence;
+        final List<UUID> users;
+        final ShortUrlStore links;
+
+        Contents(long walSequence, List<UUID> users, ShortUrlStore links) {
+            this.walSequence = walSequence;
+            this.users = users;
+            this.links = links;
+        }
+    }
+
+    private SnapshotFile() {
+    }
+
+    static Path write(Path directory, long walSequence, Collection<UUID> users, ShortUrlStore store)
+            throws IOException {
+        Path target = directory.resolve(String.format("%s%016d%s", PREFIX, walSequence, SUFFIX));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        CRC32C crc = new CRC32C();
+        long[] linkCount = new long[1];
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            ByteBuffer scratch = ByteBuffer.allocate(4096);
+            out.putInt(MAGIC).putInt(VERSION).putLong(walSequence);
+
+            List<UUID> userIds = new ArrayList<>(users);
+            out.putInt(userIds.size());
+            for (UUID userId : userIds) {
+                ensureSpace(channel, out, 16);
+                LinkCodec.putUuid(out, userId);
+            }
+
+            try {
+                store.forEach(shortUrl -> {
+                    ByteBuffer record = LinkCodec.encode(shortUrl, scratch);
+                    crc.update(record.duplicate());
+                    try {
+                        ensureSpace(channel, out, 4 + record.remaining());
+                        out.putInt(record.remaining());
+                        out.put(record);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    linkCount[0]++;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            ensureSpace(channel, out, 4 + 8 + 4);
+            out.putInt(END_OF_LINKS).putLong(linkCount[0]).putInt((int) crc.getValue());
+            drain(channel, out);
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // Переименование долговечно только вместе с каталогом: после возврата вызывающий удаляет журнал,
+        // который снимок заменил
+        forceDirectory(directory);
+        return target;
+    }
+
+    // fsync каталога: созданные и переименованные в нём файлы переживают падение. Windows не открывает
+    // каталог как файл, там запись каталога и так идёт через журнал NTFS
+    static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            if (!System.getProperty("os.name").startsWith("Windows")) {
+                throw e;
+            }
+        }
+    }
+
+    // Самый свежий снимок; ссылки загружаются в хранилище из storeFactory. Повреждённый снимок останавливает
+    // запуск: сегменты журнала до него уже удалены, и старый снимок молча потерял бы всё созданное между ними.
+    // Недописанным снимок быть не может - он появляется под своим именем только после fsync
+    static Contents readLatest(Path directory, IntFunction<ShortUrlStore> storeFactory) throws IOException {
+        List<Path> snapshots = list(directory);
+        if (snapshots.isEmpty()) {
+            return null;
+        }
+        Path latest = snapshots.get(snapshots.size() - 1);
+        try {
+            return read(latest, storeFactory);
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("❌ Снимок " + latest.getFileName() + " повреждён, восстановление остановлено: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    static void deleteOlderThan(Path directory, long walSequence) throws IOException {
+        for (Path snapshot : list(directory)) {
+            if (sequence(snapshot) < walSequence) {
+                Files.deleteIfExists(snapshot);
+            }
+        }
+    }
+
+    private static Contents read(Path path, IntFunction<ShortUrlStore> storeFactory) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE).flip();
+            in = require(channel, in, 16);
+            int version = in.getInt() == MAGIC ? in.getInt() : -1;
+            if (version != VERSION && version != LOCAL_TIME_VERSION) {
+                throw new IOException("неизвестный формат");
+            }
+            long walSequence = in.getLong();
+            int userCount = in.getInt();
+            List<UUID> users = new ArrayList<>(userCount);
+            for (int i = 0; i < userCount; i++) {
+                in = require(channel, in, 16);
+                users.add(LinkCodec.getUuid(in));
+            }
+
+            // Ёмкость с запасом, чтобы индекс не перестраивался при загрузке миллионов ссылок
+            ShortUrlStore links = storeFactory.apply(Math.max(16, (int) (channel.size() / 48)));
+            boolean localTime = version == LOCAL_TIME_VERSION;
+            long linkCount = 0;
+            CRC32C crc = new CRC32C();
+            // Записи читаются и сверяются с контрольной суммой по порядку, а разбираются и вставляются
+            // пачками в общем ForkJoinPool: на миллионах ссылок разбор и вставка - основная работа загрузки
+            Deque<ForkJoinTask<?>> decoding = new ArrayDeque<>();
+            int maxDecoding = 2 * Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+            ByteBuffer chunk = ByteBuffer.allocate(DECODE_CHUNK_SIZE);
+            try {
+                while (true) {
+                    in = require(channel, in, 4);
+                    int length = in.getInt();
+                    if (length == END_OF_LINKS) {
+                        break;
+                    }
+                    in = require(channel, in, length);
+                    ByteBuffer record = in.slice();
+                    record.limit(length);
+                    crc.update(record.duplicate());
+                    if (chunk.remaining() < 4 + length) {
+                        decoding.add(decodeLater(chunk.flip(), localTime, links));
+                        if (decoding.size() > maxDecoding) {
+                            decoding.poll().join();
+                        }
+                        chunk = ByteBuffer.allocate(Math.max(DECODE_CHUNK_SIZE, 4 + length));
+                    }
+                    chunk.putInt(length).put(record);
+                    linkCount++;
+                    in.position(in.position() + length);
+                }
+                decoding.add(decodeLater(chunk.flip(), localTime, links));
+                while (!decoding.isEmpty()) {
+                    decoding.poll().join();
+                }
+            } finally {
+                // Сбой чтения или разбора: оставшиеся пачки не должны дописывать в брошенное хранилище
+                decoding.forEach(ForkJoinTask::quietlyJoin);
+            }
+            in = require(channel, in, 12);
+            if (in.getLong() != linkCount || in.getInt() != (int) crc.getValue()) {
+                throw new IOException("не совпадает контрольная сумма");
+            }
+            return new Contents(walSequence, users, links);
+        }
+    }
+
+    private static ForkJoinTask<?> decodeLater(ByteBuffer chunk, boolean localTime, ShortUrlStore links) {
+        return ForkJoinPool.commonPool().submit(() -> {
+            while (chunk.hasRemaining()) {
+                int length = chunk.getInt();
+                ByteBuffer record = chunk.slice();
+                record.limit(length);
+                links.putIfAbsent(localTime ? LinkCodec.decodeLocalTime(record) : LinkCodec.decode(record));
+                chunk.position(chunk.position() + length);
+            }
+        });
+    }
+
+    private static ByteBuffer require(FileChannel channel, ByteBuffer in, int bytes) throws IOException {
+        if (in.remaining() >= bytes) {
+            return in;
+        }
+        ByteBuffer buffer = in;
+        if (bytes > buffer.capacity()) {
+            buffer = ByteBuffer.allocate(bytes * 2).put(in).flip();
+        }
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("снимок обрывается");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void ensureSpace(FileChannel channel, ByteBuffer out, int bytes) throws IOException {
+        if (out.remaining() < bytes) {
+            drain(channel, out);
+            if (out.remaining() < bytes) {
+                throw new IOException("запись больше буфера снимка: " + bytes + " байт");
+            }
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    static long sequence(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static List<Path> list(Path directory) {
+        List<Path> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            stream.forEach(snapshots::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        snapshots.sort((a, b) -> Long.compare(sequence(a), sequence(b)));
+        return snapshots;
+    }
+}
@@ -0,0 +1,122 @@
+package storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Строки ссылок вне кучи: куски по 1 МБ, запись - [длина][байты UTF-8], ссылка - (номер куска << 32 | смещение).
+// Кусок освобождается целиком, когда в нём не остаётся живых строк; ссылки с одним TTL
+// создаются подряд и истекают вместе, поэтому куски освобождаются без уплотнения
+final class UrlArena {
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    // Элементы меняются под монитором this; читатели обращаются только к кускам живых записей
+    private volatile ByteBuffer[] chunks = new ByteBuffer[16];
+    private int[] liveBytes = new int[16];
+    private int[] freeChunks = new int[16];
+    private int freeChunkCount;
+    private int chunkCount;
+    private int current = -1;
+    private long allocatedBytes;
+
+    synchronized long append(byte[] bytes) {
+        return append(bytes, 0, bytes.length);
+    }
+
+    synchronized long append(byte[] bytes, int from, int to) {
+        int size = 4 + to - from;
+        int chunk;
+        if (size > CHUNK_SIZE) {
+            // Длинная строка получает собственный кусок и не мешает заполнению текущего
+            chunk = newChunk(size);
+        } else {
+            if (current < 0 || chunks[current].remaining() < size) {
+                int previous = current;
+                current = newChunk(CHUNK_SIZE);
+                if (previous >= 0 && liveBytes[previous] == 0) {
+                    freeChunk(previous);
+                }
+            }
+            chunk = current;
+        }
+        ByteBuffer buffer = chunks[chunk];
+        int offset = buffer.position();
+        buffer.putInt(to - from).put(bytes, from, to - from);
+        liveBytes[chunk] += size;
+        return (long) chunk << 32 | offset;
+    }
+
+    String read(long ref) {
+        ByteBuffer chunk = chunks[(int) (ref >>> 32)];
+        int offset = (int) ref;
+        byte[] bytes = new byte[chunk.getInt(offset)];
+        chunk.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    int length(long ref) {
+        return chunks[(int) (ref >>> 32)].getInt((int) ref);
+    }
+
+    // Кусок со строкой: байты лежат с (int) ref + 4. Для разбора без копирования
+    ByteBuffer chunk(long ref) {
+        return chunks[(int) (ref >>> 32)];
+    }
+
+    // Копирует байты строки в буфер без промежуточного массива
+    void copyTo(long ref, ByteBuffer out) {
+        ByteBuffer chunk = chunks[(int) (ref >>> 32)];
+        int offset = (int) ref;
+        int length = chunk.getInt(offset);
+        out.put(out.position(), chunk, offset + 4, length);
+        out.position(out.position() + length);
+    }
+
+    synchronized void release(long ref) {
+        int chunk = (int) (ref >>> 32);
+        ByteBuffer buffer = chunks[chunk];
+        liveBytes[chunk] -= 4 + buffer.getInt((int) ref);
+        if (liveBytes[chunk] == 0 && chunk != current) {
+            freeChunk(chunk);
+        }
+    }
+
+    // Занятая вне кучи память, включая ещё не заполненный хвост текущего куска
+    synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private int newChunk(int capacity) {
+        int chunk;
+        if (freeChunkCount > 0) {
+            chunk = freeChunks[--freeChunkCount];
+        } else {
+            chunk = chunkCount++;
+            if (chunk == chunks.length) {
+                ByteBuffer[] grown = new ByteBuffer[chunks.length * 2];
+                System.arraycopy(chunks, 0, grown, 0, chunks.length);
+                chunks = grown;
+                liveBytes = ensureCapacity(liveBytes, grown.length);
+            }
+        }
+        chunks[chunk] = ByteBuffer.allocateDirect(capacity);
+        liveBytes[chunk] = 0;
+        allocatedBytes += capacity;
+        return chunk;
+    }
+
+    private void freeChunk(int chunk) {
+        allocatedBytes -= chunks[chunk].capacity();
+        chunks[chunk] = null;
+        freeChunks = ensureCapacity(freeChunks, freeChunkCount + 1);
+        freeChunks[freeChunkCount++] = chunk;
+    }
+
+    private static int[] ensureCapacity(int[] array, int capacity) {
+        if (capacity <= array.length) {
+            return array;
+        }
+        int[] grown = new int[Math.max(capacity, array.length * 2)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,311 @@
+package storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Общий словарь кусков URL для движка interned. Адрес режется на источник (схема, хост, порт), каталог пути,
+// последний сегмент и запрос; источник, каталог и запрос хранятся в словаре один раз со счётчиком ссылок,
+// а в записи ссылки остаются только их номера и уникальный хвост. Ссылки на одни хосты с одинаковыми
+// UTM-метками сводятся к номерам и короткому сегменту пути.
+// Закодированная строка: [длина заголовков][varint-заголовки частей][байты литералов подряд]. Чётный заголовок -
+// литерал длиной заголовок / 2, нечётный - номер куска в словаре. Заголовки вынесены вперёд, чтобы разбор
+// не ждал промаха кэша после каждого литерала: копии литералов друг от друга не зависят
+final class UrlDictionary {
+    // Кусок короче не интернируется: номер в словаре занял бы почти столько же, сколько сам кусок
+    private static final int MIN_INTERNED = 8;
+    private static final int SEEN_SIZE = 1 << 16;
+
+    // Куски по номеру; массивы меняются под монитором this. Кусок освобождается, только когда освобождена
+    // последняя запись с ним, а записи переиспользуются с задержкой, поэтому читатель не увидит чужой кусок
+    private volatile byte[][] values = new byte[64][];
+    private int[] counts = new int[64];
+    private int[] hashes = new int[64];
+    private int[] freeIds = new int[16];
+    private int freeIdCount;
+    private int idCount;
+    // Открытая адресация: слот -> номер + 1, 0 - пусто, -1 - надгробие
+    private int[] slots = new int[128];
+    private int used;
+    private int size;
+    private long valueBytes;
+    // Хеши недавно встреченных кусков: в словарь попадает только кусок, встреченный второй раз,
+    // иначе уникальные запросы вроде ?ref=... стоили бы записи словаря каждый
+    private final int[] seen = new int[SEEN_SIZE];
+
+    // Кодирует адрес, занимая куски в словаре; освобождает их release того же результата
+    synchronized byte[] encode(byte[] url) {
+        // Не больше семи частей по пять байт заголовка
+        byte[] headers = new byte[35];
+        int headersLength = 0;
+        byte[] literals = new byte[url.length];
+        int literalsLength = 0;
+        int literalStart = 0;
+        int originEnd = originEnd(url);
+        if (originEnd > 0) {
+            int queryStart = indexOfAny(url, originEnd, '?', '#');
+            int leafStart = originEnd;
+            for (int i = queryStart - 1; i >= originEnd; i--) {
+                if (url[i] == '/') {
+                    leafStart = i + 1;
+                    break;
+                }
+            }
+            int[] bounds = {0, originEnd, leafStart, queryStart, url.length};
+            for (int piece = 0; piece < 4; piece++) {
+                int from = bounds[piece];
+                int to = bounds[piece + 1];
+                // Последний сегмент пути почти всегда уникален и остаётся литералом
+                if (piece == 2 || to - from < MIN_INTERNED) {
+                    continue;
+                }
+                int id = intern(url, from, to);
+                if (id < 0) {
+                    continue;
+                }
+                if (from > literalStart) {
+                    headersLength = putVarint(headers, headersLength, (from - literalStart) << 1);
+                    System.arraycopy(url, literalStart, literals, literalsLength, from - literalStart);
+                    literalsLength += from - literalStart;
+                }
+                headersLength = putVarint(headers, headersLength, id << 1 | 1);
+                literalStart = to;
+            }
+        }
+        if (url.length > literalStart) {
+            headersLength = putVarint(headers, headersLength, (url.length - literalStart) << 1);
+            System.arraycopy(url, literalStart, literals, literalsLength, url.length - literalStart);
+            literalsLength += url.length - literalStart;
+        }
+        byte[] encoded = new byte[1 + headersLength + literalsLength];
+        encoded[0] = (byte) headersLength;
+        System.arraycopy(headers, 0, encoded, 1, headersLength);
+        System.arraycopy(literals, 0, encoded, 1 + headersLength, literalsLength);
+        return encoded;
+    }
+
+    // Длина адреса в байтах UTF-8; читаются только заголовки
+    int decodedLength(ByteBuffer in, int offset) {
+        byte[][] values = this.values;
+        int decoded = 0;
+        int end = offset + 1 + in.get(offset);
+        for (int header = offset + 1; header < end; ) {
+            long varint = readVarint(in, header);
+            header += (int) (varint >>> 32);
+            int part = (int) varint;
+            decoded += (part & 1) != 0 ? values[part >>> 1].length : part >>> 1;
+        }
+        return decoded;
+    }
+
+    // Собирает адрес прямо в буфер, без промежуточных массивов и строк
+    void decode(ByteBuffer in, int offset, ByteBuffer out) {
+        byte[][] values = this.values;
+        int end = offset + 1 + in.get(offset);
+        int literal = end;
+        for (int header = offset + 1; header < end; ) {
+            long varint = readVarint(in, header);
+            header += (int) (varint >>> 32);
+            int part = (int) varint;
+            if ((part & 1) != 0) {
+                out.put(values[part >>> 1]);
+            } else {
+                int length = part >>> 1;
+                out.put(out.position(), in, literal, length);
+                out.position(out.position() + length);
+                literal += length;
+            }
+        }
+    }
+
+    void decode(ByteBuffer in, int offset, byte[] out) {
+        byte[][] values = this.values;
+        int end = offset + 1 + in.get(offset);
+        int literal = end;
+        int position = 0;
+        for (int header = offset + 1; header < end; ) {
+            long varint = readVarint(in, header);
+            header += (int) (varint >>> 32);
+            int part = (int) varint;
+            if ((part & 1) != 0) {
+                byte[] value = values[part >>> 1];
+                System.arraycopy(value, 0, out, position, value.length);
+                position += value.length;
+            } else {
+                int length = part >>> 1;
+                in.get(literal, out, position, length);
+                position += length;
+                literal += length;
+            }
+        }
+    }
+
+    // Отпускает куски закодированного адреса
+    synchronized void release(ByteBuffer in, int offset) {
+        int end = offset + 1 + in.get(offset);
+        for (int header = offset + 1; header < end; ) {
+            long varint = readVarint(in, header);
+            header += (int) (varint >>> 32);
+            int part = (int) varint;
+            if ((part & 1) != 0) {
+                unref(part >>> 1);
+            }
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    // Массивы словаря и сами куски в куче
+    synchronized long bytes() {
+        return valueBytes + (long) size * 16 + (long) values.length * (8 + 4 + 4) + (long) slots.length * 4
+                + (long) SEEN_SIZE * 4;
+    }
+
+    // Номер куска в словаре; -1 - кусок встречен впервые и остаётся литералом
+    private int intern(byte[] url, int from, int to) {
+        int hash = hash(url, from, to);
+        int mask = slots.length - 1;
+        int free = -1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                break;
+            }
+            if (entry < 0) {
+                if (free < 0) {
+                    free = slot;
+                }
+                continue;
+            }
+            int id = entry - 1;
+            if (hashes[id] == hash && Arrays.equals(values[id], 0, values[id].length, url, from, to)) {
+                counts[id]++;
+                return id;
+            }
+        }
+        if (seen[hash & (SEEN_SIZE - 1)] != hash) {
+            seen[hash & (SEEN_SIZE - 1)] = hash;
+            return -1;
+        }
+        int id = allocateId();
+        values[id] = Arrays.copyOfRange(url, from, to);
+        counts[id] = 1;
+        hashes[id] = hash;
+        valueBytes += to - from;
+        size++;
+        if (free < 0) {
+            used++;
+            if (used * 2 > slots.length) {
+                rehash(slots.length * 2);
+                mask = slots.length - 1;
+            }
+            for (free = hash & mask; slots[free] > 0; free = (free + 1) & mask) {
+                // Ищем пустой слот или надгробие
+            }
+        }
+        slots[free] = id + 1;
+        return id;
+    }
+
+    private void unref(int id) {
+        if (--counts[id] > 0) {
+            return;
+        }
+        int mask = slots.length - 1;
+        int slot = hashes[id] & mask;
+        while (slots[slot] != id + 1) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = -1;
+        valueBytes -= values[id].length;
+        values[id] = null;
+        size--;
+        if (freeIdCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+        }
+        freeIds[freeIdCount++] = id;
+    }
+
+    private int allocateId() {
+        if (freeIdCount > 0) {
+            return freeIds[--freeIdCount];
+        }
+        int id = idCount++;
+        if (id == values.length) {
+            counts = Arrays.copyOf(counts, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+            values = Arrays.copyOf(values, id * 2);
+        }
+        return id;
+    }
+
+    // Надгробия выбрасываются; таблица растёт, только если живых кусков больше четверти
+    private void rehash(int capacity) {
+        int[] grown = new int[size * 4 > slots.length ? capacity : slots.length];
+        int mask = grown.length - 1;
+        for (int entry : slots) {
+            if (entry > 0) {
+                int slot = hashes[entry - 1] & mask;
+                while (grown[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                grown[slot] = entry;
+            }
+        }
+        slots = grown;
+        used = size;
+    }
+
+    // Конец схемы и хоста с портом; 0 - строка не похожа на абсолютный адрес
+    private static int originEnd(byte[] url) {
+        for (int i = 0; i + 2 < url.length && url[i] != '/' && url[i] != '?' && url[i] != '#'; i++) {
+            if (url[i] == ':' && url[i + 1] == '/' && url[i + 2] == '/') {
+                return i == 0 ? 0 : indexOfAny(url, i + 3, '/', '?', '#');
+            }
+        }
+        return 0;
+    }
+
+    private static int indexOfAny(byte[] url, int from, char... stops) {
+        for (int i = from; i < url.length; i++) {
+            for (char stop : stops) {
+                if (url[i] == stop) {
+                    return i;
+                }
+            }
+        }
+        return url.length;
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int hash = 0x811c9dc5;
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ bytes[i]) * 0x01000193;
+        }
+        return hash ^ hash >>> 16;
+    }
+
+    private static int putVarint(byte[] out, int length, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[length++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out[length++] = (byte) value;
+        return length;
+    }
+
+    // Старшие 32 бита - сколько байт заняло число, младшие - само число
+    private static long readVarint(ByteBuffer in, int offset) {
+        int value = 0;
+        int shift = 0;
+        int start = offset;
+        byte b;
+        do {
+            b = in.get(offset++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (long) (offset - start) << 32 | value;
+    }
+}
@@ -0,0 +1,288 @@
+package storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+public class WriteAheadLog implements Closeable {
+    // Заголовок записи: длина полезной нагрузки, CRC32C(тип + нагрузка), тип
+    static final int HEADER_SIZE = 9;
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long fsyncIntervalMillis;
+    private final CRC32C crc = new CRC32C();
+    private final Thread flusher;
+
+    // Поля ниже защищены монитором this
+    private long segmentSequence;
+    private MappedByteBuffer segment;
+    private int forcedFrom;
+    private boolean closed;
+
+    // Группа коммитов: все записи до durablePosition уже на диске
+    private final Object durabilityMonitor = new Object();
+    private long durablePosition;
+    private long requestedPosition;
+    // Ошибка fsync: после неё неизвестно, что из записанного дошло до диска, поэтому журнал
+    // больше не принимает записей, а sync() бросает её вместо того, чтобы ждать вечно
+    private volatile IOException failure;
+
+    public WriteAheadLog(Path directory, long firstSegmentSequence, int segmentSize, long fsyncIntervalMillis)
+            throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        Files.createDirectories(directory);
+        openSegment(firstSegmentSequence);
+        this.flusher = new Thread(this::flushLoop, "wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // Возвращает позицию конца записи; для долговечности её передают в sync()
+    public synchronized long append(byte type, ByteBuffer payload) throws IOException {
+        if (closed) {
+            throw new IOException("❌ Журнал закрыт");
+        }
+        if (failure != null) {
+            throw new IOException("❌ Журнал недоступен после ошибки записи на диск", failure);
+        }
+        int length = payload.remaining();
+        if (HEADER_SIZE + length > segmentSize - HEADER_SIZE) {
+            throw new IOException("❌ Запись не помещается в сегмент журнала: " + length + " байт");
+        }
+        if (segment.remaining() < HEADER_SIZE + length + HEADER_SIZE) {
+            rollSegment();
+        }
+        crc.reset();
+        crc.update(type);
+        crc.update(payload.duplicate());
+        segment.putInt(length);
+        segment.putInt((int) crc.getValue());
+        segment.put(type);
+        segment.put(payload);
+        return globalPosition(segmentSequence, segment.position());
+    }
+
+    // Ждёт, пока фоновый поток сбросит на диск всё до position включительно.
+    // UncheckedIOException - fsync не удался или журнал закрыт раньше, чем запись дошла до диска
+    public void sync(long position) {
+        synchronized (durabilityMonitor) {
+            if (durablePosition >= position) {
+                return;
+            }
+            if (requestedPosition < position) {
+                requestedPosition = position;
+                durabilityMonitor.notifyAll();
+            }
+            boolean interrupted = false;
+            while (durablePosition < position && failure == null && flusher.isAlive()) {
+                try {
+                    durabilityMonitor.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (durablePosition < position) {
+                throw new UncheckedIOException("❌ Запись журнала не сброшена на диск",
+                        failure != null ? failure : new IOException("❌ Журнал закрыт"));
+            }
+        }
+    }
+
+    // Начинает новый сегмент; всё, что записано до него, попадает в сегменты с меньшими номерами
+    public synchronized long rollSegment() throws IOException {
+        forceCurrent();
+        openSegment(segmentSequence + 1);
+        return segmentSequence;
+    }
+
+    public synchronized long currentSegmentSequence() {
+        return segmentSequence;
+    }
+
+    public void deleteSegmentsBefore(long sequence) throws IOException {
+        for (Path path : listSegments(directory)) {
+            if (segmentSequence(path) < sequence) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            forceCurrent();
+        }
+        flusher.interrupt();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            synchronized (durabilityMonitor) {
+                try {
+                    // Спим интервал группировки, sync() будит раньше. Пока идёт fsync,
+                    // новые записи копятся и уходят на диск следующей группой
+                    if (requestedPosition <= durablePosition) {
+                        durabilityMonitor.wait(fsyncIntervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    durabilityMonitor.notifyAll();
+                    return;
+                }
+            }
+            // Под монитором только снимаются границы: сам fsync идёт без него, и append не ждёт диск
+            MappedByteBuffer target;
+            long sequence;
+            int from;
+            int to;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                target = segment;
+                sequence = segmentSequence;
+                from = forcedFrom;
+                to = segment.position();
+            }
+            try {
+                if (to > from) {
+                    // Записи до to уже целиком в отображении: append вернул управление под тем же монитором.
+                    // Если сегмент тем временем сменился, rollSegment уже сбросил его целиком
+                    target.force(from, to - from);
+                }
+                synchronized (this) {
+                    if (segmentSequence == sequence && forcedFrom < to) {
+                        forcedFrom = to;
+                    }
+                }
+                publishDurable(globalPosition(sequence, to));
+            } catch (UncheckedIOException e) {
+                System.err.println("❌ Не удалось сбросить журнал на диск: " + e.getMessage());
+                synchronized (durabilityMonitor) {
+                    failure = e.getCause();
+                    durabilityMonitor.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    // Вызывается под монитором this: при смене сегмента и закрытии
+    private void forceCurrent() throws IOException {
+        int position = segment.position();
+        if (position > forcedFrom) {
+            segment.force(forcedFrom, position - forcedFrom);
+            forcedFrom = position;
+        }
+        publishDurable(globalPosition(segmentSequence, position));
+    }
+
+    private void publishDurable(long position) {
+        synchronized (durabilityMonitor) {
+            if (position > durablePosition) {
+                durablePosition = position;
+                durabilityMonitor.notifyAll();
+            }
+        }
+    }
+
+    private void openSegment(long sequence) throws IOException {
+        Path path = directory.resolve(segmentName(sequence));
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+             FileChannel channel = file.getChannel()) {
+            file.setLength(segmentSize);
+            // Отображение остаётся валидным и после закрытия канала
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        // Иначе после падения мог бы пропасть сам файл сегмента вместе со сброшенными в него записями
+        SnapshotFile.forceDirectory(directory);
+        segmentSequence = sequence;
+        forcedFrom = 0;
+    }
+
+    private long globalPosition(long sequence, int offset) {
+        return sequence * segmentSize + offset;
+    }
+
+    static String segmentName(long sequence) {
+        return String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX);
+    }
+
+    static long segmentSequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        }
+        segments.sort((a, b) -> Long.compare(segmentSequence(a), segmentSequence(b)));
+        return segments;
+    }
+
+    public interface RecordVisitor {
+        void visit(byte type, ByteBuffer payload) throws IOException;
+    }
+
+    // Читает сегмент до первой пустой или повреждённой записи (оборванный хвост после падения)
+    static boolean replaySegment(Path path, RecordVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32C checksum = new CRC32C();
+            while (buffer.remaining() >= HEADER_SIZE) {
+                int length = buffer.getInt();
+                int expectedCrc = buffer.getInt();
+                byte type = buffer.get();
+                if (length == 0 && type == 0) {
+                    return true;
+                }
+                if (length < 0 || length > buffer.remaining()) {
+                    return false;
+                }
+                ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                checksum.reset();
+                checksum.update(type);
+                checksum.update(payload.duplicate());
+                if ((int) checksum.getValue() != expectedCrc) {
+                    return false;
+                }
+                visitor.visit(type, payload);
+                buffer.position(buffer.position() + length);
+            }
+            return true;
+        }
+    }
+}
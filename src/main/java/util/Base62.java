@@ -0,0 +1,60 @@
+package util;
+
+public final class Base62 {
+    public static final int RADIX = 62;
+    public static final int MAX_LONG_LENGTH = 10;
+
+    private static final char[] ALPHABET =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final long[] POWERS = new long[MAX_LONG_LENGTH + 1];
+
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = POWERS[i - 1] * RADIX;
+        }
+    }
+
+    private Base62() {
+    }
+
+    // Количество различных кодов длины length (до 10 символов помещается в long)
+    public static long space(int length) {
+        if (length < 1 || length > MAX_LONG_LENGTH) {
+            throw new IllegalArgumentException("❌ Длина кода base62 должна быть от 1 до " + MAX_LONG_LENGTH);
+        }
+        return POWERS[length];
+    }
+
+    public static char digit(int value) {
+        return ALPHABET[value];
+    }
+
+    // Обратное к digit; -1 - символ не из алфавита
+    public static int valueOf(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A' + 10;
+        }
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 36;
+        }
+        return -1;
+    }
+
+    // Пишет value фиксированной ширины с ведущими нулями, без промежуточных строк
+    public static void encode(long value, char[] out, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            out[i] = ALPHABET[(int) (value % RADIX)];
+            value /= RADIX;
+        }
+    }
+
+    public static String encode(long value, int length) {
+        char[] out = new char[length];
+        encode(value, out, 0, length);
+        return new String(out);
+    }
+}
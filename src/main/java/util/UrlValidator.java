@@ -1,15 +1,363 @@
 package util;
 
-import java.net.MalformedURLException;
-import java.net.URL;
-
+// Проверка и канонический вид адресов за один проход по символам: без java.net.URL, исключений и выделения памяти.
+// Принимаются только http и https с хостом - доменным именем (в том числе IDN), IPv4 или IPv6 в скобках,
+// без логина в адресе (https://bank.com@evil.example) и не длиннее MAX_LENGTH
 public class UrlValidator {
-    public static boolean isValidUrl(String url) {
-        try {
-            new URL(url);
-            return true;
-        } catch (MalformedURLException e) {
+    // Столько без проблем проходит через браузеры и прокси
+    public static final int MAX_LENGTH = 2048;
+
+    private static final int MAX_HOST_LENGTH = 253;
+    private static final int MAX_LABEL_LENGTH = 63;
+
+    public static boolean isValidUrl(CharSequence url) {
+        if (url == null || url.length() > MAX_LENGTH) {
+            return false;
+        }
+        int authorityStart = authorityStart(url);
+        return authorityStart > 0 && isPath(url, authorityEnd(url, authorityStart));
+    }
+
+    // Канонический вид для дедупликации: схема и хост в нижнем регистре, без порта по умолчанию, точки в конце хоста
+    // и фрагмента, пустой путь - "/", %-последовательности в верхнем регистре. Уже канонический адрес
+    // возвращается тем же объектом; невалидный - как есть
+    public static String normalize(String url) {
+        if (!isValidUrl(url)) {
+            return url;
+        }
+        int authorityStart = authorityStart(url);
+        int authorityEnd = authorityEnd(url, authorityStart);
+        int hostEnd = hostEnd(url, authorityStart, authorityEnd);
+        boolean https = authorityStart == 8;
+        boolean defaultPort = hostEnd < authorityEnd && isDefaultPort(url, hostEnd + 1, authorityEnd, https);
+        int fragment = indexOf(url, '#', authorityEnd);
+        int end = fragment >= 0 ? fragment : url.length();
+        boolean canonical = fragment < 0 && !defaultPort && authorityEnd < url.length()
+                && url.charAt(authorityEnd) == '/' && url.charAt(hostEnd - 1) != '.';
+        for (int i = 0; canonical && i < hostEnd; i++) {
+            canonical = lower(url.charAt(i)) == url.charAt(i);
+        }
+        for (int i = authorityEnd; canonical && i < end; i++) {
+            canonical = url.charAt(i) != '%' || isCanonicalEscape(url, i);
+        }
+        if (canonical) {
+            return url;
+        }
+
+        StringBuilder out = new StringBuilder(end + 1);
+        for (int i = 0; i < authorityStart; i++) {
+            out.append(lower(url.charAt(i)));
+        }
+        int host = url.charAt(hostEnd - 1) == '.' && url.charAt(authorityStart) != '[' ? hostEnd - 1 : hostEnd;
+        for (int i = authorityStart; i < host; i++) {
+            out.append(lower(url.charAt(i)));
+        }
+        if (!defaultPort) {
+            out.append(url, hostEnd, authorityEnd);
+        }
+        if (authorityEnd == end || url.charAt(authorityEnd) != '/') {
+            out.append('/');
+        }
+        for (int i = authorityEnd; i < end; i++) {
+            char c = url.charAt(i);
+            out.append(c);
+            if (c == '%') {
+                out.append(Character.toUpperCase(url.charAt(i + 1))).append(Character.toUpperCase(url.charAt(i + 2)));
+                i += 2;
+            }
+        }
+        return out.toString();
+    }
+
+    // Начало хоста после "http://" или "https://" (схема без учёта регистра), если хост и порт корректны; иначе -1
+    private static int authorityStart(CharSequence url) {
+        int start;
+        if (startsWithIgnoreCase(url, "https://")) {
+            start = 8;
+        } else if (startsWithIgnoreCase(url, "http://")) {
+            start = 7;
+        } else {
+            return -1;
+        }
+        int end = authorityEnd(url, start);
+        int hostEnd = hostEnd(url, start, end);
+        if (hostEnd < 0) {
+            return -1;
+        }
+        if (hostEnd < end && !isPort(url, hostEnd + 1, end)) {
+            return -1;
+        }
+        boolean valid = url.charAt(start) == '['
+                ? hostEnd > start + 2 && url.charAt(hostEnd - 1) == ']' && isIpv6(url, start + 1, hostEnd - 1)
+                : isHostName(url, start, hostEnd);
+        return valid ? start : -1;
+    }
+
+    // Путь, запрос и фрагмент: без пробелов и управляющих символов, % только с двумя hex-цифрами.
+    // Остальное принимается как есть - в том числе не-ASCII пути (IRI)
+    private static boolean isPath(CharSequence url, int start) {
+        for (int i = start; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c <= ' ' || c == 0x7F || c >= 0x80 && c <= 0x9F || Character.isWhitespace(c)) {
+                return false;
+            }
+            if (c == '%') {
+                if (i + 2 >= url.length() || hex(url.charAt(i + 1)) < 0 || hex(url.charAt(i + 2)) < 0) {
+                    return false;
+                }
+                i += 2;
+            }
+        }
+        return true;
+    }
+
+    private static int authorityEnd(CharSequence url, int start) {
+        for (int i = start; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                return i;
+            }
+        }
+        return url.length();
+    }
+
+    // Конец хоста: перед двоеточием порта или конец authority; -1 - логин или пустой хост
+    private static int hostEnd(CharSequence url, int start, int end) {
+        if (start == end) {
+            return -1;
+        }
+        int i = start;
+        if (url.charAt(start) == '[') {
+            i = indexOf(url, ']', start);
+            if (i < 0 || i >= end) {
+                return -1;
+            }
+        }
+        for (; i < end; i++) {
+            char c = url.charAt(i);
+            if (c == '@') {
+                return -1;
+            }
+            if (c == ':') {
+                return i == start ? -1 : i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean isPort(CharSequence url, int start, int end) {
+        if (start == end || end - start > 5) {
+            return false;
+        }
+        int port = 0;
+        for (int i = start; i < end; i++) {
+            char c = url.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            port = port * 10 + c - '0';
+        }
+        return port >= 1 && port <= 65535;
+    }
+
+    private static boolean isDefaultPort(CharSequence url, int start, int end, boolean https) {
+        int port = 0;
+        for (int i = start; i < end; i++) {
+            port = port * 10 + url.charAt(i) - '0';
+        }
+        return port == (https ? 443 : 80);
+    }
+
+    // Метки через точку (одна точка в конце допустима): буквы, цифры и дефис не по краям, до 63 символов,
+    // всего до 253. Не-ASCII буквы и цифры - IDN в Unicode; xn-- метки проходят как обычные.
+    // Хост из одних цифр с точками - IPv4, каждая часть до 255
+    private static boolean isHostName(CharSequence url, int start, int end) {
+        if (end > start && url.charAt(end - 1) == '.') {
+            end--;
+        }
+        if (end == start || end - start > MAX_HOST_LENGTH) {
+            return false;
+        }
+        boolean numeric = true;
+        int labels = 0;
+        int labelStart = start;
+        for (int i = start; i <= end; i++) {
+            char c = i < end ? url.charAt(i) : '.';
+            if (c == '.') {
+                int length = i - labelStart;
+                if (length == 0 || length > MAX_LABEL_LENGTH
+                        || url.charAt(labelStart) == '-' || url.charAt(i - 1) == '-') {
+                    return false;
+                }
+                labels++;
+                labelStart = i + 1;
+            } else if (c >= '0' && c <= '9') {
+                continue;
+            } else if (c < 0x80 ? isAsciiLetter(c) || c == '-' : isIdnChar(url, i)) {
+                numeric = false;
+                if (Character.isHighSurrogate(c)) {
+                    i++;
+                }
+            } else {
+                return false;
+            }
+        }
+        return !numeric || labels == 4 && isIpv4(url, start, end);
+    }
+
+    private static boolean isIdnChar(CharSequence url, int i) {
+        char c = url.charAt(i);
+        if (Character.isHighSurrogate(c)) {
+            if (i + 1 >= url.length() || !Character.isLowSurrogate(url.charAt(i + 1))) {
+                return false;
+            }
+            int codePoint = Character.toCodePoint(c, url.charAt(i + 1));
+            return Character.isLetterOrDigit(codePoint);
+        }
+        int type = Character.getType(c);
+        // Буквы, цифры и комбинируемые знаки (ударения в деванагари, тайском и т. п.)
+        return Character.isLetterOrDigit(c) || type == Character.NON_SPACING_MARK
+                || type == Character.COMBINING_SPACING_MARK;
+    }
+
+    private static boolean isIpv4(CharSequence url, int start, int end) {
+        int value = 0;
+        int digits = 0;
+        for (int i = start; i <= end; i++) {
+            char c = i < end ? url.charAt(i) : '.';
+            if (c == '.') {
+                if (digits == 0 || value > 255) {
+                    return false;
+                }
+                value = 0;
+                digits = 0;
+            } else {
+                // Ведущие нули - восьмеричная запись у части клиентов, такие адреса не принимаются
+                if (digits == 1 && value == 0 || digits == 3) {
+                    return false;
+                }
+                value = value * 10 + c - '0';
+                digits++;
+            }
+        }
+        return true;
+    }
+
+    // До восьми групп по 1-4 hex-цифры, одно "::" вместо нулевых групп, в конце допустим IPv4.
+    // Зона (%25eth0) не принимается: в короткой ссылке она бессмысленна
+    private static boolean isIpv6(CharSequence url, int start, int end) {
+        int groups = 0;
+        boolean compressed = false;
+        int i = start;
+        if (i + 1 < end && url.charAt(i) == ':' && url.charAt(i + 1) == ':') {
+            compressed = true;
+            i += 2;
+        }
+        while (i < end) {
+            int groupStart = i;
+            while (i < end && hex(url.charAt(i)) >= 0) {
+                i++;
+            }
+            if (i < end && url.charAt(i) == '.') {
+                // Хвост IPv4 занимает две группы и должен быть последним
+                int dotted = i;
+                while (dotted < end && url.charAt(dotted) != ':') {
+                    dotted++;
+                }
+                if (dotted != end || !isIpv4Tail(url, groupStart, end)) {
+                    return false;
+                }
+                groups += 2;
+                break;
+            }
+            int length = i - groupStart;
+            if (length == 0 || length > 4) {
+                return false;
+            }
+            groups++;
+            if (i == end) {
+                break;
+            }
+            if (url.charAt(i) != ':') {
+                return false;
+            }
+            i++;
+            if (i < end && url.charAt(i) == ':') {
+                if (compressed) {
+                    return false;
+                }
+                compressed = true;
+                i++;
+            } else if (i == end) {
+                return false;
+            }
+        }
+        return compressed ? groups < 8 : groups == 8;
+    }
+
+    private static boolean isIpv4Tail(CharSequence url, int start, int end) {
+        int dots = 0;
+        for (int i = start; i < end; i++) {
+            char c = url.charAt(i);
+            if (c == '.') {
+                dots++;
+            } else if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return dots == 3 && isIpv4(url, start, end);
+    }
+
+    private static boolean isCanonicalEscape(CharSequence url, int i) {
+        return !isLowerHexLetter(url.charAt(i + 1)) && !isLowerHexLetter(url.charAt(i + 2));
+    }
+
+    private static boolean isLowerHexLetter(char c) {
+        return c >= 'a' && c <= 'f';
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+
+    private static char lower(char c) {
+        if (c < 0x80) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.isSurrogate(c) ? c : Character.toLowerCase(c);
+    }
+
+    private static int hex(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static boolean startsWithIgnoreCase(CharSequence url, String prefix) {
+        if (url.length() < prefix.length()) {
             return false;
         }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (lower(url.charAt(i)) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence url, char c, int from) {
+        for (int i = from; i < url.length(); i++) {
+            if (url.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
     }
-}
\ No newline at end of file
+}